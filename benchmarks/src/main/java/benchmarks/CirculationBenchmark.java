@@ -0,0 +1,120 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+package benchmarks;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+/**
+ * Issues, returns and renews books, and places and processes holds.
+ * An operation that changes the state of a book is measured together with
+ * the one that undoes it, so that the library is the same after every
+ * invocation and the measurement does not run out of books to issue.
+ * A number of books are out on loan for the whole trial, to be renewed
+ * and held.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class CirculationBenchmark {
+  private static final int LOANS = 64;
+  private Object library;
+  private String[] shelf;
+  private String[] loans;
+  private String[] borrowers;
+  private String[] memberIds;
+  private int nextBook;
+  private int nextLoan;
+  private int nextMember;
+  /**
+   * Lends out the books to be renewed and held, and takes the other
+   * books and the members in a random order
+   * @param state the library
+   */
+  @Setup(Level.Trial)
+  public void setUp(LibraryState state) {
+    library = state.library;
+    String[] bookIds = LibraryState.shuffle(state.bookIds);
+    memberIds = LibraryState.shuffle(state.memberIds);
+    int lent = Math.min(LOANS, bookIds.length / 2);
+    loans = Arrays.copyOf(bookIds, lent);
+    shelf = Arrays.copyOfRange(bookIds, lent, bookIds.length);
+    borrowers = new String[lent];
+    for (int index = 0; index < lent; index++) {
+      borrowers[index] = memberIds[index % memberIds.length];
+      if (LibraryHandles.issueBook(library, borrowers[index], loans[index]) == null) {
+        throw new IllegalStateException("could not issue " + loans[index]);
+      }
+    }
+  }
+  /**
+   * Library.issueBook followed by Library.returnBook
+   * @return the result of the return
+   */
+  @Benchmark
+  public int issueAndReturn() {
+    if (++nextBook == shelf.length) {
+      nextBook = 0;
+    }
+    LibraryHandles.issueBook(library, nextMember(), shelf[nextBook]);
+    return LibraryHandles.returnBook(library, shelf[nextBook]);
+  }
+  /**
+   * Library.renewBook by the borrower
+   * @return the book
+   */
+  @Benchmark
+  public Object renew() {
+    if (++nextLoan == loans.length) {
+      nextLoan = 0;
+    }
+    return LibraryHandles.renewBook(library, loans[nextLoan], borrowers[nextLoan]);
+  }
+  /**
+   * Library.placeHold by a member other than the borrower, followed by
+   * Library.processHold
+   * @return the member to be notified
+   */
+  @Benchmark
+  public Object placeAndProcessHold() {
+    if (++nextLoan == loans.length) {
+      nextLoan = 0;
+    }
+    String memberId = nextMember();
+    if (memberId.equals(borrowers[nextLoan])) {
+      memberId = nextMember();
+    }
+    LibraryHandles.placeHold(library, memberId, loans[nextLoan], 7);
+    return LibraryHandles.processHold(library, loans[nextLoan]);
+  }
+  /*
+   * Returns the next member in the random order
+   */
+  private String nextMember() {
+    if (++nextMember == memberIds.length) {
+      nextMember = 0;
+    }
+    return memberIds[nextMember];
+  }
+}
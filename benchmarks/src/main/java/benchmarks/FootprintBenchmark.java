@@ -0,0 +1,207 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+package benchmarks;
+
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+/**
+ * Measures what a transaction and a hold cost in memory, against the
+ * records of earlier versions, which kept a GregorianCalendar in every
+ * transaction and hold. Before the benchmarks run, a few hundred thousand
+ * records of each kind are kept alive and the heap and direct memory they
+ * retain is printed per record. The benchmarks create one record each;
+ * run them with -prof gc, and gc.alloc.rate.norm is the number of bytes
+ * allocated on the heap per record.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class FootprintBenchmark {
+  private static final int RECORDS = 1 << 18;
+  private static final int BOOKS = 1000;
+  private static final String ISSUED = "Book issued ";
+  private String[] bookIds = new String[BOOKS];
+  private String[] titles = new String[BOOKS];
+  private Object member;
+  private Object[] books = new Object[BOOKS];
+  private int nextBook;
+  private long time = System.currentTimeMillis();
+  /**
+   * A transaction as earlier versions kept it
+   */
+  static class CalendarTransaction {
+    private String type;
+    private String title;
+    private Calendar date;
+    /**
+     * Creates the transaction with the current date
+     * @param type the type of transaction
+     * @param title the title of the book
+     */
+    CalendarTransaction(String type, String title) {
+      this.type = type;
+      this.title = title;
+      date = new GregorianCalendar();
+      date.setTimeInMillis(System.currentTimeMillis());
+    }
+  }
+  /**
+   * A hold as earlier versions kept it
+   */
+  static class CalendarHold {
+    private Object book;
+    private Object member;
+    private Calendar date;
+    /**
+     * Creates the hold, valid for a number of days from now
+     * @param member who places the hold
+     * @param book the book on which the hold is placed
+     * @param duration for how many days the hold is valid
+     */
+    CalendarHold(Object member, Object book, int duration) {
+      this.book = book;
+      this.member = member;
+      date = new GregorianCalendar();
+      date.setTimeInMillis(System.currentTimeMillis());
+      date.add(Calendar.DATE, duration);
+    }
+  }
+  /**
+   * Creates the books and the member that the records refer to, and
+   * prints the memory that each kind of record retains
+   */
+  @Setup(Level.Trial)
+  public void setUp() {
+    LibraryHandles.forget();
+    for (int index = 0; index < BOOKS; index++) {
+      bookIds[index] = "B" + index;
+      titles[index] = "Title " + index;
+      books[index] = LibraryHandles.newBook(titles[index], "Author " + index, bookIds[index]);
+    }
+    member = LibraryHandles.newMember("Member", "Address", "555-0000");
+    Object[] records = new Object[RECORDS];
+    long used = usedMemory();
+    for (int index = 0; index < RECORDS; index++) {
+      LibraryHandles.appendTransaction(1, bookIds[index % BOOKS], titles[index % BOOKS],
+          (byte) 0, time + index);
+    }
+    used = print("transaction", used);
+    for (int index = 0; index < RECORDS; index++) {
+      records[index] = new CalendarTransaction(ISSUED, titles[index % BOOKS]);
+    }
+    used = print("calendar transaction", used);
+    Arrays.fill(records, null);
+    used = usedMemory();
+    for (int index = 0; index < RECORDS; index++) {
+      records[index] = LibraryHandles.newHold(member, books[index % BOOKS], 30);
+    }
+    used = print("hold", used);
+    Arrays.fill(records, null);
+    used = usedMemory();
+    for (int index = 0; index < RECORDS; index++) {
+      records[index] = new CalendarHold(member, books[index % BOOKS], 30);
+    }
+    print("calendar hold", used);
+    LibraryHandles.forget();
+  }
+  /*
+   * Prints the memory taken since the given amount was in use, per record,
+   * and returns the amount in use now
+   */
+  private static long print(String kind, long before) {
+    long used = usedMemory();
+    System.out.println(kind + ": " + (used - before) / RECORDS + " bytes per record");
+    return used;
+  }
+  /*
+   * Returns the heap and direct memory in use once garbage is collected
+   */
+  private static long usedMemory() {
+    Runtime runtime = Runtime.getRuntime();
+    long used = Long.MAX_VALUE;
+    for (int collection = 0; collection < 5; collection++) {
+      System.gc();
+      used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+    }
+    Iterator pools = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).iterator();
+    while (pools.hasNext()) {
+      BufferPoolMXBean pool = (BufferPoolMXBean) pools.next();
+      if (pool.getName().equals("direct")) {
+        used += pool.getMemoryUsed();
+      }
+    }
+    return used;
+  }
+  /**
+   * Drops the transactions appended during an iteration
+   */
+  @TearDown(Level.Iteration)
+  public void drop() {
+    LibraryHandles.forget();
+  }
+  /*
+   * Returns the number of the book for the next record
+   */
+  private int nextBook() {
+    if (++nextBook == BOOKS) {
+      nextBook = 0;
+    }
+    return nextBook;
+  }
+  /**
+   * TransactionStore.append
+   * @return the record number
+   */
+  @Benchmark
+  public long transaction() {
+    int book = nextBook();
+    return LibraryHandles.appendTransaction(1, bookIds[book], titles[book], (byte) 0, ++time);
+  }
+  /**
+   * A transaction with a GregorianCalendar, as earlier versions created it
+   * @return the transaction
+   */
+  @Benchmark
+  public Object calendarTransaction() {
+    return new CalendarTransaction(ISSUED, titles[nextBook()]);
+  }
+  /**
+   * The constructor of Hold
+   * @return the hold
+   */
+  @Benchmark
+  public Object hold() {
+    return LibraryHandles.newHold(member, books[nextBook()], 30);
+  }
+  /**
+   * A hold with a GregorianCalendar, as earlier versions created it
+   * @return the hold
+   */
+  @Benchmark
+  public Object calendarHold() {
+    return new CalendarHold(member, books[nextBook()], 30);
+  }
+}
@@ -0,0 +1,518 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+package benchmarks;
+
+import java.lang.invoke.*;
+import java.lang.reflect.*;
+import java.util.*;
+import java.io.*;
+/**
+ * Calls into the library application. Its classes are in the default
+ * package, which cannot be imported from here, and JMH does not accept
+ * benchmarks in the default package; so the methods are looked up once,
+ * as constant method handles, which the compiler inlines like direct
+ * calls. Books, members and the library are passed around as Objects.
+ *
+ */
+final class LibraryHandles {
+  static final String[] DATA_FILES = {"LibraryData", "LibraryData.tmp", "LibraryJournal",
+      "LibraryJournal.retired", "LibraryIds"};
+  private static final String[] SINGLETONS = {"Library", "library", "Catalog", "catalog",
+      "MemberList", "memberList", "MemberIdServer", "server", "TransactionStore", "store"};
+  private static final MethodHandle INSTANCE;
+  private static final MethodHandle ADD_BOOK;
+  private static final MethodHandle ADD_MEMBER;
+  private static final MethodHandle MEMBER_ID;
+  private static final MethodHandle ISSUE_BOOK;
+  private static final MethodHandle RETURN_BOOK;
+  private static final MethodHandle RENEW_BOOK;
+  private static final MethodHandle PLACE_HOLD;
+  private static final MethodHandle PROCESS_HOLD;
+  private static final MethodHandle SAVE;
+  private static final MethodHandle SAVE_SERIALIZED;
+  private static final MethodHandle RETRIEVE;
+  private static final MethodHandle CLOSE_JOURNAL;
+  private static final MethodHandle CATALOG;
+  private static final MethodHandle SEARCH_BOOK;
+  private static final MethodHandle NEW_BOOK;
+  private static final MethodHandle INSERT_BOOK;
+  private static final MethodHandle MEMBER_LIST;
+  private static final MethodHandle SEARCH_MEMBER;
+  private static final MethodHandle NEW_MEMBER;
+  private static final MethodHandle INSERT_MEMBER;
+  private static final MethodHandle TRANSACTIONS_ON_DATE;
+  private static final MethodHandle TRANSACTIONS;
+  private static final MethodHandle NEW_HOLD;
+  private static final MethodHandle TRANSACTION_STORE;
+  private static final MethodHandle APPEND_TRANSACTION;
+  private static final MethodHandle NEW_SERVER;
+  private static final MethodHandle START_SERVER;
+  private static final MethodHandle SERVER_PORT;
+  private static final MethodHandle CLOSE_SERVER;
+  static {
+    try {
+      MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+      Class library = Class.forName("Library");
+      Class book = Class.forName("Book");
+      Class member = Class.forName("Member");
+      Class catalog = Class.forName("Catalog");
+      Class memberList = Class.forName("MemberList");
+      INSTANCE = lookup.findStatic(library, "instance", MethodType.methodType(library));
+      ADD_BOOK = lookup.findVirtual(library, "addBook",
+          MethodType.methodType(book, String.class, String.class, String.class));
+      ADD_MEMBER = lookup.findVirtual(library, "addMember",
+          MethodType.methodType(member, String.class, String.class, String.class));
+      MEMBER_ID = lookup.findVirtual(member, "getId", MethodType.methodType(String.class));
+      ISSUE_BOOK = lookup.findVirtual(library, "issueBook",
+          MethodType.methodType(book, String.class, String.class));
+      RETURN_BOOK = lookup.findVirtual(library, "returnBook",
+          MethodType.methodType(int.class, String.class));
+      RENEW_BOOK = lookup.findVirtual(library, "renewBook",
+          MethodType.methodType(book, String.class, String.class));
+      PLACE_HOLD = lookup.findVirtual(library, "placeHold",
+          MethodType.methodType(int.class, String.class, String.class, int.class));
+      PROCESS_HOLD = lookup.findVirtual(library, "processHold",
+          MethodType.methodType(member, String.class));
+      SAVE = lookup.findStatic(library, "save", MethodType.methodType(boolean.class));
+      SAVE_SERIALIZED = lookup.findStatic(Class.forName("SerializedData"), "save",
+          MethodType.methodType(boolean.class, File.class));
+      RETRIEVE = lookup.findStatic(library, "retrieve", MethodType.methodType(library, boolean.class));
+      CLOSE_JOURNAL = lookup.findVirtual(library, "closeJournal", MethodType.methodType(void.class));
+      CATALOG = lookup.findStatic(catalog, "instance", MethodType.methodType(catalog));
+      SEARCH_BOOK = lookup.findVirtual(catalog, "search", MethodType.methodType(book, String.class));
+      NEW_BOOK = lookup.findConstructor(book,
+          MethodType.methodType(void.class, String.class, String.class, String.class));
+      INSERT_BOOK = lookup.findVirtual(catalog, "insertBook", MethodType.methodType(boolean.class, book));
+      MEMBER_LIST = lookup.findStatic(memberList, "instance", MethodType.methodType(memberList));
+      SEARCH_MEMBER = lookup.findVirtual(memberList, "search",
+          MethodType.methodType(member, String.class));
+      NEW_MEMBER = lookup.findConstructor(member,
+          MethodType.methodType(void.class, String.class, String.class, String.class));
+      INSERT_MEMBER = lookup.findVirtual(memberList, "insertMember",
+          MethodType.methodType(boolean.class, member));
+      TRANSACTIONS_ON_DATE = lookup.findVirtual(member, "getTransactions",
+          MethodType.methodType(Iterator.class, Calendar.class));
+      TRANSACTIONS = lookup.findVirtual(member, "getTransactions",
+          MethodType.methodType(Iterator.class));
+      NEW_HOLD = lookup.findConstructor(Class.forName("Hold"),
+          MethodType.methodType(void.class, member, book, int.class));
+      Class store = Class.forName("TransactionStore");
+      TRANSACTION_STORE = lookup.findStatic(store, "instance", MethodType.methodType(store));
+      APPEND_TRANSACTION = lookup.findVirtual(store, "append", MethodType.methodType(long.class,
+          int.class, String.class, String.class, byte.class, long.class, long.class));
+      Class server = Class.forName("LibraryServer");
+      NEW_SERVER = lookup.findConstructor(server, MethodType.methodType(void.class, library, int.class));
+      START_SERVER = lookup.findVirtual(server, "start", MethodType.methodType(Thread.class));
+      SERVER_PORT = lookup.findVirtual(server, "getPort", MethodType.methodType(int.class));
+      CLOSE_SERVER = lookup.findVirtual(server, "close", MethodType.methodType(void.class));
+    } catch(ReflectiveOperationException roe) {
+      throw new ExceptionInInitializerError(roe);
+    }
+  }
+  private LibraryHandles() {
+  }
+  /**
+   * Returns the library, creating an empty one if there is none
+   * @return the library
+   */
+  static Object instance() {
+    try {
+      return INSTANCE.invoke();
+    } catch(Throwable throwable) {
+      throw failure(throwable);
+    }
+  }
+  /**
+   * Adds a book
+   * @param library the library
+   * @param title title of the book
+   * @param author author of the book
+   * @param id id of the book
+   * @return the book, or null if the id was taken
+   */
+  static Object addBook(Object library, String title, String author, String id) {
+    try {
+      return ADD_BOOK.invoke(library, title, author, id);
+    } catch(Throwable throwable) {
+      throw failure(throwable);
+    }
+  }
+  /**
+   * Adds a member
+   * @param library the library
+   * @param name name of the member
+   * @param address address of the member
+   * @param phone phone number of the member
+   * @return the id given to the member
+   */
+  static String addMember(Object library, String name, String address, String phone) {
+    try {
+      return (String) MEMBER_ID.invoke(ADD_MEMBER.invoke(library, name, address, phone));
+    } catch(Throwable throwable) {
+      throw failure(throwable);
+    }
+  }
+  /**
+   * Issues a book
+   * @param library the library
+   * @param memberId id of the borrower
+   * @param bookId id of the book
+   * @return the book, or null if it could not be issued
+   */
+  static Object issueBook(Object library, String memberId, String bookId) {
+    try {
+      return ISSUE_BOOK.invoke(library, memberId, bookId);
+    } catch(Throwable throwable) {
+      throw failure(throwable);
+    }
+  }
+  /**
+   * Returns a book
+   * @param library the library
+   * @param bookId id of the book
+   * @return the result code
+   */
+  static int returnBook(Object library, String bookId) {
+    try {
+      return (int) RETURN_BOOK.invoke(library, bookId);
+    } catch(Throwable throwable) {
+      throw failure(throwable);
+    }
+  }
+  /**
+   * Renews a book
+   * @param library the library
+   * @param bookId id of the book
+   * @param memberId id of the borrower
+   * @return the book, or null if it could not be renewed
+   */
+  static Object renewBook(Object library, String bookId, String memberId) {
+    try {
+      return RENEW_BOOK.invoke(library, bookId, memberId);
+    } catch(Throwable throwable) {
+      throw failure(throwable);
+    }
+  }
+  /**
+   * Places a hold
+   * @param library the library
+   * @param memberId id of the member
+   * @param bookId id of the book
+   * @param duration days the hold is valid
+   * @return the result code
+   */
+  static int placeHold(Object library, String memberId, String bookId, int duration) {
+    try {
+      return (int) PLACE_HOLD.invoke(library, memberId, bookId, duration);
+    } catch(Throwable throwable) {
+      throw failure(throwable);
+    }
+  }
+  /**
+   * Processes the next hold on a book
+   * @param library the library
+   * @param bookId id of the book
+   * @return the member to be notified, or null
+   */
+  static Object processHold(Object library, String bookId) {
+    try {
+      return PROCESS_HOLD.invoke(library, bookId);
+    } catch(Throwable throwable) {
+      throw failure(throwable);
+    }
+  }
+  /**
+   * Saves the library in the working directory
+   * @return true iff it was saved
+   */
+  static boolean save() {
+    try {
+      return (boolean) SAVE.invoke();
+    } catch(Throwable throwable) {
+      throw failure(throwable);
+    }
+  }
+  /**
+   * Saves the library to the working directory with Java serialization,
+   * in the format that earlier versions wrote
+   * @return true iff the library was saved
+   */
+  static boolean saveSerialized() {
+    try {
+      return (boolean) SAVE_SERIALIZED.invoke(new File(DATA_FILES[0]));
+    } catch(Throwable throwable) {
+      throw failure(throwable);
+    }
+  }
+  /**
+   * Returns the size of the saved library
+   * @return the length of the data file in bytes
+   */
+  static long dataFileSize() {
+    return new File(DATA_FILES[0]).length();
+  }
+  /**
+   * Retrieves the library from the working directory
+   * @param lazy if true, books and members are decoded on first use
+   * @return the library, or null if there was none
+   */
+  static Object retrieve(boolean lazy) {
+    try {
+      return RETRIEVE.invoke(lazy);
+    } catch(Throwable throwable) {
+      throw failure(throwable);
+    }
+  }
+  /**
+   * Looks up a book in the catalog
+   * @param bookId id of the book
+   * @return the book, or null
+   */
+  static Object searchBook(String bookId) {
+    try {
+      return SEARCH_BOOK.invoke(CATALOG.invoke(), bookId);
+    } catch(Throwable throwable) {
+      throw failure(throwable);
+    }
+  }
+  /**
+   * Looks up a member in the member list
+   * @param memberId id of the member
+   * @return the member, or null
+   */
+  static Object searchMember(String memberId) {
+    try {
+      return SEARCH_MEMBER.invoke(MEMBER_LIST.invoke(), memberId);
+    } catch(Throwable throwable) {
+      throw failure(throwable);
+    }
+  }
+  /**
+   * Creates a book that is not in the catalog
+   * @param title title of the book
+   * @param author author of the book
+   * @param id id of the book
+   * @return the book
+   */
+  static Object newBook(String title, String author, String id) {
+    try {
+      return NEW_BOOK.invoke(title, author, id);
+    } catch(Throwable throwable) {
+      throw failure(throwable);
+    }
+  }
+  /**
+   * Creates a member that is not in the member list
+   * @param name name of the member
+   * @param address address of the member
+   * @param phone phone number of the member
+   * @return the member
+   */
+  static Object newMember(String name, String address, String phone) {
+    try {
+      return NEW_MEMBER.invoke(name, address, phone);
+    } catch(Throwable throwable) {
+      throw failure(throwable);
+    }
+  }
+  /**
+   * Creates a hold that is not placed on the book
+   * @param member who places the hold
+   * @param book the book on which the hold is placed
+   * @param duration for how many days the hold is valid
+   * @return the hold
+   */
+  static Object newHold(Object member, Object book, int duration) {
+    try {
+      return NEW_HOLD.invoke(member, book, duration);
+    } catch(Throwable throwable) {
+      throw failure(throwable);
+    }
+  }
+  /**
+   * Appends a transaction to the TransactionStore, as the first one of
+   * the member on its day
+   * @param member the numeric part of the member id
+   * @param bookId id of the book
+   * @param title title of the book
+   * @param type the type code
+   * @param time milliseconds since 1/1/1970
+   * @return the record number of the transaction
+   */
+  static long appendTransaction(int member, String bookId, String title, byte type, long time) {
+    try {
+      return (long) APPEND_TRANSACTION.invoke(TRANSACTION_STORE.invoke(), member, bookId, title, type,
+          time, -1L);
+    } catch(Throwable throwable) {
+      throw failure(throwable);
+    }
+  }
+  /**
+   * Puts a book straight into the catalog, without going through the
+   * library and its journal
+   * @param title title of the book
+   * @param author author of the book
+   * @param id id of the book
+   * @return true iff the book was inserted
+   */
+  static boolean insertBook(String title, String author, String id) {
+    try {
+      return (boolean) INSERT_BOOK.invoke(CATALOG.invoke(), newBook(title, author, id));
+    } catch(Throwable throwable) {
+      throw failure(throwable);
+    }
+  }
+  /**
+   * Puts a new member straight into the member list, without going
+   * through the library and its journal
+   * @param name name of the member
+   * @param address address of the member
+   * @param phone phone number of the member
+   * @return the id of the member
+   */
+  static String insertMember(String name, String address, String phone) {
+    try {
+      Object member = newMember(name, address, phone);
+      if (!(boolean) INSERT_MEMBER.invoke(MEMBER_LIST.invoke(), member)) {
+        throw new IllegalStateException("the member could not be inserted");
+      }
+      return (String) MEMBER_ID.invoke(member);
+    } catch(Throwable throwable) {
+      throw failure(throwable);
+    }
+  }
+  /**
+   * Returns the transactions of a member on a date
+   * @param member the member
+   * @param date the date
+   * @return iterator to the transactions
+   */
+  static Iterator getTransactions(Object member, Calendar date) {
+    try {
+      return (Iterator) TRANSACTIONS_ON_DATE.invoke(member, date);
+    } catch(Throwable throwable) {
+      throw failure(throwable);
+    }
+  }
+  /**
+   * Returns all transactions of a member
+   * @param member the member
+   * @return iterator to the transactions
+   */
+  static Iterator getTransactions(Object member) {
+    try {
+      return (Iterator) TRANSACTIONS.invoke(member);
+    } catch(Throwable throwable) {
+      throw failure(throwable);
+    }
+  }
+  /**
+   * Serves a library over TCP on a free port, accepting connections in
+   * the background
+   * @param library the library
+   * @return the server
+   */
+  static Object startServer(Object library) {
+    try {
+      Object server = NEW_SERVER.invoke(library, 0);
+      START_SERVER.invoke(server);
+      return server;
+    } catch(Throwable throwable) {
+      throw failure(throwable);
+    }
+  }
+  /**
+   * Returns the port a server listens on
+   * @param server the server
+   * @return the port number
+   */
+  static int serverPort(Object server) {
+    try {
+      return (int) SERVER_PORT.invoke(server);
+    } catch(Throwable throwable) {
+      throw failure(throwable);
+    }
+  }
+  /**
+   * Stops a server and closes its connections
+   * @param server the server
+   */
+  static void closeServer(Object server) {
+    try {
+      CLOSE_SERVER.invoke(server);
+    } catch(Throwable throwable) {
+      throw failure(throwable);
+    }
+  }
+  /**
+   * Forgets the library held in memory, closing its journal, so that the
+   * next one is created or retrieved from scratch
+   */
+  static void forget() {
+    try {
+      Field field = Class.forName("Library").getDeclaredField("library");
+      field.setAccessible(true);
+      Object library = field.get(null);
+      if (library != null) {
+        CLOSE_JOURNAL.invoke(library);
+      }
+      for (int index = 0; index < SINGLETONS.length; index += 2) {
+        field = Class.forName(SINGLETONS[index]).getDeclaredField(SINGLETONS[index + 1]);
+        field.setAccessible(true);
+        field.set(null, null);
+      }
+    } catch(Throwable throwable) {
+      throw failure(throwable);
+    }
+  }
+  /**
+   * Makes sure that the benchmarks do not overwrite a library that was
+   * saved in the working directory
+   * @throws IllegalStateException if there is one
+   */
+  static void checkWorkingDirectory() {
+    for (int index = 0; index < DATA_FILES.length; index++) {
+      if (new File(DATA_FILES[index]).exists()) {
+        throw new IllegalStateException("The working directory holds library data ("
+            + DATA_FILES[index] + "); run the benchmarks from an empty directory");
+      }
+    }
+  }
+  /**
+   * Deletes the files the library has written to the working directory
+   */
+  static void deleteDataFiles() {
+    for (int index = 0; index < DATA_FILES.length; index++) {
+      new File(DATA_FILES[index]).delete();
+    }
+  }
+  /*
+   * Wraps what a method handle has thrown
+   */
+  private static RuntimeException failure(Throwable throwable) {
+    if (throwable instanceof RuntimeException) {
+      return (RuntimeException) throwable;
+    }
+    if (throwable instanceof Error) {
+      throw (Error) throwable;
+    }
+    return new IllegalStateException(throwable);
+  }
+}
@@ -0,0 +1,91 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+package benchmarks;
+
+import java.util.*;
+import org.openjdk.jmh.annotations.*;
+/**
+ * A library filled for a benchmark: a number of books, a number of
+ * members, and a circulation history of a given length for every member.
+ * The history is made of books issued and returned, so all books are on
+ * the shelf when the benchmark starts. The library is built from scratch
+ * for every trial and dropped afterwards, together with whatever it has
+ * written to the working directory.
+ *
+ */
+@State(Scope.Benchmark)
+public class LibraryState {
+  @Param({"1000", "100000"})
+  public int books;
+  @Param({"100", "10000"})
+  public int members;
+  @Param({"10", "100"})
+  public int history;
+  Object library;
+  String[] bookIds;
+  String[] memberIds;
+  /**
+   * Builds the library
+   */
+  @Setup(Level.Trial)
+  public void build() {
+    LibraryHandles.checkWorkingDirectory();
+    LibraryHandles.forget();
+    library = LibraryHandles.instance();
+    bookIds = new String[books];
+    for (int index = 0; index < books; index++) {
+      bookIds[index] = "B" + index;
+      LibraryHandles.addBook(library, "Title " + index, "Author " + index % 997, bookIds[index]);
+    }
+    memberIds = new String[members];
+    for (int index = 0; index < members; index++) {
+      memberIds[index] = LibraryHandles.addMember(library, "Member " + index, "Address " + index,
+          "555-" + index);
+    }
+    int book = 0;
+    for (int loan = 0; loan < history / 2; loan++) {
+      for (int member = 0; member < members; member++) {
+        LibraryHandles.issueBook(library, memberIds[member], bookIds[book]);
+        LibraryHandles.returnBook(library, bookIds[book]);
+        book = (book + 1) % books;
+      }
+    }
+  }
+  /**
+   * Drops the library and deletes its files
+   */
+  @TearDown(Level.Trial)
+  public void drop() {
+    LibraryHandles.forget();
+    LibraryHandles.deleteDataFiles();
+    library = null;
+  }
+  /**
+   * Returns the ids in a random order that is the same in every run, so
+   * that a benchmark walking through them does not only touch neighbours
+   * @param ids the ids
+   * @return a shuffled copy
+   */
+  static String[] shuffle(String[] ids) {
+    List list = new ArrayList(Arrays.asList(ids));
+    Collections.shuffle(list, new Random(42));
+    return (String[]) list.toArray(new String[list.size()]);
+  }
+}
@@ -0,0 +1,144 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+/**
+ * Looks up books in the Catalog and members in the MemberList by id, for
+ * collections of ten thousand up to ten million entries, to see how the
+ * cost of a lookup grows once the tables no longer fit in the caches.
+ * The collections are filled directly rather than through the library,
+ * which would journal every book and member, and the titles, authors,
+ * names and addresses are shared, so that the largest ones fit in memory.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class LookupBenchmark {
+  private static final int SHARED_STRINGS = 1000;
+  private int nextBook;
+  private int nextMember;
+  /**
+   * A catalog of a given number of books
+   */
+  @State(Scope.Benchmark)
+  public static class Books {
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public int books;
+    String[] bookIds;
+    /**
+     * Fills the catalog and takes its ids in a random order
+     */
+    @Setup(Level.Trial)
+    public void fill() {
+      LibraryHandles.forget();
+      String[] titles = sharedStrings("Title ");
+      String[] authors = sharedStrings("Author ");
+      bookIds = new String[books];
+      for (int index = 0; index < books; index++) {
+        bookIds[index] = "B" + index;
+        if (!LibraryHandles.insertBook(titles[index % SHARED_STRINGS], authors[index % SHARED_STRINGS],
+            bookIds[index])) {
+          throw new IllegalStateException("book " + bookIds[index] + " could not be inserted");
+        }
+      }
+      bookIds = LibraryState.shuffle(bookIds);
+    }
+    /**
+     * Drops the catalog
+     */
+    @TearDown(Level.Trial)
+    public void drop() {
+      LibraryHandles.forget();
+      bookIds = null;
+    }
+  }
+  /**
+   * A member list of a given number of members
+   */
+  @State(Scope.Benchmark)
+  public static class Members {
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public int members;
+    String[] memberIds;
+    /**
+     * Fills the member list and takes its ids in a random order
+     */
+    @Setup(Level.Trial)
+    public void fill() {
+      LibraryHandles.forget();
+      String[] names = sharedStrings("Member ");
+      String[] addresses = sharedStrings("Address ");
+      memberIds = new String[members];
+      for (int index = 0; index < members; index++) {
+        memberIds[index] = LibraryHandles.insertMember(names[index % SHARED_STRINGS],
+            addresses[index % SHARED_STRINGS], "555-" + index);
+      }
+      memberIds = LibraryState.shuffle(memberIds);
+    }
+    /**
+     * Drops the member list
+     */
+    @TearDown(Level.Trial)
+    public void drop() {
+      LibraryHandles.forget();
+      memberIds = null;
+    }
+  }
+  /*
+   * Returns the strings that the entries share, the prefix followed by a number
+   */
+  private static String[] sharedStrings(String prefix) {
+    String[] strings = new String[SHARED_STRINGS];
+    for (int index = 0; index < strings.length; index++) {
+      strings[index] = prefix + index;
+    }
+    return strings;
+  }
+  /**
+   * Catalog.search for an existing book
+   * @param state the catalog
+   * @return the book
+   */
+  @Benchmark
+  public Object catalogSearch(Books state) {
+    if (++nextBook >= state.bookIds.length) {
+      nextBook = 0;
+    }
+    return LibraryHandles.searchBook(state.bookIds[nextBook]);
+  }
+  /**
+   * MemberList.search for an existing member
+   * @param state the member list
+   * @return the member
+   */
+  @Benchmark
+  public Object memberListSearch(Members state) {
+    if (++nextMember >= state.memberIds.length) {
+      nextMember = 0;
+    }
+    return LibraryHandles.searchMember(state.memberIds[nextMember]);
+  }
+}
@@ -0,0 +1,94 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+/**
+ * Saves the library to the working directory with Library.save, and
+ * retrieves it with Library.retrieve, either mapping the snapshot and
+ * decoding on first use or decoding everything up front. For comparison,
+ * the library is also saved and retrieved with Java serialization, as
+ * earlier versions did. The size of the saved file is printed for each
+ * format.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class PersistenceBenchmark {
+  /**
+   * A library that has been saved, and is dropped from memory before
+   * every retrieval
+   */
+  @State(Scope.Thread)
+  public static class Saved {
+    @Param({"mapped", "decoded", "serialized"})
+    public String format;
+    /**
+     * Saves the library once, so that there is something to retrieve
+     * @param state the library
+     */
+    @Setup(Level.Trial)
+    public void save(LibraryState state) {
+      boolean saved = format.equals("serialized") ? LibraryHandles.saveSerialized() : LibraryHandles.save();
+      if (!saved) {
+        throw new IllegalStateException("the library could not be saved");
+      }
+      System.out.println(format + " data file: " + LibraryHandles.dataFileSize() + " bytes");
+    }
+    /**
+     * Drops the library from memory before it is retrieved again
+     */
+    @Setup(Level.Invocation)
+    public void forget() {
+      LibraryHandles.forget();
+    }
+  }
+  /**
+   * Library.save
+   * @param state the library
+   * @return true iff the library was saved
+   */
+  @Benchmark
+  public boolean save(LibraryState state) {
+    return LibraryHandles.save();
+  }
+  /**
+   * SerializedData.save
+   * @param state the library
+   * @return true iff the library was saved
+   */
+  @Benchmark
+  public boolean saveSerialized(LibraryState state) {
+    return LibraryHandles.saveSerialized();
+  }
+  /**
+   * Library.retrieve
+   * @param saved the saved library
+   * @return the library
+   */
+  @Benchmark
+  public Object retrieve(Saved saved) {
+    return LibraryHandles.retrieve(!saved.format.equals("decoded"));
+  }
+}
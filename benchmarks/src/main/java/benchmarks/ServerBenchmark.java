@@ -0,0 +1,250 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+package benchmarks;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.*;
+import org.openjdk.jmh.runner.options.*;
+/**
+ * Sends requests to a LibraryServer over loopback connections, one
+ * connection per benchmark thread, and counts the requests answered per
+ * second. Each thread issues and returns books of its own, so that the
+ * threads do not wait for each other's locks in the library. Run with
+ * -t to choose the number of clients, or run main, which runs the
+ * benchmarks with 1 up to 32 clients and prints the requests per second
+ * for each number.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServerBenchmark {
+  private static final int PIPELINE = 16;
+  private static final int[] CLIENTS = {1, 2, 4, 8, 16, 32};
+  /**
+   * The server, listening on a free port of the loopback interface
+   */
+  @State(Scope.Benchmark)
+  public static class Server {
+    Object server;
+    int port;
+    /**
+     * Starts serving the library
+     * @param state the library
+     */
+    @Setup(Level.Trial)
+    public void start(LibraryState state) {
+      server = LibraryHandles.startServer(state.library);
+      port = LibraryHandles.serverPort(server);
+    }
+    /**
+     * Stops the server
+     */
+    @TearDown(Level.Trial)
+    public void stop() {
+      LibraryHandles.closeServer(server);
+    }
+  }
+  /**
+   * The connection of one client, and the books it borrows
+   */
+  @State(Scope.Thread)
+  public static class Client {
+    private Socket socket;
+    private BufferedReader reader;
+    private Writer writer;
+    private String memberId;
+    private String[] bookIds;
+    private String[] searches;
+    private int nextBook;
+    private int nextSearch;
+    /**
+     * Connects to the server and picks the member and books of the thread
+     * @param server the server
+     * @param state the library
+     * @param thread the number of the thread among the benchmark threads
+     * @throws IOException if the connection fails
+     */
+    @Setup(Level.Trial)
+    public void connect(Server server, LibraryState state, ThreadParams thread) throws IOException {
+      socket = new Socket(InetAddress.getLoopbackAddress(), server.port);
+      socket.setTcpNoDelay(true);
+      reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"), 1 << 16);
+      writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"), 1 << 16);
+      int threads = thread.getThreadCount();
+      int index = thread.getThreadIndex();
+      if (threads > state.members || threads > state.books) {
+        throw new IllegalStateException("every client needs a member and a book of its own");
+      }
+      memberId = state.memberIds[index];
+      List books = new ArrayList();
+      for (int book = index; book < state.books; book += threads) {
+        books.add(state.bookIds[book]);
+      }
+      bookIds = (String[]) books.toArray(new String[books.size()]);
+      String[] shuffled = LibraryState.shuffle(state.bookIds);
+      searches = new String[Math.min(shuffled.length, 1000)];
+      for (int search = 0; search < searches.length; search++) {
+        searches[search] = "SEARCH\tTitle " + shuffled[search].substring(1) + "\tALL\t1\n";
+      }
+    }
+    /**
+     * Says goodbye to the server and closes the connection
+     * @throws IOException if the connection fails
+     */
+    @TearDown(Level.Trial)
+    public void disconnect() throws IOException {
+      writer.write("QUIT\n");
+      writer.flush();
+      socket.close();
+    }
+    /*
+     * Queues a request
+     */
+    private void send(String request) throws IOException {
+      writer.write(request);
+    }
+    /*
+     * Sends the queued requests and reads the answer to the first one.
+     * Returns the outcome line.
+     */
+    private String answer() throws IOException {
+      writer.flush();
+      String status = reader.readLine();
+      for (String line = status; line.length() > 0; line = reader.readLine()) {
+      }
+      return status;
+    }
+    /*
+     * Returns the next search request
+     */
+    private String nextSearch() {
+      if (++nextSearch == searches.length) {
+        nextSearch = 0;
+      }
+      return searches[nextSearch];
+    }
+    /*
+     * Returns the next book of the client
+     */
+    private String nextBook() {
+      if (++nextBook == bookIds.length) {
+        nextBook = 0;
+      }
+      return bookIds[nextBook];
+    }
+  }
+  /**
+   * Runs the benchmarks with a growing number of clients and prints the
+   * requests answered per second for each
+   * @param args the numbers of clients; 1 up to 32 if none are given
+   * @throws RunnerException if the benchmarks cannot be run
+   */
+  public static void main(String[] args) throws RunnerException {
+    int[] clients = CLIENTS;
+    if (args.length > 0) {
+      clients = new int[args.length];
+      for (int index = 0; index < args.length; index++) {
+        clients[index] = Integer.parseInt(args[index]);
+      }
+    }
+    StringBuilder summary = new StringBuilder();
+    for (int index = 0; index < clients.length; index++) {
+      Options options = new OptionsBuilder().include(ServerBenchmark.class.getName() + "\\.")
+          .param("books", "100000").param("members", "1000").param("history", "10")
+          .threads(clients[index]).build();
+      for (Iterator results = new Runner(options).run().iterator(); results.hasNext(); ) {
+        RunResult result = (RunResult) results.next();
+        String benchmark = result.getParams().getBenchmark();
+        summary.append(String.format("%-16s %3d clients %10.0f requests/s%n",
+            benchmark.substring(benchmark.lastIndexOf('.') + 1), clients[index],
+            result.getPrimaryResult().getScore()));
+      }
+    }
+    System.out.print(summary);
+  }
+  /**
+   * PING, waiting for each answer before sending the next request
+   * @param client the connection
+   * @return the outcome
+   * @throws IOException if the connection fails
+   */
+  @Benchmark
+  public String ping(Client client) throws IOException {
+    client.send("PING\n");
+    return client.answer();
+  }
+  /**
+   * SEARCH for the title of a book, waiting for each answer before
+   * sending the next request
+   * @param client the connection
+   * @return the outcome
+   * @throws IOException if the connection fails
+   */
+  @Benchmark
+  public String search(Client client) throws IOException {
+    client.send(client.nextSearch());
+    return client.answer();
+  }
+  /**
+   * SEARCH for the titles of books, sending a number of requests before
+   * reading their answers
+   * @param client the connection
+   * @return the outcome of the last request
+   * @throws IOException if the connection fails
+   */
+  @Benchmark
+  @OperationsPerInvocation(PIPELINE)
+  public String pipelinedSearch(Client client) throws IOException {
+    for (int request = 0; request < PIPELINE; request++) {
+      client.send(client.nextSearch());
+    }
+    String status = null;
+    for (int request = 0; request < PIPELINE; request++) {
+      status = client.answer();
+    }
+    return status;
+  }
+  /**
+   * ISSUE a book of the client and RETURN it, sending both requests
+   * before reading their answers
+   * @param client the connection
+   * @return the outcome of the return
+   * @throws IOException if the connection fails
+   */
+  @Benchmark
+  @OperationsPerInvocation(2)
+  public String issueAndReturn(Client client) throws IOException {
+    String bookId = client.nextBook();
+    client.send("ISSUE\t" + client.memberId + "\t" + bookId + "\n");
+    client.send("RETURN\t" + bookId + "\n");
+    client.answer();
+    return client.answer();
+  }
+}
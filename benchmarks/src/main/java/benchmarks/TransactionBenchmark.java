@@ -0,0 +1,100 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+package benchmarks;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+/**
+ * Reads the circulation history of members with Member.getTransactions.
+ * The whole history of the library was made on the day the benchmark
+ * runs, so a query for that day returns all of a member's transactions
+ * and a query for the day before returns none.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionBenchmark {
+  private Object[] members;
+  private int nextMember;
+  private Calendar today;
+  private Calendar yesterday;
+  /**
+   * Looks up the members in a random order, and sets the dates
+   * @param state the library
+   */
+  @Setup(Level.Trial)
+  public void setUp(LibraryState state) {
+    String[] memberIds = LibraryState.shuffle(state.memberIds);
+    members = new Object[memberIds.length];
+    for (int index = 0; index < memberIds.length; index++) {
+      members[index] = LibraryHandles.searchMember(memberIds[index]);
+    }
+    today = new GregorianCalendar();
+    yesterday = new GregorianCalendar();
+    yesterday.add(Calendar.DATE, -1);
+  }
+  /**
+   * Member.getTransactions for a date with the member's whole history
+   * @param blackhole consumes the transactions
+   */
+  @Benchmark
+  public void transactionsOnDate(Blackhole blackhole) {
+    read(LibraryHandles.getTransactions(nextMember(), today), blackhole);
+  }
+  /**
+   * Member.getTransactions for a date without any transactions
+   * @param blackhole consumes the transactions
+   */
+  @Benchmark
+  public void transactionsOnOtherDate(Blackhole blackhole) {
+    read(LibraryHandles.getTransactions(nextMember(), yesterday), blackhole);
+  }
+  /**
+   * Member.getTransactions for the whole history
+   * @param blackhole consumes the transactions
+   */
+  @Benchmark
+  public void allTransactions(Blackhole blackhole) {
+    read(LibraryHandles.getTransactions(nextMember()), blackhole);
+  }
+  /*
+   * Returns the next member in the random order
+   */
+  private Object nextMember() {
+    if (++nextMember == members.length) {
+      nextMember = 0;
+    }
+    return members[nextMember];
+  }
+  /*
+   * Walks through the transactions, reading a field of each
+   */
+  private static void read(Iterator transactions, Blackhole blackhole) {
+    while (transactions.hasNext()) {
+      blackhole.consume(transactions.next().toString());
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import java.io.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Checks that issueBooks, renewBooks and returnBooks report an outcome for
+ * each book, carry out the ones that can be carried out when others fail,
+ * journal what they did as one record, and come back the same way when
+ * the journal is replayed after a crash
+ *
+ */
+class BatchOperationsTest {
+  private Library library;
+  private String ann;
+  private String bob;
+  @BeforeEach
+  void setUp() {
+    library = LibraryFixture.fresh();
+    ann = library.addMember("Ann", "1 Elm St", "555-0100").getId();
+    bob = library.addMember("Bob", "2 Elm St", "555-0101").getId();
+    for (int index = 1; index <= 4; index++) {
+      library.addBook("Title " + index, "Author", "B" + index);
+    }
+    assertNotNull(library.issueBook(bob, "B3"));
+  }
+  @AfterEach
+  void tearDown() {
+    LibraryFixture.reset();
+  }
+  @Test
+  void issueAndRenewReportEachBookAndReplay() {
+    assertArrayEquals(new int[] {Library.OPERATION_COMPLETED, Library.OPERATION_COMPLETED,
+        Library.BOOK_ISSUED, Library.BOOK_NOT_FOUND},
+        library.issueBooks(ann, Arrays.asList("B1", "B2", "B3", "B9")));
+    assertArrayEquals(new int[] {Library.NO_SUCH_MEMBER, Library.NO_SUCH_MEMBER},
+        library.issueBooks("M99", Arrays.asList("B4", "B9")));
+    assertEquals(Library.HOLD_PLACED, library.placeHold(bob, "B2", 7));
+    assertArrayEquals(new int[] {Library.OPERATION_COMPLETED, Library.BOOK_HAS_HOLD,
+        Library.OPERATION_FAILED, Library.BOOK_NOT_ISSUED},
+        library.renewBooks(ann, Arrays.asList("B1", "B2", "B3", "B4")));
+    long renewed = Catalog.instance().search("B1").getDueDateMillis();
+    long issued = Catalog.instance().search("B2").getDueDateMillis();
+    LibraryFixture.forget();
+    List records = records();
+    assertTrue(records.contains(Journal.ISSUE_BOOKS + " " + ann + " B1 B2"));
+    assertTrue(records.contains(Journal.RENEW_BOOKS + " " + ann + " B1"));
+    assertEquals(1, count(records, Journal.ISSUE_BOOKS));
+    assertEquals(1, count(records, Journal.RENEW_BOOKS));
+    library = Library.retrieve(false);
+    assertEquals(ann, Catalog.instance().search("B1").getBorrower().getId());
+    assertEquals(renewed, Catalog.instance().search("B1").getDueDateMillis());
+    assertEquals(issued, Catalog.instance().search("B2").getDueDateMillis());
+    assertEquals(bob, Catalog.instance().search("B3").getBorrower().getId());
+    assertNull(Catalog.instance().search("B4").getBorrower());
+    assertEquals(Arrays.asList("B1", "B2"), ids(library.getBooks(ann)));
+  }
+  @Test
+  void returnProcessesHoldsAndReplays() {
+    library.issueBooks(ann, Arrays.asList("B1", "B2"));
+    assertEquals(Library.HOLD_PLACED, library.placeHold(bob, "B2", 7));
+    List notifications = new ArrayList();
+    assertArrayEquals(new int[] {Library.OPERATION_COMPLETED, Library.BOOK_HAS_HOLD,
+        Library.BOOK_NOT_ISSUED, Library.BOOK_NOT_FOUND},
+        library.returnBooks(Arrays.asList("B1", "B2", "B4", "B9"), notifications));
+    assertEquals(1, notifications.size());
+    Hold hold = (Hold) notifications.get(0);
+    assertEquals(bob, hold.getMember().getId());
+    assertEquals("B2", hold.getBook().getId());
+    LibraryFixture.forget();
+    List records = records();
+    assertTrue(records.contains(Journal.RETURN_BOOKS + " B1 B2"));
+    assertEquals(1, count(records, Journal.RETURN_BOOKS));
+    assertTrue(records.contains(Journal.PROCESS_HOLD + " B2 " + bob));
+    library = Library.retrieve(false);
+    assertNull(Catalog.instance().search("B1").getBorrower());
+    assertNull(Catalog.instance().search("B2").getBorrower());
+    assertFalse(Catalog.instance().search("B2").hasHold(bob));
+    assertFalse(library.searchMembership(bob).getHolds().hasNext());
+    assertFalse(library.getBooks(ann).hasNext());
+    assertEquals(Arrays.asList("B3"), ids(library.getBooks(bob)));
+  }
+  @Test
+  void batchTooLargeForOneRecordIsSplit() {
+    List bookIds = new ArrayList();
+    for (int index = 0; index < Journal.MAX_ARGUMENTS + 20; index++) {
+      library.addBook("Title", "Author", "C" + index);
+      bookIds.add("C" + index);
+    }
+    int[] results = library.issueBooks(ann, bookIds);
+    for (int index = 0; index < results.length; index++) {
+      assertEquals(Library.OPERATION_COMPLETED, results[index]);
+    }
+    LibraryFixture.forget();
+    assertEquals(2, count(records(), Journal.ISSUE_BOOKS));
+    library = Library.retrieve(false);
+    assertEquals(bookIds, ids(library.getBooks(ann)));
+  }
+  /*
+   * Reads the journal of the library, one string per record holding the
+   * operation and the arguments
+   */
+  private static List records() {
+    final List records = new ArrayList();
+    try {
+      Journal.replay(new File("LibraryJournal"), 0, new Journal.Listener() {
+        public void apply(byte type, long time, long value, String[] arguments) {
+          StringBuilder record = new StringBuilder(Byte.toString(type));
+          for (int index = 0; index < arguments.length; index++) {
+            record.append(' ').append(arguments[index]);
+          }
+          records.add(record.toString());
+        }
+      });
+    } catch (IOException ioe) {
+      fail(ioe);
+    }
+    return records;
+  }
+  /*
+   * Counts the records of one operation
+   */
+  private static int count(List records, byte type) {
+    int count = 0;
+    for (Iterator iterator = records.iterator(); iterator.hasNext(); ) {
+      if (((String) iterator.next()).startsWith(type + " ")) {
+        count++;
+      }
+    }
+    return count;
+  }
+  /*
+   * Lists the ids of the books an iterator returns
+   */
+  private static List ids(Iterator books) {
+    List ids = new ArrayList();
+    while (books.hasNext()) {
+      ids.add(((Book) books.next()).getId());
+    }
+    return ids;
+  }
+}
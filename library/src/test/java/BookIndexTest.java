@@ -0,0 +1,223 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import java.util.*;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Checks the rankings of the word index against scores worked out book by
+ * book, so that the lists skipped by the search for books matching any
+ * word, and the lists searched only from the point already reached for
+ * books matching every word, never cost a book its place; and checks how
+ * many mistakes completion forgives in words of each length
+ *
+ */
+class BookIndexTest {
+  private static final double EPSILON = 1e-9;
+  private Random random = new Random(17);
+  private BookIndex index = new BookIndex();
+  private List books = new ArrayList();
+  private String[] vocabulary = new String[60];
+  @BeforeEach
+  void setUp() {
+    for (int word = 0; word < vocabulary.length; word++) {
+      vocabulary[word] = "w" + word;
+    }
+    for (int count = 0; count < 3000; count++) {
+      Book book = new Book(text(1 + random.nextInt(4)), text(1 + random.nextInt(2)), "B" + count);
+      index.add(book);
+      books.add(book);
+    }
+  }
+  @Test
+  void rankingsMatchScoresWorkedOutBookByBook() {
+    checkQueries();
+  }
+  @Test
+  void rankingsMatchAfterBooksAreRemoved() {
+    for (Iterator iterator = books.iterator(); iterator.hasNext(); ) {
+      Book book = (Book) iterator.next();
+      if (random.nextInt(3) == 0) {
+        index.remove(book);
+        iterator.remove();
+      }
+    }
+    assertEquals(books.size(), index.size());
+    checkQueries();
+  }
+  @Test
+  void booksWithTheSameScoreKeepTheOrderTheyWereAddedIn() {
+    BookIndex index = new BookIndex();
+    for (int count = 0; count < 5; count++) {
+      index.add(new Book("Dune", "Herbert", "D" + count));
+    }
+    index.add(new Book("Emma", "Austen", "E0"));
+    assertEquals(Arrays.asList("D0", "D1", "D2"), index.search("dune herbert", false, 3));
+    assertEquals(Arrays.asList("D0", "D1", "D2"), index.search("herbert dune", true, 3));
+    assertEquals(Arrays.asList("E0"), index.search("emma dune", false, 1));
+    assertTrue(index.search("emma dune", true, 10).isEmpty());
+  }
+  @Test
+  void completionMatchesTheStartOfTheLastWordOnlyWhileItIsTyped() {
+    BookIndex index = completionIndex();
+    assertEquals(Arrays.asList("B1"), index.complete("herb", 10));
+    assertEquals(Arrays.asList("B1"), index.complete("dune herb", 10));
+    assertTrue(index.complete("dun ", 10).isEmpty());
+    assertTrue(index.complete("herb dune", 10).isEmpty());
+    assertEquals(Arrays.asList("B2", "B3"), index.complete("em", 10));
+  }
+  @Test
+  void completionForgivesMoreMistakesInLongerWords() {
+    BookIndex index = completionIndex();
+    assertEquals(Arrays.asList("B1"), index.complete("dnue", 10));
+    assertTrue(index.complete("bat ", 10).isEmpty());
+    assertEquals(Arrays.asList("B3"), index.complete("btah ", 10));
+    assertEquals(Arrays.asList("B2", "B3"), index.complete("emam ", 10));
+    assertEquals(Arrays.asList("B2", "B3"), index.complete("uasten ", 10));
+    assertTrue(index.complete("uastne ", 10).isEmpty());
+    assertEquals(Arrays.asList("B1"), index.complete("hrebret ", 10));
+    assertEquals(Arrays.asList("B1"), index.complete("hrebret", 10));
+    assertTrue(index.complete("hrebrte ", 10).isEmpty());
+  }
+  @Test
+  void completionFindsExactMatchesBeforeAllowingMistakes() {
+    BookIndex index = completionIndex();
+    index.add(new Book("Emmas", "Unknown", "B4"));
+    assertEquals(Arrays.asList("B2", "B3"), index.complete("emma ", 10));
+    assertEquals(Arrays.asList("B4"), index.complete("emmas ", 10));
+  }
+  @Test
+  void wordsLeaveCompletionWithTheirLastBook() {
+    BookIndex index = completionIndex();
+    Book zyzzyva = new Book("Zyzzyva", "Herbert", "B5");
+    Book again = new Book("Zyzzyva Again", "Herbert", "B6");
+    index.add(zyzzyva);
+    index.add(again);
+    index.remove(zyzzyva);
+    assertEquals(Arrays.asList("B6"), index.complete("zyzz", 10));
+    index.remove(again);
+    assertTrue(index.complete("zyzz", 10).isEmpty());
+    assertTrue(index.complete("zyzzyva ", 10).isEmpty());
+    assertTrue(index.search("zyzzyva", false, 10).isEmpty());
+    assertEquals(Arrays.asList("B1"), index.complete("herbert ", 10));
+  }
+  /*
+   * Makes an index of a few books for completion
+   */
+  private static BookIndex completionIndex() {
+    BookIndex index = new BookIndex();
+    index.add(new Book("Dune", "Herbert", "B1"));
+    index.add(new Book("Emma", "Austen", "B2"));
+    index.add(new Book("Emma in Bath", "Austen", "B3"));
+    return index;
+  }
+  /*
+   * Runs random queries of either kind and checks each ranking
+   */
+  private void checkQueries() {
+    int[] limits = {1, 5, 20, 5000};
+    for (int count = 0; count < 300; count++) {
+      String query = text(1 + random.nextInt(4));
+      boolean matchAll = random.nextBoolean();
+      int limit = limits[random.nextInt(limits.length)];
+      check(query, matchAll, limit, index.search(query, matchAll, limit));
+    }
+  }
+  /*
+   * Checks that a ranking holds the best books in order of their scores:
+   * as many as match, up to the limit, each scoring no less than the next
+   * and than any book left out
+   */
+  private void check(String query, boolean matchAll, int limit, List ranking) {
+    Map scores = scores(query, matchAll);
+    String context = (matchAll ? "all of " : "any of ") + query + ", limit " + limit;
+    assertEquals(Math.min(limit, scores.size()), ranking.size(), context);
+    assertEquals(ranking.size(), new HashSet(ranking).size(), context);
+    double previous = Double.MAX_VALUE;
+    for (Iterator iterator = ranking.iterator(); iterator.hasNext(); ) {
+      Double score = (Double) scores.remove(iterator.next());
+      assertNotNull(score, context);
+      assertTrue(score.doubleValue() <= previous + EPSILON, context);
+      previous = score.doubleValue();
+    }
+    for (Iterator iterator = scores.values().iterator(); iterator.hasNext(); ) {
+      assertTrue(((Double) iterator.next()).doubleValue() <= previous + EPSILON, context);
+    }
+  }
+  /*
+   * Scores every book against a query the way the index is documented to:
+   * the sum over the query words in the book of its weight for the word
+   * times the rarity of the word
+   */
+  private Map scores(String query, boolean matchAll) {
+    Set words = new HashSet(BookIndex.tokenize(query));
+    Map frequencies = new HashMap();
+    List weights = new ArrayList();
+    for (Iterator iterator = books.iterator(); iterator.hasNext(); ) {
+      Book book = (Book) iterator.next();
+      Map weight = new HashMap();
+      add(weight, book.getTitle(), 2);
+      add(weight, book.getAuthor(), 1);
+      weights.add(weight);
+      for (Iterator keys = weight.keySet().iterator(); keys.hasNext(); ) {
+        add(frequencies, (String) keys.next(), 1);
+      }
+    }
+    Map scores = new HashMap();
+    for (int book = 0; book < books.size(); book++) {
+      Map weight = (Map) weights.get(book);
+      double score = 0;
+      int found = 0;
+      for (Iterator iterator = words.iterator(); iterator.hasNext(); ) {
+        Object word = iterator.next();
+        if (weight.containsKey(word)) {
+          found++;
+          score += ((Integer) weight.get(word)).intValue()
+              * Math.log(1.0 + (double) books.size() / ((Integer) frequencies.get(word)).intValue());
+        }
+      }
+      if (matchAll ? found == words.size() : found > 0) {
+        scores.put(((Book) books.get(book)).getId(), Double.valueOf(score));
+      }
+    }
+    return scores;
+  }
+  /*
+   * Adds to the count of each word of a text
+   */
+  private static void add(Map counts, String text, int amount) {
+    for (Iterator iterator = BookIndex.tokenize(text).iterator(); iterator.hasNext(); ) {
+      Object word = iterator.next();
+      Integer count = (Integer) counts.get(word);
+      counts.put(word, Integer.valueOf(count == null ? amount : count.intValue() + amount));
+    }
+  }
+  /*
+   * Makes a text of words drawn so that a few are in most books and most
+   * are rare
+   */
+  private String text(int length) {
+    StringBuilder text = new StringBuilder();
+    for (int count = 0; count < length; count++) {
+      double draw = random.nextDouble();
+      text.append(count == 0 ? "" : " ").append(vocabulary[(int) (vocabulary.length * draw * draw * draw)]);
+    }
+    return text.toString();
+  }
+}
@@ -0,0 +1,208 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Runs desk operations from many threads at once on a few books and
+ * members, so that they collide often, and checks afterwards that every
+ * loan and hold is recorded the same way on its book and on its member,
+ * and that the due date order lists exactly the books on loan.
+ * Also checks that threads looking up records of a lazily retrieved
+ * snapshot side by side all get the same objects.
+ *
+ */
+class ConcurrencyStressTest {
+  private static final int THREADS = 8;
+  private static final int OPERATIONS = 250;
+  private static final int BOOKS = 40;
+  private static final int MEMBERS = 20;
+  private Library library;
+  private List memberIds = new ArrayList();
+  @BeforeEach
+  void setUp() {
+    library = LibraryFixture.fresh();
+    for (int index = 0; index < BOOKS; index++) {
+      library.addBook("Title " + index, "Author " + index % 7, "B" + index);
+    }
+    for (int index = 0; index < MEMBERS; index++) {
+      memberIds.add(library.addMember("Member " + index, "Street", "555-" + index).getId());
+    }
+  }
+  @AfterEach
+  void tearDown() {
+    LibraryFixture.reset();
+  }
+  @Test
+  void loansAndHoldsStayConsistent() throws Exception {
+    final AtomicInteger issued = new AtomicInteger();
+    run(new Callable() {
+      public Object call() {
+        Random random = ThreadLocalRandom.current();
+        for (int count = 0; count < OPERATIONS; count++) {
+          String bookId = "B" + random.nextInt(BOOKS);
+          String memberId = (String) memberIds.get(random.nextInt(MEMBERS));
+          switch (random.nextInt(7)) {
+            case 0:
+            case 1:
+              if (library.issueBook(memberId, bookId) != null) {
+                issued.incrementAndGet();
+              }
+              break;
+            case 2:
+              library.returnBook(bookId);
+              break;
+            case 3:
+              library.renewBook(bookId, memberId);
+              break;
+            case 4:
+              library.placeHold(memberId, bookId, 1 + random.nextInt(10));
+              break;
+            case 5:
+              library.removeHold(memberId, bookId);
+              break;
+            default:
+              library.processHold(bookId);
+              break;
+          }
+          library.searchBooks("title " + random.nextInt(BOOKS), false, 3);
+        }
+        return null;
+      }
+    });
+    assertTrue(issued.get() > 0);
+    checkConsistency();
+  }
+  @Test
+  void lazyLookupsShareTheDecodedObjects() throws Exception {
+    for (int index = 0; index < MEMBERS; index++) {
+      library.issueBook((String) memberIds.get(index), "B" + index);
+      library.placeHold((String) memberIds.get((index + 1) % MEMBERS), "B" + index, 5);
+    }
+    assertTrue(Library.save());
+    LibraryFixture.forget();
+    library = Library.retrieve(true);
+    final Map seen = new ConcurrentHashMap();
+    run(new Callable() {
+      public Object call() {
+        Random random = ThreadLocalRandom.current();
+        for (int count = 0; count < OPERATIONS; count++) {
+          String bookId = "B" + random.nextInt(BOOKS);
+          Object book = random.nextBoolean() ? Catalog.instance().search(bookId)
+              : ((Book) Catalog.instance().findBooks("title " + bookId.substring(1), true, 1).get(0));
+          Object known = seen.putIfAbsent(bookId, book);
+          assertSame(known == null ? book : known, book);
+          String memberId = (String) memberIds.get(random.nextInt(MEMBERS));
+          Object member = library.searchMembership(memberId);
+          known = seen.putIfAbsent(memberId, member);
+          assertSame(known == null ? member : known, member);
+        }
+        return null;
+      }
+    });
+    checkConsistency();
+  }
+  /*
+   * Runs a task in every thread at once and rethrows the first failure
+   */
+  private void run(Callable task) throws Exception {
+    ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+    try {
+      List futures = new ArrayList();
+      for (int thread = 0; thread < THREADS; thread++) {
+        futures.add(threads.submit(task));
+      }
+      for (Iterator iterator = futures.iterator(); iterator.hasNext(); ) {
+        ((Future) iterator.next()).get(2, TimeUnit.MINUTES);
+      }
+    } finally {
+      threads.shutdownNow();
+    }
+  }
+  /*
+   * Checks that each loan and hold is on both its book and its member, and
+   * that the due date order holds each book on loan once, earliest first
+   */
+  private void checkConsistency() {
+    assertFalse(library.getOverdueBooks().hasNext());
+    List due = new ArrayList();
+    for (Iterator iterator = library.getBooksDueWithin(62); iterator.hasNext(); ) {
+      Book book = (Book) iterator.next();
+      if (!due.isEmpty()) {
+        Book previous = (Book) due.get(due.size() - 1);
+        assertTrue(previous.getDueDateMillis() < book.getDueDateMillis()
+            || previous.getDueDateMillis() == book.getDueDateMillis()
+            && previous.getId().compareTo(book.getId()) < 0, book.getId() + " out of order");
+      }
+      due.add(book);
+    }
+    Set issued = Collections.newSetFromMap(new IdentityHashMap());
+    int loans = 0;
+    int holds = 0;
+    for (Iterator books = Catalog.instance().getBooks(); books.hasNext(); ) {
+      Book book = (Book) books.next();
+      Member borrower = book.getBorrower();
+      if (borrower != null) {
+        loans++;
+        issued.add(book);
+        assertTrue(contains(borrower.getBooksIssued(), book), book.getId() + " missing from " + borrower.getId());
+      }
+      for (Iterator iterator = book.getHolds(); iterator.hasNext(); ) {
+        Hold hold = (Hold) iterator.next();
+        holds++;
+        assertSame(book, hold.getBook());
+        assertTrue(contains(hold.getMember().getHolds(), hold), "Hold on " + book.getId() + " missing from "
+            + hold.getMember().getId());
+      }
+    }
+    for (Iterator members = MemberList.instance().getMembers(); members.hasNext(); ) {
+      Member member = (Member) members.next();
+      for (Iterator iterator = member.getBooksIssued(); iterator.hasNext(); ) {
+        assertSame(member, ((Book) iterator.next()).getBorrower());
+        loans--;
+      }
+      for (Iterator iterator = member.getHolds(); iterator.hasNext(); ) {
+        Hold hold = (Hold) iterator.next();
+        assertSame(member, hold.getMember());
+        assertTrue(hold.getBook().hasHold(member.getId()));
+        holds--;
+      }
+    }
+    assertEquals(0, loans);
+    assertEquals(0, holds);
+    Set listed = Collections.newSetFromMap(new IdentityHashMap());
+    listed.addAll(due);
+    assertEquals(due.size(), listed.size(), "A book is listed twice as due");
+    assertEquals(issued, listed);
+  }
+  /*
+   * Checks whether an iterator returns a given object
+   */
+  private static boolean contains(Iterator iterator, Object object) {
+    while (iterator.hasNext()) {
+      if (iterator.next() == object) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
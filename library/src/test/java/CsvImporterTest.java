@@ -0,0 +1,150 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Reads CSV input with the importer, and imports books into the library
+ *
+ */
+class CsvImporterTest {
+  private List records = new ArrayList();
+  private CsvImporter importer = new CsvImporter(new String[] {"title", "author", "id"}) {
+    protected void insert(List batch, CsvImporter.Report report) {
+      for (Iterator iterator = batch.iterator(); iterator.hasNext(); ) {
+        records.add(Arrays.asList((String[]) iterator.next()));
+        report.imported();
+      }
+    }
+  };
+  @AfterEach
+  void tearDown() {
+    LibraryFixture.reset();
+  }
+  /*
+   * Runs the importer over the input
+   */
+  private CsvImporter.Report read(String input) throws IOException {
+    return importer.run(new BufferedReader(new StringReader(input)));
+  }
+  @Test
+  void spacesAroundFieldsAreDroppedButNotWithinQuotes() throws IOException {
+    CsvImporter.Report report = read(" Title , Author , ID \n Emma ,\tAusten , B1 \n"
+        + "  \"  Spaced  \" , \"\" ,B2\n");
+    assertEquals(2, report.getRead());
+    assertEquals(Arrays.asList("Emma", "Austen", "B1"), records.get(0));
+    assertEquals(Arrays.asList("  Spaced  ", "", "B2"), records.get(1));
+  }
+  @Test
+  void quotedFieldsHoldCommasQuotesAndLineBreaks() throws IOException {
+    CsvImporter.Report report = read("\"Pride, and Prejudice\",\"Jane \"\"J.\"\" Austen\",B1\n"
+        + "\"First line\nsecond line\",Austen,B2\n\nPersuasion,Austen,B3\n");
+    assertEquals(3, report.getRead());
+    assertEquals(0, report.getMalformed());
+    assertEquals(Arrays.asList("Pride, and Prejudice", "Jane \"J.\" Austen", "B1"), records.get(0));
+    assertEquals(Arrays.asList("First line\nsecond line", "Austen", "B2"), records.get(1));
+    assertEquals(Arrays.asList("Persuasion", "Austen", "B3"), records.get(2));
+  }
+  @Test
+  void unterminatedQuoteSpoilsOnlyItsOwnLine() throws IOException {
+    CsvImporter.Report report = read("Emma,Austen,B1\n\"Persuasion,Austen,B2\nSanditon,Austen,B3\n"
+        + "Lady Susan,Austen,B4\n");
+    assertEquals(4, report.getRead());
+    assertEquals(1, report.getMalformed());
+    assertEquals(3, report.getImported());
+    assertEquals(Arrays.asList("Sanditon", "Austen", "B3"), records.get(1));
+    assertEquals(Arrays.asList("Lady Susan", "Austen", "B4"), records.get(2));
+  }
+  @Test
+  void unterminatedQuoteIsGivenUpAfterTheLongestRecord() throws IOException {
+    StringBuilder input = new StringBuilder("\"Emma,Austen,B1\n");
+    int books = CsvImporter.MAX_RECORD_LENGTH / 16 + 1;
+    for (int index = 2; index <= books; index++) {
+      input.append("Persuasion,Austen,B" + index + "\n");
+    }
+    input.append("Sanditon, \"Austen, B0\n");
+    CsvImporter.Report report = read(input.toString());
+    assertEquals(books + 1, report.getRead());
+    assertEquals(2, report.getMalformed());
+    assertEquals(books - 1, records.size());
+    assertEquals(Arrays.asList("Persuasion", "Austen", "B" + books), records.get(books - 2));
+  }
+  @Test
+  void recordsWithTheWrongNumberOfFieldsAreMalformed() throws IOException {
+    CsvImporter.Report report = read("Emma,Austen\nPersuasion,Austen,B2,extra\nSanditon,Austen,B3\n");
+    assertEquals(3, report.getRead());
+    assertEquals(2, report.getMalformed());
+    assertEquals(Arrays.asList(Arrays.asList("Sanditon", "Austen", "B3")), records);
+  }
+  @Test
+  void batchesAreInsertedInFileOrder() throws IOException {
+    StringBuilder input = new StringBuilder("title,author,id\n");
+    for (int index = 0; index < 10000; index++) {
+      input.append("Title ").append(index).append(",Author,B").append(index).append('\n');
+    }
+    assertEquals(10000, read(input.toString()).getImported());
+    for (int index = 0; index < 10000; index++) {
+      assertEquals("B" + index, ((List) records.get(index)).get(2));
+    }
+  }
+  @Test
+  void libraryCountsIdsThatDifferOnlyInSpacesAsDuplicates() throws IOException {
+    Library library = LibraryFixture.fresh();
+    File file = new File("books.csv");
+    Files.write(file.toPath(), "title,author,id\nEmma,Austen,B1\nPersuasion,Austen, B1 \n"
+        .getBytes(StandardCharsets.UTF_8));
+    try {
+      CsvImporter.Report report = library.importBooks(file.getName());
+      assertEquals(1, report.getImported());
+      assertEquals(1, report.getDuplicates());
+      assertEquals("Emma", Catalog.instance().search("B1").getTitle());
+    } finally {
+      file.delete();
+    }
+  }
+  @Test
+  void importedBatchesReachIndexesThatAreAlreadyBuilt() throws IOException {
+    Library library = LibraryFixture.fresh();
+    assertTrue(Catalog.instance().findBooks("austen", false, 10).isEmpty());
+    assertTrue(MemberList.instance().findByPhone("555 0101").isEmpty());
+    File books = new File("books.csv");
+    File members = new File("members.csv");
+    Files.write(books.toPath(), "title,author,id\nEmma,Austen,B1\nPersuasion,Austen,B2\nSanditon,Austen,B1\n"
+        .getBytes(StandardCharsets.UTF_8));
+    Files.write(members.toPath(), "name,address,phone\nAnne Elliot,Kellynch,555 0101\nEmma Woodhouse,Hartfield,555-0102\n"
+        .getBytes(StandardCharsets.UTF_8));
+    try {
+      CsvImporter.Report report = library.importBooks(books.getName());
+      assertEquals(2, report.getImported());
+      assertEquals(1, report.getDuplicates());
+      assertEquals(2, Catalog.instance().findBooks("austen", false, 10).size());
+      assertEquals("B1", ((Book) Catalog.instance().findBooks("emma", true, 10).get(0)).getId());
+      assertEquals(2, library.importMembers(members.getName()).getImported());
+      assertEquals("Anne Elliot", ((Member) MemberList.instance().findByPhone("5550101").get(0)).getName());
+      assertEquals(1, MemberList.instance().findByName("emma woodhouse").size());
+    } finally {
+      books.delete();
+      members.delete();
+    }
+  }
+}
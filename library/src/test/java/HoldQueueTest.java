@@ -0,0 +1,147 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import java.io.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Keeps holds in a HoldQueue and checks their order and positions
+ *
+ */
+class HoldQueueTest {
+  private static final long EXPIRY = Long.MAX_VALUE;
+  private Book book = new Book("Emma", "Austen", "B1");
+  private HoldQueue queue = new HoldQueue();
+  /*
+   * Returns a hold of a member on the book
+   */
+  private Hold hold(int member) {
+    return new Hold(new Member("Member " + member, "Address", "555-0100", "M" + member), book, EXPIRY);
+  }
+  /*
+   * Checks that the queue holds the holds of the given members, in order
+   */
+  private void assertQueue(List members) {
+    assertEquals(members.size(), queue.size());
+    Iterator holds = queue.iterator();
+    for (int index = 0; index < members.size(); index++) {
+      String memberId = "M" + members.get(index);
+      assertEquals(memberId, ((Hold) holds.next()).getMember().getId());
+      assertEquals(index + 1, queue.position(memberId), memberId);
+    }
+    assertFalse(holds.hasNext());
+  }
+  @Test
+  void holdsAreServedInTheOrderPlaced() {
+    for (int member = 1; member <= 3; member++) {
+      assertTrue(queue.add(hold(member)));
+    }
+    assertQueue(Arrays.asList(1, 2, 3));
+    assertEquals("M1", queue.peek().getMember().getId());
+    assertEquals("M1", queue.poll().getMember().getId());
+    assertQueue(Arrays.asList(2, 3));
+    assertEquals(0, queue.position("M1"));
+  }
+  @Test
+  void secondHoldOfAMemberIsRejected() {
+    Hold first = hold(1);
+    assertTrue(queue.add(first));
+    assertTrue(queue.add(hold(2)));
+    assertFalse(queue.add(hold(1)));
+    assertSame(first, queue.get("M1"));
+    assertQueue(Arrays.asList(1, 2));
+  }
+  @Test
+  void removingFromTheMiddleMovesTheLaterHoldsUp() {
+    for (int member = 1; member <= 5; member++) {
+      queue.add(hold(member));
+    }
+    assertNotNull(queue.remove("M3"));
+    assertNull(queue.remove("M3"));
+    assertQueue(Arrays.asList(1, 2, 4, 5));
+    assertFalse(queue.remove(hold(4)), "only the hold that is in the queue is removed");
+    assertTrue(queue.remove(queue.get("M4")));
+    assertQueue(Arrays.asList(1, 2, 5));
+    queue.add(hold(3));
+    assertQueue(Arrays.asList(1, 2, 5, 3));
+  }
+  @Test
+  void positionsSurviveGrowingAndEmptying() {
+    List members = new ArrayList();
+    for (int member = 1; member <= 100; member++) {
+      queue.add(hold(member));
+      members.add(member);
+      if (member % 3 == 0) {
+        queue.remove("M" + (member - 1));
+        members.remove(Integer.valueOf(member - 1));
+      }
+    }
+    assertQueue(members);
+    while (queue.poll() != null) {
+    }
+    assertTrue(queue.isEmpty());
+    assertEquals(0, queue.position("M1"));
+    queue.add(hold(7));
+    queue.add(hold(1));
+    assertQueue(Arrays.asList(7, 1));
+  }
+  @Test
+  void positionsMatchAListUnderRandomChanges() {
+    Random random = new Random(6);
+    List members = new LinkedList();
+    for (int step = 0; step < 20000; step++) {
+      int member = random.nextInt(200);
+      int choice = random.nextInt(10);
+      if (choice < 5) {
+        assertEquals(!members.contains(member), queue.add(hold(member)));
+        if (!members.contains(member)) {
+          members.add(member);
+        }
+      } else if (choice < 8) {
+        assertEquals(members.remove(Integer.valueOf(member)), queue.remove("M" + member) != null);
+      } else if (choice < 9) {
+        Hold hold = queue.poll();
+        assertEquals(members.isEmpty() ? null : "M" + members.remove(0),
+            hold == null ? null : hold.getMember().getId());
+      } else {
+        int index = members.indexOf(member);
+        assertEquals(index + 1, queue.position("M" + member));
+      }
+    }
+    assertQueue(members);
+  }
+  @Test
+  void positionsAreKeptWhenSerialized() throws IOException, ClassNotFoundException {
+    for (int member = 1; member <= 20; member++) {
+      queue.add(hold(member));
+    }
+    for (int member = 2; member <= 20; member += 2) {
+      queue.remove("M" + member);
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream output = new ObjectOutputStream(bytes);
+    output.writeObject(queue);
+    output.close();
+    queue = (HoldQueue) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    assertQueue(Arrays.asList(1, 3, 5, 7, 9, 11, 13, 15, 17, 19));
+    queue.add(hold(2));
+    assertEquals(11, queue.position("M2"));
+  }
+}
@@ -0,0 +1,235 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import java.io.*;
+import java.lang.reflect.*;
+import java.nio.channels.Channel;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Checks that operations journaled since the last save come back on
+ * retrieval exactly as they were carried out, and that a new library is
+ * never started over data that could still be retrieved
+ *
+ */
+class JournalReplayTest {
+  private Library library;
+  @BeforeEach
+  void setUp() {
+    library = LibraryFixture.fresh();
+  }
+  @AfterEach
+  void tearDown() {
+    LibraryFixture.reset();
+  }
+  @Test
+  void replayKeepsRecordedTimesAndChosenMembers() throws InterruptedException {
+    Member ann = library.addMember("Ann", "1 Elm St", "555-0100");
+    Member bob = library.addMember("Bob", "2 Elm St", "555-0101");
+    Member cal = library.addMember("Cal", "3 Elm St", "555-0102");
+    library.addBook("Dune", "Herbert", "B1");
+    library.addBook("Emma", "Austen", "B2");
+    assertNotNull(library.issueBook(ann.getId(), "B1"));
+    assertNotNull(library.renewBook("B1", ann.getId()));
+    assertEquals(Library.HOLD_PLACED, library.placeHold(bob.getId(), "B1", 7));
+    assertEquals(Library.HOLD_PLACED, library.placeHold(cal.getId(), "B1", 3));
+    assertEquals(Library.BOOK_HAS_HOLD, library.returnBook("B1"));
+    assertSame(bob, library.processHold("B1"));
+    assertNotNull(library.issueBook(bob.getId(), "B2"));
+    long dueDate = Catalog.instance().search("B2").getDueDateMillis();
+    long expiry = Catalog.instance().search("B1").getHold(cal.getId()).getExpiryMillis();
+    List transactions = describe(ann.getTransactions());
+    String bobId = bob.getId();
+    String calId = cal.getId();
+    String annId = ann.getId();
+    Thread.sleep(20);
+    LibraryFixture.forget();
+    library = Library.retrieve(false);
+    assertNotNull(library);
+    Book dune = Catalog.instance().search("B1");
+    Book emma = Catalog.instance().search("B2");
+    assertNull(dune.getBorrower());
+    assertFalse(dune.hasHold(bobId));
+    assertEquals(expiry, dune.getHold(calId).getExpiryMillis());
+    assertEquals(bobId, emma.getBorrower().getId());
+    assertEquals(dueDate, emma.getDueDateMillis());
+    assertEquals(transactions, describe(library.searchMembership(annId).getTransactions()));
+  }
+  @Test
+  void replayRemovesTheHoldsThatHadExpired() {
+    Member ann = library.addMember("Ann", "1 Elm St", "555-0100");
+    Member bob = library.addMember("Bob", "2 Elm St", "555-0101");
+    library.addBook("Dune", "Herbert", "B1");
+    library.issueBook(ann.getId(), "B1");
+    library.placeHold(bob.getId(), "B1", 0);
+    assertEquals(1, library.removeInvalidHolds());
+    String bobId = bob.getId();
+    LibraryFixture.forget();
+    library = Library.retrieve(false);
+    Book dune = Catalog.instance().search("B1");
+    assertFalse(dune.hasHold(bobId));
+    assertFalse(library.searchMembership(bobId).getHolds().hasNext());
+  }
+  @Test
+  void holdsSweptInTheBackgroundStayRemovedAfterReplay() throws InterruptedException {
+    Member ann = library.addMember("Ann", "1 Elm St", "555-0100");
+    Member bob = library.addMember("Bob", "2 Elm St", "555-0101");
+    Member cal = library.addMember("Cal", "3 Elm St", "555-0102");
+    int books = Journal.MAX_ARGUMENTS / 2 + 10;
+    for (int index = 0; index < books; index++) {
+      library.addBook("Title " + index, "Author", "B" + index);
+      library.issueBook(ann.getId(), "B" + index);
+      assertEquals(Library.HOLD_PLACED, library.placeHold(bob.getId(), "B" + index, 0));
+    }
+    assertEquals(Library.HOLD_PLACED, library.placeHold(cal.getId(), "B0", 7));
+    library.startHoldSweeper(10, TimeUnit.MILLISECONDS);
+    try {
+      long deadline = System.currentTimeMillis() + 10000;
+      while (library.searchMembership(bob.getId()).getHolds().hasNext()) {
+        assertTrue(System.currentTimeMillis() < deadline);
+        Thread.sleep(10);
+      }
+    } finally {
+      library.stopHoldSweeper();
+    }
+    assertEquals(Library.HOLD_PLACED, library.placeHold(bob.getId(), "B1", 7));
+    String bobId = bob.getId();
+    String calId = cal.getId();
+    LibraryFixture.forget();
+    library = Library.retrieve(false);
+    assertTrue(Catalog.instance().search("B1").hasHold(bobId));
+    assertTrue(Catalog.instance().search("B0").hasHold(calId));
+    for (int index = 0; index < books; index++) {
+      assertEquals(index == 1, Catalog.instance().search("B" + index).hasHold(bobId));
+    }
+    Iterator holds = library.searchMembership(bobId).getHolds();
+    assertEquals("B1", ((Hold) holds.next()).getBook().getId());
+    assertFalse(holds.hasNext());
+  }
+  @Test
+  void replayContinuesFromSavedData() {
+    Member ann = library.addMember("Ann", "1 Elm St", "555-0100");
+    library.addBook("Dune", "Herbert", "B1");
+    assertTrue(Library.save());
+    library.addBook("Emma", "Austen", "B2");
+    library.issueBook(ann.getId(), "B2");
+    String annId = ann.getId();
+    LibraryFixture.forget();
+    library = Library.retrieve(false);
+    assertNotNull(Catalog.instance().search("B1"));
+    assertEquals(annId, Catalog.instance().search("B2").getBorrower().getId());
+    Member member = library.addMember("Bob", "2 Elm St", "555-0101");
+    assertNotEquals(annId, member.getId());
+  }
+  @Test
+  void newLibraryIsNotStartedOverJournaledOperations() {
+    library.addBook("Dune", "Herbert", "B1");
+    LibraryFixture.forget();
+    long length = new File("LibraryJournal").length();
+    assertTrue(length > 0);
+    assertTrue(Library.hasSavedData());
+    assertFalse(Library.instance().openJournal(false));
+    assertEquals(length, new File("LibraryJournal").length());
+    LibraryFixture.forget();
+    Library.retrieve(false);
+    assertNotNull(Catalog.instance().search("B1"));
+  }
+  @Test
+  void fieldTooLongForTheJournalIsRejectedBeforeAnythingChanges() {
+    char[] letters = new char[Journal.MAX_ARGUMENT_BYTES / 2 + 1];
+    Arrays.fill(letters, '\u00e9');
+    String title = new String(letters);
+    assertFalse(Journal.fits("Dune", title));
+    assertTrue(Journal.fits("Dune", title.substring(1)));
+    assertNull(library.addBook(title, "Herbert", "B1"));
+    assertNull(Catalog.instance().search("B1"));
+    assertNull(library.addMember("Ann", title, "555-0100"));
+    assertEquals(0, MemberList.instance().size());
+    assertNotNull(library.addBook("Emma", "Austen", "B2"));
+    LibraryFixture.forget();
+    Library.retrieve(false);
+    assertNull(Catalog.instance().search("B1"));
+    assertNotNull(Catalog.instance().search("B2"));
+  }
+  @Test
+  void recordThatCannotBeEncodedFailsTheJournal() throws IOException {
+    File file = new File("test.journal");
+    Journal journal = Journal.open(file, 0, null, 1);
+    try {
+      journal.append(Journal.ADD_BOOK, 0, 0, "Dune", "Herbert", "B1");
+      assertTrue(journal.sync());
+      char[] letters = new char[Journal.MAX_ARGUMENT_BYTES + 1];
+      Arrays.fill(letters, 'x');
+      journal.append(Journal.ADD_BOOK, 0, 0, new String(letters), "Austen", "B2");
+      assertFalse(journal.sync(), "a record that was dropped is not reported durable");
+      journal.append(Journal.ADD_BOOK, 0, 0, "Emma", "Austen", "B3");
+      assertFalse(journal.sync());
+    } finally {
+      journal.close();
+      file.delete();
+    }
+  }
+  @Test
+  void failedSyncHaltsTheLibraryAndKeepsTheSavedDataAsJournaled() throws Exception {
+    Member ann = library.addMember("Ann", "1 Elm St", "555-0100");
+    library.addBook("Dune", "Herbert", "B1");
+    assertTrue(Library.save());
+    assertNotNull(library.addBook("Emma", "Austen", "B2"));
+    Field field = Library.class.getDeclaredField("journal");
+    field.setAccessible(true);
+    Object journal = field.get(library);
+    field = Journal.class.getDeclaredField("channel");
+    field.setAccessible(true);
+    ((Channel) field.get(journal)).close();
+    assertFalse(library.isHalted());
+    assertNull(library.issueBook(ann.getId(), "B1"), "the loan could not be journaled");
+    assertTrue(library.isHalted());
+    assertNull(library.addBook("Persuasion", "Austen", "B3"));
+    assertNull(Catalog.instance().search("B3"), "a halted library is not changed");
+    assertEquals(Library.OPERATION_FAILED, library.returnBook("B1"));
+    assertNull(library.addMember("Bob", "2 Elm St", "555-0101"));
+    assertEquals(0, library.removeInvalidHolds());
+    assertFalse(Library.save());
+    assertFalse(Library.saveInBackground());
+    assertFalse(SerializedData.save(new File("LibraryData.ser")));
+    assertFalse(new File("LibraryData.ser").exists());
+    String annId = ann.getId();
+    LibraryFixture.forget();
+    library = Library.retrieve(false);
+    assertFalse(library.isHalted());
+    assertNotNull(Catalog.instance().search("B2"));
+    assertNull(Catalog.instance().search("B3"));
+    assertNull(Catalog.instance().search("B1").getBorrower(), "the failed loan was not saved");
+    assertFalse(library.searchMembership(annId).getBooksIssued().hasNext());
+  }
+  /*
+   * Lists the transactions as strings that include their times
+   */
+  private static List describe(Iterator transactions) {
+    List result = new ArrayList();
+    while (transactions.hasNext()) {
+      Transaction transaction = (Transaction) transactions.next();
+      result.add(transaction.getType() + " " + transaction.getBookId() + " "
+          + transaction.getTimeInMillis());
+    }
+    return result;
+  }
+}
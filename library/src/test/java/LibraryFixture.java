@@ -0,0 +1,81 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import java.lang.reflect.*;
+import java.io.*;
+/**
+ * Helpers shared by the tests. The library is made of singletons that keep
+ * their files in the working directory, so each test starts by forgetting
+ * the library held in memory and deleting those files.
+ *
+ */
+final class LibraryFixture {
+  static final String[] DATA_FILES = {"LibraryData", "LibraryData.tmp", "LibraryJournal",
+      "LibraryJournal.retired", "LibraryIds"};
+  private static final String[] SINGLETONS = {"Library", "library", "Catalog", "catalog",
+      "MemberList", "memberList", "MemberIdServer", "server", "TransactionStore", "store"};
+  /*
+   * Static methods only
+   */
+  private LibraryFixture() {
+  }
+  /**
+   * Forgets the library held in memory, closing its journal, so that the
+   * next one is created or retrieved from scratch. The files on disk stay.
+   */
+  static void forget() {
+    try {
+      Field field = Library.class.getDeclaredField("library");
+      field.setAccessible(true);
+      Library library = (Library) field.get(null);
+      if (library != null) {
+        library.stopHoldSweeper();
+        library.closeJournal();
+      }
+      for (int index = 0; index < SINGLETONS.length; index += 2) {
+        field = Class.forName(SINGLETONS[index]).getDeclaredField(SINGLETONS[index + 1]);
+        field.setAccessible(true);
+        field.set(null, null);
+      }
+    } catch(ReflectiveOperationException roe) {
+      throw new IllegalStateException(roe);
+    }
+  }
+  /**
+   * Forgets the library and deletes its files
+   */
+  static void reset() {
+    forget();
+    for (int index = 0; index < DATA_FILES.length; index++) {
+      new File(DATA_FILES[index]).delete();
+    }
+  }
+  /**
+   * Starts an empty library with its journal open, as a desk does on its first day
+   * @return the library
+   */
+  static Library fresh() {
+    reset();
+    Library library = Library.instance();
+    if (!library.openJournal(false)) {
+      throw new IllegalStateException("Journal could not be opened");
+    }
+    return library;
+  }
+}
@@ -0,0 +1,156 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import java.io.*;
+import java.net.*;
+import java.text.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Talks to the LibraryServer over a loopback connection
+ *
+ */
+class LibraryServerTest {
+  private Library library;
+  private LibraryServer server;
+  private Socket socket;
+  private BufferedReader reader;
+  private Writer writer;
+  @BeforeEach
+  void setUp() throws IOException {
+    library = LibraryFixture.fresh();
+    server = new LibraryServer(library, 0);
+    server.start();
+    socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+    socket.setSoTimeout(10000);
+    reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+    writer = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
+  }
+  @AfterEach
+  void tearDown() throws IOException {
+    socket.close();
+    server.close();
+    LibraryFixture.reset();
+  }
+  /*
+   * Sends requests, one per line, without waiting for their answers
+   */
+  private void send(String requests) throws IOException {
+    writer.write(requests);
+    writer.flush();
+  }
+  /*
+   * Reads one answer: the outcome line and the lines that follow, up to
+   * the empty line that ends it
+   */
+  private List answer() throws IOException {
+    List lines = new ArrayList();
+    for (String line = reader.readLine(); line.length() > 0; line = reader.readLine()) {
+      lines.add(line);
+    }
+    return lines;
+  }
+  /*
+   * Sends a request and reads its answer
+   */
+  private List request(String request) throws IOException {
+    send(request + "\n");
+    return answer();
+  }
+  @Test
+  void issueHoldAndReturn() throws IOException {
+    library.addBook("Emma", "Austen", "B1");
+    String borrower = library.addMember("Jane Doe", "1 Elm St", "651-555-0100").getId();
+    String waiting = library.addMember("John Roe", "2 Oak St", "651-555-0199").getId();
+    List answer = request("ISSUE\t" + borrower + "\tB1");
+    assertEquals(2, answer.size());
+    assertEquals(Integer.toString(Library.BOOK_ISSUED), answer.get(0));
+    String[] book = LibraryServer.split((String) answer.get(1));
+    assertEquals("B1", book[0]);
+    assertEquals("Emma", book[1]);
+    assertEquals("Austen", book[2]);
+    assertEquals(borrower, book[3]);
+    assertEquals(Catalog.instance().search("B1").getDueDateMillis(), Long.parseLong(book[4]));
+    assertEquals(Arrays.asList(Integer.toString(Library.HOLD_PLACED)),
+        request("HOLD\t" + waiting + "\tB1\t7"));
+    assertEquals(Arrays.asList(Library.OPERATION_COMPLETED + "\t1"),
+        request("HOLD_POSITION\t" + waiting + "\tB1"));
+    assertEquals(Arrays.asList(Integer.toString(Library.BOOK_HAS_HOLD)), request("RETURN\tB1"));
+    answer = request("PROCESS_HOLD\tB1");
+    assertEquals(Integer.toString(Library.OPERATION_COMPLETED), answer.get(0));
+    assertEquals(waiting, LibraryServer.split((String) answer.get(1))[0]);
+    assertEquals(Arrays.asList(Integer.toString(Library.NO_HOLD_FOUND)), request("PROCESS_HOLD\tB1"));
+  }
+  @Test
+  void pipelinedRequestsAreAnsweredInOrder() throws IOException {
+    library.addBook("Emma", "Austen", "B1");
+    library.addBook("Persuasion", "Austen", "B2");
+    String member = library.addMember("Jane Doe", "1 Elm St", "651-555-0100").getId();
+    send("PING\nISSUE\t" + member + "\tB1\nISSUE\t" + member + "\tB9\nRETURN\tB1\nRETURN\tB1\n"
+        + "SEARCH\tpersuasion\nPING\n");
+    assertEquals(Arrays.asList(Integer.toString(Library.OPERATION_COMPLETED)), answer());
+    assertEquals(Integer.toString(Library.BOOK_ISSUED), answer().get(0));
+    assertEquals(Arrays.asList(Integer.toString(Library.OPERATION_FAILED)), answer());
+    assertEquals(Arrays.asList(Integer.toString(Library.OPERATION_COMPLETED)), answer());
+    assertEquals(Arrays.asList(Integer.toString(Library.BOOK_NOT_ISSUED)), answer());
+    assertEquals(Arrays.asList(Integer.toString(Library.OPERATION_COMPLETED), "B2\tPersuasion\tAusten"),
+        answer());
+    assertEquals(Arrays.asList(Integer.toString(Library.OPERATION_COMPLETED)), answer());
+  }
+  @Test
+  void fieldsWithTabsLineBreaksAndBackslashesAreEscaped() throws IOException {
+    library.addBook("Tabs\tand\\slashes", "Line\nbreak", "B1");
+    String member = library.addMember("Jane\tDoe", "1 Elm St", "651-555-0100").getId();
+    List answer = request("LOOK_UP\tTabs");
+    assertEquals(2, answer.size());
+    assertEquals("B1\tTabs\\tand\\\\slashes\tLine\\nbreak", answer.get(1));
+    String[] book = LibraryServer.split((String) answer.get(1));
+    assertEquals("Tabs\tand\\slashes", book[1]);
+    assertEquals("Line\nbreak", book[2]);
+    answer = request("MEMBERS_BY_NAME\t" + LibraryServer.escape("jane\tdoe"));
+    assertEquals(2, answer.size());
+    assertEquals(member + "\tJane\\tDoe\t1 Elm St\t651-555-0100", answer.get(1));
+  }
+  @Test
+  void transactionsOfAMemberOnADate() throws IOException {
+    library.addBook("Emma", "Austen", "B1");
+    String member = library.addMember("Jane Doe", "1 Elm St", "651-555-0100").getId();
+    library.issueBook(member, "B1");
+    String today = new SimpleDateFormat("yyyy-MM-dd").format(new Date());
+    assertEquals(Arrays.asList(Integer.toString(Library.OPERATION_COMPLETED),
+        "Book issued\tB1\tEmma\t" + today), request("TRANSACTIONS\t" + member + "\t" + today));
+    assertEquals(Arrays.asList(Integer.toString(Library.OPERATION_COMPLETED),
+        "Book issued\tB1\tEmma\t" + today), request("TRANSACTIONS\t\t" + today + "\t" + today));
+    assertEquals(Arrays.asList(Integer.toString(Library.NO_SUCH_MEMBER)),
+        request("TRANSACTIONS\tM999\t" + today));
+  }
+  @Test
+  void badRequestsAreAnsweredAndTheConnectionStaysOpen() throws IOException {
+    assertEquals(Arrays.asList(LibraryServer.BAD_REQUEST + "\tunknown command"), request("LEND\tB1"));
+    assertEquals(Arrays.asList(LibraryServer.BAD_REQUEST + "\tmissing argument 2"), request("ISSUE\tM1"));
+    assertEquals(Arrays.asList(LibraryServer.BAD_REQUEST + "\tdates are written as yyyy-mm-dd"),
+        request("TRANSACTIONS\t\t2024-13-45"));
+    assertEquals(LibraryServer.BAD_REQUEST + "\t", ((String) request("HOLD\tM1\tB1\tseven").get(0))
+        .substring(0, 2));
+    assertEquals(Arrays.asList(Integer.toString(Library.OPERATION_COMPLETED)), request("ping"));
+    send("QUIT\nPING\n");
+    assertNull(reader.readLine(), "the server closes the connection on QUIT");
+  }
+}
@@ -0,0 +1,112 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Hands out member ids from blocks reserved in a file, and starts over
+ * after a crash
+ *
+ */
+class MemberIdServerTest {
+  private File ids = new File("LibraryIds");
+  @BeforeEach
+  void setUp() {
+    LibraryFixture.reset();
+  }
+  @AfterEach
+  void tearDown() {
+    LibraryFixture.reset();
+  }
+  /*
+   * Drops the server without releasing its reservation, as a crash would
+   */
+  private static void crash() throws ReflectiveOperationException {
+    Field field = MemberIdServer.class.getDeclaredField("server");
+    field.setAccessible(true);
+    field.set(null, null);
+  }
+  /*
+   * Hands out a number of ids and adds them to a set, checking that none
+   * was in it already
+   */
+  private static void take(int count, Set taken) {
+    for (int index = 0; index < count; index++) {
+      int id = MemberIdServer.instance().getId();
+      assertTrue(taken.add(Integer.valueOf(id)), "id " + id + " was handed out twice");
+    }
+  }
+  @Test
+  void idsAreNotReusedAfterACrash() throws Exception {
+    Set taken = new HashSet();
+    for (int run = 0; run < 4; run++) {
+      MemberIdServer.instance().reserveIn(ids);
+      take(run == 2 ? 3000 : 10 + run, taken);
+      crash();
+    }
+    MemberIdServer.instance().reserveIn(ids);
+    take(1, taken);
+  }
+  @Test
+  void releaseKeepsTheRestOfTheBlock() throws IOException {
+    MemberIdServer.instance().reserveIn(ids);
+    Set taken = new HashSet();
+    take(5, taken);
+    MemberIdServer.instance().release();
+    LibraryFixture.forget();
+    MemberIdServer.instance().reserveIn(ids);
+    assertEquals(6, MemberIdServer.instance().getId());
+  }
+  @Test
+  void noIdIsHandedOutWhenTheBlockCannotBeReserved() throws Exception {
+    MemberIdServer server = MemberIdServer.instance();
+    server.reserveIn(ids);
+    Set taken = new HashSet();
+    take(1, taken);
+    take(1023, taken);
+    Field field = MemberIdServer.class.getDeclaredField("reservations");
+    field.setAccessible(true);
+    ((RandomAccessFile) field.get(server)).close();
+    int next = server.peekId();
+    assertThrows(IllegalStateException.class, () -> server.getId());
+    assertThrows(IllegalStateException.class, () -> server.getId());
+    assertEquals(next, server.peekId(), "the ids past the reserved block were not used up");
+    field.set(server, null);
+    crash();
+    MemberIdServer.instance().reserveIn(ids);
+    take(1, taken);
+    assertEquals(Integer.valueOf(next), Collections.max(taken));
+  }
+  @Test
+  void addMemberFailsWhenTheIdCannotBeReserved() throws Exception {
+    Library library = LibraryFixture.fresh();
+    for (int index = 0; index < 1024; index++) {
+      assertNotNull(library.addMember("Member " + index, "Address", "555-0100"));
+    }
+    Field field = MemberIdServer.class.getDeclaredField("reservations");
+    field.setAccessible(true);
+    ((RandomAccessFile) field.get(MemberIdServer.instance())).close();
+    assertNull(library.addMember("Jane Doe", "1 Elm St", "651-555-0100"));
+    assertEquals(1024, MemberList.instance().size());
+    field.set(MemberIdServer.instance(), null);
+  }
+}
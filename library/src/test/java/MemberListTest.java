@@ -0,0 +1,91 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import java.util.*;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Finds members by phone number and by name, whether they were added
+ * before or after the tables were built, or are still in a snapshot
+ *
+ */
+class MemberListTest {
+  private Library library;
+  @BeforeEach
+  void setUp() {
+    library = LibraryFixture.fresh();
+    library.addMember("Renée O'Brien", "1 Elm St", "(555) 010-0100");
+    library.addMember("Zoë  van-Dyke", "2 Elm St", "555.010.0101");
+    library.addMember("Renee OBrien", "3 Elm St", "+1 555 010 0102");
+  }
+  @AfterEach
+  void tearDown() {
+    LibraryFixture.reset();
+  }
+  @Test
+  void phoneNumbersMatchOnTheirDigits() {
+    assertEquals(Arrays.asList("M1"), ids(MemberList.instance().findByPhone("555-010-0100")));
+    assertEquals(Arrays.asList("M2"), ids(MemberList.instance().findByPhone("5550100101")));
+    assertEquals(Arrays.asList("M3"), ids(MemberList.instance().findByPhone("1 (555) 010-0102")));
+    assertTrue(MemberList.instance().findByPhone("555 010 0102").isEmpty());
+    assertTrue(MemberList.instance().findByPhone("none").isEmpty());
+    assertTrue(MemberList.instance().findByPhone(null).isEmpty());
+  }
+  @Test
+  void namesMatchWithoutCaseAccentsApostrophesOrPunctuation() {
+    assertEquals(Arrays.asList("M1", "M3"), ids(MemberList.instance().findByName("renee obrien")));
+    assertEquals(Arrays.asList("M1", "M3"), ids(MemberList.instance().findByName("  RENÉE O’BRIEN ")));
+    assertEquals(Arrays.asList("M1", "M3"), ids(MemberList.instance().findByName("Renée O'Brien")));
+    assertEquals(Arrays.asList("M2"), ids(MemberList.instance().findByName("zoe van dyke")));
+    assertTrue(MemberList.instance().findByName("zoe vandyke").isEmpty());
+    assertTrue(MemberList.instance().findByName("renee o brien").isEmpty());
+    assertTrue(MemberList.instance().findByName("'").isEmpty());
+  }
+  @Test
+  void membersAddedAfterTheTablesAreBuiltAreFound() {
+    assertTrue(MemberList.instance().findByName("ann").isEmpty());
+    library.addMember("Ann", "4 Elm St", "555-010-0100");
+    assertEquals(Arrays.asList("M4"), ids(MemberList.instance().findByName("Ann")));
+    assertEquals(Arrays.asList("M1", "M4"), ids(MemberList.instance().findByPhone("5550100100")));
+  }
+  @Test
+  void tablesAreBuiltFromMembersStillInTheSnapshot() {
+    assertTrue(Library.save());
+    LibraryFixture.forget();
+    library = Library.retrieve(true);
+    MappedSnapshot snapshot = Catalog.instance().getSnapshot();
+    library.addMember("Renee O'Brien", "4 Elm St", "555-010-0103");
+    assertEquals(3, snapshot.getUndecodedMembers());
+    assertEquals(Arrays.asList("M1", "M3", "M4"), ids(MemberList.instance().findByName("renee obrien")));
+    assertEquals(1, snapshot.getUndecodedMembers());
+    assertEquals(Arrays.asList("M2"), ids(MemberList.instance().findByPhone("555 010 0101")));
+    assertEquals(0, snapshot.getUndecodedMembers());
+    assertEquals("Zoë  van-Dyke", library.searchMembership("M2").getName());
+  }
+  /*
+   * Lists the ids of members
+   */
+  private static List ids(List members) {
+    List ids = new ArrayList();
+    for (Iterator iterator = members.iterator(); iterator.hasNext(); ) {
+      ids.add(((Member) iterator.next()).getId());
+    }
+    return ids;
+  }
+}
@@ -0,0 +1,95 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import java.util.*;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Checks that a member's transactions are found by day, in order of time,
+ * even when they were not recorded in that order
+ *
+ */
+class MemberTransactionsTest {
+  private Member member;
+  @BeforeEach
+  void setUp() {
+    LibraryFixture.reset();
+    member = new Member("Ann", "1 Elm St", "555-0100", "M1");
+    record("B3", 2024, Calendar.MARCH, 3, 9);
+    record("B1", 2024, Calendar.MARCH, 1, 15);
+    record("B2", 2024, Calendar.MARCH, 2, 10);
+    record("B0", 2024, Calendar.MARCH, 1, 8);
+    record("B4", 2024, Calendar.MARCH, 2, 10);
+    record("B5", 2024, Calendar.MARCH, 1, 12);
+  }
+  @AfterEach
+  void tearDown() {
+    LibraryFixture.reset();
+  }
+  @Test
+  void allTransactionsComeInOrderOfTime() {
+    assertEquals(Arrays.asList("B0", "B5", "B1", "B2", "B4", "B3"), books(member.getTransactions()));
+  }
+  @Test
+  void transactionsOfOneDay() {
+    assertEquals(Arrays.asList("B0", "B5", "B1"), books(member.getTransactions(date(2024, Calendar.MARCH, 1, 0))));
+    assertEquals(Collections.emptyList(), books(member.getTransactions(date(2024, Calendar.MARCH, 4, 0))));
+  }
+  @Test
+  void transactionsInARangeOfDays() {
+    Iterator transactions = member.getTransactions(date(2024, Calendar.MARCH, 2, 23),
+        date(2024, Calendar.MARCH, 3, 0));
+    assertEquals(Arrays.asList("B2", "B4", "B3"), books(transactions));
+    assertFalse(member.getTransactions(date(2024, Calendar.MARCH, 3, 0), date(2024, Calendar.MARCH, 2, 0))
+        .hasNext());
+  }
+  @Test
+  void transactionsSoFarLeaveOutLaterOnes() {
+    Iterator soFar = member.getTransactionsSoFar();
+    int count = member.getTransactionCount();
+    record("B6", 2024, Calendar.MARCH, 1, 9);
+    record("B7", 2024, Calendar.FEBRUARY, 28, 9);
+    assertEquals(6, count);
+    assertEquals(Arrays.asList("B0", "B5", "B1", "B2", "B4", "B3"), books(soFar));
+    assertEquals(Arrays.asList("B7", "B0", "B6", "B5", "B1", "B2", "B4", "B3"), books(member.getTransactions()));
+  }
+  /*
+   * Records that the member borrowed a book at the given hour of a day
+   */
+  private void record(String bookId, int year, int month, int day, int hour) {
+    member.restoreTransaction(Transaction.BOOK_ISSUED, bookId, "Title " + bookId,
+        date(year, month, day, hour).getTimeInMillis());
+  }
+  /*
+   * Returns a date at the given hour
+   */
+  private static Calendar date(int year, int month, int day, int hour) {
+    return new GregorianCalendar(year, month, day, hour, 0);
+  }
+  /*
+   * Lists the book ids of transactions
+   */
+  private static List books(Iterator transactions) {
+    List books = new ArrayList();
+    while (transactions.hasNext()) {
+      books.add(((Transaction) transactions.next()).getBookId());
+    }
+    return books;
+  }
+}
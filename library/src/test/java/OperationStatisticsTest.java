@@ -0,0 +1,91 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Checks that library operations are counted by their actual outcome
+ *
+ */
+class OperationStatisticsTest {
+  private Library library;
+  private OperationStatistics statistics;
+  @BeforeEach
+  void setUp() {
+    library = LibraryFixture.fresh();
+    statistics = library.getStatistics();
+    statistics.reset();
+  }
+  @AfterEach
+  void tearDown() {
+    LibraryFixture.reset();
+  }
+  @Test
+  void issueBookCountsEachReasonForFailure() {
+    Member member = library.addMember("Ann", "1 Elm St", "555-0100");
+    Member other = library.addMember("Bob", "2 Elm St", "555-0101");
+    library.addBook("Dune", "Herbert", "B1");
+    assertNull(library.issueBook(member.getId(), "B9"));
+    assertNull(library.issueBook("M999", "B1"));
+    assertNotNull(library.issueBook(member.getId(), "B1"));
+    assertNull(library.issueBook(other.getId(), "B1"));
+    assertEquals(4, statistics.getCount(OperationStatistics.ISSUE_BOOK));
+    assertEquals(1, statistics.getResultCount(OperationStatistics.ISSUE_BOOK, Library.BOOK_NOT_FOUND));
+    assertEquals(1, statistics.getResultCount(OperationStatistics.ISSUE_BOOK, Library.NO_SUCH_MEMBER));
+    assertEquals(1, statistics.getResultCount(OperationStatistics.ISSUE_BOOK, Library.BOOK_ISSUED));
+    assertEquals(1, statistics.getResultCount(OperationStatistics.ISSUE_BOOK, Library.OPERATION_COMPLETED));
+  }
+  @Test
+  void renewBookCountsEachReasonForFailure() {
+    Member member = library.addMember("Ann", "1 Elm St", "555-0100");
+    Member other = library.addMember("Bob", "2 Elm St", "555-0101");
+    library.addBook("Dune", "Herbert", "B1");
+    library.addBook("Emma", "Austen", "B2");
+    assertNull(library.renewBook("B1", member.getId()));
+    library.issueBook(member.getId(), "B1");
+    assertNull(library.renewBook("B1", other.getId()));
+    assertNotNull(library.renewBook("B1", member.getId()));
+    assertEquals(Library.HOLD_PLACED, library.placeHold(other.getId(), "B1", 7));
+    assertNull(library.renewBook("B1", member.getId()));
+    assertEquals(1, statistics.getResultCount(OperationStatistics.RENEW_BOOK, Library.BOOK_NOT_ISSUED));
+    assertEquals(1, statistics.getResultCount(OperationStatistics.RENEW_BOOK, Library.OPERATION_FAILED));
+    assertEquals(1, statistics.getResultCount(OperationStatistics.RENEW_BOOK, Library.OPERATION_COMPLETED));
+    assertEquals(1, statistics.getResultCount(OperationStatistics.RENEW_BOOK, Library.BOOK_HAS_HOLD));
+  }
+  @Test
+  void processHoldTellsMissingBookFromMissingHold() {
+    Member member = library.addMember("Ann", "1 Elm St", "555-0100");
+    Member other = library.addMember("Bob", "2 Elm St", "555-0101");
+    library.addBook("Dune", "Herbert", "B1");
+    library.issueBook(member.getId(), "B1");
+    assertNull(library.processHold("B9"));
+    assertNull(library.processHold("B1"));
+    library.placeHold(other.getId(), "B1", 7);
+    assertSame(other, library.processHold("B1"));
+    assertEquals(1, statistics.getResultCount(OperationStatistics.PROCESS_HOLD, Library.BOOK_NOT_FOUND));
+    assertEquals(1, statistics.getResultCount(OperationStatistics.PROCESS_HOLD, Library.NO_HOLD_FOUND));
+    assertEquals(1, statistics.getResultCount(OperationStatistics.PROCESS_HOLD, Library.OPERATION_COMPLETED));
+  }
+  @Test
+  void operationThatThrowsIsStillCounted() {
+    assertThrows(NullPointerException.class, () -> library.importBooks(null));
+    assertEquals(1, statistics.getCount(OperationStatistics.IMPORT_BOOKS));
+    assertEquals(1, statistics.getResultCount(OperationStatistics.IMPORT_BOOKS, Library.OPERATION_FAILED));
+  }
+}
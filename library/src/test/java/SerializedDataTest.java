@@ -0,0 +1,125 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Checks that data saved with Java serialization is still retrieved: a
+ * file written by the first version of the library, and one written in the
+ * same format by SerializedData.save
+ *
+ */
+class SerializedDataTest {
+  @BeforeEach
+  void setUp() {
+    LibraryFixture.reset();
+  }
+  @AfterEach
+  void tearDown() {
+    LibraryFixture.reset();
+  }
+  @Test
+  void firstVersionDataIsRetrieved() throws IOException {
+    InputStream saved = getClass().getResourceAsStream("/SerializedLibraryData");
+    try {
+      Files.copy(saved, Paths.get("LibraryData"));
+    } finally {
+      saved.close();
+    }
+    Library library = Library.retrieve(false);
+    assertNotNull(library);
+    checkFirstVersionData(library);
+    assertEquals("M4", library.addMember("Dee", "4 Elm St", "555-0103").getId());
+  }
+  @Test
+  void firstVersionDataSurvivesASnapshot() throws IOException {
+    InputStream saved = getClass().getResourceAsStream("/SerializedLibraryData");
+    try {
+      Files.copy(saved, Paths.get("LibraryData"));
+    } finally {
+      saved.close();
+    }
+    Library.retrieve(false);
+    assertTrue(Library.save());
+    LibraryFixture.forget();
+    checkFirstVersionData(Library.retrieve(true));
+  }
+  @Test
+  void savedFormatIsReadBack() {
+    Library library = LibraryFixture.fresh();
+    Member ann = library.addMember("Ann", "1 Elm St", "555-0100");
+    Member bob = library.addMember("Bob", "2 Elm St", "555-0101");
+    library.addBook("Dune", "Herbert", "B1");
+    library.addBook("Emma", "Austen", "B2");
+    library.issueBook(ann.getId(), "B1");
+    library.placeHold(bob.getId(), "B1", 7);
+    long dueDate = Catalog.instance().search("B1").getDueDateMillis();
+    long expiry = Catalog.instance().search("B1").getHold(bob.getId()).getExpiryMillis();
+    assertTrue(SerializedData.save(new File("LibraryData")));
+    LibraryFixture.forget();
+    new File("LibraryJournal").delete();
+    library = Library.retrieve(false);
+    Book dune = Catalog.instance().search("B1");
+    assertEquals("M1", dune.getBorrower().getId());
+    assertEquals(dueDate, dune.getDueDateMillis());
+    assertEquals(expiry, dune.getHold("M2").getExpiryMillis());
+    assertSame(dune, ((Hold) library.searchMembership("M2").getHolds().next()).getBook());
+    assertEquals(Arrays.asList("Book issued "), types(library.searchMembership("M1")));
+    assertEquals("M3", library.addMember("Cal", "3 Elm St", "555-0102").getId());
+  }
+  /*
+   * Checks the library saved by the first version: Ann has borrowed Dune
+   * and Ulysses, Bob and Cal wait for Dune in that order, and Cal also
+   * waits for Ulysses
+   */
+  private static void checkFirstVersionData(Library library) {
+    Member ann = library.searchMembership("M1");
+    Member cal = library.searchMembership("M3");
+    assertEquals("Ann", ann.getName());
+    assertEquals("555-0102", cal.getPhone());
+    Iterator borrowed = ann.getBooksIssued();
+    assertEquals("B1", ((Book) borrowed.next()).getId());
+    assertEquals("B3", ((Book) borrowed.next()).getId());
+    assertFalse(borrowed.hasNext());
+    Book dune = Catalog.instance().search("B1");
+    assertSame(ann, dune.getBorrower());
+    assertEquals(1, dune.getHoldPosition("M2"));
+    assertEquals(2, dune.getHoldPosition("M3"));
+    assertNull(Catalog.instance().search("B2").getBorrower());
+    Iterator holds = cal.getHolds();
+    assertEquals("B1", ((Hold) holds.next()).getBook().getId());
+    assertEquals("B3", ((Hold) holds.next()).getBook().getId());
+    assertEquals(Arrays.asList("Book issued ", "Book issued ", "Book renewed "), types(ann));
+    assertEquals(Arrays.asList("Hold Placed ", "Book issued ", "Book returned "),
+        types(library.searchMembership("M2")));
+  }
+  /*
+   * Lists the types of a member's transactions
+   */
+  private static List types(Member member) {
+    List types = new ArrayList();
+    for (Iterator iterator = member.getTransactions(); iterator.hasNext(); ) {
+      types.add(((Transaction) iterator.next()).getType());
+    }
+    return types;
+  }
+}
@@ -0,0 +1,237 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import java.io.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Checks that a saved snapshot brings back the books, members, loans,
+ * holds and transactions, whether it is decoded up front, on first use,
+ * or mapped in chunks so small that most values cross from one to the next;
+ * that searches, due date lists and saves leave the records they do not
+ * need alone; and that snapshots without the due date order still list
+ * the books due
+ *
+ */
+class SnapshotTest {
+  private static final String LONG_TITLE = "A title that is longer than one of the small chunks";
+  private long dueDate;
+  private long expiry;
+  @BeforeEach
+  void setUp() {
+    Library library = LibraryFixture.fresh();
+    Member ann = library.addMember("Ann", "1 Elm St", "555-0100");
+    Member bob = library.addMember("Bob", "2 Elm St", "555-0101");
+    Member cal = library.addMember("Cal", "3 Elm St", "555-0102");
+    library.addBook(LONG_TITLE, "Herbert", "B1");
+    library.addBook("Emma", "Austen", "B2");
+    library.addBook("Ulysses", "Joyce", "B3");
+    library.issueBook(ann.getId(), "B1");
+    library.issueBook(ann.getId(), "B3");
+    library.placeHold(bob.getId(), "B1", 7);
+    library.placeHold(cal.getId(), "B1", 3);
+    library.placeHold(cal.getId(), "B3", 5);
+    library.issueBook(bob.getId(), "B2");
+    library.returnBook("B2");
+    dueDate = Catalog.instance().search("B1").getDueDateMillis();
+    expiry = Catalog.instance().search("B1").getHold("M3").getExpiryMillis();
+    assertTrue(Library.save());
+    LibraryFixture.forget();
+  }
+  @AfterEach
+  void tearDown() {
+    LibraryFixture.reset();
+  }
+  @Test
+  void decodedSnapshotHasEverything() {
+    check(Library.retrieve(false));
+  }
+  @Test
+  void lazySnapshotDecodesOnFirstUse() {
+    check(Library.retrieve(true));
+  }
+  @Test
+  void snapshotMappedInSmallChunks() throws IOException {
+    Library library = Library.instance();
+    MappedSnapshot snapshot = MappedSnapshot.open(new File("LibraryData"), 5);
+    snapshot.attach();
+    snapshot.loadAll();
+    check(library);
+  }
+  @Test
+  void searchesDecodeOnlyWhatTheyFind() {
+    Library.retrieve(true);
+    MappedSnapshot snapshot = Catalog.instance().getSnapshot();
+    List found = Catalog.instance().findBooks("emma", false, 10);
+    assertEquals(1, found.size());
+    assertEquals("B2", ((Book) found.get(0)).getId());
+    assertTrue(MemberList.instance().findByPhone("555-0199").isEmpty());
+    assertTrue(MemberList.instance().findByName("Dee").isEmpty());
+    assertTrue(snapshot.containsBook("B1"));
+    assertTrue(snapshot.containsBook("B3"));
+    assertEquals(3, snapshot.getUndecodedMembers());
+    List bobs = MemberList.instance().findByName("BOB");
+    assertEquals(1, bobs.size());
+    assertEquals("M2", ((Member) bobs.get(0)).getId());
+    assertEquals("B1", ((Book) Catalog.instance().completeBooks("herb", 10).get(0)).getId());
+  }
+  @Test
+  void saveCopiesRecordsThatWereNotDecoded() {
+    Library.retrieve(true);
+    MappedSnapshot snapshot = Catalog.instance().getSnapshot();
+    assertNull(Catalog.instance().search("B2").getBorrower());
+    assertTrue(Library.save());
+    assertTrue(snapshot.containsBook("B1"));
+    assertEquals(3, snapshot.getUndecodedMembers());
+    LibraryFixture.forget();
+    check(Library.retrieve(false));
+  }
+  @Test
+  void longChainsOfLoansAndHoldsAreDecoded() {
+    LibraryFixture.fresh();
+    int length = 20000;
+    long time = System.currentTimeMillis() + 86400000L;
+    Member holder = null;
+    for (int index = 0; index < length; index++) {
+      Member member = new Member("Member " + index, "Street", "555-" + index);
+      Book book = new Book("Title " + index, "Author", "C" + index);
+      MemberList.instance().insertMember(member);
+      Catalog.instance().insertBook(book);
+      book.restoreLoan(member, time);
+      member.restoreLoan(book);
+      if (holder != null) {
+        Hold hold = new Hold(holder, book, time);
+        book.placeHold(hold);
+        holder.restoreHold(hold);
+      }
+      holder = member;
+    }
+    assertTrue(Library.save());
+    LibraryFixture.forget();
+    Library library = Library.retrieve(true);
+    MappedSnapshot snapshot = Catalog.instance().getSnapshot();
+    assertEquals("M1", Catalog.instance().search("C0").getBorrower().getId());
+    assertEquals(0, snapshot.getUndecodedMembers());
+    Member last = library.searchMembership("M" + length);
+    assertSame(Catalog.instance().search("C" + (length - 1)), last.getBooksIssued().next());
+    Hold hold = (Hold) library.searchMembership("M" + (length - 1)).getHolds().next();
+    assertSame(last.getBooksIssued().next(), hold.getBook());
+  }
+  @Test
+  void dueDateListsDecodeOnlyTheBooksThatHaveComeDue() {
+    saveLoansDueInDays(new int[] {-3, 20, -1, 2, -2, 1});
+    Library library = Library.retrieve(true);
+    MappedSnapshot snapshot = Catalog.instance().getSnapshot();
+    assertEquals(Arrays.asList("D0", "D4", "D2"), ids(library.getOverdueBooks()));
+    assertTrue(snapshot.containsBook("D5"));
+    assertTrue(snapshot.containsBook("D1"));
+    assertEquals(Arrays.asList("D5", "D3"), ids(library.getBooksDueWithin(3)));
+    assertTrue(snapshot.containsBook("D1"));
+    assertEquals(Arrays.asList("D5", "D3", "D1"), ids(library.getBooksDueWithin(30)));
+    assertFalse(snapshot.containsBook("D1"));
+    assertEquals(Arrays.asList("D0", "D4", "D2"), ids(library.getOverdueBooks()));
+  }
+  @Test
+  void snapshotWithoutDueDateOrderIsDecodedForDueDateLists() throws IOException {
+    saveLoansDueInDays(new int[] {-3, 20, -1, 2, -2, 1});
+    RandomAccessFile file = new RandomAccessFile("LibraryData", "rw");
+    try {
+      long position = Snapshot.HEADER_SIZE;
+      file.seek(position);
+      for (byte tag = file.readByte(); tag != Snapshot.DUE_DATES; tag = file.readByte()) {
+        assertNotEquals(Snapshot.END, tag);
+        position += Snapshot.SECTION_HEADER_SIZE + file.readLong();
+        file.seek(position);
+      }
+      file.seek(position);
+      file.writeByte(127);
+    } finally {
+      file.close();
+    }
+    Library library = Library.retrieve(true);
+    assertNotNull(Catalog.instance().getSnapshot());
+    assertEquals(Arrays.asList("D0", "D4", "D2"), ids(library.getOverdueBooks()));
+    assertNull(Catalog.instance().getSnapshot());
+    assertEquals(Arrays.asList("D5", "D3", "D1"), ids(library.getBooksDueWithin(30)));
+  }
+  @Test
+  void membersAddedAfterRetrievalGetNewIds() {
+    Library library = Library.retrieve(true);
+    assertEquals("M4", library.addMember("Dee", "4 Elm St", "555-0103").getId());
+  }
+  /*
+   * Saves a library in which book Dn is lent to its own member and due the
+   * given number of days from now
+   */
+  private void saveLoansDueInDays(int[] days) {
+    Library library = LibraryFixture.fresh();
+    long now = System.currentTimeMillis();
+    for (int index = 0; index < days.length; index++) {
+      Member member = library.addMember("Member " + index, "Street", "555-" + index);
+      Book book = library.addBook("Title " + index, "Author", "D" + index);
+      book.restoreLoan(member, now + days[index] * 86400000L);
+      member.restoreLoan(book);
+    }
+    assertTrue(Library.save());
+    LibraryFixture.forget();
+  }
+  /*
+   * Lists the ids of the books an iterator returns
+   */
+  private static List ids(Iterator books) {
+    List ids = new ArrayList();
+    while (books.hasNext()) {
+      ids.add(((Book) books.next()).getId());
+    }
+    return ids;
+  }
+  /*
+   * Checks the library saved by setUp
+   */
+  private void check(Library library) {
+    assertNotNull(library);
+    Book first = Catalog.instance().search("B1");
+    assertEquals(LONG_TITLE, first.getTitle());
+    assertEquals("M1", first.getBorrower().getId());
+    assertEquals(dueDate, first.getDueDateMillis());
+    assertEquals(1, first.getHoldPosition("M2"));
+    assertEquals(2, first.getHoldPosition("M3"));
+    assertEquals(expiry, first.getHold("M3").getExpiryMillis());
+    assertNull(Catalog.instance().search("B2").getBorrower());
+    Member cal = library.searchMembership("M3");
+    assertEquals("555-0102", cal.getPhone());
+    Iterator holds = cal.getHolds();
+    assertEquals("B1", ((Hold) holds.next()).getBook().getId());
+    assertEquals("B3", ((Hold) holds.next()).getBook().getId());
+    assertFalse(holds.hasNext());
+    Iterator borrowed = library.searchMembership("M1").getBooksIssued();
+    assertSame(first, borrowed.next());
+    List types = new ArrayList();
+    for (Iterator iterator = library.searchMembership("M2").getTransactions(); iterator.hasNext(); ) {
+      types.add(((Transaction) iterator.next()).getType());
+    }
+    assertEquals(Arrays.asList("Hold Placed ", "Book issued ", "Book returned "), types);
+    List ids = new ArrayList();
+    for (Iterator iterator = Catalog.instance().getBooks(); iterator.hasNext(); ) {
+      ids.add(((Book) iterator.next()).getId());
+    }
+    assertEquals(Arrays.asList("B1", "B2", "B3"), ids);
+  }
+}
@@ -0,0 +1,72 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Runs the desk interface from scripts
+ *
+ */
+class UserInterfaceTest {
+  private PrintStream console;
+  @BeforeEach
+  void setUp() {
+    LibraryFixture.reset();
+    console = System.out;
+  }
+  @AfterEach
+  void tearDown() {
+    System.setOut(console);
+    LibraryFixture.reset();
+  }
+  /*
+   * Writes a script and runs it quietly
+   */
+  private void run(String script) throws IOException {
+    File file = new File("test.script");
+    Files.write(file.toPath(), script.getBytes(StandardCharsets.UTF_8));
+    try {
+      UserInterface.runScript(file.getName(), true);
+    } finally {
+      file.delete();
+    }
+  }
+  @Test
+  void emptyFieldKeepsItsPlaceInTabSeparatedLine() throws IOException {
+    run("n\n1\tJane Doe\t\t651-555-0100\n1\tJohn Roe\t12 Main St\t651-555-0199\n0\n");
+    List found = MemberList.instance().findByPhone("651 555 0100");
+    assertEquals(1, found.size());
+    Member member = (Member) found.get(0);
+    assertEquals("Jane Doe", member.getName());
+    assertEquals("", member.getAddress());
+    assertEquals("651-555-0100", member.getPhone());
+    member = (Member) MemberList.instance().findByName("john roe").get(0);
+    assertEquals("12 Main St", member.getAddress());
+  }
+  @Test
+  void endOfInputReturnsAndClosesTheJournal() throws IOException {
+    run("n\n1\tJane Doe\t1 Elm St\t651-555-0100\n");
+    assertTrue(new File("LibraryJournal").length() > 0, "the journal was written when it was closed");
+    assertEquals(1, MemberList.instance().size());
+  }
+}
@@ -0,0 +1,166 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import java.lang.reflect.*;
+import java.util.*;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Checks the words the trie matches, and the distances it gives, against
+ * the number of mistakes worked out for every word of the vocabulary, a
+ * letter swapped with the one next to it counting as one mistake
+ *
+ */
+class WordTrieTest {
+  private static final String LETTERS = "abcde";
+  private Random random = new Random(18);
+  @Test
+  void matchesAgreeWithDistancesWorkedOutWordByWord() {
+    WordTrie trie = new WordTrie();
+    SortedSet vocabulary = new TreeSet();
+    for (int count = 0; count < 600; count++) {
+      String word = word(1 + random.nextInt(7));
+      vocabulary.add(word);
+      trie.add(word, word.toUpperCase());
+    }
+    for (int count = 0; count < 200; count++) {
+      String text = word(1 + random.nextInt(6));
+      for (int maxDistance = 0; maxDistance <= 2; maxDistance++) {
+        for (int mode = 0; mode < 2; mode++) {
+          boolean prefix = mode == 1;
+          List expected = new ArrayList();
+          for (Iterator iterator = vocabulary.iterator(); iterator.hasNext(); ) {
+            String word = (String) iterator.next();
+            int distance = distance(text, word, prefix);
+            assertEquals(Math.min(distance, maxDistance + 1), WordTrie.distance(text, word, prefix, maxDistance),
+                text + " to " + word);
+            if (distance <= maxDistance) {
+              expected.add(word + " " + distance);
+            }
+          }
+          List matched = new ArrayList();
+          for (Iterator iterator = trie.match(text, maxDistance, prefix).iterator(); iterator.hasNext(); ) {
+            WordTrie.Match match = (WordTrie.Match) iterator.next();
+            assertEquals(match.word.toUpperCase(), match.value);
+            matched.add(match.word + " " + match.distance);
+          }
+          assertEquals(expected, matched, text + (prefix ? "..." : "") + " within " + maxDistance);
+        }
+      }
+    }
+  }
+  @Test
+  void swappedLettersAreOneMistake() {
+    assertEquals(1, WordTrie.distance("ab", "ba", false, 2));
+    assertEquals(1, WordTrie.distance("from", "form", false, 2));
+    assertEquals(1, WordTrie.distance("fro", "formula", true, 2));
+    assertEquals(3, WordTrie.distance("abc", "ca", false, 3));
+    WordTrie trie = new WordTrie();
+    trie.add("form", null);
+    trie.add("formula", null);
+    assertEquals(1, trie.match("from", 1, false).size());
+    assertEquals(2, trie.match("fro", 1, true).size());
+  }
+  @Test
+  void removingAWordDropsTheNodesNoOtherWordNeeds() throws ReflectiveOperationException {
+    WordTrie trie = new WordTrie();
+    trie.add("car", null);
+    trie.add("cart", null);
+    trie.add("cat", null);
+    trie.remove("cars");
+    trie.remove("car");
+    assertEquals(Arrays.asList("cart"), words(trie.match("car", 0, true)));
+    trie.remove("cart");
+    assertEquals(Arrays.asList("cat"), words(trie.match("ca", 0, true)));
+    assertEquals(1, letters(child(child(root(trie), 0), 0)).length);
+    trie.remove("cat");
+    assertEquals(0, letters(root(trie)).length);
+    assertTrue(trie.match("", 2, true).isEmpty());
+  }
+  /*
+   * Counts the mistakes between text and a word the plain way, filling
+   * the whole table; in prefix mode, the fewest over the word's prefixes
+   */
+  private static int distance(String text, String word, boolean prefix) {
+    int[][] table = new int[word.length() + 1][text.length() + 1];
+    for (int index = 0; index <= text.length(); index++) {
+      table[0][index] = index;
+    }
+    int best = text.length();
+    for (int letter = 1; letter <= word.length(); letter++) {
+      table[letter][0] = letter;
+      for (int index = 1; index <= text.length(); index++) {
+        int cost = word.charAt(letter - 1) == text.charAt(index - 1) ? 0 : 1;
+        int distance = Math.min(table[letter - 1][index] + 1, table[letter][index - 1] + 1);
+        distance = Math.min(distance, table[letter - 1][index - 1] + cost);
+        if (letter > 1 && index > 1 && word.charAt(letter - 1) == text.charAt(index - 2)
+            && word.charAt(letter - 2) == text.charAt(index - 1)) {
+          distance = Math.min(distance, table[letter - 2][index - 2] + 1);
+        }
+        table[letter][index] = distance;
+      }
+      best = Math.min(best, table[letter][text.length()]);
+    }
+    return prefix ? best : table[word.length()][text.length()];
+  }
+  /*
+   * Makes a word of a few letters, so that many words are close to each other
+   */
+  private String word(int length) {
+    StringBuilder word = new StringBuilder();
+    for (int count = 0; count < length; count++) {
+      word.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+    }
+    return word.toString();
+  }
+  /*
+   * Lists the words of matches
+   */
+  private static List words(List matches) {
+    List words = new ArrayList();
+    for (Iterator iterator = matches.iterator(); iterator.hasNext(); ) {
+      words.add(((WordTrie.Match) iterator.next()).word);
+    }
+    return words;
+  }
+  /*
+   * Returns the root node of a trie
+   */
+  private static Object root(WordTrie trie) throws ReflectiveOperationException {
+    Field root = WordTrie.class.getDeclaredField("root");
+    root.setAccessible(true);
+    return root.get(trie);
+  }
+  /*
+   * Returns the letters that lead on from a node
+   */
+  private static char[] letters(Object node) throws ReflectiveOperationException {
+    Field letters = node.getClass().getDeclaredField("letters");
+    letters.setAccessible(true);
+    return (char[]) letters.get(node);
+  }
+  /*
+   * Returns a child of a node
+   */
+  private static Object child(Object node, int index) throws ReflectiveOperationException {
+    Field children = node.getClass().getDeclaredField("children");
+    children.setAccessible(true);
+    return ((Object[]) children.get(node))[index];
+  }
+}
@@ -31,8 +31,11 @@ public class Book implements Serializable {
   private String author;
   private String id;
   private Member borrowedBy;
-  private List holds = new LinkedList();
+  private HoldQueue holds = new HoldQueue();
   private Calendar dueDate;
+  transient long snapshotVersion;
+  transient int indexEntry;
+  transient long catalogOrder;
   /**
    * Creates a book with the given id, title, and author name
    * @param title book title
@@ -50,11 +53,38 @@ public class Book implements Serializable {
    * @return true iff the book could be issued. True currently
    */
   public boolean issue(Member member) {
+    return issue(member, dueDate(System.currentTimeMillis()));
+  }
+  /**
+   * Marks the book as issued to a member until a given due date
+   * @param member the borrower
+   * @param dueDateMillis the due date in milliseconds since 1/1/1970
+   * @return true iff the book could be issued. True currently
+   */
+  boolean issue(Member member, long dueDateMillis) {
+    restoreLoan(member, dueDateMillis);
+    return true;
+  }
+  /**
+   * Returns the due date of a book issued or renewed at a given time
+   * @param time milliseconds since 1/1/1970
+   * @return the due date in milliseconds since 1/1/1970, a month later
+   */
+  static long dueDate(long time) {
+    Calendar dueDate = new GregorianCalendar();
+    dueDate.setTimeInMillis(time);
+    dueDate.add(Calendar.MONTH, 1);
+    return dueDate.getTimeInMillis();
+  }
+  /**
+   * Restores the loan of a book that was saved while issued
+   * @param member the borrower
+   * @param dueDateMillis the due date in milliseconds since 1/1/1970
+   */
+  void restoreLoan(Member member, long dueDateMillis) {
     borrowedBy = member;
     dueDate = new GregorianCalendar();
-    dueDate.setTimeInMillis(System.currentTimeMillis());
-    dueDate.add(Calendar.MONTH, 1);
-    return true;
+    dueDate.setTimeInMillis(dueDateMillis);
   }
   /**
    * Marks the book as returned
@@ -75,20 +105,30 @@ public class Book implements Serializable {
    * @return true iff the book could be renewed
    */
   public boolean renew(Member member) {
+    return renew(member, dueDate(System.currentTimeMillis()));
+  }
+  /**
+   * Renews the book until a given due date
+   * @param member who wants to renew the book
+   * @param dueDateMillis the new due date in milliseconds since 1/1/1970
+   * @return true iff the book could be renewed
+   */
+  boolean renew(Member member, long dueDateMillis) {
     if (hasHold()) {
       return false;
     }
-    if ((member.getId()).equals(borrowedBy.getId())) {
-      return (issue(member));
+    if (borrowedBy != null && (member.getId()).equals(borrowedBy.getId())) {
+      return (issue(member, dueDateMillis));
     }
     return false;
   }
   /**
    * Adds one more hold to the book
    * @param hold the new hold on the book
+   * @return true iff the hold was added; false if the member already has a hold on the book
    */
-  public void placeHold(Hold hold) {
-    holds.add(hold);
+  public boolean placeHold(Hold hold) {
+    return holds.add(hold);
   }
   /**
    * Removes hold for a specific member
@@ -96,27 +136,39 @@ public class Book implements Serializable {
    * @return true iff the hold could be removed
    */
   public boolean removeHold(String memberId) {
-    for (ListIterator iterator = holds.listIterator(); iterator.hasNext(); ) {
-      Hold hold = (Hold) iterator.next();
-      String id = hold.getMember().getId();
-      if (id.equals(memberId)) {
-        iterator.remove();
-        return true;
-      }
-    }
-    return false;
+    return holds.remove(memberId) != null;
+  }
+  /**
+   * Removes a specific hold object, if it is still on the book
+   * @param hold the hold to be removed
+   * @return true iff the hold was found and removed
+   */
+  public boolean removeHold(Hold hold) {
+    return holds.remove(hold);
   }
   /**
    * Returns a valid hold
    * @return the next valid hold
    */
   public Hold getNextHold() {
-    for (ListIterator iterator = holds.listIterator(); iterator.hasNext(); ) {
-      Hold hold = (Hold) iterator.next();
-      iterator.remove();
+    for (Hold hold = holds.poll(); hold != null; hold = holds.poll()) {
+      if (hold.isValid()) {
+        return hold;
+      }
+    }
+    return null;
+  }
+  /**
+   * Returns the next valid hold without removing it. Holds that are no
+   * longer valid are dropped from the front of the queue on the way.
+   * @return the next valid hold, or null if there is none
+   */
+  public Hold peekNextHold() {
+    for (Hold hold = holds.peek(); hold != null; hold = holds.peek()) {
       if (hold.isValid()) {
         return hold;
       }
+      holds.poll();
     }
     return null;
   }
@@ -125,11 +177,31 @@ public class Book implements Serializable {
    * @return true iff there is a hold
    */
   public boolean hasHold() {
-    ListIterator iterator = holds.listIterator();
-    if (iterator.hasNext()) {
-      return true;
-    }
-    return false;
+    return !holds.isEmpty();
+  }
+  /**
+   * Returns the hold of a member on this book
+   * @param memberId id of the member
+   * @return the member's hold, or null if there is none
+   */
+  Hold getHold(String memberId) {
+    return holds.get(memberId);
+  }
+  /**
+   * Checks whether a member has a hold on this book
+   * @param memberId id of the member
+   * @return true iff the member has a hold
+   */
+  public boolean hasHold(String memberId) {
+    return holds.get(memberId) != null;
+  }
+  /**
+   * Returns the position of a member in the queue of holds
+   * @param memberId id of the member
+   * @return 1 if the member is next in line, and so on; 0 if the member has no hold
+   */
+  public int getHoldPosition(String memberId) {
+    return holds.position(memberId);
   }
   /**
    * Returns an iterator for the holds
@@ -173,6 +245,13 @@ public class Book implements Serializable {
   public String getDueDate() {
       return (dueDate.getTime().toString());
   }
+  /**
+   * Getter for due date in milliseconds
+   * @return the due date in milliseconds since 1/1/1970
+   */
+  public long getDueDateMillis() {
+    return dueDate.getTimeInMillis();
+  }
   /** 
    * String form of the book
   * 
@@ -0,0 +1,557 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import java.util.*;
+/**
+ * An inverted index over the words in book titles and author names.
+ * Every indexed book gets an entry number; for each word, the index keeps
+ * the entries of the books that contain it, in increasing order, with a
+ * weight that counts the occurrences, title words counting double.
+ * Queries rank books by the sum, over the query words they contain, of
+ * the weight times the rarity of the word (its inverse document frequency).
+ * Entry numbers are handed out in increasing order and never reused, so
+ * adding a book appends to the lists, and removing one takes it out of
+ * the lists of its own words only.
+ * The words themselves are kept in a trie, so that text typed at the
+ * desk can be matched while it is incomplete or misspelled.
+ * A book that is still in a snapshot is indexed from its id, title and
+ * author, and the book takes the place of these once it is decoded.
+ * Searches return book ids, so they need not decode the books.
+ *
+ */
+public class BookIndex {
+  private static final int TITLE_WEIGHT = 2;
+  private static final int AUTHOR_WEIGHT = 1;
+  private Object[] books = new Object[1024];
+  private int nextEntry = 1;
+  private int size;
+  /*
+   * Orders scored books, each a score and an entry, worst first; on equal
+   * scores, the book indexed last is worse
+   */
+  private static final Comparator WORST_FIRST = new Comparator() {
+    public int compare(Object one, Object other) {
+      double[] first = (double[]) one;
+      double[] second = (double[]) other;
+      return first[0] != second[0] ? Double.compare(first[0], second[0]) : Double.compare(second[1], first[1]);
+    }
+  };
+  private Map postings = new HashMap();
+  private WordTrie vocabulary = new WordTrie();
+  /*
+   * A book that has not been decoded from a snapshot
+   */
+  private static class Undecoded {
+    private String id;
+    private String title;
+    private String author;
+    private Undecoded(String id, String title, String author) {
+      this.id = id;
+      this.title = title;
+      this.author = author;
+    }
+  }
+  /*
+   * The entries of the books that contain one word
+   */
+  private static class Postings {
+    private int[] entries = new int[2];
+    private int[] weights = new int[2];
+    private int size;
+    private int highest;
+    /*
+     * Adds an entry larger than any in the list
+     */
+    private void append(int entry, int weight) {
+      if (size == entries.length) {
+        entries = Arrays.copyOf(entries, 2 * size);
+        weights = Arrays.copyOf(weights, 2 * size);
+      }
+      entries[size] = entry;
+      weights[size] = weight;
+      size++;
+      highest = Math.max(highest, weight);
+    }
+    /*
+     * Removes an entry
+     */
+    private void remove(int entry) {
+      int index = Arrays.binarySearch(entries, 0, size, entry);
+      if (index >= 0) {
+        System.arraycopy(entries, index + 1, entries, index, size - index - 1);
+        System.arraycopy(weights, index + 1, weights, index, size - index - 1);
+        size--;
+      }
+    }
+    /*
+     * Finds an entry at or after a position
+     * @return the position of the entry, or a negative number if it is not in the list
+     */
+    private int find(int entry, int from) {
+      return Arrays.binarySearch(entries, from, size, entry);
+    }
+  }
+  /*
+   * A word of a query: its list, what its weights are multiplied by, the
+   * highest score it can give a book, and how far its list has been read
+   */
+  private static class Term {
+    private Postings list;
+    private double factor;
+    private double bound;
+    private int position;
+    private Term(Postings list, double factor) {
+      this.list = list;
+      this.factor = factor;
+      bound = list.highest * factor;
+    }
+  }
+  /*
+   * A typed word, with the lists of the indexed words it may stand for in
+   * decreasing order of the highest score they can give a book
+   */
+  private class Group {
+    private String typed;
+    private int maxDistance;
+    private boolean prefix;
+    private Term[] terms;
+    private long size;
+    /*
+     * Finds the words that match a typed word with at most the given
+     * number of mistakes
+     */
+    private Group(String typed, boolean prefix, int maxDistance) {
+      this.typed = typed;
+      this.prefix = prefix;
+      this.maxDistance = maxDistance;
+      List matches = vocabulary.match(typed, maxDistance, prefix);
+      terms = new Term[matches.size()];
+      for (int index = 0; index < terms.length; index++) {
+        WordTrie.Match match = (WordTrie.Match) matches.get(index);
+        terms[index] = new Term((Postings) match.value, factor(match.word, match.distance));
+        size += terms[index].list.size;
+      }
+      Arrays.sort(terms, new Comparator() {
+        public int compare(Object one, Object other) {
+          return Double.compare(((Term) other).bound, ((Term) one).bound);
+        }
+      });
+    }
+    /*
+     * Returns what the weight of a matching word is multiplied by
+     */
+    private double factor(String word, int distance) {
+      return (double) typed.length() / Math.max(typed.length(), word.length()) / (1 + distance);
+    }
+    /*
+     * Returns the best weight times factor among the words of a book that
+     * match, or 0 if none does
+     */
+    private double score(Map words) {
+      double score = 0;
+      for (Iterator iterator = words.entrySet().iterator(); iterator.hasNext(); ) {
+        Map.Entry word = (Map.Entry) iterator.next();
+        int distance = WordTrie.distance(typed, (String) word.getKey(), prefix, maxDistance);
+        if (distance <= maxDistance) {
+          score = Math.max(score, ((Integer) word.getValue()).intValue()
+              * factor((String) word.getKey(), distance));
+        }
+      }
+      return score;
+    }
+  }
+  /**
+   * Adds a book to the index. A book that is already indexed is left
+   * alone, except that a book decoded from a snapshot takes the place of
+   * the entry it was indexed under before.
+   * @param book the book
+   */
+  public void add(Book book) {
+    if (book.indexEntry != 0) {
+      if (books[book.indexEntry] instanceof Undecoded) {
+        books[book.indexEntry] = book;
+      }
+      return;
+    }
+    book.indexEntry = add(book, book.getTitle(), book.getAuthor());
+  }
+  /**
+   * Adds a book that has not been decoded from a snapshot yet
+   * @param bookId the id of the book
+   * @param title the title
+   * @param author the author
+   * @return the entry of the book, which it takes over once decoded
+   */
+  public int add(String bookId, String title, String author) {
+    return add(new Undecoded(bookId, title, author), title, author);
+  }
+  /*
+   * Gives a book or undecoded book the next entry and puts it on the lists of its words
+   */
+  private int add(Object book, String title, String author) {
+    int entry = nextEntry++;
+    if (entry == books.length) {
+      books = Arrays.copyOf(books, 2 * entry);
+    }
+    books[entry] = book;
+    size++;
+    for (Iterator iterator = words(title, author).entrySet().iterator(); iterator.hasNext(); ) {
+      Map.Entry word = (Map.Entry) iterator.next();
+      Postings list = (Postings) postings.get(word.getKey());
+      if (list == null) {
+        list = new Postings();
+        postings.put(word.getKey(), list);
+        vocabulary.add((String) word.getKey(), list);
+      }
+      list.append(entry, ((Integer) word.getValue()).intValue());
+    }
+    return entry;
+  }
+  /**
+   * Removes a book from the index
+   * @param book the book
+   */
+  public void remove(Book book) {
+    int entry = book.indexEntry;
+    if (entry == 0) {
+      return;
+    }
+    for (Iterator iterator = words(book.getTitle(), book.getAuthor()).keySet().iterator();
+        iterator.hasNext(); ) {
+      Object word = iterator.next();
+      Postings list = (Postings) postings.get(word);
+      list.remove(entry);
+      if (list.size == 0) {
+        postings.remove(word);
+        vocabulary.remove((String) word);
+      }
+    }
+    books[entry] = null;
+    book.indexEntry = 0;
+    size--;
+  }
+  /**
+   * Finds the books that match the words of a query, best match first
+   * @param query words separated by spaces or punctuation; case does not matter
+   * @param matchAll if true, only books that contain every word match;
+   * otherwise books that contain any of the words match
+   * @param limit the largest number of books to return
+   * @return the ids of the matching books, in order of decreasing score
+   */
+  public List search(String query, boolean matchAll, int limit) {
+    Set words = new LinkedHashSet(tokenize(query));
+    List terms = new ArrayList();
+    for (Iterator iterator = words.iterator(); iterator.hasNext(); ) {
+      Postings list = (Postings) postings.get(iterator.next());
+      if (list != null) {
+        terms.add(new Term(list, Math.log(1.0 + (double) size / list.size)));
+      } else if (matchAll) {
+        return new ArrayList();
+      }
+    }
+    if (terms.isEmpty() || limit <= 0) {
+      return new ArrayList();
+    }
+    PriorityQueue best = new PriorityQueue(limit + 1, WORST_FIRST);
+    Term[] sorted = (Term[]) terms.toArray(new Term[terms.size()]);
+    if (matchAll) {
+      intersect(sorted, best, limit);
+    } else {
+      unite(sorted, best, limit);
+    }
+    return ranked(best);
+  }
+  /**
+   * Finds the books that match text that may be incomplete or misspelled,
+   * as typed at the desk. Every typed word must match a word of the book;
+   * unless the text ends with a space, its last word only needs to start
+   * a word of the book. Books that match without mistakes are looked for
+   * first; only if there are none are mistakes allowed, longer words
+   * allowing more. A book scores the weight of the word that
+   * matched each typed word, less for mistakes and for words much longer
+   * than what was typed, so the closest completions come first.
+   * @param text the words typed so far
+   * @param limit the largest number of books to return
+   * @return the ids of the matching books, in order of decreasing score
+   */
+  public List complete(String text, int limit) {
+    List words = tokenize(text);
+    if (words.isEmpty() || limit <= 0) {
+      return new ArrayList();
+    }
+    boolean typing = Character.isLetterOrDigit(text.charAt(text.length() - 1));
+    Group[] groups = new Group[words.size()];
+    boolean forgiving = false;
+    for (int index = 0; index < groups.length; index++) {
+      groups[index] = new Group((String) words.get(index), typing && index == groups.length - 1, 0);
+      forgiving |= allowance((String) words.get(index)) > 0;
+    }
+    PriorityQueue best = collect(groups, limit);
+    if (best.isEmpty() && forgiving) {
+      for (int index = 0; index < groups.length; index++) {
+        String word = (String) words.get(index);
+        groups[index] = new Group(word, groups[index].prefix, allowance(word));
+      }
+      best = collect(groups, limit);
+    }
+    return ranked(best);
+  }
+  /**
+   * Returns the number of books in the index
+   * @return the number of books
+   */
+  public int size() {
+    return size;
+  }
+  /*
+   * Scores the books on every list. The shortest list is walked, and each
+   * of its entries is looked up in the other lists, which are only
+   * searched past the point reached for the previous entry.
+   */
+  private void intersect(Term[] terms, PriorityQueue best, int limit) {
+    Arrays.sort(terms, new Comparator() {
+      public int compare(Object one, Object other) {
+        return ((Term) one).list.size - ((Term) other).list.size;
+      }
+    });
+    Postings shortest = terms[0].list;
+    candidates:
+    for (int index = 0; index < shortest.size; index++) {
+      int entry = shortest.entries[index];
+      double score = shortest.weights[index] * terms[0].factor;
+      for (int other = 1; other < terms.length; other++) {
+        Term term = terms[other];
+        int position = term.list.find(entry, term.position);
+        if (position < 0) {
+          term.position = -position - 1;
+          if (term.position == term.list.size) {
+            break candidates;
+          }
+          continue candidates;
+        }
+        term.position = position + 1;
+        score += term.list.weights[position] * term.factor;
+      }
+      offer(best, limit, score, entry);
+    }
+  }
+  /*
+   * Scores the books on any of the lists by merging the lists in entry
+   * order. Once enough books have been found, a book that only contains
+   * words whose highest possible scores add up to no more than the worst
+   * book kept cannot get in, so the lists of those words stop supplying
+   * candidates and are only searched for the candidates of the others.
+   * This keeps a word that is in most books from making the query walk
+   * the whole index.
+   */
+  private void unite(Term[] terms, PriorityQueue best, int limit) {
+    Arrays.sort(terms, new Comparator() {
+      public int compare(Object one, Object other) {
+        return Double.compare(((Term) one).bound, ((Term) other).bound);
+      }
+    });
+    double[] bounds = new double[terms.length];
+    double total = 0;
+    for (int index = 0; index < terms.length; index++) {
+      total += terms[index].bound;
+      bounds[index] = total;
+    }
+    int essential = 0;
+    while (true) {
+      if (best.size() == limit) {
+        double threshold = ((double[]) best.peek())[0];
+        while (essential < terms.length && bounds[essential] <= threshold) {
+          essential++;
+        }
+        if (essential == terms.length) {
+          return;
+        }
+      }
+      int entry = Integer.MAX_VALUE;
+      for (int index = essential; index < terms.length; index++) {
+        Term term = terms[index];
+        if (term.position < term.list.size && term.list.entries[term.position] < entry) {
+          entry = term.list.entries[term.position];
+        }
+      }
+      if (entry == Integer.MAX_VALUE) {
+        return;
+      }
+      double score = 0;
+      for (int index = essential; index < terms.length; index++) {
+        Term term = terms[index];
+        if (term.position < term.list.size && term.list.entries[term.position] == entry) {
+          score += term.list.weights[term.position] * term.factor;
+          term.position++;
+        }
+      }
+      for (int index = essential - 1; index >= 0; index--) {
+        if (best.size() == limit && score + bounds[index] <= ((double[]) best.peek())[0]) {
+          break;
+        }
+        Term term = terms[index];
+        int position = term.list.find(entry, term.position);
+        if (position >= 0) {
+          score += term.list.weights[position] * term.factor;
+          term.position = position + 1;
+        } else {
+          term.position = -position - 1;
+        }
+      }
+      offer(best, limit, score, entry);
+    }
+  }
+  /*
+   * Finds the best books that match every group. The group with the
+   * shortest lists supplies the candidates, taking its words in decreasing
+   * order of the highest score they can give; each candidate is scored
+   * from its own words. Once no candidate left can beat the worst book
+   * kept, the search stops.
+   */
+  private PriorityQueue collect(Group[] groups, int limit) {
+    PriorityQueue best = new PriorityQueue(limit + 1, WORST_FIRST);
+    Group driver = groups[0];
+    double otherBounds = 0;
+    for (int index = 0; index < groups.length; index++) {
+      if (groups[index].terms.length == 0) {
+        return best;
+      }
+      otherBounds += groups[index].terms[0].bound;
+      if (groups[index].size < driver.size) {
+        driver = groups[index];
+      }
+    }
+    otherBounds -= driver.terms[0].bound;
+    BitSet seen = new BitSet();
+    for (int index = 0; index < driver.terms.length; index++) {
+      Term term = driver.terms[index];
+      if (best.size() == limit && term.bound + otherBounds <= ((double[]) best.peek())[0]) {
+        break;
+      }
+      for (int position = 0; position < term.list.size; position++) {
+        int entry = term.list.entries[position];
+        if (seen.get(entry) || best.size() == limit
+            && term.list.weights[position] * term.factor + otherBounds <= ((double[]) best.peek())[0]) {
+          continue;
+        }
+        seen.set(entry);
+        double score = score(entry, groups);
+        if (score > 0) {
+          offer(best, limit, score, entry);
+        }
+      }
+    }
+    return best;
+  }
+  /*
+   * Returns the number of mistakes allowed in a typed word: none in up to
+   * three letters, one in up to six, and two in longer words
+   */
+  private static int allowance(String typed) {
+    return typed.length() <= 3 ? 0 : typed.length() <= 6 ? 1 : 2;
+  }
+  /*
+   * Scores a book against typed words: the sum, over the typed words, of
+   * the best weight times factor among the book's words that match it, or
+   * 0 if some typed word has no match in the book
+   */
+  private double score(int entry, Group[] groups) {
+    Map words;
+    if (books[entry] instanceof Book) {
+      Book book = (Book) books[entry];
+      words = words(book.getTitle(), book.getAuthor());
+    } else {
+      Undecoded book = (Undecoded) books[entry];
+      words = words(book.title, book.author);
+    }
+    double total = 0;
+    for (int group = 0; group < groups.length; group++) {
+      double score = groups[group].score(words);
+      if (score == 0) {
+        return 0;
+      }
+      total += score;
+    }
+    return total;
+  }
+  /*
+   * Empties the best books found, best first, giving their ids
+   */
+  private List ranked(PriorityQueue best) {
+    String[] result = new String[best.size()];
+    for (int index = result.length - 1; index >= 0; index--) {
+      Object book = books[(int) ((double[]) best.poll())[1]];
+      result[index] = book instanceof Book ? ((Book) book).getId() : ((Undecoded) book).id;
+    }
+    return new ArrayList(Arrays.asList(result));
+  }
+  /*
+   * Keeps a book if it is among the best found so far. On equal scores
+   * the book indexed first wins.
+   */
+  private static void offer(PriorityQueue best, int limit, double score, int entry) {
+    if (best.size() < limit) {
+      best.add(new double[] {score, entry});
+    } else if (score > ((double[]) best.peek())[0]) {
+      best.poll();
+      best.add(new double[] {score, entry});
+    }
+  }
+  /*
+   * Returns the weighted words of a book's title and author
+   */
+  private static Map words(String title, String author) {
+    Map words = new HashMap();
+    count(words, title, TITLE_WEIGHT);
+    count(words, author, AUTHOR_WEIGHT);
+    return words;
+  }
+  /*
+   * Adds the words of a text to a map of weights
+   */
+  private static void count(Map words, String text, int weight) {
+    for (Iterator iterator = tokenize(text).iterator(); iterator.hasNext(); ) {
+      Object word = iterator.next();
+      Integer total = (Integer) words.get(word);
+      words.put(word, Integer.valueOf(total == null ? weight : total.intValue() + weight));
+    }
+  }
+  /**
+   * Splits a text into lower case words made of letters and digits
+   * @param text the text, which may be null
+   * @return the words, in order
+   */
+  public static List tokenize(String text) {
+    List words = new ArrayList();
+    if (text == null) {
+      return words;
+    }
+    int start = -1;
+    for (int index = 0; index <= text.length(); index++) {
+      boolean inWord = index < text.length() && Character.isLetterOrDigit(text.charAt(index));
+      if (inWord && start < 0) {
+        start = index;
+      } else if (!inWord && start >= 0) {
+        words.add(text.substring(start, index).toLowerCase(Locale.ROOT));
+        start = -1;
+      }
+    }
+    return words;
+  }
+}
@@ -20,15 +20,36 @@
 import java.util.*;
 import java.lang.*;
 import java.io.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 /**
- * The collection class for Book objects
+ * The collection class for Book objects. Books are kept in a concurrent
+ * hash table by id, so search, insertion and removal take expected
+ * constant time, and searching takes no lock. Each book carries its
+ * place in the catalog order, books from a snapshot in the order in
+ * which they were saved and ahead of the books added since, so the order
+ * costs nothing until the books are listed. The word index has a
+ * read-write lock of its own, so searches by word run side by side.
  * @author Brahma Dathan and Sarnath Ramnath
  *
  */
 public class Catalog implements Serializable {
   private static final long serialVersionUID = 1L;
-  private List books = new LinkedList();
-  private static Catalog catalog;
+  private Map books = new ConcurrentHashMap();
+  private AtomicLong lastOrder = new AtomicLong();
+  private transient volatile MappedSnapshot snapshot;
+  private transient BookIndex index;
+  private ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
+  private static volatile Catalog catalog;
+  /*
+   * Orders books by their places in the catalog
+   */
+  private static final Comparator CATALOG_ORDER = new Comparator() {
+    public int compare(Object one, Object other) {
+      return Long.compare(((Book) one).catalogOrder, ((Book) other).catalogOrder);
+    }
+  };
   /*
    * Private constructor for singleton pattern
    * 
@@ -36,14 +57,19 @@ public class Catalog implements Serializable {
   private Catalog() {
   }
   /**
-   * Supports the singleton pattern
+   * Supports the singleton pattern. Only the first call takes a lock.
    * 
    * @return the singleton object
    */
   public static Catalog instance() {
-    if (catalog == null) {
-      return (catalog = new Catalog());
-    } else {
+    Catalog instance = catalog;
+    if (instance != null) {
+      return instance;
+    }
+    synchronized (Catalog.class) {
+      if (catalog == null) {
+        catalog = new Catalog();
+      }
       return catalog;
     }
   }
@@ -54,13 +80,20 @@ public class Catalog implements Serializable {
    * 
    */
   public Book search(String bookId) {
-    for (Iterator iterator = books.iterator(); iterator.hasNext(); ) {
-      Book book = (Book) iterator.next();
-      if (book.getId().equals(bookId)) {
-        return book;
-      }
+    Book book = (Book) books.get(bookId);
+    if (book != null) {
+      return book;
     }
-    return null;
+    MappedSnapshot snapshot = this.snapshot;
+    return snapshot == null ? null : snapshot.loadBook(bookId);
+  }
+  /**
+   * Looks a book up among the books that have been decoded
+   * @param bookId the id of the book
+   * @return the book, or null if it is not in the catalog or still in a snapshot
+   */
+  Book find(String bookId) {
+    return (Book) books.get(bookId);
   }
   /**
    * Removes a book from the catalog
@@ -68,28 +101,288 @@ public class Catalog implements Serializable {
    * @return true iff book could be removed
    */
   public boolean removeBook(String bookId) {
-    Book book = search(bookId);
+    if (search(bookId) == null) {
+      return false;
+    }
+    Book book = (Book) books.remove(bookId);
     if (book == null) {
       return false;
-    } else {
-      return books.remove(book);
     }
+    indexLock.writeLock().lock();
+    try {
+      if (index != null) {
+        index.remove(book);
+      }
+    } finally {
+      indexLock.writeLock().unlock();
+    }
+    return true;
   }
   /**
    * Inserts a book into the collection
    * @param book the book to be inserted
-   * @return true iff the book could be inserted. Currently always true
+   * @return true iff the book could be inserted; false if the id is already in use
    */
   public boolean insertBook(Book book) {
-    books.add(book);
+    MappedSnapshot snapshot = this.snapshot;
+    if (snapshot != null && snapshot.containsBook(book.getId())) {
+      return false;
+    }
+    book.catalogOrder = lastOrder.incrementAndGet();
+    if (books.putIfAbsent(book.getId(), book) != null) {
+      return false;
+    }
+    addToIndex(book);
     return true;
   }
   /**
-   * Returns an iterator to all books
+   * Inserts a batch of books. The snapshot is checked for the ids under
+   * one hold of its lock, the books take a run of places in the catalog
+   * order at once, and the word index is updated in one pass under one
+   * hold of its lock.
+   * @param books the books to be inserted
+   * @return for each book, true iff it was inserted; false if its id was already in use
+   */
+  public boolean[] insertBooks(List books) {
+    boolean[] inserted = new boolean[books.size()];
+    Arrays.fill(inserted, true);
+    MappedSnapshot snapshot = this.snapshot;
+    if (snapshot != null) {
+      synchronized (snapshot) {
+        for (int index = 0; index < inserted.length; index++) {
+          inserted[index] = !snapshot.containsBook(((Book) books.get(index)).getId());
+        }
+      }
+    }
+    long order = lastOrder.getAndAdd(inserted.length);
+    List added = new ArrayList(inserted.length);
+    for (int index = 0; index < inserted.length; index++) {
+      Book book = (Book) books.get(index);
+      if (inserted[index]) {
+        book.catalogOrder = order + 1 + index;
+        inserted[index] = this.books.putIfAbsent(book.getId(), book) == null;
+        if (inserted[index]) {
+          added.add(book);
+        }
+      }
+    }
+    addToIndex(added);
+    return inserted;
+  }
+  /*
+   * Adds a book to the word index, if the index has been built. A book
+   * that goes into the table while the index is being built is added by
+   * whichever comes second.
+   */
+  private void addToIndex(Book book) {
+    addToIndex(Collections.singletonList(book));
+  }
+  /*
+   * Adds books to the word index, if the index has been built
+   */
+  private void addToIndex(List books) {
+    if (books.isEmpty()) {
+      return;
+    }
+    indexLock.writeLock().lock();
+    try {
+      if (index != null) {
+        for (Iterator iterator = books.iterator(); iterator.hasNext(); ) {
+          index.add((Book) iterator.next());
+        }
+      }
+    } finally {
+      indexLock.writeLock().unlock();
+    }
+  }
+  /**
+   * Finds the books whose titles and authors match the words of a query,
+   * best match first. Books are ranked by how often the query words occur
+   * in them, words in the title counting double, with rare words weighing
+   * more than common ones.
+   * @param query words separated by spaces or punctuation; case does not matter
+   * @param matchAll if true, only books that contain every word match;
+   * otherwise books that contain any of the words match
+   * @param limit the largest number of books to return
+   * @return the matching books, in order of decreasing score
+   */
+  public List findBooks(String query, boolean matchAll, int limit) {
+    BookIndex index = index();
+    List bookIds;
+    indexLock.readLock().lock();
+    try {
+      bookIds = index.search(query, matchAll, limit);
+    } finally {
+      indexLock.readLock().unlock();
+    }
+    return lookUp(bookIds);
+  }
+  /**
+   * Finds the books whose titles and authors match text that may be
+   * incomplete or misspelled, best match first
+   * @param text the words typed so far
+   * @param limit the largest number of books to return
+   * @return the matching books, in order of decreasing score
+   */
+  public List completeBooks(String text, int limit) {
+    BookIndex index = index();
+    List bookIds;
+    indexLock.readLock().lock();
+    try {
+      bookIds = index.complete(text, limit);
+    } finally {
+      indexLock.readLock().unlock();
+    }
+    return lookUp(bookIds);
+  }
+  /*
+   * Returns the word index, building it on first use, such as after the
+   * catalog has been deserialized or retrieved. Books still in a snapshot
+   * are indexed from their records without being decoded; the snapshot's
+   * lock is taken first, as decoding a book does.
+   */
+  private BookIndex index() {
+    indexLock.readLock().lock();
+    try {
+      if (index != null) {
+        return index;
+      }
+    } finally {
+      indexLock.readLock().unlock();
+    }
+    MappedSnapshot snapshot = this.snapshot;
+    if (snapshot != null) {
+      synchronized (snapshot) {
+        return buildIndex(snapshot);
+      }
+    }
+    return buildIndex(null);
+  }
+  /*
+   * Builds the word index unless it has been built
+   */
+  private BookIndex buildIndex(MappedSnapshot snapshot) {
+    indexLock.writeLock().lock();
+    try {
+      if (index == null) {
+        BookIndex built = new BookIndex();
+        Book[] decoded = capture();
+        Arrays.sort(decoded, CATALOG_ORDER);
+        for (int entry = 0; entry < decoded.length; entry++) {
+          built.add(decoded[entry]);
+        }
+        if (snapshot != null) {
+          snapshot.indexBooks(built);
+        }
+        index = built;
+      }
+      return index;
+    } finally {
+      indexLock.writeLock().unlock();
+    }
+  }
+  /*
+   * Returns the books with the given ids, decoding those still in a
+   * snapshot; books removed in the meantime are left out
+   */
+  private List lookUp(List bookIds) {
+    List found = new ArrayList(bookIds.size());
+    for (Iterator iterator = bookIds.iterator(); iterator.hasNext(); ) {
+      Book book = search((String) iterator.next());
+      if (book != null) {
+        found.add(book);
+      }
+    }
+    return found;
+  }
+  /**
+   * Returns an iterator to all books in catalog order, decoding any still in a snapshot
    * @return iterator to the collection
    */
   public Iterator getBooks() {
-    return books.iterator();
+    MappedSnapshot snapshot = this.snapshot;
+    if (snapshot != null) {
+      snapshot.loadAll();
+    }
+    Book[] all = capture();
+    sort(all);
+    return Arrays.asList(all).iterator();
+  }
+  /**
+   * Copies the references to the books, for a snapshot. Books still in a
+   * snapshot that is attached are not decoded and not included.
+   * @return the books, in no particular order
+   */
+  Book[] capture() {
+    return (Book[]) books.values().toArray(new Book[0]);
+  }
+  /**
+   * Puts books in catalog order
+   * @param books the books
+   */
+  static void sort(Book[] books) {
+    Arrays.sort(books, CATALOG_ORDER);
+  }
+  /**
+   * Returns the snapshot from which books are still decoded
+   * @return the snapshot, or null if there is none
+   */
+  MappedSnapshot getSnapshot() {
+    return snapshot;
+  }
+  /**
+   * Makes the catalog decode books from a snapshot when they are first needed
+   * @param snapshot the snapshot, or null to stop reading from it
+   */
+  void attach(MappedSnapshot snapshot) {
+    this.snapshot = snapshot;
+  }
+  /**
+   * Adds a book read from saved data, after the books read before it
+   * @param book the book
+   */
+  void restoreBook(Book book) {
+    book.catalogOrder = lastOrder.incrementAndGet();
+    restore(book);
+  }
+  /**
+   * Adds a book decoded from a snapshot at its saved place in the catalog
+   * order, ahead of the books added since
+   * @param book the book
+   * @param position the position of the book's record, which grows in saved order
+   */
+  void restoreBook(Book book, long position) {
+    book.catalogOrder = Long.MIN_VALUE + position;
+    restore(book);
+  }
+  /*
+   * Puts a book read from saved data in the table and the word index
+   */
+  private void restore(Book book) {
+    books.put(book.getId(), book);
+    addToIndex(book);
+  }
+  /**
+   * Makes sure that all books with a hold that expires before the given
+   * time have been decoded from the snapshot, if any
+   * @param time milliseconds since 1/1/1970
+   */
+  void loadHoldsExpiringBefore(long time) {
+    MappedSnapshot snapshot = this.snapshot;
+    if (snapshot != null) {
+      snapshot.loadHoldsExpiringBefore(time);
+    }
+  }
+  /**
+   * Makes sure that all issued books due before the given time have been
+   * decoded from the snapshot, if any
+   * @param time milliseconds since 1/1/1970
+   */
+  void loadBooksDueBefore(long time) {
+    MappedSnapshot snapshot = this.snapshot;
+    if (snapshot != null) {
+      snapshot.loadBooksDueBefore(time);
+    }
   }
   /*
    * Supports serialization
@@ -129,6 +422,10 @@ public class Catalog implements Serializable {
   * 
   */
   public String toString() {
-    return books.toString();
+    List list = new ArrayList();
+    for (Iterator iterator = getBooks(); iterator.hasNext(); ) {
+      list.add(iterator.next());
+    }
+    return list.toString();
   }
 }
@@ -0,0 +1,70 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import java.util.*;
+/**
+ * An iterator that walks a sequence of sources one after the other.
+ * Each source is opened only when the previous one is exhausted, so
+ * nothing is copied and elements are produced lazily.
+ * By default the sources are expected to be Iterable; subclasses may
+ * override open to turn any other kind of source into an iterator.
+ *
+ */
+public class ChainedIterator implements Iterator {
+  private Iterator sources;
+  private Iterator current = Collections.emptyIterator();
+  /**
+   * Creates the iterator
+   * @param sources iterator over the sources to be chained
+   */
+  public ChainedIterator(Iterator sources) {
+    this.sources = sources;
+  }
+  /**
+   * Produces an iterator over the elements of a single source
+   * @param source the next source
+   * @return iterator over the elements of the source
+   */
+  protected Iterator open(Object source) {
+    return ((Iterable) source).iterator();
+  }
+  /**
+   * Checks whether any source has elements left
+   * @return true iff there is a next element
+   */
+  public boolean hasNext() {
+    while (!current.hasNext()) {
+      if (!sources.hasNext()) {
+        return false;
+      }
+      current = open(sources.next());
+    }
+    return true;
+  }
+  /**
+   * Returns the next element
+   * @return the next element of the current source
+   */
+  public Object next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return current.next();
+  }
+}
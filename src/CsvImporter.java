@@ -0,0 +1,336 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+/**
+ * Streams records from a CSV file into the library. The file is read on
+ * the calling thread and cut into batches of lines; the batches are
+ * parsed on worker threads and handed back, in file order, to insert,
+ * which subclasses implement to add a whole batch at a time. Fields may
+ * be quoted, with doubled quotes inside a quoted field; spaces around a
+ * field are dropped unless they are within the quotes. A quote that is
+ * not closed by the end of the input, or within MAX_RECORD_LENGTH
+ * characters, makes its line a malformed record, and reading goes on
+ * with the next line. A first line that holds the column names is skipped.
+ *
+ */
+public abstract class CsvImporter {
+  private static final int BATCH_SIZE = 2000;
+  private static final int BATCHES_PER_WORKER = 4;
+  public static final int MAX_RECORD_LENGTH = 1 << 16;
+  private String[] columns;
+  /**
+   * The outcome of an import
+   */
+  public static class Report {
+    private long read;
+    private long imported;
+    private long duplicates;
+    private long malformed;
+    private long nanos;
+    /**
+     * Returns the number of records read
+     * @return the number of records, not counting the column names
+     */
+    public long getRead() {
+      return read;
+    }
+    /**
+     * Returns the number of records added to the library
+     * @return the number of records imported
+     */
+    public long getImported() {
+      return imported;
+    }
+    /**
+     * Returns the number of records skipped because the id was already in use
+     * @return the number of duplicates
+     */
+    public long getDuplicates() {
+      return duplicates;
+    }
+    /**
+     * Returns the number of records skipped because they did not have the
+     * expected number of fields, or a field that could not be stored
+     * @return the number of malformed records
+     */
+    public long getMalformed() {
+      return malformed;
+    }
+    /**
+     * Returns how long the import took
+     * @return the time in milliseconds
+     */
+    public long getMillis() {
+      return nanos / 1000000;
+    }
+    /**
+     * Returns the rate at which records were read and processed
+     * @return records per second
+     */
+    public long getRecordsPerSecond() {
+      return nanos == 0 ? 0 : read * 1000000000L / nanos;
+    }
+    /**
+     * Counts a record that was added
+     */
+    public void imported() {
+      imported++;
+    }
+    /**
+     * Counts a record that was skipped because a field could not be stored
+     */
+    public void malformed() {
+      malformed++;
+    }
+    /**
+     * Counts a record that was skipped because its id was in use
+     */
+    public void duplicate() {
+      duplicates++;
+    }
+    /**
+     * String form of the report
+     * 
+     */
+    @Override
+    public String toString() {
+      return read + " records read, " + imported + " imported, " + duplicates + " duplicates, "
+          + malformed + " malformed, in " + getMillis() + " ms (" + getRecordsPerSecond()
+          + " records per second)";
+    }
+  }
+  /**
+   * Creates an importer for records with the given columns
+   * @param columns the names of the columns, in file order
+   */
+  public CsvImporter(String[] columns) {
+    this.columns = columns;
+  }
+  /**
+   * Adds a batch of records to the library
+   * @param records the records, each an array holding one field per column
+   * @param report the report, on which each record is counted as imported or duplicate
+   */
+  protected abstract void insert(List records, Report report);
+  /**
+   * Reads the whole input
+   * @param input the CSV input
+   * @return the report
+   * @throws IOException if the input cannot be read
+   */
+  public Report run(BufferedReader input) throws IOException {
+    Report report = new Report();
+    long start = System.nanoTime();
+    int workers = Runtime.getRuntime().availableProcessors();
+    ExecutorService parsers = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "csv-parser");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    LinkedList pending = new LinkedList();
+    LinkedList unread = new LinkedList();
+    try {
+      boolean first = true;
+      List lines = new ArrayList(BATCH_SIZE);
+      for (String line = readRecord(input, unread); line != null; line = readRecord(input, unread)) {
+        if (first) {
+          first = false;
+          if (isHeader(line)) {
+            continue;
+          }
+        }
+        lines.add(line);
+        if (lines.size() == BATCH_SIZE) {
+          pending.add(parsers.submit(parse(lines)));
+          lines = new ArrayList(BATCH_SIZE);
+          if (pending.size() >= workers * BATCHES_PER_WORKER) {
+            insert((Future) pending.removeFirst(), report);
+          }
+        }
+      }
+      if (!lines.isEmpty()) {
+        pending.add(parsers.submit(parse(lines)));
+      }
+      while (!pending.isEmpty()) {
+        insert((Future) pending.removeFirst(), report);
+      }
+    } finally {
+      parsers.shutdownNow();
+    }
+    report.nanos = System.nanoTime() - start;
+    return report;
+  }
+  /*
+   * Waits for a parsed batch and inserts its well-formed records
+   */
+  private void insert(Future batch, Report report) throws IOException {
+    List records;
+    try {
+      records = (List) batch.get();
+    } catch(InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Import interrupted");
+    } catch(ExecutionException ee) {
+      throw new IOException(ee.getCause());
+    }
+    List valid = new ArrayList(records.size());
+    for (Iterator iterator = records.iterator(); iterator.hasNext(); ) {
+      String[] fields = (String[]) iterator.next();
+      report.read++;
+      if (fields == null) {
+        report.malformed++;
+      } else {
+        valid.add(fields);
+      }
+    }
+    if (!valid.isEmpty()) {
+      insert(valid, report);
+    }
+  }
+  /*
+   * Returns the task that parses a batch of lines; a line that does not
+   * have one field per column becomes null
+   */
+  private Callable parse(final List lines) {
+    return new Callable() {
+      public Object call() {
+        List records = new ArrayList(lines.size());
+        for (Iterator iterator = lines.iterator(); iterator.hasNext(); ) {
+          String[] fields = split((String) iterator.next());
+          records.add(fields.length == columns.length ? fields : null);
+        }
+        return records;
+      }
+    };
+  }
+  /*
+   * Checks whether a line holds the names of the columns
+   */
+  private boolean isHeader(String line) {
+    String[] fields = split(line);
+    if (fields.length != columns.length) {
+      return false;
+    }
+    for (int index = 0; index < fields.length; index++) {
+      if (!fields[index].trim().equalsIgnoreCase(columns[index])) {
+        return false;
+      }
+    }
+    return true;
+  }
+  /*
+   * Reads one record, which spans several lines when a quoted field holds
+   * a line break. Blank lines are skipped. If the quote is not closed, the
+   * first line is the record, and the lines read after it are put back
+   * into unread, to be read again.
+   */
+  private static String readRecord(BufferedReader input, LinkedList unread) throws IOException {
+    String line = readLine(input, unread);
+    while (line != null && line.length() == 0) {
+      line = readLine(input, unread);
+    }
+    if (line == null || quotes(line) % 2 == 0) {
+      return line;
+    }
+    List following = new ArrayList();
+    int quotes = quotes(line);
+    int length = line.length();
+    while (quotes % 2 != 0) {
+      String next = length < MAX_RECORD_LENGTH ? readLine(input, unread) : null;
+      if (next == null) {
+        unread.addAll(0, following);
+        return line;
+      }
+      following.add(next);
+      length += 1 + next.length();
+      quotes += quotes(next);
+    }
+    StringBuilder record = new StringBuilder(length).append(line);
+    for (Iterator iterator = following.iterator(); iterator.hasNext(); ) {
+      record.append('\n').append((String) iterator.next());
+    }
+    return record.toString();
+  }
+  /*
+   * Reads a line, taking the lines that were put back first
+   */
+  private static String readLine(BufferedReader input, LinkedList unread) throws IOException {
+    return unread.isEmpty() ? input.readLine() : (String) unread.removeFirst();
+  }
+  /*
+   * Counts the quote characters in a line
+   */
+  private static int quotes(String line) {
+    int count = 0;
+    for (int index = line.indexOf('"'); index >= 0; index = line.indexOf('"', index + 1)) {
+      count++;
+    }
+    return count;
+  }
+  /*
+   * Splits a record into its fields, dropping the spaces around them that
+   * are not within quotes
+   */
+  private static String[] split(String record) {
+    List fields = new ArrayList();
+    StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+    int kept = 0;
+    for (int index = 0; index < record.length(); index++) {
+      char character = record.charAt(index);
+      if (quoted) {
+        if (character != '"') {
+          field.append(character);
+        } else if (index + 1 < record.length() && record.charAt(index + 1) == '"') {
+          field.append('"');
+          index++;
+        } else {
+          quoted = false;
+          kept = field.length();
+        }
+      } else if (character == '"') {
+        quoted = true;
+      } else if (character == ',') {
+        fields.add(trim(field, kept));
+        field.setLength(0);
+        kept = 0;
+      } else if (field.length() > 0 || !Character.isWhitespace(character)) {
+        field.append(character);
+      }
+    }
+    fields.add(trim(field, kept));
+    return (String[]) fields.toArray(new String[fields.size()]);
+  }
+  /*
+   * Returns a field without the spaces at its end, keeping the first
+   * characters, which were quoted
+   */
+  private static String trim(StringBuilder field, int kept) {
+    int end = field.length();
+    while (end > kept && Character.isWhitespace(field.charAt(end - 1))) {
+      end--;
+    }
+    return field.substring(0, end);
+  }
+}
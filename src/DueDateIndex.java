@@ -0,0 +1,99 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+/**
+ * The issued books in order of due date, so that the books that are
+ * overdue or due soon can be listed without looking at the rest of the
+ * catalog. The books are kept in a concurrent skip list, ordered by due
+ * date and then by id, so operations on different books can update it
+ * side by side; each book's entry is remembered so that it can be taken
+ * out when the book is renewed or returned.
+ *
+ */
+public class DueDateIndex {
+  private ConcurrentSkipListSet entries = new ConcurrentSkipListSet();
+  private Map indexed = new ConcurrentHashMap();
+  /*
+   * An issued book and the due date it was indexed under
+   */
+  private static class Entry implements Comparable {
+    private long dueDate;
+    private String bookId;
+    private Book book;
+    private Entry(long dueDate, String bookId, Book book) {
+      this.dueDate = dueDate;
+      this.bookId = bookId;
+      this.book = book;
+    }
+    public int compareTo(Object object) {
+      Entry other = (Entry) object;
+      if (dueDate != other.dueDate) {
+        return Long.compare(dueDate, other.dueDate);
+      }
+      return bookId.compareTo(other.bookId);
+    }
+  }
+  /**
+   * Brings the entry of a book up to date after it was issued, renewed or
+   * returned. The caller must keep the book from changing meanwhile.
+   * @param book the book
+   */
+  public void update(Book book) {
+    Entry old = (Entry) indexed.remove(book);
+    if (old != null) {
+      entries.remove(old);
+    }
+    if (book.getBorrower() != null) {
+      Entry entry = new Entry(book.getDueDateMillis(), book.getId(), book);
+      indexed.put(book, entry);
+      entries.add(entry);
+    }
+  }
+  /**
+   * Returns the issued books due in a range of time, earliest first. A
+   * book that changes while the range is read is listed at most once.
+   * @param from the start of the range in milliseconds since 1/1/1970, included
+   * @param to the end of the range in milliseconds since 1/1/1970, excluded
+   * @return the books
+   */
+  public List getBooksDue(long from, long to) {
+    List books = new ArrayList();
+    if (from >= to) {
+      return books;
+    }
+    Set range = entries.subSet(new Entry(from, "", null), true, new Entry(to, "", null), false);
+    for (Iterator iterator = range.iterator(); iterator.hasNext(); ) {
+      Entry entry = (Entry) iterator.next();
+      if (indexed.get(entry.book) == entry) {
+        books.add(entry.book);
+      }
+    }
+    return books;
+  }
+  /**
+   * Returns the number of issued books
+   * @return the number of books in the index
+   */
+  public int size() {
+    return indexed.size();
+  }
+}
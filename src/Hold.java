@@ -19,15 +19,18 @@
  */
 import java.util.*;
 import java.io.*;
+import java.time.*;
 /**
- * Represents a single hold on a book by a member
+ * Represents a single hold on a book by a member.
+ * Holds are ordered by their expiration date, which is kept in
+ * milliseconds since 1/1/1970.
  * @author Brahma Dathan and Sarnath Ramnath
  *
  */
-public class Hold implements Serializable {
+public class Hold implements Serializable, Comparable {
   private Book book;
   private Member member;
-  private Calendar date;
+  private long expiry;
   /**
    * The member and book are stored. The date is computed by adding the
    * duration days to the current date.
@@ -36,11 +39,28 @@ public class Hold implements Serializable {
    * @param duration for how long the hold is valid
    */
   public Hold(Member member, Book book, int duration) {
+    this(member, book, expiry(System.currentTimeMillis(), duration));
+  }
+  /**
+   * Returns when a hold placed at a given time for a number of days expires
+   * @param time when the hold is placed, in milliseconds since 1/1/1970
+   * @param duration for how long the hold is valid in days
+   * @return milliseconds since 1/1/1970
+   */
+  static long expiry(long time, int duration) {
+    return Instant.ofEpochMilli(time).atZone(ZoneId.systemDefault()).plusDays(duration).toInstant()
+        .toEpochMilli();
+  }
+  /**
+   * Recreates a hold that expires at a given time
+   * @param member who placed the hold
+   * @param book the book on which hold is placed
+   * @param expiryMillis when the hold expires, in milliseconds since 1/1/1970
+   */
+  Hold(Member member, Book book, long expiryMillis) {
     this.book = book;
     this.member = member;
-    date = new GregorianCalendar();
-    date.setTimeInMillis(System.currentTimeMillis());
-    date.add(Calendar.DATE, duration);
+    expiry = expiryMillis;
   }
   /**
    * Getter for Member
@@ -61,14 +81,31 @@ public class Hold implements Serializable {
    * @return date until which the hold is valid
    */
   public Calendar getDate() {
+    Calendar date = new GregorianCalendar();
+    date.setTimeInMillis(expiry);
     return date;
   }
+  /**
+   * Returns when the hold expires
+   * @return milliseconds since 1/1/1970
+   */
+  public long getExpiryMillis() {
+    return expiry;
+  }
   /**
    * Checks whether the hold has become invalid because the last date has passed
    * @return true iff the hold is valid
    */
   public boolean isValid(){
-    return (System.currentTimeMillis() < date.getTimeInMillis());
+    return (System.currentTimeMillis() < expiry);
+  }
+  /**
+   * Orders holds by the date on which they expire
+   * @param object the hold to compare with
+   * @return negative, zero or positive as this hold expires before, with or after the other
+   */
+  public int compareTo(Object object) {
+    return Long.compare(expiry, ((Hold) object).expiry);
   }
 }
 
@@ -0,0 +1,213 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import java.util.*;
+import java.io.*;
+/**
+ * The queue of holds on a single book.
+ * Holds are served in the order in which they were placed. Each member
+ * may have at most one hold in the queue, and a member's hold can be
+ * found or removed in constant time. The position of a member in the
+ * queue is kept in a Fenwick tree over the order in which holds arrived,
+ * so it can be computed in logarithmic time even after holds in the
+ * middle of the queue have been removed.
+ *
+ */
+public class HoldQueue implements Serializable {
+  private static final long serialVersionUID = 1L;
+  private static final int INITIAL_CAPACITY = 8;
+  private Map entries = new LinkedHashMap();
+  private int[] tree = new int[INITIAL_CAPACITY + 1];
+  private int nextTicket;
+  /*
+   * A hold together with its place in the arrival order
+   */
+  private static class Entry implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private Hold hold;
+    private int ticket;
+    private Entry(Hold hold, int ticket) {
+      this.hold = hold;
+      this.ticket = ticket;
+    }
+  }
+  /**
+   * Adds a hold at the end of the queue
+   * @param hold the new hold
+   * @return true iff the hold was added; false if the member already has a hold in the queue
+   */
+  public boolean add(Hold hold) {
+    String memberId = hold.getMember().getId();
+    if (entries.containsKey(memberId)) {
+      return false;
+    }
+    if (nextTicket == tree.length - 1) {
+      renumber(Math.max(INITIAL_CAPACITY, 2 * (entries.size() + 1)));
+    }
+    Entry entry = new Entry(hold, nextTicket++);
+    entries.put(memberId, entry);
+    update(entry.ticket, 1);
+    return true;
+  }
+  /**
+   * Removes the hold of a member
+   * @param memberId id of the member
+   * @return the removed hold, or null if the member had no hold in the queue
+   */
+  public Hold remove(String memberId) {
+    Entry entry = (Entry) entries.remove(memberId);
+    if (entry == null) {
+      return null;
+    }
+    removed(entry);
+    return entry.hold;
+  }
+  /**
+   * Removes a specific hold object, if it is still in the queue
+   * @param hold the hold to be removed
+   * @return true iff the hold was found and removed
+   */
+  public boolean remove(Hold hold) {
+    String memberId = hold.getMember().getId();
+    Entry entry = (Entry) entries.get(memberId);
+    if (entry == null || entry.hold != hold) {
+      return false;
+    }
+    entries.remove(memberId);
+    removed(entry);
+    return true;
+  }
+  /**
+   * Returns the hold at the front of the queue without removing it
+   * @return the first hold, or null if the queue is empty
+   */
+  public Hold peek() {
+    if (entries.isEmpty()) {
+      return null;
+    }
+    return ((Entry) entries.values().iterator().next()).hold;
+  }
+  /**
+   * Removes the hold at the front of the queue
+   * @return the first hold, or null if the queue is empty
+   */
+  public Hold poll() {
+    if (entries.isEmpty()) {
+      return null;
+    }
+    Iterator iterator = entries.values().iterator();
+    Entry entry = (Entry) iterator.next();
+    iterator.remove();
+    removed(entry);
+    return entry.hold;
+  }
+  /**
+   * Returns the hold of a member
+   * @param memberId id of the member
+   * @return the member's hold, or null if there is none
+   */
+  public Hold get(String memberId) {
+    Entry entry = (Entry) entries.get(memberId);
+    return entry == null ? null : entry.hold;
+  }
+  /**
+   * Returns the position of a member's hold in the queue
+   * @param memberId id of the member
+   * @return 1 for the front of the queue, and so on; 0 if the member has no hold
+   */
+  public int position(String memberId) {
+    Entry entry = (Entry) entries.get(memberId);
+    if (entry == null) {
+      return 0;
+    }
+    int count = 0;
+    for (int index = entry.ticket + 1; index > 0; index -= index & -index) {
+      count += tree[index];
+    }
+    return count;
+  }
+  /**
+   * Checks whether the queue is empty
+   * @return true iff there are no holds
+   */
+  public boolean isEmpty() {
+    return entries.isEmpty();
+  }
+  /**
+   * Returns the number of holds
+   * @return the number of holds in the queue
+   */
+  public int size() {
+    return entries.size();
+  }
+  /**
+   * Returns an iterator to the holds in queue order
+   * @return iterator to the holds
+   */
+  public Iterator iterator() {
+    final Iterator iterator = entries.values().iterator();
+    return new Iterator() {
+      public boolean hasNext() {
+        return iterator.hasNext();
+      }
+      public Object next() {
+        return ((Entry) iterator.next()).hold;
+      }
+    };
+  }
+  /*
+   * Updates the position counts after an entry has left the queue.
+   * Tickets start over once the queue is empty.
+   */
+  private void removed(Entry entry) {
+    if (entries.isEmpty()) {
+      Arrays.fill(tree, 0);
+      nextTicket = 0;
+    } else {
+      update(entry.ticket, -1);
+    }
+  }
+  /*
+   * Adds a value to the count of a ticket
+   */
+  private void update(int ticket, int delta) {
+    for (int index = ticket + 1; index < tree.length; index += index & -index) {
+      tree[index] += delta;
+    }
+  }
+  /*
+   * Gives the remaining entries consecutive tickets, in queue order,
+   * and rebuilds the tree with room for the given number of tickets
+   */
+  private void renumber(int capacity) {
+    tree = new int[capacity + 1];
+    nextTicket = 0;
+    for (Iterator iterator = entries.values().iterator(); iterator.hasNext(); ) {
+      Entry entry = (Entry) iterator.next();
+      entry.ticket = nextTicket++;
+      tree[entry.ticket + 1] = 1;
+    }
+    for (int index = 1; index < tree.length; index++) {
+      int parent = index + (index & -index);
+      if (parent < tree.length) {
+        tree[parent] += tree[index];
+      }
+    }
+  }
+}
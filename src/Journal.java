@@ -0,0 +1,406 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import java.util.*;
+import java.util.zip.CRC32;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+/**
+ * An append-only journal of the operations that change the library.
+ * Each record carries a sequence number, the operation, the time at which
+ * it ran, a value that depends on the operation (a due date, a hold's
+ * expiration), its string arguments, and a checksum. Records are
+ * collected in memory and written by a background thread, which forces
+ * a whole batch to disk with one sync; an operation waits for the batch
+ * holding its record before it reports success. When the library is
+ * retrieved, the records that are newer than the saved data are replayed.
+ *
+ */
+public class Journal {
+  public static final byte ADD_BOOK = 1;
+  public static final byte ADD_MEMBER = 2;
+  public static final byte ISSUE_BOOK = 3;
+  public static final byte RETURN_BOOK = 4;
+  public static final byte RENEW_BOOK = 5;
+  public static final byte PLACE_HOLD = 6;
+  public static final byte REMOVE_HOLD = 7;
+  public static final byte PROCESS_HOLD = 8;
+  public static final byte REMOVE_BOOK = 9;
+  public static final byte REMOVE_INVALID_HOLDS = 10;
+  public static final byte ISSUE_BOOKS = 11;
+  public static final byte RETURN_BOOKS = 12;
+  public static final byte RENEW_BOOKS = 13;
+  public static final int MAX_ARGUMENTS = 255;
+  public static final int MAX_ARGUMENT_BYTES = 65535;
+  private File file;
+  private FileChannel channel;
+  private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+  private DataOutputStream pendingData = new DataOutputStream(pending);
+  private long lastSequence;
+  private long durableSequence;
+  private long syncInterval;
+  private boolean closed;
+  private volatile IOException failure;
+  private Thread writer;
+  /**
+   * Receives the records of a journal during replay
+   */
+  public interface Listener {
+    /**
+     * Applies one record
+     * @param type the operation
+     * @param time when the operation ran, in milliseconds since 1/1/1970
+     * @param value the value recorded with the operation, if any
+     * @param arguments the string arguments
+     */
+    void apply(byte type, long time, long value, String[] arguments);
+  }
+  /*
+   * Private; use open
+   */
+  private Journal(File file, FileChannel channel, long lastSequence, long syncInterval) {
+    this.file = file;
+    this.channel = channel;
+    this.lastSequence = lastSequence;
+    this.durableSequence = lastSequence;
+    this.syncInterval = syncInterval;
+    writer = new Thread(new Runnable() {
+      public void run() {
+        writeBatches();
+      }
+    }, "journal-writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+  /**
+   * Opens a journal file, replaying every record whose sequence number is
+   * greater than the given one. A record that is incomplete or fails its
+   * checksum ends the journal; it and anything after it are cut off.
+   * @param file the journal file
+   * @param afterSequence sequence number of the last record already applied
+   * @param listener receives the records to replay; may be null
+   * @param syncInterval milliseconds to wait while collecting a batch
+   * @return the journal, ready for appending
+   * @throws IOException if the file cannot be read or opened
+   */
+  public static Journal open(File file, long afterSequence, Listener listener, long syncInterval)
+      throws IOException {
+    long[] result = read(file, afterSequence, listener);
+    FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+    channel.truncate(result[1]);
+    channel.position(result[1]);
+    return new Journal(file, channel, result[0], syncInterval);
+  }
+  /**
+   * Replays a journal file that is no longer appended to, such as one
+   * retired by rotate
+   * @param file the journal file
+   * @param afterSequence sequence number of the last record already applied
+   * @param listener receives the records to replay
+   * @return sequence number of the last record applied
+   * @throws IOException if the file cannot be read
+   */
+  public static long replay(File file, long afterSequence, Listener listener) throws IOException {
+    if (!file.exists()) {
+      return afterSequence;
+    }
+    return read(file, afterSequence, listener)[0];
+  }
+  /*
+   * Reads the valid records of a journal file, passing the ones after the
+   * given sequence number to the listener. Returns the last sequence number
+   * and the length of the valid part of the file.
+   */
+  private static long[] read(File file, long afterSequence, Listener listener) throws IOException {
+    long lastSequence = afterSequence;
+    long validLength = 0;
+    if (!file.exists()) {
+      return new long[] {lastSequence, validLength};
+    }
+    long fileLength = file.length();
+    DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      CRC32 crc = new CRC32();
+      while (true) {
+        int length = input.readInt();
+        if (length <= 0 || length > fileLength) {
+          break;
+        }
+        byte[] payload = new byte[length];
+        input.readFully(payload);
+        int checksum = input.readInt();
+        crc.reset();
+        crc.update(payload, 0, length);
+        if ((int) crc.getValue() != checksum) {
+          break;
+        }
+        DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+        long sequence = record.readLong();
+        byte type = record.readByte();
+        long time = record.readLong();
+        long value = record.readLong();
+        String[] arguments = new String[record.readUnsignedByte()];
+        for (int index = 0; index < arguments.length; index++) {
+          arguments[index] = record.readUTF();
+        }
+        if (sequence > afterSequence) {
+          if (listener != null) {
+            listener.apply(type, time, value, arguments);
+          }
+          lastSequence = sequence;
+        }
+        validLength += 4 + length + 4;
+      }
+    } catch(EOFException eofe) {
+      // the last record was not completely written
+    } finally {
+      input.close();
+    }
+    return new long[] {lastSequence, validLength};
+  }
+  /**
+   * Adds a record to the journal. The record becomes durable with the
+   * next batch; use sync to wait for it. A record that cannot be encoded
+   * fails the journal like a write that fails; after that, records are no
+   * longer kept.
+   * @param type the operation
+   * @param time when the operation ran, in milliseconds since 1/1/1970
+   * @param value the value recorded with the operation, if any
+   * @param arguments the string arguments, at most MAX_ARGUMENTS
+   * @return the sequence number of the record
+   */
+  public synchronized long append(byte type, long time, long value, String... arguments) {
+    if (arguments.length > MAX_ARGUMENTS) {
+      throw new IllegalArgumentException("Too many arguments: " + arguments.length);
+    }
+    long sequence = ++lastSequence;
+    if (failure != null) {
+      return sequence;
+    }
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+      DataOutputStream record = new DataOutputStream(bytes);
+      record.writeLong(sequence);
+      record.writeByte(type);
+      record.writeLong(time);
+      record.writeLong(value);
+      record.writeByte(arguments.length);
+      for (int index = 0; index < arguments.length; index++) {
+        record.writeUTF(arguments[index] == null ? "" : arguments[index]);
+      }
+      CRC32 crc = new CRC32();
+      crc.update(bytes.toByteArray());
+      pendingData.writeInt(bytes.size());
+      bytes.writeTo(pendingData);
+      pendingData.writeInt((int) crc.getValue());
+    } catch(IOException ioe) {
+      ioe.printStackTrace();
+      failure = ioe;
+      notifyAll();
+    }
+    return sequence;
+  }
+  /**
+   * Checks whether strings can be arguments of a record. An argument is
+   * written in modified UTF-8, which holds at most MAX_ARGUMENT_BYTES.
+   * @param arguments the arguments
+   * @return true iff every argument fits in a record
+   */
+  public static boolean fits(String... arguments) {
+    for (int index = 0; index < arguments.length; index++) {
+      String argument = arguments[index];
+      if (argument == null || argument.length() <= MAX_ARGUMENT_BYTES / 3) {
+        continue;
+      }
+      int bytes = 0;
+      for (int position = 0; position < argument.length(); position++) {
+        char letter = argument.charAt(position);
+        bytes += letter >= 1 && letter <= 0x7f ? 1 : letter <= 0x7ff ? 2 : 3;
+      }
+      if (bytes > MAX_ARGUMENT_BYTES) {
+        return false;
+      }
+    }
+    return true;
+  }
+  /**
+   * Waits until every record appended so far is on disk
+   * @return true iff the records could be written
+   */
+  public synchronized boolean sync() {
+    return sync(lastSequence);
+  }
+  /**
+   * Waits until a record and those before it are on disk. Records appended
+   * while one batch is being forced go out together with the next one, so
+   * threads that wait side by side share a sync. Once a write has failed,
+   * nothing is durable any more and this returns false at once.
+   * @param sequence the sequence number of the record
+   * @return true iff the records could be written
+   */
+  public synchronized boolean sync(long sequence) {
+    long target = Math.min(sequence, lastSequence);
+    notifyAll();
+    while (durableSequence < target && failure == null) {
+      try {
+        wait();
+      } catch(InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    return failure == null;
+  }
+  /**
+   * Discards all records. Called once the records are covered by saved data.
+   * @return true iff the journal could be emptied
+   */
+  public synchronized boolean truncate() {
+    if (!sync()) {
+      return false;
+    }
+    try {
+      channel.truncate(0);
+      channel.position(0);
+      channel.force(true);
+      return true;
+    } catch(IOException ioe) {
+      ioe.printStackTrace();
+      return false;
+    }
+  }
+  /**
+   * Moves the records written so far to another file and continues with
+   * an empty journal. Used while saved data is being written in the
+   * background: the retired records may be deleted once the data is saved,
+   * while the records that follow remain in the journal. If the retired
+   * file still exists because an earlier save did not complete, the
+   * records are added to it.
+   * @param retired the file that receives the records written so far
+   * @return true iff the journal could be rotated
+   */
+  public synchronized boolean rotate(File retired) {
+    if (!sync()) {
+      return false;
+    }
+    try {
+      if (retired.exists()) {
+        FileChannel target = new RandomAccessFile(retired, "rw").getChannel();
+        try {
+          long size = channel.size();
+          for (long copied = 0; copied < size; ) {
+            copied += channel.transferTo(copied, size - copied, target.position(target.size()));
+          }
+          target.force(true);
+        } finally {
+          target.close();
+        }
+        channel.truncate(0);
+        channel.position(0);
+        channel.force(true);
+      } else {
+        channel.close();
+        java.nio.file.Files.move(file.toPath(), retired.toPath(), java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+        channel = new RandomAccessFile(file, "rw").getChannel();
+      }
+      return true;
+    } catch(IOException ioe) {
+      ioe.printStackTrace();
+      failure = ioe;
+      return false;
+    }
+  }
+  /**
+   * Checks whether a record could not be written. Once it could not,
+   * nothing appended is durable any more.
+   * @return true iff the journal has failed
+   */
+  public boolean hasFailed() {
+    return failure != null;
+  }
+  /**
+   * Returns the sequence number of the last record
+   * @return the last sequence number
+   */
+  public synchronized long getLastSequence() {
+    return lastSequence;
+  }
+  /**
+   * Writes all pending records and closes the file
+   */
+  public void close() {
+    synchronized (this) {
+      sync();
+      closed = true;
+      notifyAll();
+    }
+    try {
+      writer.join();
+      channel.close();
+    } catch(InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    } catch(IOException ioe) {
+      ioe.printStackTrace();
+    }
+  }
+  /*
+   * Body of the writer thread: collects whatever has been appended during
+   * one sync interval and writes and forces it as a single batch
+   */
+  private void writeBatches() {
+    while (true) {
+      byte[] batch;
+      long batchSequence;
+      synchronized (this) {
+        while (!closed && pending.size() == 0) {
+          try {
+            wait(syncInterval);
+          } catch(InterruptedException ie) {
+            return;
+          }
+        }
+        if (pending.size() == 0) {
+          return;
+        }
+        batch = pending.toByteArray();
+        batchSequence = lastSequence;
+        pending.reset();
+      }
+      try {
+        ByteBuffer buffer = ByteBuffer.wrap(batch);
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+        channel.force(false);
+        synchronized (this) {
+          durableSequence = batchSequence;
+          notifyAll();
+        }
+      } catch(IOException ioe) {
+        ioe.printStackTrace();
+        synchronized (this) {
+          failure = ioe;
+          notifyAll();
+        }
+        return;
+      }
+    }
+  }
+}
@@ -18,6 +18,8 @@
  * and are not responsible for any loss or damage resulting from its use.  
  */
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
 import java.io.*;
 public class Library implements Serializable {
   private static final long serialVersionUID = 1L;
@@ -30,9 +32,29 @@ public class Library implements Serializable {
   public static final int OPERATION_COMPLETED= 7;
   public static final int OPERATION_FAILED= 8;
   public static final int NO_SUCH_MEMBER = 9;
+  public static final int HOLD_EXISTS = 10;
   private Catalog catalog;
   private MemberList memberList;
+  private PriorityQueue holdExpirations = new PriorityQueue();
+  private transient DueDateIndex dueDates = new DueDateIndex();
+  private transient ScheduledExecutorService holdSweeper;
+  private long journalSequence;
+  private transient volatile Journal journal;
+  private transient volatile boolean halted;
+  private transient volatile SnapshotCapture capture;
+  private transient ReentrantReadWriteLock operations;
+  private transient LockStripes stripes;
+  private transient boolean lastSnapshotSaved;
+  private transient long snapshotPauseNanos;
+  private static final String DATA_FILE = "LibraryData";
+  private static final String JOURNAL_FILE = "LibraryJournal";
+  private static final String RETIRED_JOURNAL_FILE = "LibraryJournal.retired";
+  private static final String ID_FILE = "LibraryIds";
+  private static final long JOURNAL_SYNC_MILLIS = 10;
+  private static final int CHECKPOINT_INTERVAL = 100000;
+  private static final int LOCK_STRIPES = 256;
   private static Library library;
+  private static OperationStatistics statistics = OperationStatistics.instance();
   /**
    * Private for the singleton pattern
    * Creates the catalog and member collection objects
@@ -40,13 +62,14 @@ public class Library implements Serializable {
   private Library() {
     catalog = Catalog.instance();
     memberList = MemberList.instance();
+    createLocks();
   }
   /**
    * Supports the singleton pattern
    * 
    * @return the singleton object
    */
-  public static Library instance() {
+  public static synchronized Library instance() {
     if (library == null) {
       MemberIdServer.instance(); // instantiate all singletons
       return (library = new Library());
@@ -59,28 +82,276 @@ public class Library implements Serializable {
    * @param title book title
    * @param author author name
    * @param id book id
-   * @return the Book object created
+   * @return the Book object created, or null if the id is in use, a field
+   * is too long to be journaled, or the book could not be journaled
    */
   public Book addBook(String title, String author, String id) {
-    Book book = new Book(title, author, id);
-    if (catalog.insertBook(book)) {
-      return (book);
+    long start = System.nanoTime();
+    OperationEvent event = OperationEvent.start();
+    Book book = null;
+    try {
+      book = doAddBook(title, author, id);
+      if (book != null && !durable()) {
+        book = null;
+      }
+      return book;
+    } finally {
+      record(OperationStatistics.ADD_BOOK,
+          book != null ? OPERATION_COMPLETED : OPERATION_FAILED, start, event, null, id);
+    }
+  }
+  /*
+   * Adds a book; the work of addBook
+   */
+  private Book doAddBook(String title, String author, String id) {
+    if (!writable() || !Journal.fits(title, author, id)) {
+      return null;
+    }
+    lock(id);
+    try {
+      Book book = new Book(title, author, id);
+      if (catalog.insertBook(book)) {
+        log(Journal.ADD_BOOK, 0, 0, title, author, id);
+        return (book);
+      }
+      return null;
+    } finally {
+      unlock(id);
     }
-    return null;
   }
   /**
   * Organizes the operations for adding a member
   * @param name member name
   * @param address member address
   * @param phone member phone
-  * @return the Member object created
+  * @return the Member object created, or null if a field is too long to be
+  * journaled, its id could not be reserved, or it could not be journaled
   */
   public Member addMember(String name, String address, String phone) {
-    Member member = new Member(name, address, phone);
-    if (memberList.insertMember(member)) {
-      return (member);
+    long start = System.nanoTime();
+    OperationEvent event = OperationEvent.start();
+    Member member = null;
+    try {
+      member = doAddMember(name, address, phone);
+      if (member != null && !durable()) {
+        member = null;
+      }
+      return member;
+    } finally {
+      record(OperationStatistics.ADD_MEMBER,
+          member != null ? OPERATION_COMPLETED : OPERATION_FAILED, start,
+          event, member != null ? member.getId() : null, null);
+    }
+  }
+  /*
+   * Adds a member; the work of addMember
+   */
+  private Member doAddMember(String name, String address, String phone) {
+    if (!writable() || !Journal.fits(name, address, phone)) {
+      return null;
+    }
+    operations.readLock().lock();
+    try {
+      Member member = new Member(name, address, phone);
+      if (memberList.insertMember(member)) {
+        log(Journal.ADD_MEMBER, 0, 0, name, address, phone, member.getId());
+        return (member);
+      }
+      return null;
+    } catch(IllegalStateException ise) {
+      ise.printStackTrace();
+      return null;
+    } finally {
+      operations.readLock().unlock();
+    }
+  }
+  /**
+   * Finds the members with a phone number
+   * @param phone the phone number; spaces and punctuation do not matter
+   * @return iterator to the members, in id order
+   */
+  public Iterator findMembersByPhone(String phone) {
+    long start = System.nanoTime();
+    OperationEvent event = OperationEvent.start();
+    int result = OPERATION_FAILED;
+    try {
+      Iterator members = memberList.findByPhone(phone).iterator();
+      result = OPERATION_COMPLETED;
+      return members;
+    } finally {
+      record(OperationStatistics.FIND_MEMBERS_BY_PHONE, result, start, event, null, null);
+    }
+  }
+  /**
+   * Finds the members with a name
+   * @param name the name; case, accents, punctuation and spacing do not matter
+   * @return iterator to the members, in id order
+   */
+  public Iterator findMembersByName(String name) {
+    long start = System.nanoTime();
+    OperationEvent event = OperationEvent.start();
+    int result = OPERATION_FAILED;
+    try {
+      Iterator members = memberList.findByName(name).iterator();
+      result = OPERATION_COMPLETED;
+      return members;
+    } finally {
+      record(OperationStatistics.FIND_MEMBERS_BY_NAME, result, start, event, null, null);
+    }
+  }
+  /**
+   * Adds the books in a CSV file with the columns title, author and id.
+   * Records are parsed in parallel and added to the catalog in batches;
+   * a book whose id is already in use is skipped and counted as a duplicate,
+   * and one with a field too long to be journaled is counted as malformed.
+   * @param fileName name of the CSV file
+   * @return the report on the import, or null if the file could not be read
+   * or the records imported could not be journaled
+   */
+  public CsvImporter.Report importBooks(String fileName) {
+    long start = System.nanoTime();
+    OperationEvent event = OperationEvent.start();
+    CsvImporter.Report report = null;
+    try {
+      report = doImportBooks(fileName);
+      if (report != null && report.getImported() > 0 && !durable()) {
+        report = null;
+      }
+      return report;
+    } finally {
+      record(OperationStatistics.IMPORT_BOOKS,
+          report != null ? OPERATION_COMPLETED : OPERATION_FAILED, start, event, null, null);
+    }
+  }
+  /*
+   * Imports the books; the work of importBooks
+   */
+  private CsvImporter.Report doImportBooks(String fileName) {
+    if (!writable()) {
+      return null;
+    }
+    CsvImporter importer = new CsvImporter(new String[] {"title", "author", "id"}) {
+      protected void insert(List records, CsvImporter.Report report) {
+        if (!writable()) {
+          return;
+        }
+        List books = new ArrayList(records.size());
+        for (Iterator iterator = records.iterator(); iterator.hasNext(); ) {
+          String[] fields = (String[]) iterator.next();
+          if (Journal.fits(fields)) {
+            books.add(new Book(fields[0], fields[1], fields[2]));
+          } else {
+            iterator.remove();
+            report.malformed();
+          }
+        }
+        String[] ids = new String[books.size()];
+        for (int index = 0; index < ids.length; index++) {
+          ids[index] = ((Book) books.get(index)).getId();
+        }
+        lock(ids);
+        try {
+          boolean[] inserted = catalog.insertBooks(books);
+          for (int index = 0; index < inserted.length; index++) {
+            if (inserted[index]) {
+              String[] fields = (String[]) records.get(index);
+              log(Journal.ADD_BOOK, 0, 0, fields[0], fields[1], fields[2]);
+              report.imported();
+            } else {
+              report.duplicate();
+            }
+          }
+        } finally {
+          unlock(ids);
+        }
+      }
+    };
+    return importFile(importer, fileName);
+  }
+  /**
+   * Adds the members in a CSV file with the columns name, address and phone.
+   * Every member gets a new id, in file order. A member with a field too
+   * long to be journaled is counted as malformed.
+   * @param fileName name of the CSV file
+   * @return the report on the import, or null if the file could not be read,
+   * member ids could not be reserved, or the records imported could not be
+   * journaled
+   */
+  public CsvImporter.Report importMembers(String fileName) {
+    long start = System.nanoTime();
+    OperationEvent event = OperationEvent.start();
+    CsvImporter.Report report = null;
+    try {
+      report = doImportMembers(fileName);
+      if (report != null && report.getImported() > 0 && !durable()) {
+        report = null;
+      }
+      return report;
+    } finally {
+      record(OperationStatistics.IMPORT_MEMBERS,
+          report != null ? OPERATION_COMPLETED : OPERATION_FAILED, start, event, null, null);
+    }
+  }
+  /*
+   * Imports the members; the work of importMembers
+   */
+  private CsvImporter.Report doImportMembers(String fileName) {
+    if (!writable()) {
+      return null;
+    }
+    CsvImporter importer = new CsvImporter(new String[] {"name", "address", "phone"}) {
+      protected void insert(List records, CsvImporter.Report report) {
+        if (!writable()) {
+          return;
+        }
+        List members = new ArrayList(records.size());
+        for (Iterator iterator = records.iterator(); iterator.hasNext(); ) {
+          String[] fields = (String[]) iterator.next();
+          if (Journal.fits(fields)) {
+            members.add(new Member(fields[0], fields[1], fields[2]));
+          } else {
+            iterator.remove();
+            report.malformed();
+          }
+        }
+        operations.readLock().lock();
+        try {
+          boolean[] inserted = memberList.insertMembers(members);
+          for (int index = 0; index < inserted.length; index++) {
+            if (inserted[index]) {
+              Member member = (Member) members.get(index);
+              log(Journal.ADD_MEMBER, 0, 0, member.getName(), member.getAddress(),
+                  member.getPhone(), member.getId());
+              report.imported();
+            } else {
+              report.duplicate();
+            }
+          }
+        } finally {
+          operations.readLock().unlock();
+        }
+      }
+    };
+    return importFile(importer, fileName);
+  }
+  /*
+   * Runs an import over a file
+   */
+  private CsvImporter.Report importFile(CsvImporter importer, String fileName) {
+    try {
+      BufferedReader input = new BufferedReader(new FileReader(fileName), 1 << 16);
+      try {
+        return importer.run(input);
+      } finally {
+        input.close();
+      }
+    } catch(IOException ioe) {
+      ioe.printStackTrace();
+      return null;
+    } catch(IllegalStateException ise) {
+      ise.printStackTrace();
+      return null;
     }
-    return null;
   }
   /**
    * Organizes the placing of a hold
@@ -90,21 +361,85 @@ public class Library implements Serializable {
    * @return indication on the outcome
    */
   public int placeHold(String memberId, String bookId, int duration) {
-    Book book = catalog.search(bookId);
-    if (book == null) {
-      return(BOOK_NOT_FOUND);
+    long start = System.nanoTime();
+    OperationEvent event = OperationEvent.start();
+    int result = OPERATION_FAILED;
+    try {
+      result = doPlaceHold(memberId, bookId, duration);
+      if (result == HOLD_PLACED && !durable()) {
+        result = OPERATION_FAILED;
+      }
+      return result;
+    } finally {
+      record(OperationStatistics.PLACE_HOLD, result, start, event, memberId, bookId);
     }
-    if (book.getBorrower() == null) {
-      return(BOOK_NOT_ISSUED);
+  }
+  /*
+   * Places a hold; the work of placeHold
+   */
+  private int doPlaceHold(String memberId, String bookId, int duration) {
+    if (!writable()) {
+      return OPERATION_FAILED;
     }
-    Member member = memberList.search(memberId);
-    if (member == null) {
-      return(NO_SUCH_MEMBER);
+    lock(bookId, memberId);
+    try {
+      Book book = catalog.search(bookId);
+      if (book == null) {
+        return(BOOK_NOT_FOUND);
+      }
+      if (book.getBorrower() == null) {
+        return(BOOK_NOT_ISSUED);
+      }
+      Member member = memberList.search(memberId);
+      if (member == null) {
+        return(NO_SUCH_MEMBER);
+      }
+      if (book.hasHold(memberId)) {
+        return(HOLD_EXISTS);
+      }
+      preserve(book);
+      preserve(member);
+      long time = System.currentTimeMillis();
+      long expiry = Hold.expiry(time, duration);
+      applyPlaceHold(book, member, time, expiry);
+      log(Journal.PLACE_HOLD, time, expiry, memberId, bookId);
+      return(HOLD_PLACED);
+    } finally {
+      unlock(bookId, memberId);
+    }
+  }
+  /**
+   * Returns the position of a member in the queue of holds on a book
+   * @param memberId member's id
+   * @param bookId book's id
+   * @return 1 if the member is next in line, and so on; 0 if there is no such hold
+   */
+  public int getHoldPosition(String memberId, String bookId) {
+    long start = System.nanoTime();
+    OperationEvent event = OperationEvent.start();
+    int result = OPERATION_FAILED;
+    try {
+      int position = doGetHoldPosition(memberId, bookId);
+      result = position > 0 ? OPERATION_COMPLETED : NO_HOLD_FOUND;
+      return position;
+    } finally {
+      record(OperationStatistics.HOLD_POSITION, result, start, event, memberId, bookId);
+    }
+  }
+  /*
+   * Finds the position of a hold; the work of getHoldPosition
+   */
+  private int doGetHoldPosition(String memberId, String bookId) {
+    lock(bookId);
+    try {
+      Book book = catalog.search(bookId);
+      if (book == null) {
+        return 0;
+      }
+      return book.getHoldPosition(memberId);
+    } finally {
+      unlock(bookId);
     }
-    Hold hold = new Hold(member, book, duration);
-    book.placeHold(hold);
-    member.placeHold(hold);
-    return(HOLD_PLACED);
   }
   /**
    * Searches for a given member
@@ -112,7 +447,16 @@ public class Library implements Serializable {
    * @return true iff the member is in the member list collection
    */
   public Member searchMembership(String memberId) {
-    return memberList.search(memberId);
+    long start = System.nanoTime();
+    OperationEvent event = OperationEvent.start();
+    int result = OPERATION_FAILED;
+    try {
+      Member member = memberList.search(memberId);
+      result = member != null ? OPERATION_COMPLETED : NO_SUCH_MEMBER;
+      return member;
+    } finally {
+      record(OperationStatistics.SEARCH_MEMBERSHIP, result, start, event, memberId, null);
+    }
   }
   /**
    * Processes holds for a single book
@@ -120,17 +464,73 @@ public class Library implements Serializable {
    * @return the member who should be notified
    */
   public Member processHold(String bookId) {
-    Book book = catalog.search(bookId);
-    if (book == null) {
-      return (null);
+    long start = System.nanoTime();
+    OperationEvent event = OperationEvent.start();
+    int[] result = {OPERATION_FAILED};
+    Hold hold = null;
+    try {
+      hold = takeNextHold(bookId, result);
+      if (hold != null && !durable()) {
+        result[0] = OPERATION_FAILED;
+        return null;
+      }
+      return hold == null ? null : hold.getMember();
+    } finally {
+      record(OperationStatistics.PROCESS_HOLD, result[0], start, event,
+          hold == null ? null : hold.getMember().getId(), bookId);
     }
-    Hold hold = book.getNextHold();
-    if (hold == null) {
-      return (null);
+  }
+  /*
+   * Removes the next valid hold on a book from the book and the member,
+   * and returns it. The outcome is left in result[0]: OPERATION_COMPLETED,
+   * BOOK_NOT_FOUND or NO_HOLD_FOUND.
+   */
+  private Hold takeNextHold(String bookId, int[] result) {
+    if (!writable()) {
+      result[0] = OPERATION_FAILED;
+      return null;
+    }
+    while (true) {
+      String memberId;
+      lock(bookId);
+      try {
+        Book book = catalog.search(bookId);
+        if (book == null) {
+          result[0] = BOOK_NOT_FOUND;
+          return (null);
+        }
+        preserve(book);
+        Hold hold = book.peekNextHold();
+        if (hold == null) {
+          result[0] = NO_HOLD_FOUND;
+          return (null);
+        }
+        memberId = hold.getMember().getId();
+      } finally {
+        unlock(bookId);
+      }
+      lock(bookId, memberId);
+      try {
+        Book book = catalog.search(bookId);
+        if (book == null) {
+          result[0] = BOOK_NOT_FOUND;
+          return (null);
+        }
+        preserve(book);
+        Hold hold = book.peekNextHold();
+        if (hold == null || !hold.getMember().getId().equals(memberId)) {
+          continue;
+        }
+        preserve(hold.getMember());
+        long time = System.currentTimeMillis();
+        applyTakeHold(hold, time);
+        log(Journal.PROCESS_HOLD, time, 0, bookId, memberId);
+        result[0] = OPERATION_COMPLETED;
+        return (hold);
+      } finally {
+        unlock(bookId, memberId);
+      }
     }
-    hold.getMember().removeHold(bookId);
-    hold.getBook().removeHold(hold.getMember().getId());
-    return (hold.getMember());
   }
   /**
    * Removes a hold for a specific book and member combincation
@@ -139,28 +539,161 @@ public class Library implements Serializable {
    * @return result of the operation 
    */
   public int removeHold(String memberId, String bookId) {
-    Member member = memberList.search(memberId);
-    if (member == null) {
-      return (NO_SUCH_MEMBER);
+    long start = System.nanoTime();
+    OperationEvent event = OperationEvent.start();
+    int result = OPERATION_FAILED;
+    try {
+      result = doRemoveHold(memberId, bookId);
+      if (result == OPERATION_COMPLETED && !durable()) {
+        result = OPERATION_FAILED;
+      }
+      return result;
+    } finally {
+      record(OperationStatistics.REMOVE_HOLD, result, start, event, memberId, bookId);
     }
-    Book book = catalog.search(bookId);
-    if (book == null) {
-      return(BOOK_NOT_FOUND);
+  }
+  /*
+   * Removes a hold; the work of removeHold
+   */
+  private int doRemoveHold(String memberId, String bookId) {
+    if (!writable()) {
+      return OPERATION_FAILED;
+    }
+    lock(bookId, memberId);
+    try {
+      Member member = memberList.search(memberId);
+      if (member == null) {
+        return (NO_SUCH_MEMBER);
+      }
+      Book book = catalog.search(bookId);
+      if (book == null) {
+        return(BOOK_NOT_FOUND);
+      }
+      preserve(book);
+      preserve(member);
+      long time = System.currentTimeMillis();
+      if (applyRemoveHold(book, member, time)) {
+        log(Journal.REMOVE_HOLD, time, 0, memberId, bookId);
+        return (OPERATION_COMPLETED);
+      }
+      return (NO_HOLD_FOUND);
+    } finally {
+      unlock(bookId, memberId);
+    }
+  }
+  /**
+   * Removes all out-of-date holds. Holds are kept in order of expiration,
+   * so only the holds that have actually expired are looked at. Holds that
+   * were removed earlier are simply discarded when they reach the front.
+   * @return the number of holds removed
+   */
+  public int removeInvalidHolds() {
+    long start = System.nanoTime();
+    OperationEvent event = OperationEvent.start();
+    int result = OPERATION_FAILED;
+    try {
+      int removed = doRemoveInvalidHolds();
+      result = removed == 0 || durable() ? OPERATION_COMPLETED : OPERATION_FAILED;
+      return removed;
+    } finally {
+      record(OperationStatistics.REMOVE_INVALID_HOLDS, result, start, event, null, null);
     }
-    return member.removeHold(bookId) && book.removeHold(memberId)? OPERATION_COMPLETED: NO_HOLD_FOUND;
   }
   /*
-   * Removes all out-of-date holds
+   * Removes the holds that are out of date; the work of removeInvalidHolds
    */
-  private void removeInvalidHolds() {
-    for (Iterator catalogIterator = catalog.getBooks(); catalogIterator.hasNext(); ) {
-      for (Iterator iterator = ((Book) catalogIterator.next()).getHolds(); iterator.hasNext(); ) {
-        Hold hold = (Hold) iterator.next();
-        if (!hold.isValid()) {
-          hold.getBook().removeHold(hold.getMember().getId());
-          hold.getMember().removeHold(hold.getBook().getId());
+  private int doRemoveInvalidHolds() {
+    if (!writable()) {
+      return 0;
+    }
+    int removed = 0;
+    long time = System.currentTimeMillis();
+    catalog.loadHoldsExpiringBefore(time);
+    while (true) {
+      List expired = new ArrayList();
+      synchronized (holdExpirations) {
+        while (expired.size() < Journal.MAX_ARGUMENTS / 2 && !holdExpirations.isEmpty()
+            && !((Hold) holdExpirations.peek()).isValid()) {
+          expired.add(holdExpirations.poll());
+        }
+      }
+      if (expired.isEmpty()) {
+        return removed;
+      }
+      removed += removeExpiredHolds(expired, time);
+    }
+  }
+  /*
+   * Removes a batch of expired holds under the locks of all their books
+   * and members, and journals the ones removed in one record before the
+   * locks are released, so that no later operation on the same books and
+   * members can be journaled ahead of it
+   */
+  private int removeExpiredHolds(List holds, long time) {
+    List bookIds = new ArrayList(holds.size());
+    List memberIds = new ArrayList(holds.size());
+    for (Iterator iterator = holds.iterator(); iterator.hasNext(); ) {
+      Hold hold = (Hold) iterator.next();
+      bookIds.add(hold.getBook().getId());
+      memberIds.add(hold.getMember().getId());
+    }
+    String[] ids = ids(bookIds, memberIds);
+    List removed = new ArrayList();
+    lock(ids);
+    try {
+      for (int index = 0; index < holds.size(); index++) {
+        Hold hold = (Hold) holds.get(index);
+        preserve(hold.getBook());
+        preserve(hold.getMember());
+        boolean onBook = hold.getBook().removeHold(hold);
+        boolean onMember = hold.getMember().removeHold(hold, time);
+        if (onBook || onMember) {
+          removed.add(memberIds.get(index));
+          removed.add(bookIds.get(index));
+        }
+      }
+      if (!removed.isEmpty()) {
+        log(Journal.REMOVE_INVALID_HOLDS, time, 0, (String[]) removed.toArray(new String[removed.size()]));
+      }
+    } finally {
+      unlock(ids);
+    }
+    return removed.size() / 2;
+  }
+  /**
+   * Starts a background thread that removes out-of-date holds periodically.
+   * Does nothing if the sweeper is already running.
+   * @param period time between two sweeps
+   * @param unit unit of the period
+   */
+  public synchronized void startHoldSweeper(long period, TimeUnit unit) {
+    if (holdSweeper != null) {
+      return;
+    }
+    holdSweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "hold-sweeper");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    holdSweeper.scheduleAtFixedRate(new Runnable() {
+      public void run() {
+        try {
+          removeInvalidHolds();
+        } catch(RuntimeException re) {
+          re.printStackTrace();
         }
       }
+    }, period, period, unit);
+  }
+  /**
+   * Stops the background hold sweeper, if it is running
+   */
+  public synchronized void stopHoldSweeper() {
+    if (holdSweeper != null) {
+      holdSweeper.shutdown();
+      holdSweeper = null;
     }
   }
   /**
@@ -170,21 +703,58 @@ public class Library implements Serializable {
    * @return the book issued
    */
   public Book issueBook(String memberId, String bookId) {
-    Book book = catalog.search(bookId);
-    if (book == null) {
-      return(null);
-    }
-    if (book.getBorrower() != null) {
-      return(null);
-    }
-    Member member = memberList.search(memberId);
-    if (member == null) {
-      return(null);
+    long start = System.nanoTime();
+    OperationEvent event = OperationEvent.start();
+    int[] result = {OPERATION_FAILED};
+    try {
+      Book book = doIssueBook(memberId, bookId, result);
+      if (book != null && !durable()) {
+        result[0] = OPERATION_FAILED;
+        return null;
+      }
+      return book;
+    } finally {
+      record(OperationStatistics.ISSUE_BOOK, result[0], start, event, memberId, bookId);
     }
-    if (!(book.issue(member) && member.issue(book))) {
+  }
+  /*
+   * Issues a book; the work of issueBook. The outcome is left in result[0],
+   * with the codes issueBooks gives for each book.
+   */
+  private Book doIssueBook(String memberId, String bookId, int[] result) {
+    if (!writable()) {
+      result[0] = OPERATION_FAILED;
       return null;
     }
-    return(book);
+    lock(bookId, memberId);
+    try {
+      Book book = catalog.search(bookId);
+      if (book == null) {
+        result[0] = BOOK_NOT_FOUND;
+        return(null);
+      }
+      if (book.getBorrower() != null) {
+        result[0] = BOOK_ISSUED;
+        return(null);
+      }
+      Member member = memberList.search(memberId);
+      if (member == null) {
+        result[0] = NO_SUCH_MEMBER;
+        return(null);
+      }
+      preserve(book);
+      preserve(member);
+      long time = System.currentTimeMillis();
+      long dueDate = Book.dueDate(time);
+      if (!applyIssue(book, member, time, dueDate)) {
+        return null;
+      }
+      log(Journal.ISSUE_BOOK, time, dueDate, memberId, bookId);
+      result[0] = OPERATION_COMPLETED;
+      return(book);
+    } finally {
+      unlock(bookId, memberId);
+    }
   }
   /**
    * Renews a book
@@ -193,18 +763,75 @@ public class Library implements Serializable {
    * @return the book renewed
    */
   public Book renewBook(String bookId, String memberId) {
-    Book book = catalog.search(bookId);
-    if (book == null) {
-      return(null);
+    long start = System.nanoTime();
+    OperationEvent event = OperationEvent.start();
+    int[] result = {OPERATION_FAILED};
+    try {
+      Book book = doRenewBook(bookId, memberId, result);
+      if (book != null && !durable()) {
+        result[0] = OPERATION_FAILED;
+        return null;
+      }
+      return book;
+    } finally {
+      record(OperationStatistics.RENEW_BOOK, result[0], start, event, memberId, bookId);
     }
-    Member member = memberList.search(memberId);
-    if (member == null) {
+  }
+  /*
+   * Renews a book; the work of renewBook. The outcome is left in result[0],
+   * with the codes renewBooks gives for each book.
+   */
+  private Book doRenewBook(String bookId, String memberId, int[] result) {
+    if (!writable()) {
+      result[0] = OPERATION_FAILED;
+      return null;
+    }
+    lock(bookId, memberId);
+    try {
+      Book book = catalog.search(bookId);
+      if (book == null) {
+        result[0] = BOOK_NOT_FOUND;
+        return(null);
+      }
+      Member member = memberList.search(memberId);
+      if (member == null) {
+        result[0] = NO_SUCH_MEMBER;
+        return(null);
+      }
+      result[0] = renewalRefused(book, member);
+      if (result[0] != OPERATION_COMPLETED) {
+        return(null);
+      }
+      preserve(book);
+      preserve(member);
+      long time = System.currentTimeMillis();
+      long dueDate = Book.dueDate(time);
+      if (applyRenew(book, member, time, dueDate)) {
+        log(Journal.RENEW_BOOK, time, dueDate, bookId, memberId);
+        return(book);
+      }
+      result[0] = OPERATION_FAILED;
       return(null);
+    } finally {
+      unlock(bookId, memberId);
     }
-    if ((book.renew(member) && member.renew(book))) {
-      return(book);
+  }
+  /*
+   * Tells why a book cannot be renewed by a member: BOOK_NOT_ISSUED,
+   * OPERATION_FAILED if someone else has it, or BOOK_HAS_HOLD; returns
+   * OPERATION_COMPLETED if nothing stands in the way
+   */
+  private int renewalRefused(Book book, Member member) {
+    if (book.getBorrower() == null) {
+      return BOOK_NOT_ISSUED;
+    }
+    if (book.getBorrower() != member) {
+      return OPERATION_FAILED;
+    }
+    if (book.hasHold()) {
+      return BOOK_HAS_HOLD;
     }
-    return(null);
+    return OPERATION_COMPLETED;
   }
   /**
    * Returns an iterator to the books issued to a member
@@ -212,104 +839,1235 @@ public class Library implements Serializable {
    * @return iterator to the collection
    */
   public Iterator getBooks(String memberId) {
-    Member member = memberList.search(memberId);
-    if (member == null) {
-      return(null);
-    } else {
-      return (member.getBooksIssued());
+    long start = System.nanoTime();
+    OperationEvent event = OperationEvent.start();
+    Iterator books = null;
+    int result = OPERATION_FAILED;
+    try {
+      books = doGetBooks(memberId);
+      result = books != null ? OPERATION_COMPLETED : NO_SUCH_MEMBER;
+      return books;
+    } finally {
+      record(OperationStatistics.GET_BOOKS, result, start, event, memberId, null);
     }
   }
-  /**
-   * Removes a specific book from the catalog
-   * @param bookId id of the book
-   * @return a code representing the outcome
+  /*
+   * Lists the books issued to a member; the work of getBooks
    */
-  public int removeBook(String bookId) {
-    Book book = catalog.search(bookId);
-    if (book == null) {
-      return(BOOK_NOT_FOUND);
-    }
-    if (book.hasHold()) {
-      return(BOOK_HAS_HOLD);
-    }
-    if ( book.getBorrower() != null) {
-      return(BOOK_ISSUED);
-    }
-    if (catalog.removeBook(bookId)) {
-      return (OPERATION_COMPLETED);
+  private Iterator doGetBooks(String memberId) {
+    lock(memberId);
+    try {
+      Member member = memberList.search(memberId);
+      if (member == null) {
+        return(null);
+      } else {
+        List books = new ArrayList();
+        for (Iterator iterator = member.getBooksIssued(); iterator.hasNext(); ) {
+          books.add(iterator.next());
+        }
+        return (books.iterator());
+      }
+    } finally {
+      unlock(memberId);
     }
-    return (OPERATION_FAILED);
   }
   /**
-   * Returns a single book
-   * @param bookId id of the book to be returned
-   * @return a code representing the outcome
+   * Finds books by words in their titles and authors, best match first
+   * @param query the words to look for
+   * @param matchAll if true, a book must contain every word; otherwise any word
+   * @param limit the largest number of books to return
+   * @return iterator to the matching books
    */
-  public int returnBook(String bookId) {
-    Book book = catalog.search(bookId);
-    if (book == null) {
-      return(BOOK_NOT_FOUND);
-    }
-    Member member = book.returnBook();
-    if (member == null) {
-      return(BOOK_NOT_ISSUED);
-    }
-    if (!(member.returnBook(book))) {
-      return(OPERATION_FAILED);
+  public Iterator searchBooks(String query, boolean matchAll, int limit) {
+    long start = System.nanoTime();
+    OperationEvent event = OperationEvent.start();
+    int result = OPERATION_FAILED;
+    try {
+      Iterator books = catalog.findBooks(query, matchAll, limit).iterator();
+      result = OPERATION_COMPLETED;
+      return books;
+    } finally {
+      record(OperationStatistics.SEARCH_BOOKS, result, start, event, null, null);
     }
-    if (book.hasHold()) {
-      return(BOOK_HAS_HOLD);
+  }
+  /**
+   * Finds books by partial or misspelled words from their titles and authors
+   * @param text the words typed so far; unless it ends with a space, the
+   * last word may be the start of a word
+   * @param limit the largest number of books to return
+   * @return iterator to the matching books, best match first
+   */
+  public Iterator completeBooks(String text, int limit) {
+    long start = System.nanoTime();
+    OperationEvent event = OperationEvent.start();
+    int result = OPERATION_FAILED;
+    try {
+      Iterator books = catalog.completeBooks(text, limit).iterator();
+      result = OPERATION_COMPLETED;
+      return books;
+    } finally {
+      record(OperationStatistics.COMPLETE_BOOKS, result, start, event, null, null);
     }
-    return(OPERATION_COMPLETED);
   }
   /**
-   * Returns an iterator to the transactions for a specific member on a certain date
-   * @param memberId member id
-   * @param date date of issue
-   * @return iterator to the collection
+   * Returns the books that are past their due date, the longest overdue first
+   * @return iterator to the books
    */
-  public Iterator getTransactions(String memberId, Calendar date) {
-    Member member = memberList.search(memberId);
-    if (member == null) {
-      return(null);
+  public Iterator getOverdueBooks() {
+    long start = System.nanoTime();
+    OperationEvent event = OperationEvent.start();
+    int result = OPERATION_FAILED;
+    try {
+      long now = System.currentTimeMillis();
+      catalog.loadBooksDueBefore(now);
+      Iterator books = dueDates.getBooksDue(Long.MIN_VALUE, now).iterator();
+      result = OPERATION_COMPLETED;
+      return books;
+    } finally {
+      record(OperationStatistics.OVERDUE_BOOKS, result, start, event, null, null);
     }
-    return member.getTransactions(date);
   }
   /**
-   * Retrieves a deserialized version of the library from disk
-   * @return a Library object
+   * Returns the books that are not overdue yet but will be within a number
+   * of days, the earliest due first
+   * @param days the number of days
+   * @return iterator to the books
    */
-  public static Library retrieve() {
+  public Iterator getBooksDueWithin(int days) {
+    long start = System.nanoTime();
+    OperationEvent event = OperationEvent.start();
+    int result = OPERATION_FAILED;
     try {
-      FileInputStream file = new FileInputStream("LibraryData");
-      ObjectInputStream input = new ObjectInputStream(file);
-      input.readObject();
-      MemberIdServer.retrieve(input);
+      long now = System.currentTimeMillis();
+      long end = now + TimeUnit.DAYS.toMillis(days);
+      catalog.loadBooksDueBefore(end);
+      Iterator books = dueDates.getBooksDue(now, end).iterator();
+      result = OPERATION_COMPLETED;
+      return books;
+    } finally {
+      record(OperationStatistics.BOOKS_DUE, result, start, event, null, null);
+    }
+  }
+  /**
+   * Removes a specific book from the catalog
+   * @param bookId id of the book
+   * @return a code representing the outcome
+   */
+  public int removeBook(String bookId) {
+    long start = System.nanoTime();
+    OperationEvent event = OperationEvent.start();
+    int result = OPERATION_FAILED;
+    try {
+      result = doRemoveBook(bookId);
+      if (result == OPERATION_COMPLETED && !durable()) {
+        result = OPERATION_FAILED;
+      }
+      return result;
+    } finally {
+      record(OperationStatistics.REMOVE_BOOK, result, start, event, null, bookId);
+    }
+  }
+  /*
+   * Removes a book; the work of removeBook
+   */
+  private int doRemoveBook(String bookId) {
+    if (!writable()) {
+      return OPERATION_FAILED;
+    }
+    lock(bookId);
+    try {
+      Book book = catalog.search(bookId);
+      if (book == null) {
+        return(BOOK_NOT_FOUND);
+      }
+      if (book.hasHold()) {
+        return(BOOK_HAS_HOLD);
+      }
+      if ( book.getBorrower() != null) {
+        return(BOOK_ISSUED);
+      }
+      if (catalog.removeBook(bookId)) {
+        log(Journal.REMOVE_BOOK, System.currentTimeMillis(), 0, bookId);
+        return (OPERATION_COMPLETED);
+      }
+      return (OPERATION_FAILED);
+    } finally {
+      unlock(bookId);
+    }
+  }
+  /**
+   * Returns a single book. The borrower is only known once the book has
+   * been looked at, so if the borrower's lock comes first in the lock order
+   * the book's lock is released, both are taken, and the book is checked again.
+   * @param bookId id of the book to be returned
+   * @return a code representing the outcome
+   */
+  public int returnBook(String bookId) {
+    long start = System.nanoTime();
+    OperationEvent event = OperationEvent.start();
+    int result = OPERATION_FAILED;
+    try {
+      result = doReturnBook(bookId);
+      if (result != BOOK_NOT_FOUND && result != BOOK_NOT_ISSUED && !durable()) {
+        result = OPERATION_FAILED;
+      }
+      return result;
+    } finally {
+      record(OperationStatistics.RETURN_BOOK, result, start, event, null, bookId);
+    }
+  }
+  /*
+   * Returns a book; the work of returnBook
+   */
+  private int doReturnBook(String bookId) {
+    if (!writable()) {
+      return OPERATION_FAILED;
+    }
+    while (true) {
+      String memberId;
+      lock(bookId);
+      try {
+        Book book = catalog.search(bookId);
+        if (book == null) {
+          return(BOOK_NOT_FOUND);
+        }
+        if (book.getBorrower() == null) {
+          return(BOOK_NOT_ISSUED);
+        }
+        memberId = book.getBorrower().getId();
+      } finally {
+        unlock(bookId);
+      }
+      lock(bookId, memberId);
+      try {
+        Book book = catalog.search(bookId);
+        if (book == null || book.getBorrower() == null || !book.getBorrower().getId().equals(memberId)) {
+          continue;
+        }
+        preserve(book);
+        preserve(book.getBorrower());
+        long time = System.currentTimeMillis();
+        boolean returned = applyReturn(book, time);
+        log(Journal.RETURN_BOOK, time, 0, bookId);
+        if (!returned) {
+          return(OPERATION_FAILED);
+        }
+        if (book.hasHold()) {
+          return(BOOK_HAS_HOLD);
+        }
+        return(OPERATION_COMPLETED);
+      } finally {
+        unlock(bookId, memberId);
+      }
+    }
+  }
+  /**
+   * Issues several books to a member. The member is looked up once, the
+   * locks for the member and all the books are taken together, and the
+   * books issued are journaled together.
+   * @param memberId member id
+   * @param bookIds ids of the books
+   * @return a code for each book: OPERATION_COMPLETED, BOOK_NOT_FOUND,
+   * BOOK_ISSUED, NO_SUCH_MEMBER or OPERATION_FAILED
+   */
+  public int[] issueBooks(String memberId, List bookIds) {
+    long start = System.nanoTime();
+    OperationEvent event = OperationEvent.start();
+    int[] results = null;
+    try {
+      results = doIssueBooks(memberId, bookIds);
+      durable(results, OPERATION_COMPLETED);
+      return results;
+    } finally {
+      record(OperationStatistics.ISSUE_BOOKS, results, start, event, memberId);
+    }
+  }
+  /*
+   * Issues the books; the work of issueBooks
+   */
+  private int[] doIssueBooks(String memberId, List bookIds) {
+    int[] results = new int[bookIds.size()];
+    if (!writable()) {
+      Arrays.fill(results, OPERATION_FAILED);
+      return results;
+    }
+    String[] ids = ids(bookIds, Collections.singletonList(memberId));
+    lock(ids);
+    try {
+      Member member = memberList.search(memberId);
+      if (member != null) {
+        preserve(member);
+      }
+      List issued = new ArrayList();
+      long time = System.currentTimeMillis();
+      long dueDate = Book.dueDate(time);
+      for (int index = 0; index < results.length; index++) {
+        Book book = catalog.search(ids[index]);
+        if (member == null) {
+          results[index] = NO_SUCH_MEMBER;
+        } else if (book == null) {
+          results[index] = BOOK_NOT_FOUND;
+        } else if (book.getBorrower() != null) {
+          results[index] = BOOK_ISSUED;
+        } else {
+          preserve(book);
+          if (applyIssue(book, member, time, dueDate)) {
+            issued.add(ids[index]);
+            results[index] = OPERATION_COMPLETED;
+          } else {
+            results[index] = OPERATION_FAILED;
+          }
+        }
+      }
+      logBatch(Journal.ISSUE_BOOKS, time, dueDate, memberId, issued);
+      return results;
+    } finally {
+      unlock(ids);
+    }
+  }
+  /**
+   * Renews several books issued to a member, in the way issueBooks issues them
+   * @param memberId member id
+   * @param bookIds ids of the books
+   * @return a code for each book: OPERATION_COMPLETED, BOOK_NOT_FOUND,
+   * BOOK_NOT_ISSUED, NO_SUCH_MEMBER, BOOK_HAS_HOLD, or OPERATION_FAILED if
+   * the book is issued to someone else or cannot be renewed
+   */
+  public int[] renewBooks(String memberId, List bookIds) {
+    long start = System.nanoTime();
+    OperationEvent event = OperationEvent.start();
+    int[] results = null;
+    try {
+      results = doRenewBooks(memberId, bookIds);
+      durable(results, OPERATION_COMPLETED);
+      return results;
+    } finally {
+      record(OperationStatistics.RENEW_BOOKS, results, start, event, memberId);
+    }
+  }
+  /*
+   * Renews the books; the work of renewBooks
+   */
+  private int[] doRenewBooks(String memberId, List bookIds) {
+    int[] results = new int[bookIds.size()];
+    if (!writable()) {
+      Arrays.fill(results, OPERATION_FAILED);
+      return results;
+    }
+    String[] ids = ids(bookIds, Collections.singletonList(memberId));
+    lock(ids);
+    try {
+      Member member = memberList.search(memberId);
+      if (member != null) {
+        preserve(member);
+      }
+      List renewed = new ArrayList();
+      long time = System.currentTimeMillis();
+      long dueDate = Book.dueDate(time);
+      for (int index = 0; index < results.length; index++) {
+        Book book = catalog.search(ids[index]);
+        if (member == null) {
+          results[index] = NO_SUCH_MEMBER;
+        } else if (book == null) {
+          results[index] = BOOK_NOT_FOUND;
+        } else if ((results[index] = renewalRefused(book, member)) != OPERATION_COMPLETED) {
+          continue;
+        } else {
+          preserve(book);
+          if (applyRenew(book, member, time, dueDate)) {
+            renewed.add(ids[index]);
+            results[index] = OPERATION_COMPLETED;
+          } else {
+            results[index] = OPERATION_FAILED;
+          }
+        }
+      }
+      logBatch(Journal.RENEW_BOOKS, time, dueDate, memberId, renewed);
+      return results;
+    } finally {
+      unlock(ids);
+    }
+  }
+  /**
+   * Returns several books, such as the contents of a drop box. When a
+   * returned book has a hold, the hold is processed right away and added
+   * to the notifications, so that the member can be told the book is in.
+   * The borrowers and the members next in line are found under the
+   * books' locks first; then all of these locks are taken together. A book
+   * whose borrower or next holder changed in between is returned on its own.
+   * @param bookIds ids of the books
+   * @param notifications receives the hold processed for each returned
+   * book that had one
+   * @return a code for each book, as returnBook gives it
+   */
+  public int[] returnBooks(List bookIds, List notifications) {
+    long start = System.nanoTime();
+    OperationEvent event = OperationEvent.start();
+    int[] results = null;
+    try {
+      results = doReturnBooks(bookIds, notifications);
+      durable(results, BOOK_HAS_HOLD);
+      return results;
+    } finally {
+      record(OperationStatistics.RETURN_BOOKS, results, start, event, null);
+    }
+  }
+  /*
+   * Returns the books; the work of returnBooks
+   */
+  private int[] doReturnBooks(List bookIds, List notifications) {
+    int[] results = new int[bookIds.size()];
+    if (!writable()) {
+      Arrays.fill(results, OPERATION_FAILED);
+      return results;
+    }
+    String[] books = ids(bookIds, Collections.emptyList());
+    Set members = new HashSet();
+    lock(books);
+    try {
+      for (int index = 0; index < books.length; index++) {
+        Book book = catalog.search(books[index]);
+        if (book != null && book.getBorrower() != null) {
+          members.add(book.getBorrower().getId());
+          preserve(book);
+          Hold hold = book.peekNextHold();
+          if (hold != null) {
+            members.add(hold.getMember().getId());
+          }
+        }
+      }
+    } finally {
+      unlock(books);
+    }
+    List alone = new ArrayList();
+    String[] ids = ids(bookIds, new ArrayList(members));
+    lock(ids);
+    try {
+      List returned = new ArrayList();
+      List processed = new ArrayList();
+      long time = System.currentTimeMillis();
+      for (int index = 0; index < results.length; index++) {
+        Book book = catalog.search(books[index]);
+        if (book == null) {
+          results[index] = BOOK_NOT_FOUND;
+          continue;
+        }
+        Member member = book.getBorrower();
+        if (member == null) {
+          results[index] = BOOK_NOT_ISSUED;
+          continue;
+        }
+        preserve(book);
+        Hold hold = book.peekNextHold();
+        if (!members.contains(member.getId())
+            || (hold != null && !members.contains(hold.getMember().getId()))) {
+          alone.add(Integer.valueOf(index));
+          continue;
+        }
+        preserve(member);
+        boolean done = applyReturn(book, time);
+        returned.add(books[index]);
+        if (!done) {
+          results[index] = OPERATION_FAILED;
+        } else if (hold == null) {
+          results[index] = OPERATION_COMPLETED;
+        } else {
+          preserve(hold.getMember());
+          applyTakeHold(hold, time);
+          processed.add(hold);
+          notifications.add(hold);
+          results[index] = BOOK_HAS_HOLD;
+        }
+      }
+      logBatch(Journal.RETURN_BOOKS, time, 0, null, returned);
+      for (Iterator iterator = processed.iterator(); iterator.hasNext(); ) {
+        Hold hold = (Hold) iterator.next();
+        log(Journal.PROCESS_HOLD, time, 0, hold.getBook().getId(), hold.getMember().getId());
+      }
+    } finally {
+      unlock(ids);
+    }
+    for (Iterator iterator = alone.iterator(); iterator.hasNext(); ) {
+      int index = ((Integer) iterator.next()).intValue();
+      results[index] = returnBook(books[index]);
+      if (results[index] == BOOK_HAS_HOLD) {
+        Hold hold = takeNextHold(books[index], new int[1]);
+        if (hold != null) {
+          notifications.add(hold);
+        }
+      }
+    }
+    return results;
+  }
+  /*
+   * Puts two lists of ids in one array, the first list first
+   */
+  private String[] ids(List first, List second) {
+    String[] ids = new String[first.size() + second.size()];
+    for (int index = 0; index < first.size(); index++) {
+      ids[index] = (String) first.get(index);
+    }
+    for (int index = 0; index < second.size(); index++) {
+      ids[first.size() + index] = (String) second.get(index);
+    }
+    return ids;
+  }
+  /**
+   * Returns an iterator to the transactions for a specific member on a certain date
+   * @param memberId member id
+   * @param date date of issue
+   * @return iterator to the collection
+   */
+  public Iterator getTransactions(String memberId, Calendar date) {
+    long start = System.nanoTime();
+    OperationEvent event = OperationEvent.start();
+    int result = OPERATION_FAILED;
+    try {
+      Iterator transactions = doGetTransactions(memberId, date);
+      result = transactions != null ? OPERATION_COMPLETED : NO_SUCH_MEMBER;
+      return transactions;
+    } finally {
+      record(OperationStatistics.GET_TRANSACTIONS, result, start, event, memberId, null);
+    }
+  }
+  /*
+   * Finds the transactions of a member on a date; the work of getTransactions
+   */
+  private Iterator doGetTransactions(String memberId, Calendar date) {
+    lock(memberId);
+    try {
+      Member member = memberList.search(memberId);
+      if (member == null) {
+        return(null);
+      }
+      return member.getTransactions(date);
+    } finally {
+      unlock(memberId);
+    }
+  }
+  /**
+   * Returns an iterator to the transactions of a specific member in a range of dates
+   * @param memberId member id
+   * @param from first date of the range
+   * @param to last date of the range, inclusive
+   * @return iterator to the transactions, or null if there is no such member
+   */
+  public Iterator getTransactions(String memberId, Calendar from, Calendar to) {
+    long start = System.nanoTime();
+    OperationEvent event = OperationEvent.start();
+    int result = OPERATION_FAILED;
+    try {
+      Member member = memberList.search(memberId);
+      if (member == null) {
+        result = NO_SUCH_MEMBER;
+        return(null);
+      }
+      Iterator transactions = member.getTransactions(from, to);
+      result = OPERATION_COMPLETED;
+      return transactions;
+    } finally {
+      record(OperationStatistics.GET_TRANSACTIONS, result, start, event, memberId, null);
+    }
+  }
+  /**
+   * Returns an iterator to the transactions of all members in a range of dates.
+   * Members are visited in id order and each member's transactions are
+   * read only when the iterator reaches that member.
+   * @param from first date of the range
+   * @param to last date of the range, inclusive
+   * @return iterator to the transactions
+   */
+  public Iterator getTransactions(final Calendar from, final Calendar to) {
+    long start = System.nanoTime();
+    OperationEvent event = OperationEvent.start();
+    int result = OPERATION_FAILED;
+    try {
+      Iterator transactions = new ChainedIterator(memberList.getMembers()) {
+        protected Iterator open(Object member) {
+          return ((Member) member).getTransactions(from, to);
+        }
+      };
+      result = OPERATION_COMPLETED;
+      return transactions;
+    } finally {
+      record(OperationStatistics.GET_TRANSACTIONS, result, start, event, null, null);
+    }
+  }
+  /**
+   * Retrieves the library from disk, decoding books and members only when
+   * they are first used
+   * @return a Library object
+   */
+  public static Library retrieve() {
+    return retrieve(true);
+  }
+  /**
+   * Retrieves the library from disk and replays the operations journaled
+   * since it was saved. If only a journal exists, it is replayed onto an
+   * empty library. Data saved with Java serialization by earlier versions
+   * is still read.
+   * @param lazy if true, the snapshot file is mapped into memory and books
+   * and members are decoded on first access; otherwise everything is
+   * decoded before returning
+   * @return a Library object
+   */
+  public static synchronized Library retrieve(boolean lazy) {
+    long start = System.nanoTime();
+    OperationEvent event = OperationEvent.start();
+    int result = OPERATION_FAILED;
+    try {
+      Library retrieved = doRetrieve(lazy);
+      result = retrieved != null ? OPERATION_COMPLETED : OPERATION_FAILED;
+      return retrieved;
+    } finally {
+      statistics.record(OperationStatistics.RETRIEVE, result, start);
+      OperationEvent.finish(event, OperationStatistics.RETRIEVE, null, null, result);
+    }
+  }
+  /*
+   * Retrieves the library; the work of retrieve
+   */
+  private static Library doRetrieve(boolean lazy) {
+    if (library != null) {
       return library;
+    }
+    File data = new File(DATA_FILE);
+    SnapshotEvent event = new SnapshotEvent();
+    event.begin();
+    try {
+      if (Snapshot.isSnapshot(data)) {
+        event.format = "snapshot";
+        MappedSnapshot snapshot = MappedSnapshot.open(data);
+        instance();
+        snapshot.attach();
+        library.journalSequence = snapshot.getJournalSequence();
+        if (!lazy) {
+          snapshot.loadAll();
+        }
+      } else {
+        event.format = "serialized";
+        if (!data.exists()) {
+          throw new FileNotFoundException(DATA_FILE);
+        }
+        instance();
+        SerializedData.load(data);
+      }
+      event.succeeded = true;
+    } catch(FileNotFoundException fnfe) {
+      if (!new File(JOURNAL_FILE).exists()) {
+        return null;
+      }
+      instance();
     } catch(IOException ioe) {
       ioe.printStackTrace();
       return null;
     } catch(ClassNotFoundException cnfe) {
       cnfe.printStackTrace();
       return null;
+    } finally {
+      event.operation = "retrieve";
+      event.file = DATA_FILE;
+      event.bytes = data.length();
+      event.lazy = lazy;
+      event.commit();
+    }
+    if (!library.openJournal(true)) {
+      return null;
     }
+    return library;
   }
   /**
-   * Serializes the Library object
+   * Saves the library in the binary snapshot format and waits until the
+   * data is on disk
    * @return true iff the data could be saved
    */
   public static  boolean save() {
+    long start = System.nanoTime();
+    OperationEvent event = OperationEvent.start();
+    boolean saved = false;
     try {
-      FileOutputStream file = new FileOutputStream("LibraryData");
-      ObjectOutputStream output = new ObjectOutputStream(file);
-      output.writeObject(library);
-      output.writeObject(MemberIdServer.instance());
+      saved = doSave();
+      return saved;
+    } finally {
+      int result = saved ? OPERATION_COMPLETED : OPERATION_FAILED;
+      statistics.record(OperationStatistics.SAVE, result, start);
+      OperationEvent.finish(event, OperationStatistics.SAVE, null, null, result);
+    }
+  }
+  /*
+   * Saves the library; the work of save
+   */
+  private static boolean doSave() {
+    Thread writer = library.startSnapshot();
+    if (writer == null) {
+      return false;
+    }
+    try {
+      writer.join();
+    } catch(InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    synchronized (library) {
+      return library.lastSnapshotSaved;
+    }
+  }
+  /**
+   * Starts saving the library in the binary snapshot format. Only a
+   * point-in-time view is taken right away; the data is written on a
+   * background thread while the library stays in use.
+   * @return true iff the save was started; false if one is already running
+   */
+  public static boolean saveInBackground() {
+    long start = System.nanoTime();
+    OperationEvent event = OperationEvent.start();
+    boolean started = false;
+    try {
+      started = library.startSnapshot() != null;
+      return started;
+    } finally {
+      int result = started ? OPERATION_COMPLETED : OPERATION_FAILED;
+      statistics.record(OperationStatistics.SAVE_IN_BACKGROUND, result, start);
+      OperationEvent.finish(event, OperationStatistics.SAVE_IN_BACKGROUND, null, null, result);
+    }
+  }
+  /**
+   * Returns how long the library was held up by the last background save:
+   * taking the point-in-time view, plus copying books and members that
+   * changed while it was written. While a save is running, this is the
+   * time so far.
+   * @return the pause in nanoseconds
+   */
+  public synchronized long getSnapshotPauseNanos() {
+    if (capture != null) {
+      return snapshotPauseNanos + capture.getPauseNanos();
+    }
+    return snapshotPauseNanos;
+  }
+  /*
+   * Takes the point-in-time view and starts the thread that writes it.
+   * The journal is rotated at the same moment, so that the records it
+   * retires are exactly the ones covered by the view. The data is written
+   * to a temporary file that replaces the previous one only when it is
+   * complete; then the retired records are deleted.
+   */
+  private Thread startSnapshot() {
+    final SnapshotCapture view;
+    operations.writeLock().lock();
+    try {
+      synchronized (this) {
+        if (capture != null || !writable()) {
+          return null;
+        }
+        long start = System.nanoTime();
+        if (journal != null) {
+          if (!journal.rotate(new File(RETIRED_JOURNAL_FILE))) {
+            return null;
+          }
+          journalSequence = journal.getLastSequence();
+        }
+        view = new SnapshotCapture(catalog, memberList, journalSequence);
+        capture = view;
+        snapshotPauseNanos = System.nanoTime() - start - view.getPauseNanos();
+      }
+    } finally {
+      operations.writeLock().unlock();
+    }
+    Thread writer = new Thread(new Runnable() {
+      public void run() {
+        writeSnapshot(view);
+      }
+    }, "snapshot-writer");
+    writer.start();
+    return writer;
+  }
+  /*
+   * Body of the snapshot writer thread
+   */
+  private void writeSnapshot(SnapshotCapture view) {
+    SnapshotEvent event = new SnapshotEvent();
+    event.begin();
+    boolean saved = false;
+    try {
+      File temporary = new File(DATA_FILE + ".tmp");
+      FileOutputStream file = new FileOutputStream(temporary);
+      try {
+        Snapshot.write(file, view);
+        file.getFD().sync();
+      } finally {
+        file.close();
+      }
+      event.bytes = temporary.length();
+      java.nio.file.Files.move(temporary.toPath(), new File(DATA_FILE).toPath(),
+          java.nio.file.StandardCopyOption.REPLACE_EXISTING, java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+      new File(RETIRED_JOURNAL_FILE).delete();
+      saved = true;
+    } catch(IOException ioe) {
+      ioe.printStackTrace();
+    }
+    synchronized (this) {
+      snapshotPauseNanos += view.getPauseNanos();
+      lastSnapshotSaved = saved;
+      capture = null;
+      event.pause = snapshotPauseNanos;
+    }
+    event.operation = "save";
+    event.file = DATA_FILE;
+    event.format = "snapshot";
+    event.books = view.getBookCount();
+    event.members = view.getMemberCount();
+    event.succeeded = saved;
+    event.commit();
+  }
+  /*
+   * Lets a running background save copy an object before it changes
+   */
+  private void preserve(Book book) {
+    SnapshotCapture capture = this.capture;
+    if (capture != null) {
+      capture.preserve(book);
+    }
+  }
+  /*
+   * Lets a running background save copy an object before it changes
+   */
+  private void preserve(Member member) {
+    SnapshotCapture capture = this.capture;
+    if (capture != null) {
+      capture.preserve(member);
+    }
+  }
+  /**
+   * Adds a book read from saved data to the due date order, if it is issued
+   * @param book the book
+   */
+  void restoreLoan(Book book) {
+    dueDates.update(book);
+  }
+  /**
+   * Adds a hold read from saved data to the expiration order
+   * @param hold the hold
+   */
+  void restoreHold(Hold hold) {
+    synchronized (holdExpirations) {
+      holdExpirations.add(hold);
+    }
+  }
+  /*
+   * Creates the locks. Every operation holds the read lock of operations,
+   * so that operations run side by side; saving the library and opening or
+   * closing the journal take the write lock to see the library at rest.
+   * Within an operation, the books and members it changes are guarded by
+   * the lock stripes for their ids.
+   */
+  private void createLocks() {
+    operations = new ReentrantReadWriteLock();
+    stripes = new LockStripes(LOCK_STRIPES);
+  }
+  /*
+   * Starts an operation on one book or member
+   */
+  private void lock(String id) {
+    operations.readLock().lock();
+    stripes.lock(id);
+  }
+  /*
+   * Ends an operation on one book or member
+   */
+  private void unlock(String id) {
+    stripes.unlock(id);
+    operations.readLock().unlock();
+  }
+  /*
+   * Starts an operation on a book and a member
+   */
+  private void lock(String bookId, String memberId) {
+    operations.readLock().lock();
+    stripes.lock(bookId, memberId);
+  }
+  /*
+   * Ends an operation on a book and a member
+   */
+  private void unlock(String bookId, String memberId) {
+    stripes.unlock(bookId, memberId);
+    operations.readLock().unlock();
+  }
+  /*
+   * Starts an operation on several books and members
+   */
+  private void lock(String[] ids) {
+    operations.readLock().lock();
+    stripes.lock(ids);
+  }
+  /*
+   * Ends an operation on several books and members
+   */
+  private void unlock(String[] ids) {
+    stripes.unlock(ids);
+    operations.readLock().unlock();
+  }
+  /**
+   * Opens the journal so that every change to the library is recorded.
+   * Member ids are reserved in blocks from then on, so that none is handed
+   * out twice after a crash.
+   * @param replay if true, operations journaled after the library was saved
+   * are applied first; otherwise the library starts with an empty journal,
+   * which is only allowed when there is neither saved data nor a journal
+   * that could still be recovered
+   * @return true iff the journal could be opened; false if it could not,
+   * if replay is false and there is data that would be lost, or if the
+   * library has halted after an earlier journal failure
+   */
+  public boolean openJournal(boolean replay) {
+    operations.writeLock().lock();
+    try {
+      return openJournalLocked(replay);
+    } finally {
+      operations.writeLock().unlock();
+    }
+  }
+  /**
+   * Checks whether the working directory holds saved data or journaled
+   * operations, which a new, empty library would overwrite
+   * @return true iff there is data that retrieve would recover
+   */
+  public static boolean hasSavedData() {
+    return new File(DATA_FILE).exists() || new File(RETIRED_JOURNAL_FILE).exists()
+        || new File(JOURNAL_FILE).length() > 0;
+  }
+  /*
+   * Opens the journal while no operation is running
+   */
+  private boolean openJournalLocked(boolean replay) {
+    if (journal != null) {
+      return true;
+    }
+    if (halted) {
+      return false;
+    }
+    if (!replay && hasSavedData()) {
+      System.out.println("Saved data or journaled operations exist in " + DATA_FILE + " and "
+          + JOURNAL_FILE + "; retrieve them, or move the files away to start a new library");
+      return false;
+    }
+    Journal.Listener listener = null;
+    if (replay) {
+      listener = new Journal.Listener() {
+        public void apply(byte type, long time, long value, String[] arguments) {
+          replay(type, time, value, arguments);
+        }
+      };
+    }
+    try {
+      long sequence = Journal.replay(new File(RETIRED_JOURNAL_FILE), journalSequence, listener);
+      journal = Journal.open(new File(JOURNAL_FILE), sequence, listener, JOURNAL_SYNC_MILLIS);
+      File ids = new File(ID_FILE);
+      if (!replay) {
+        ids.delete();
+      }
+      MemberIdServer.instance().reserveIn(ids);
       return true;
     } catch(IOException ioe) {
       ioe.printStackTrace();
       return false;
+    } catch(IllegalStateException ise) {
+      ise.printStackTrace();
+      return false;
+    }
+  }
+  /**
+   * Writes any pending journal records and closes the journal
+   */
+  public void closeJournal() {
+    operations.writeLock().lock();
+    try {
+      if (journal != null) {
+        journal.close();
+        journal = null;
+        MemberIdServer.instance().release();
+      }
+    } finally {
+      operations.writeLock().unlock();
+    }
+  }
+  /*
+   * Records how an operation came out and how long it took, and commits
+   * its flight recorder event
+   */
+  private void record(int operation, int result, long start, OperationEvent event,
+      String memberId, String bookId) {
+    statistics.record(operation, result, start);
+    OperationEvent.finish(event, operation, memberId, bookId, result);
+  }
+  /*
+   * Records how an operation on several books came out and how long it
+   * took, and commits its flight recorder event
+   */
+  private void record(int operation, int[] results, long start, OperationEvent event,
+      String memberId) {
+    if (results == null) {
+      results = new int[] {OPERATION_FAILED};
+    }
+    statistics.record(operation, results, start);
+    OperationEvent.finish(event, operation, memberId, results);
+  }
+  /**
+   * Checks whether the library has stopped because its journal failed.
+   * Journal failures are fatal rather than undone: an operation whose
+   * record could not be written reports failure, but its change may
+   * remain in memory. From then on every operation that would change the
+   * library fails without changing anything, and neither save nor
+   * saveInBackground writes the library, so the change reported as failed
+   * never reaches the saved data. Retrieving the library in a new process
+   * recovers what was journaled.
+   * @return true iff the library no longer takes changes
+   */
+  public boolean isHalted() {
+    return !writable();
+  }
+  /**
+   * Returns the counts and latencies of the library operations
+   * @return the statistics
+   */
+  public OperationStatistics getStatistics() {
+    return statistics;
+  }
+  /*
+   * Records a successful operation in the journal, and starts saving the
+   * library when enough records have accumulated since the last save.
+   * The caller holds the read lock, so the save is started from a thread
+   * of its own once the operation is over. The record is on its way to
+   * disk only; the operation waits for it with durable once its locks
+   * are released.
+   */
+  private void log(byte type, long time, long value, String... arguments) {
+    Journal journal = this.journal;
+    if (journal == null) {
+      return;
+    }
+    if (journal.append(type, time, value, arguments) % CHECKPOINT_INTERVAL == 0) {
+      Thread checkpoint = new Thread(new Runnable() {
+        public void run() {
+          startSnapshot();
+        }
+      }, "checkpoint");
+      checkpoint.setDaemon(true);
+      checkpoint.start();
+    }
+  }
+  /*
+   * Records the books handled by a batch operation, in as few journal
+   * records as the limit on arguments allows
+   */
+  private void logBatch(byte type, long time, long value, String memberId, List bookIds) {
+    int first = memberId == null ? 0 : 1;
+    int perRecord = Journal.MAX_ARGUMENTS - first;
+    for (int start = 0; start < bookIds.size(); start += perRecord) {
+      List part = bookIds.subList(start, Math.min(bookIds.size(), start + perRecord));
+      String[] arguments = new String[first + part.size()];
+      if (memberId != null) {
+        arguments[0] = memberId;
+      }
+      for (int index = 0; index < part.size(); index++) {
+        arguments[first + index] = (String) part.get(index);
+      }
+      log(type, time, value, arguments);
+    }
+  }
+  /*
+   * Waits until the journal records of the calling operation are on disk.
+   * Called once the operation has released its locks, so that the
+   * operations that wait side by side share one sync. Returns false if
+   * the records could not be written, which halts the library.
+   */
+  private boolean durable() {
+    Journal journal = this.journal;
+    if (journal == null || journal.sync()) {
+      return true;
+    }
+    halted = true;
+    return false;
+  }
+  /*
+   * Checks, before an operation changes anything, that the library still
+   * takes changes. A failed journal is fatal: changes that were reported as
+   * failed may still be in memory, so once a record could not be written
+   * no operation changes the library and it is never saved again. The
+   * library must be retrieved from its files in a new process.
+   */
+  private boolean writable() {
+    Journal journal = this.journal;
+    if (journal != null && journal.hasFailed()) {
+      halted = true;
+    }
+    return !halted;
+  }
+  /*
+   * Waits for the journal records of an operation on several books; if
+   * they could not be written, the books that were changed, reported as
+   * OPERATION_COMPLETED or with the given code, are reported as failed
+   */
+  private void durable(int[] results, int changed) {
+    boolean logged = false;
+    for (int index = 0; index < results.length; index++) {
+      logged |= results[index] == OPERATION_COMPLETED || results[index] == changed;
+    }
+    if (logged && !durable()) {
+      for (int index = 0; index < results.length; index++) {
+        if (results[index] == OPERATION_COMPLETED || results[index] == changed) {
+          results[index] = OPERATION_FAILED;
+        }
+      }
+    }
+  }
+  /*
+   * Issues a book to a member at a given time; used by the operations and
+   * by replay, so that both change the library in exactly the same way
+   */
+  private boolean applyIssue(Book book, Member member, long time, long dueDate) {
+    boolean issued = book.issue(member, dueDate) && member.issue(book, time);
+    dueDates.update(book);
+    return issued;
+  }
+  /*
+   * Renews a book at a given time; used by the operations and by replay
+   */
+  private boolean applyRenew(Book book, Member member, long time, long dueDate) {
+    boolean renewed = book.renew(member, dueDate) && member.renew(book, time);
+    dueDates.update(book);
+    return renewed;
+  }
+  /*
+   * Returns a book at a given time; used by the operations and by replay
+   */
+  private boolean applyReturn(Book book, long time) {
+    Member member = book.returnBook();
+    dueDates.update(book);
+    return member != null && member.returnBook(book, time);
+  }
+  /*
+   * Places a hold that expires at a given time; used by placeHold and by replay
+   */
+  private void applyPlaceHold(Book book, Member member, long time, long expiry) {
+    Hold hold = new Hold(member, book, expiry);
+    book.placeHold(hold);
+    member.placeHold(hold, time);
+    synchronized (holdExpirations) {
+      holdExpirations.add(hold);
     }
   }
+  /*
+   * Removes a member's hold on a book; used by removeHold and by replay
+   */
+  private boolean applyRemoveHold(Book book, Member member, long time) {
+    return member.removeHold(book.getId(), time) && book.removeHold(member.getId());
+  }
+  /*
+   * Takes a hold off its book and its member, as processing a hold does;
+   * used by the operations and by replay
+   */
+  private void applyTakeHold(Hold hold, long time) {
+    hold.getBook().removeHold(hold);
+    hold.getMember().removeHold(hold, time);
+  }
+  /*
+   * Applies one journal record. The record holds everything that depended
+   * on the moment the operation ran: its time, the due date, the hold's
+   * expiration, the member whose hold was processed and the holds that
+   * were purged. These are applied as they are, so the library ends up as
+   * it was before the crash rather than as the operations would turn out
+   * if they ran again now.
+   */
+  private void replay(byte type, long time, long value, String[] arguments) {
+    switch (type) {
+      case Journal.ADD_BOOK:
+        catalog.insertBook(new Book(arguments[0], arguments[1], arguments[2]));
+        break;
+      case Journal.ADD_MEMBER:
+        MemberIdServer.instance().skipPast(Member.idNumber(arguments[3]));
+        memberList.insertMember(new Member(arguments[0], arguments[1], arguments[2], arguments[3]));
+        break;
+      case Journal.ISSUE_BOOK:
+        applyIssue(replayedBook(arguments[1]), replayedMember(arguments[0]), time, value);
+        break;
+      case Journal.RETURN_BOOK:
+        applyReturn(replayedBook(arguments[0]), time);
+        break;
+      case Journal.RENEW_BOOK:
+        applyRenew(replayedBook(arguments[0]), replayedMember(arguments[1]), time, value);
+        break;
+      case Journal.PLACE_HOLD:
+        applyPlaceHold(replayedBook(arguments[1]), replayedMember(arguments[0]), time, value);
+        break;
+      case Journal.REMOVE_HOLD:
+        applyRemoveHold(replayedBook(arguments[1]), replayedMember(arguments[0]), time);
+        break;
+      case Journal.PROCESS_HOLD:
+        applyTakeHold(replayedHold(arguments[0], arguments[1]), time);
+        break;
+      case Journal.REMOVE_BOOK:
+        catalog.removeBook(arguments[0]);
+        break;
+      case Journal.REMOVE_INVALID_HOLDS:
+        for (int index = 0; index + 1 < arguments.length; index += 2) {
+          Book book = replayedBook(arguments[index + 1]);
+          book.removeHold(arguments[index]);
+          replayedMember(arguments[index]).removeHold(book.getId(), time);
+        }
+        break;
+      case Journal.ISSUE_BOOKS:
+        Member borrower = replayedMember(arguments[0]);
+        for (int index = 1; index < arguments.length; index++) {
+          applyIssue(replayedBook(arguments[index]), borrower, time, value);
+        }
+        break;
+      case Journal.RETURN_BOOKS:
+        for (int index = 0; index < arguments.length; index++) {
+          applyReturn(replayedBook(arguments[index]), time);
+        }
+        break;
+      case Journal.RENEW_BOOKS:
+        Member renewer = replayedMember(arguments[0]);
+        for (int index = 1; index < arguments.length; index++) {
+          applyRenew(replayedBook(arguments[index]), renewer, time, value);
+        }
+        break;
+    }
+  }
+  /*
+   * Finds a book named by a journal record. The record was only written
+   * after the operation succeeded, so a missing book means the saved data
+   * and the journal do not belong together.
+   */
+  private Book replayedBook(String bookId) {
+    Book book = catalog.search(bookId);
+    if (book == null) {
+      throw new IllegalStateException("Journal refers to book " + bookId + ", which is not in the library");
+    }
+    return book;
+  }
+  /*
+   * Finds a member named by a journal record
+   */
+  private Member replayedMember(String memberId) {
+    Member member = memberList.search(memberId);
+    if (member == null) {
+      throw new IllegalStateException("Journal refers to member " + memberId
+          + ", who is not in the library");
+    }
+    return member;
+  }
+  /*
+   * Finds the hold of a member on a book named by a journal record
+   */
+  private Hold replayedHold(String bookId, String memberId) {
+    Hold hold = replayedBook(bookId).getHold(memberId);
+    if (hold == null) {
+      throw new IllegalStateException("Journal refers to a hold of " + memberId + " on " + bookId
+          + ", which is not in the library");
+    }
+    return hold;
+  }
   /**
    * Writes the object to the output stream
    * @param output the stream to be written to
@@ -329,6 +2087,11 @@ public class Library implements Serializable {
   private void readObject(java.io.ObjectInputStream input) {
     try {
       input.defaultReadObject();
+      createLocks();
+      dueDates = new DueDateIndex();
+      for (Iterator iterator = catalog.getBooks(); iterator.hasNext(); ) {
+        dueDates.update((Book) iterator.next());
+      }
       if (library == null) {
         library = (Library) input.readObject();
       } else {
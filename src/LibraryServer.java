@@ -0,0 +1,521 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import java.util.*;
+import java.util.concurrent.*;
+import java.text.*;
+import java.io.*;
+import java.net.*;
+/**
+ * Serves the Library over TCP, so that the desks of all branches can
+ * work with one central library. Each connection is served by a thread
+ * of its own: a virtual thread when the Java runtime has them, a pooled
+ * platform thread otherwise.
+ * 
+ * A request is a line of tab separated fields, the first one being the
+ * command. The answer starts with a line holding the outcome, one of the
+ * codes of the Library class or BAD_REQUEST, possibly followed by more
+ * fields; a line for each book, member or transaction found comes next,
+ * and an empty line ends the answer. Tabs, newlines and backslashes within
+ * fields are escaped with a backslash. A client may send several requests
+ * without waiting for the answers; they are carried out in order, and the
+ * answers are only flushed when no more requests are waiting.
+ * 
+ * The commands are
+ *   ISSUE memberId bookId, RENEW bookId memberId, RETURN bookId,
+ *   HOLD memberId bookId days, REMOVE_HOLD memberId bookId,
+ *   PROCESS_HOLD bookId, HOLD_POSITION memberId bookId,
+ *   SEARCH words [ALL|ANY] [limit], LOOK_UP text [limit],
+ *   OVERDUE, DUE days, MEMBERS_BY_PHONE phone, MEMBERS_BY_NAME name,
+ *   TRANSACTIONS memberId from [to], STATISTICS, PING and QUIT.
+ * Dates are written as yyyy-mm-dd; an empty member id in TRANSACTIONS
+ * stands for all members. Books are sent as id, title, author and the id
+ * of the borrower, followed by the due date in milliseconds since
+ * 1/1/1970 for issued books; members as id, name, address and phone;
+ * transactions as type, book id, title and date. STATISTICS sends a line
+ * for each operation of the library that has run, with its name, count,
+ * and mean, median, 90th, 99th and 99.9th percentile and maximum latency
+ * in nanoseconds.
+ *
+ */
+public class LibraryServer {
+  public static final int DEFAULT_PORT = 4019;
+  public static final int BAD_REQUEST = 0;
+  private static final int DEFAULT_LIMIT = 20;
+  private static final int MAX_LIMIT = 1000;
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final long HOLD_SWEEP_MINUTES = 60;
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+  private Library library;
+  private ServerSocket serverSocket;
+  private ExecutorService connections;
+  private Set clients = ConcurrentHashMap.newKeySet();
+  private volatile boolean running = true;
+  /**
+   * Creates a server for the library and starts listening on the port
+   * @param library the library to be served
+   * @param port the port; 0 for any free port
+   * @throws IOException if the port cannot be opened
+   */
+  public LibraryServer(Library library, int port) throws IOException {
+    this.library = library;
+    serverSocket = new ServerSocket(port, 1024);
+    connections = newConnectionExecutor();
+  }
+  /**
+   * Returns the port the server listens on
+   * @return the port number
+   */
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+  /**
+   * Accepts connections until the server is closed, handing each one to
+   * a thread of its own
+   */
+  public void serve() {
+    while (running) {
+      try {
+        Socket socket = serverSocket.accept();
+        socket.setTcpNoDelay(true);
+        connections.execute(new Connection(socket));
+      } catch(RejectedExecutionException ree) {
+        break;
+      } catch(IOException ioe) {
+        if (running) {
+          ioe.printStackTrace();
+        }
+      }
+    }
+  }
+  /**
+   * Starts accepting connections in the background
+   * @return the thread that accepts the connections
+   */
+  public Thread start() {
+    Thread acceptor = new Thread(new Runnable() {
+      public void run() {
+        serve();
+      }
+    }, "library-server");
+    acceptor.setDaemon(true);
+    acceptor.start();
+    return acceptor;
+  }
+  /**
+   * Stops accepting connections and closes the open ones. Requests that
+   * are being carried out are finished first.
+   */
+  public void close() {
+    running = false;
+    try {
+      serverSocket.close();
+    } catch(IOException ioe) {
+      ioe.printStackTrace();
+    }
+    for (Iterator iterator = clients.iterator(); iterator.hasNext(); ) {
+      try {
+        ((Socket) iterator.next()).shutdownInput();
+      } catch(IOException ioe) {
+      }
+    }
+    connections.shutdown();
+    try {
+      connections.awaitTermination(10, TimeUnit.SECONDS);
+    } catch(InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+  }
+  /*
+   * Creates a virtual thread per connection if the runtime supports it,
+   * and a cached pool of daemon threads otherwise
+   */
+  private static ExecutorService newConnectionExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch(ReflectiveOperationException roe) {
+      return Executors.newCachedThreadPool(new ThreadFactory() {
+        private int count;
+        public synchronized Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "library-connection-" + ++count);
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+  }
+  /**
+   * Escapes tabs, line breaks and backslashes in a field
+   * @param field the field
+   * @return the field as it is sent
+   */
+  static String escape(String field) {
+    if (field == null) {
+      return "";
+    }
+    StringBuilder builder = null;
+    for (int index = 0; index < field.length(); index++) {
+      char letter = field.charAt(index);
+      String replacement = letter == '\t' ? "\\t" : letter == '\n' ? "\\n"
+          : letter == '\r' ? "\\r" : letter == '\\' ? "\\\\" : null;
+      if (replacement != null && builder == null) {
+        builder = new StringBuilder(field.length() + 8).append(field, 0, index);
+      }
+      if (builder != null) {
+        if (replacement != null) {
+          builder.append(replacement);
+        } else {
+          builder.append(letter);
+        }
+      }
+    }
+    return builder == null ? field : builder.toString();
+  }
+  /**
+   * Undoes the escapes of a field that has been received
+   * @param field the field as it was sent
+   * @return the field
+   */
+  static String unescape(String field) {
+    if (field.indexOf('\\') < 0) {
+      return field;
+    }
+    StringBuilder builder = new StringBuilder(field.length());
+    for (int index = 0; index < field.length(); index++) {
+      char letter = field.charAt(index);
+      if (letter == '\\' && index + 1 < field.length()) {
+        letter = field.charAt(++index);
+        letter = letter == 't' ? '\t' : letter == 'n' ? '\n' : letter == 'r' ? '\r' : letter;
+      }
+      builder.append(letter);
+    }
+    return builder.toString();
+  }
+  /**
+   * Splits a line into its fields
+   * @param line the line
+   * @return the fields, with the escapes undone
+   */
+  static String[] split(String line) {
+    List fields = new ArrayList();
+    int start = 0;
+    for (int end = line.indexOf('\t'); end >= 0; end = line.indexOf('\t', start)) {
+      fields.add(unescape(line.substring(start, end)));
+      start = end + 1;
+    }
+    fields.add(unescape(line.substring(start)));
+    return (String[]) fields.toArray(new String[fields.size()]);
+  }
+  /*
+   * Serves the requests of one client, in the order they arrive
+   */
+  private class Connection implements Runnable {
+    private Socket socket;
+    private BufferedReader reader;
+    private Writer writer;
+    private DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+    private Connection(Socket socket) {
+      this.socket = socket;
+      dateFormat.setLenient(false);
+    }
+    public void run() {
+      clients.add(socket);
+      try {
+        reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"), BUFFER_SIZE);
+        writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"), BUFFER_SIZE);
+        String line;
+        while ((line = reader.readLine()) != null) {
+          if (!execute(split(line))) {
+            break;
+          }
+          writer.write("\n\n");
+          if (!reader.ready()) {
+            writer.flush();
+          }
+        }
+        writer.flush();
+      } catch(SocketException se) {
+      } catch(IOException ioe) {
+        ioe.printStackTrace();
+      } finally {
+        clients.remove(socket);
+        try {
+          socket.close();
+        } catch(IOException ioe) {
+        }
+      }
+    }
+    /*
+     * Carries out a request and writes its answer, except for the end of
+     * its last line and the empty line that follows. Returns false if the client has asked to quit.
+     */
+    private boolean execute(String[] request) throws IOException {
+      String command = request[0].toUpperCase();
+      try {
+        if (command.equals("QUIT")) {
+          return false;
+        } else if (command.equals("PING")) {
+          status(Library.OPERATION_COMPLETED);
+        } else if (command.equals("ISSUE")) {
+          loan(library.issueBook(argument(request, 1), argument(request, 2)));
+        } else if (command.equals("RENEW")) {
+          loan(library.renewBook(argument(request, 1), argument(request, 2)));
+        } else if (command.equals("RETURN")) {
+          status(library.returnBook(argument(request, 1)));
+        } else if (command.equals("HOLD")) {
+          status(library.placeHold(argument(request, 1), argument(request, 2),
+              Integer.parseInt(argument(request, 3))));
+        } else if (command.equals("REMOVE_HOLD")) {
+          status(library.removeHold(argument(request, 1), argument(request, 2)));
+        } else if (command.equals("PROCESS_HOLD")) {
+          Member member = library.processHold(argument(request, 1));
+          if (member == null) {
+            status(Library.NO_HOLD_FOUND);
+          } else {
+            status(Library.OPERATION_COMPLETED);
+            member(member);
+          }
+        } else if (command.equals("HOLD_POSITION")) {
+          status(Library.OPERATION_COMPLETED);
+          writer.write('\t');
+          writer.write(Integer.toString(library.getHoldPosition(argument(request, 1), argument(request, 2))));
+        } else if (command.equals("SEARCH")) {
+          boolean matchAll = request.length < 3 || !request[2].equalsIgnoreCase("ANY");
+          books(library.searchBooks(argument(request, 1), matchAll, limit(request, 3)));
+        } else if (command.equals("LOOK_UP")) {
+          books(library.completeBooks(argument(request, 1), limit(request, 2)));
+        } else if (command.equals("OVERDUE")) {
+          books(library.getOverdueBooks());
+        } else if (command.equals("DUE")) {
+          books(library.getBooksDueWithin(Integer.parseInt(argument(request, 1))));
+        } else if (command.equals("MEMBERS_BY_PHONE")) {
+          members(library.findMembersByPhone(argument(request, 1)));
+        } else if (command.equals("MEMBERS_BY_NAME")) {
+          members(library.findMembersByName(argument(request, 1)));
+        } else if (command.equals("TRANSACTIONS")) {
+          transactions(request);
+        } else if (command.equals("STATISTICS")) {
+          statistics();
+        } else {
+          status(BAD_REQUEST);
+          writer.write("\tunknown command");
+        }
+      } catch(IllegalArgumentException iae) {
+        status(BAD_REQUEST);
+        writer.write('\t');
+        writer.write(escape(iae.getMessage()));
+      } catch(ParseException pe) {
+        status(BAD_REQUEST);
+        writer.write("\tdates are written as yyyy-mm-dd");
+      } catch(RuntimeException re) {
+        re.printStackTrace();
+        status(Library.OPERATION_FAILED);
+      }
+      return true;
+    }
+    /*
+     * Returns a field of the request, which must be there
+     */
+    private String argument(String[] request, int index) {
+      if (index >= request.length) {
+        throw new IllegalArgumentException("missing argument " + index);
+      }
+      return request[index];
+    }
+    /*
+     * Returns the limit on the number of books, if the request has one
+     */
+    private int limit(String[] request, int index) {
+      if (index >= request.length || request[index].length() == 0) {
+        return DEFAULT_LIMIT;
+      }
+      return Math.max(1, Math.min(MAX_LIMIT, Integer.parseInt(request[index])));
+    }
+    /*
+     * Writes the outcome of issuing or renewing a book
+     */
+    private void loan(Book book) throws IOException {
+      if (book == null) {
+        status(Library.OPERATION_FAILED);
+      } else {
+        status(Library.BOOK_ISSUED);
+        book(book);
+      }
+    }
+    /*
+     * Writes the transactions of a member, or of all members, on a date
+     * or in a range of dates
+     */
+    private void transactions(String[] request) throws IOException, ParseException {
+      String memberId = argument(request, 1);
+      Calendar from = date(argument(request, 2));
+      Iterator transactions;
+      if (request.length < 4) {
+        transactions = memberId.length() == 0 ? library.getTransactions(from, from)
+            : library.getTransactions(memberId, from);
+      } else {
+        Calendar to = date(request[3]);
+        transactions = memberId.length() == 0 ? library.getTransactions(from, to)
+            : library.getTransactions(memberId, from, to);
+      }
+      if (transactions == null) {
+        status(Library.NO_SUCH_MEMBER);
+        return;
+      }
+      status(Library.OPERATION_COMPLETED);
+      while (transactions.hasNext()) {
+        Transaction transaction = (Transaction) transactions.next();
+        writer.write('\n');
+        writer.write(escape(transaction.getType().trim()));
+        writer.write('\t');
+        writer.write(escape(transaction.getBookId()));
+        writer.write('\t');
+        writer.write(escape(transaction.getTitle()));
+        writer.write('\t');
+        writer.write(dateFormat.format(new Date(transaction.getTimeInMillis())));
+      }
+    }
+    /*
+     * Writes the figures of the operations that have run
+     */
+    private void statistics() throws IOException {
+      OperationStatistics statistics = library.getStatistics();
+      status(Library.OPERATION_COMPLETED);
+      for (int operation = 0; operation < OperationStatistics.getOperationCount(); operation++) {
+        long count = statistics.getCount(operation);
+        if (count == 0) {
+          continue;
+        }
+        writer.write('\n');
+        writer.write(OperationStatistics.getName(operation));
+        writer.write('\t');
+        writer.write(Long.toString(count));
+        writer.write('\t');
+        writer.write(Long.toString(statistics.getMean(operation)));
+        for (int index = 0; index < PERCENTILES.length; index++) {
+          writer.write('\t');
+          writer.write(Long.toString(statistics.getPercentile(operation, PERCENTILES[index])));
+        }
+        writer.write('\t');
+        writer.write(Long.toString(statistics.getMaximum(operation)));
+      }
+    }
+    /*
+     * Parses a date sent as yyyy-mm-dd
+     */
+    private Calendar date(String text) throws ParseException {
+      Calendar date = new GregorianCalendar();
+      date.setTime(dateFormat.parse(text));
+      return date;
+    }
+    /*
+     * Writes the outcome line of an answer
+     */
+    private void status(int code) throws IOException {
+      writer.write(Integer.toString(code));
+    }
+    /*
+     * Writes a list of books
+     */
+    private void books(Iterator books) throws IOException {
+      status(Library.OPERATION_COMPLETED);
+      while (books.hasNext()) {
+        book((Book) books.next());
+      }
+    }
+    /*
+     * Writes a list of members
+     */
+    private void members(Iterator members) throws IOException {
+      status(Library.OPERATION_COMPLETED);
+      while (members.hasNext()) {
+        member((Member) members.next());
+      }
+    }
+    /*
+     * Writes a book on a line of its own
+     */
+    private void book(Book book) throws IOException {
+      writer.write('\n');
+      writer.write(escape(book.getId()));
+      writer.write('\t');
+      writer.write(escape(book.getTitle()));
+      writer.write('\t');
+      writer.write(escape(book.getAuthor()));
+      Member borrower = book.getBorrower();
+      if (borrower != null) {
+        writer.write('\t');
+        writer.write(escape(borrower.getId()));
+        writer.write('\t');
+        writer.write(Long.toString(book.getDueDateMillis()));
+      }
+    }
+    /*
+     * Writes a member on a line of its own
+     */
+    private void member(Member member) throws IOException {
+      writer.write('\n');
+      writer.write(escape(member.getId()));
+      writer.write('\t');
+      writer.write(escape(member.getName()));
+      writer.write('\t');
+      writer.write(escape(member.getAddress()));
+      writer.write('\t');
+      writer.write(escape(member.getPhone()));
+    }
+  }
+  /**
+   * Starts the server. The journal is opened and the hold sweeper started
+   * as for the desk interface, and the journal is closed when the process
+   * is stopped. The server does not start on an empty library while saved
+   * data or a journal exists; use -retrieve.
+   * @param args the port, DEFAULT_PORT if none; -retrieve to start from
+   * the saved library
+   */
+  public static void main(String[] args) {
+    List options = new ArrayList(Arrays.asList(args));
+    Library library = null;
+    if (options.remove("-retrieve")) {
+      library = Library.retrieve();
+    }
+    if (library == null) {
+      library = Library.instance();
+    }
+    final Library served = library;
+    if (!served.openJournal(false)) {
+      System.out.println("The library could not be started");
+      return;
+    }
+    served.startHoldSweeper(HOLD_SWEEP_MINUTES, TimeUnit.MINUTES);
+    try {
+      final LibraryServer server = new LibraryServer(served,
+          options.isEmpty() ? DEFAULT_PORT : Integer.parseInt((String) options.get(0)));
+      Runtime.getRuntime().addShutdownHook(new Thread() {
+        public void run() {
+          server.close();
+          served.closeJournal();
+        }
+      });
+      System.out.println("Serving the library on port " + server.getPort());
+      server.serve();
+    } catch(IOException ioe) {
+      ioe.printStackTrace();
+    }
+  }
+}
@@ -0,0 +1,133 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import java.util.*;
+import java.util.concurrent.locks.*;
+/**
+ * A fixed set of locks shared by book and member ids.
+ * An id always maps to the same lock, so operations on different books
+ * or members usually take different locks and run in parallel. When an
+ * operation needs two ids, the two locks are always taken in the order
+ * of their position in the set, which rules out deadlocks.
+ *
+ */
+public class LockStripes {
+  private ReentrantLock[] locks;
+  /**
+   * Creates the locks
+   * @param stripes the number of locks, rounded up to a power of two
+   */
+  public LockStripes(int stripes) {
+    int size = 1;
+    while (size < stripes) {
+      size *= 2;
+    }
+    locks = new ReentrantLock[size];
+    for (int index = 0; index < size; index++) {
+      locks[index] = new ReentrantLock();
+    }
+  }
+  /*
+   * Returns the position of the lock for an id
+   */
+  private int stripe(String id) {
+    if (id == null) {
+      return 0;
+    }
+    int hash = id.hashCode();
+    return (hash ^ (hash >>> 16)) & (locks.length - 1);
+  }
+  /**
+   * Locks a single id
+   * @param id a book or member id
+   */
+  public void lock(String id) {
+    locks[stripe(id)].lock();
+  }
+  /**
+   * Unlocks a single id
+   * @param id a book or member id
+   */
+  public void unlock(String id) {
+    locks[stripe(id)].unlock();
+  }
+  /**
+   * Locks two ids, in a fixed order
+   * @param first a book or member id
+   * @param second another book or member id
+   */
+  public void lock(String first, String second) {
+    int one = stripe(first);
+    int other = stripe(second);
+    locks[Math.min(one, other)].lock();
+    if (one != other) {
+      locks[Math.max(one, other)].lock();
+    }
+  }
+  /**
+   * Locks any number of ids. Each lock is taken once, in the fixed order.
+   * @param ids book and member ids
+   */
+  public void lock(String[] ids) {
+    int[] stripes = stripes(ids);
+    for (int index = 0; index < stripes.length; index++) {
+      locks[stripes[index]].lock();
+    }
+  }
+  /**
+   * Unlocks ids locked together
+   * @param ids book and member ids
+   */
+  public void unlock(String[] ids) {
+    int[] stripes = stripes(ids);
+    for (int index = stripes.length - 1; index >= 0; index--) {
+      locks[stripes[index]].unlock();
+    }
+  }
+  /*
+   * Returns the distinct positions of the locks for some ids, in order
+   */
+  private int[] stripes(String[] ids) {
+    int[] stripes = new int[ids.length];
+    for (int index = 0; index < ids.length; index++) {
+      stripes[index] = stripe(ids[index]);
+    }
+    Arrays.sort(stripes);
+    int count = 0;
+    for (int index = 0; index < stripes.length; index++) {
+      if (count == 0 || stripes[count - 1] != stripes[index]) {
+        stripes[count++] = stripes[index];
+      }
+    }
+    return Arrays.copyOf(stripes, count);
+  }
+  /**
+   * Unlocks two ids locked together
+   * @param first a book or member id
+   * @param second another book or member id
+   */
+  public void unlock(String first, String second) {
+    int one = stripe(first);
+    int other = stripe(second);
+    if (one != other) {
+      locks[Math.max(one, other)].unlock();
+    }
+    locks[Math.min(one, other)].unlock();
+  }
+}
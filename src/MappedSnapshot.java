@@ -0,0 +1,683 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import java.util.*;
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+/**
+ * A snapshot file mapped into memory and decoded on demand.
+ * Opening the snapshot only reads the header and the positions of the
+ * sections, so it takes the same time for any amount of data. A book or
+ * member is decoded, together with its loans, holds and transactions,
+ * the first time the catalog or member list is asked for it; the
+ * indexes written by Snapshot lead straight to its record. The books and
+ * members it refers to are decoded along with it, through a work list.
+ * Each record is decoded at most once, under the snapshot's lock; the
+ * file and its indexes are never written, so an id that is not in the
+ * snapshot is turned away without the lock. Searches by word, phone or name
+ * index the records that are not decoded from their strings, and a new
+ * snapshot copies those records from this one, so neither decodes them.
+ * Once everything is decoded, the snapshot detaches itself from the
+ * catalog and the member list.
+ *
+ */
+public class MappedSnapshot {
+  private static final int CHUNK_BITS = 30;
+  private MappedByteBuffer[] chunks;
+  private int chunkBits;
+  private long chunkMask;
+  private short version;
+  private int nextId;
+  private long journalSequence;
+  private int bookCount;
+  private int memberCount;
+  private long stringOffsets;
+  private long books;
+  private long memberIndex;
+  private int memberSlots;
+  private long bookIndex;
+  private int bookCapacity;
+  private long holdExpiry;
+  private int holdCount;
+  private int holdCursor;
+  private long dueDates;
+  private int dueCount;
+  private int dueCursor;
+  private BitSet decodedBooks = new BitSet();
+  private BitSet decodedMembers = new BitSet();
+  private int undecodedMembers;
+  private int[] bookEntries;
+  private ArrayDeque pending = new ArrayDeque();
+  private List holdOrders = new ArrayList();
+  /*
+   * A book or member that is in the catalog or the member list but whose
+   * loans, holds and transactions have not been restored yet, and the
+   * position of its record
+   */
+  private static class Pending {
+    private Object decoded;
+    private long position;
+    private Pending(Object decoded, long position) {
+      this.decoded = decoded;
+      this.position = position;
+    }
+  }
+  /*
+   * Private; use open
+   */
+  private MappedSnapshot(MappedByteBuffer[] chunks, int chunkBits) {
+    this.chunks = chunks;
+    this.chunkBits = chunkBits;
+    chunkMask = (1L << chunkBits) - 1;
+  }
+  /**
+   * Maps a snapshot file and locates its sections
+   * @param file the snapshot file
+   * @return the mapped snapshot
+   * @throws IOException if the file cannot be mapped or is not a snapshot in a supported version
+   */
+  public static MappedSnapshot open(File file) throws IOException {
+    return open(file, CHUNK_BITS);
+  }
+  /**
+   * Maps a snapshot file in chunks of a given size and locates its
+   * sections. A file can be larger than the 2 GB that one mapping can
+   * hold; values that cross the end of a chunk are put together from both.
+   * @param file the snapshot file
+   * @param chunkBits the chunks hold 2 to the power of chunkBits bytes
+   * @return the mapped snapshot
+   * @throws IOException if the file cannot be mapped or is not a snapshot in a supported version
+   */
+  static MappedSnapshot open(File file, int chunkBits) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    MappedByteBuffer[] chunks;
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      long size = channel.size();
+      chunks = new MappedByteBuffer[(int) ((size >>> chunkBits) + 1)];
+      for (int chunk = 0; chunk < chunks.length; chunk++) {
+        long start = (long) chunk << chunkBits;
+        chunks[chunk] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+            Math.min(1L << chunkBits, size - start));
+      }
+    } finally {
+      randomAccessFile.close();
+    }
+    MappedSnapshot snapshot = new MappedSnapshot(chunks, chunkBits);
+    snapshot.readHeader();
+    return snapshot;
+  }
+  /*
+   * Reads the header and walks the section headers
+   */
+  private void readHeader() throws IOException {
+    if (getInt(0) != Snapshot.MAGIC) {
+      throw new IOException("Not a library snapshot");
+    }
+    version = getShort(4);
+    if (version < Snapshot.FIRST_READABLE_VERSION || version > Snapshot.VERSION) {
+      throw new IOException("Unsupported snapshot version " + version);
+    }
+    nextId = getInt(6);
+    journalSequence = getLong(10);
+    bookCount = getInt(18);
+    memberCount = getInt(22);
+    undecodedMembers = memberCount;
+    long position = Snapshot.HEADER_SIZE;
+    for (byte tag = getByte(position); tag != Snapshot.END; tag = getByte(position)) {
+      long length = getLong(position + 1);
+      long start = position + Snapshot.SECTION_HEADER_SIZE;
+      switch (tag) {
+        case Snapshot.BOOKS:
+          books = start;
+          break;
+        case Snapshot.STRING_OFFSETS:
+          stringOffsets = start + 4;
+          break;
+        case Snapshot.MEMBER_INDEX:
+          memberSlots = getInt(start);
+          memberIndex = start + 4;
+          break;
+        case Snapshot.BOOK_INDEX:
+          bookCapacity = getInt(start);
+          bookIndex = start + 4;
+          break;
+        case Snapshot.HOLD_EXPIRY:
+          holdCount = getInt(start);
+          holdExpiry = start + 4;
+          break;
+        case Snapshot.DUE_DATES:
+          dueCount = getInt(start);
+          dueDates = start + 4;
+          break;
+      }
+      position = start + length;
+    }
+    if (stringOffsets == 0 || books == 0 || memberIndex == 0 || bookIndex == 0 || holdExpiry == 0) {
+      throw new IOException("Snapshot is missing an index");
+    }
+  }
+  /**
+   * Makes the catalog and member list read from this snapshot, and moves the
+   * member id counter past the ids in it
+   */
+  public void attach() {
+    Catalog.instance().attach(this);
+    MemberList.instance().attach(this);
+    MemberIdServer.instance().skipPast(nextId - 1);
+  }
+  /**
+   * Returns the sequence number of the last journal record covered by the snapshot
+   * @return the journal sequence number
+   */
+  public long getJournalSequence() {
+    return journalSequence;
+  }
+  /**
+   * Checks whether a book is in the snapshot and has not been decoded yet
+   * @param bookId id of the book
+   * @return true iff the book still has to be decoded
+   */
+  public boolean containsBook(String bookId) {
+    int slot = findBook(bookId);
+    if (slot == Snapshot.NONE) {
+      return false;
+    }
+    synchronized (this) {
+      return !decodedBooks.get(slot);
+    }
+  }
+  /**
+   * Decodes a book the first time it is asked for. A book that another
+   * thread decoded first is looked up in the catalog instead.
+   * @param bookId id of the book
+   * @return the book, or null if it is not in the snapshot or was decoded and removed
+   */
+  public Book loadBook(String bookId) {
+    int slot = findBook(bookId);
+    if (slot == Snapshot.NONE) {
+      return null;
+    }
+    synchronized (this) {
+      if (decodedBooks.get(slot)) {
+        return Catalog.instance().find(bookId);
+      }
+      return decodeBook(slot);
+    }
+  }
+  /**
+   * Checks whether a member is in the snapshot and has not been decoded yet
+   * @param number the numeric part of the member id
+   * @return true iff the member still has to be decoded
+   */
+  public boolean containsMember(int number) {
+    if (memberOffset(number) == Snapshot.NONE) {
+      return false;
+    }
+    synchronized (this) {
+      return !decodedMembers.get(number);
+    }
+  }
+  /**
+   * Decodes a member the first time it is asked for. A member that another
+   * thread decoded first is looked up in the member list instead.
+   * @param number the numeric part of the member id
+   * @return the member, or null if it is not in the snapshot
+   */
+  public Member loadMember(int number) {
+    if (memberOffset(number) == Snapshot.NONE) {
+      return null;
+    }
+    synchronized (this) {
+      if (decodedMembers.get(number)) {
+        return MemberList.instance().find(number);
+      }
+      return decodeMember(number);
+    }
+  }
+  /**
+   * Returns the number of members that have not been decoded yet
+   * @return the number of undecoded members
+   */
+  public synchronized int getUndecodedMembers() {
+    return undecodedMembers;
+  }
+  /**
+   * Decodes the books on which a hold expires before a given time, so that
+   * those holds can be purged. Holds are visited in order of expiration, so
+   * each call only looks at holds that have expired since the previous one.
+   * @param time the time in milliseconds since 1/1/1970
+   */
+  public synchronized void loadHoldsExpiringBefore(long time) {
+    while (holdCursor < holdCount) {
+      long position = holdExpiry + 12L * holdCursor;
+      if (getLong(position) >= time) {
+        return;
+      }
+      int slot = getInt(position + 8);
+      if (!decodedBooks.get(slot)) {
+        decodeBook(slot);
+      }
+      holdCursor++;
+    }
+  }
+  /**
+   * Decodes the issued books that are due before a given time, in order of
+   * due date, so each call only looks at books that have come due since
+   * the previous one. Snapshots written before the due date order was
+   * added do not have it; then all books are decoded.
+   * @param time the time in milliseconds since 1/1/1970
+   */
+  public synchronized void loadBooksDueBefore(long time) {
+    if (dueDates == 0) {
+      loadAll();
+      return;
+    }
+    while (dueCursor < dueCount) {
+      long position = dueDates + 12L * dueCursor;
+      if (getLong(position) >= time) {
+        return;
+      }
+      int slot = getInt(position + 8);
+      if (!decodedBooks.get(slot)) {
+        decodeBook(slot);
+      }
+      dueCursor++;
+    }
+  }
+  /**
+   * Decodes every book and member that has not been decoded yet and
+   * detaches the snapshot
+   */
+  public synchronized void loadAll() {
+    long position = books;
+    for (int count = 0; count < bookCount; count++) {
+      int slot = slotOf(string(getInt(position)), position);
+      if (!decodedBooks.get(slot)) {
+        decodeBook(slot);
+      }
+      position = nextBook(position);
+    }
+    for (int number = 0; number < memberSlots; number++) {
+      if (containsMember(number)) {
+        decodeMember(number);
+      }
+    }
+    holdCursor = holdCount;
+    dueCursor = dueCount;
+    Catalog.instance().attach(null);
+    MemberList.instance().attach(null);
+  }
+  /**
+   * Adds the books that have not been decoded to a word index, in the order
+   * in which they were saved, from the titles and authors in their records.
+   * A book decoded afterwards takes the place of its entry. The caller
+   * takes the lock of this snapshot before that of the catalog.
+   * @param index the index
+   */
+  synchronized void indexBooks(BookIndex index) {
+    bookEntries = new int[bookCapacity];
+    long position = books;
+    for (int count = 0; count < bookCount; count++) {
+      String bookId = string(getInt(position));
+      int slot = slotOf(bookId, position);
+      if (!decodedBooks.get(slot)) {
+        bookEntries[slot] = index.add(bookId, string(getInt(position + 4)), string(getInt(position + 8)));
+      }
+      position = nextBook(position);
+    }
+  }
+  /**
+   * Adds the members that have not been decoded to the phone and name
+   * tables of a member list, from the names and phone numbers in their
+   * records. The caller takes the lock of this snapshot before that of
+   * the member list.
+   * @param memberList the member list
+   */
+  synchronized void indexMembers(MemberList memberList) {
+    for (int number = 0; number < memberSlots; number++) {
+      long position = memberOffset(number);
+      if (position != Snapshot.NONE && !decodedMembers.get(number)) {
+        memberList.indexMember(number, string(getInt(position + 4)), string(getInt(position + 12)));
+      }
+    }
+  }
+  /**
+   * Returns which books have been decoded, for a capture
+   * @return a copy of the set of hash table slots of the decoded books
+   */
+  synchronized BitSet getDecodedBooks() {
+    return (BitSet) decodedBooks.clone();
+  }
+  /**
+   * Returns which members have been decoded, for a capture
+   * @return a copy of the set of id numbers of the decoded members
+   */
+  synchronized BitSet getDecodedMembers() {
+    return (BitSet) decodedMembers.clone();
+  }
+  /**
+   * Returns the version of the format the snapshot was written in
+   * @return the format version
+   */
+  short getVersion() {
+    return version;
+  }
+  /**
+   * Returns the number of books in the snapshot
+   * @return the number of book records
+   */
+  int getBookCount() {
+    return bookCount;
+  }
+  /**
+   * Returns the number of entries in the string table
+   * @return the number of strings
+   */
+  int getStringCount() {
+    return getInt(stringOffsets - 4);
+  }
+  /**
+   * Returns one more than the highest member id number in the snapshot
+   * @return the number of entries of the member index
+   */
+  int getMemberSlots() {
+    return memberSlots;
+  }
+  /**
+   * Returns the position of the first book record
+   * @return the position in the file
+   */
+  long firstBook() {
+    return books;
+  }
+  /**
+   * Returns the position of the book record that follows another
+   * @param position the position of a book record
+   * @return the position of the next record
+   */
+  long nextBook(long position) {
+    position += getInt(position + 12) == Snapshot.NONE ? 16 : 24;
+    return position + 4 + 12L * getInt(position);
+  }
+  /**
+   * Returns the hash table slot of the book record at a given position
+   * @param bookId the id of the book
+   * @param position the position of its record
+   * @return the slot
+   */
+  int slotOf(String bookId, long position) {
+    int slot = Snapshot.bucket(bookId, bookCapacity);
+    while (getLong(bookIndex + 8L * slot) != position) {
+      slot = (slot + 1) & (bookCapacity - 1);
+    }
+    return slot;
+  }
+  /*
+   * Finds the hash table slot of a book
+   */
+  private int findBook(String bookId) {
+    if (bookId == null) {
+      return Snapshot.NONE;
+    }
+    for (int slot = Snapshot.bucket(bookId, bookCapacity); ; slot = (slot + 1) & (bookCapacity - 1)) {
+      long offset = getLong(bookIndex + 8L * slot);
+      if (offset == Snapshot.NONE) {
+        return Snapshot.NONE;
+      }
+      if (bookId.equals(string(getInt(offset)))) {
+        return slot;
+      }
+    }
+  }
+  /**
+   * Returns the position of a member record
+   * @param number the numeric part of the member id
+   * @return the position in the file, or NONE if there is no such member
+   */
+  long memberOffset(int number) {
+    if (number < 0 || number >= memberSlots) {
+      return Snapshot.NONE;
+    }
+    return getLong(memberIndex + 8L * number);
+  }
+  /*
+   * Decodes a book record and the records it leads to
+   */
+  private Book decodeBook(int slot) {
+    Book book = createBook(slot);
+    drain();
+    return book;
+  }
+  /*
+   * Decodes a member record and the records it leads to
+   */
+  private Member decodeMember(int number) {
+    Member member = createMember(number);
+    drain();
+    return member;
+  }
+  /*
+   * Creates the book of a record and puts it in the catalog. Its loan and
+   * holds are restored when it comes off the work list.
+   */
+  private Book createBook(int slot) {
+    decodedBooks.set(slot);
+    long position = getLong(bookIndex + 8L * slot);
+    Book book = new Book(string(getInt(position + 4)).intern(), string(getInt(position + 8)),
+        string(getInt(position)));
+    if (bookEntries != null) {
+      book.indexEntry = bookEntries[slot];
+    }
+    Catalog.instance().restoreBook(book, position);
+    pending.add(new Pending(book, position));
+    return book;
+  }
+  /*
+   * Creates the member of a record and puts it in the member list. Its
+   * loans, holds and transactions are restored when it comes off the work list.
+   */
+  private Member createMember(int number) {
+    decodedMembers.set(number);
+    undecodedMembers--;
+    long position = memberOffset(number);
+    Member member = new Member(string(getInt(position + 4)), string(getInt(position + 8)),
+        string(getInt(position + 12)), string(getInt(position)));
+    MemberList.instance().restoreMember(member);
+    pending.add(new Pending(member, position));
+    return member;
+  }
+  /*
+   * Returns the book a record refers to, creating it if it has not been decoded
+   */
+  private Book book(String bookId) {
+    int slot = findBook(bookId);
+    if (slot != Snapshot.NONE && !decodedBooks.get(slot)) {
+      return createBook(slot);
+    }
+    return Catalog.instance().search(bookId);
+  }
+  /*
+   * Returns the member a record refers to, creating it if it has not been decoded
+   */
+  private Member member(String memberId) {
+    int number = Member.idNumber(memberId);
+    if (memberOffset(number) != Snapshot.NONE && !decodedMembers.get(number)) {
+      return createMember(number);
+    }
+    return MemberList.instance().search(memberId);
+  }
+  /*
+   * Restores the references of the records on the work list, which may put
+   * more records on it. A chain of borrowers and holders of any length is
+   * followed without nesting calls. Once the list is empty, every hold has
+   * reached its member, and the holds of the members decoded on the way
+   * are put back in their saved order.
+   */
+  private void drain() {
+    while (!pending.isEmpty()) {
+      Pending next = (Pending) pending.poll();
+      if (next.decoded instanceof Book) {
+        restoreReferences((Book) next.decoded, next.position);
+      } else {
+        restoreReferences((Member) next.decoded, next.position);
+      }
+    }
+    for (int index = 0; index < holdOrders.size(); index += 2) {
+      ((Member) holdOrders.get(index)).restoreHoldOrder((List) holdOrders.get(index + 1));
+    }
+    holdOrders.clear();
+  }
+  /*
+   * Restores the loan and the holds of a book from its record
+   */
+  private void restoreReferences(Book book, long position) {
+    int borrower = getInt(position + 12);
+    position += 16;
+    if (borrower != Snapshot.NONE) {
+      book.restoreLoan(member(string(borrower)), getLong(position));
+      position += 8;
+    }
+    Library library = Library.instance();
+    library.restoreLoan(book);
+    for (int holds = getInt(position); holds > 0; holds--) {
+      Member member = member(string(getInt(position + 4)));
+      Hold hold = new Hold(member, book, getLong(position + 8));
+      book.placeHold(hold);
+      member.restoreHold(hold);
+      library.restoreHold(hold);
+      position += 12;
+    }
+  }
+  /*
+   * Restores the loans and transactions of a member from its record. The
+   * holds reach the member when the books they are on are decoded; the
+   * saved order of the holds is kept until then.
+   */
+  private void restoreReferences(Member member, long position) {
+    position += 16;
+    for (int loans = getInt(position); loans > 0; loans--) {
+      position += 4;
+      member.restoreLoan(book(string(getInt(position))));
+    }
+    position += 4;
+    List held = new ArrayList();
+    for (int holds = getInt(position); holds > 0; holds--) {
+      position += 4;
+      String bookId = string(getInt(position));
+      book(bookId);
+      held.add(bookId);
+    }
+    holdOrders.add(member);
+    holdOrders.add(held);
+    position += 4;
+    for (int transactions = getInt(position); transactions > 0; transactions--) {
+      int type = getInt(position + 4);
+      String bookId = null;
+      if (version >= 4) {
+        bookId = string(getInt(position + 8));
+        position += 4;
+      }
+      member.restoreTransaction(version < 3 ? Transaction.typeOf(string(type)) : (byte) type, bookId,
+          string(getInt(position + 8)), getLong(position + 12));
+      position += 16;
+    }
+  }
+  /**
+   * Decodes an entry of the string table
+   * @param index the index of the string, or NONE
+   * @return the string, or null for NONE
+   */
+  String string(int index) {
+    if (index == Snapshot.NONE) {
+      return null;
+    }
+    long position = getLong(stringOffsets + 8L * index);
+    byte[] bytes = new byte[getInt(position)];
+    getBytes(position + 4, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+  /*
+   * Reads a byte of the file
+   */
+  private byte getByte(long position) {
+    return chunks[(int) (position >>> chunkBits)].get((int) (position & chunkMask));
+  }
+  /*
+   * Reads a short of the file
+   */
+  private short getShort(long position) {
+    MappedByteBuffer chunk = chunks[(int) (position >>> chunkBits)];
+    int offset = (int) (position & chunkMask);
+    if (offset + 2 <= chunk.limit()) {
+      return chunk.getShort(offset);
+    }
+    return (short) getNumber(position, 2);
+  }
+  /**
+   * Reads an int of the file
+   * @param position the position in the file
+   * @return the int
+   */
+  int getInt(long position) {
+    MappedByteBuffer chunk = chunks[(int) (position >>> chunkBits)];
+    int offset = (int) (position & chunkMask);
+    if (offset + 4 <= chunk.limit()) {
+      return chunk.getInt(offset);
+    }
+    return (int) getNumber(position, 4);
+  }
+  /**
+   * Reads a long of the file
+   * @param position the position in the file
+   * @return the long
+   */
+  long getLong(long position) {
+    MappedByteBuffer chunk = chunks[(int) (position >>> chunkBits)];
+    int offset = (int) (position & chunkMask);
+    if (offset + 8 <= chunk.limit()) {
+      return chunk.getLong(offset);
+    }
+    return getNumber(position, 8);
+  }
+  /*
+   * Puts together a number that crosses the end of a chunk, one byte at a time
+   */
+  private long getNumber(long position, int size) {
+    long value = 0;
+    for (int index = 0; index < size; index++) {
+      value = (value << 8) | (getByte(position + index) & 0xFF);
+    }
+    return value;
+  }
+  /*
+   * Reads bytes of the file, which may cross the ends of chunks
+   */
+  private void getBytes(long position, byte[] bytes) {
+    for (int copied = 0; copied < bytes.length; ) {
+      MappedByteBuffer chunk = chunks[(int) ((position + copied) >>> chunkBits)];
+      int offset = (int) ((position + copied) & chunkMask);
+      int length = Math.min(bytes.length - copied, chunk.limit() - offset);
+      chunk.get(offset, bytes, copied, length);
+      copied += length;
+    }
+  }
+}
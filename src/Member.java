@@ -18,6 +18,7 @@
  * and are not responsible for any loss or damage resulting from its use.  
  */
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.io.*;
 public class Member implements Serializable {
   private static final long serialVersionUID = 1L;
@@ -27,8 +28,11 @@ public class Member implements Serializable {
   private String id;
   private static final String MEMBER_STRING = "M";
   private List booksBorrowed = new LinkedList();
-  private List booksOnHold = new LinkedList();
-  private List transactions = new LinkedList();
+  private Map booksOnHold = new LinkedHashMap();
+  private long lastTransaction = TransactionStore.NONE;
+  private int transactionCount;
+  private volatile AtomicLongArray transactionDays;
+  transient long snapshotVersion;
   /**
    * Represents a single member
    * @param name name of the member
@@ -41,14 +45,36 @@ public class Member implements Serializable {
     this.phone = phone;
     id = MEMBER_STRING + (MemberIdServer.instance()).getId();
   }
+  /**
+   * Recreates a member whose id was assigned earlier
+   * @param name name of the member
+   * @param address address of the member
+   * @param phone phone number of the member
+   * @param id the member's id
+   */
+  Member (String name, String address, String phone, String id) {
+    this.name = name;
+    this.address = address;
+    this.phone = phone;
+    this.id = id;
+  }
   /**
    * Stores the book as issued to the member
    * @param book the book to be issued
    * @return true iff the book could be marked as issued. always true currently 
    */
   public boolean issue(Book book) {
+    return issue(book, System.currentTimeMillis());
+  }
+  /**
+   * Stores the book as issued to the member at a given time
+   * @param book the book to be issued
+   * @param time milliseconds since 1/1/1970
+   * @return true iff the book could be marked as issued. always true currently
+   */
+  boolean issue(Book book, long time) {
     if (booksBorrowed.add(book)) {
-      transactions.add(new Transaction ("Book issued ", book.getTitle()));
+      addTransaction(Transaction.BOOK_ISSUED, book, time);
       return true;
     }
     return false;
@@ -59,8 +85,17 @@ public class Member implements Serializable {
    * @return true iff the book could be marked as marked as returned 
    */
   public boolean returnBook(Book book) {
+    return returnBook(book, System.currentTimeMillis());
+  }
+  /**
+   * Marks the book as not issued to the member as of a given time
+   * @param book the book to be returned
+   * @param time milliseconds since 1/1/1970
+   * @return true iff the book could be marked as marked as returned
+   */
+  boolean returnBook(Book book, long time) {
     if ( booksBorrowed.remove(book)){
-      transactions.add(new Transaction ("Book returned ", book.getTitle()));
+      addTransaction(Transaction.BOOK_RETURNED, book, time);
       return true;
     }
     return false;
@@ -71,11 +106,20 @@ public class Member implements Serializable {
    * @return true iff the book could be renewed
    */
   public boolean renew(Book book) {
+    return renew(book, System.currentTimeMillis());
+  }
+  /**
+   * Marks the book as renewed at a given time
+   * @param book the book to be renewed
+   * @param time milliseconds since 1/1/1970
+   * @return true iff the book could be renewed
+   */
+  boolean renew(Book book, long time) {
     for (ListIterator iterator = booksBorrowed.listIterator(); iterator.hasNext(); ) {
       Book aBook = (Book) iterator.next();
       String id = aBook.getId();
       if (id.equals(book.getId())) {
-        transactions.add(new Transaction ("Book renewed ",  book.getTitle()));
+        addTransaction(Transaction.BOOK_RENEWED, book, time);
         return true;
       }
     }
@@ -88,13 +132,35 @@ public class Member implements Serializable {
   public Iterator getBooksIssued() {
     return (booksBorrowed.listIterator());
   }
+  /**
+   * Gets an iterator to the holds placed by the member
+   * @return Iterator to the collection of holds
+   */
+  public Iterator getHolds() {
+    return Collections.unmodifiableCollection(booksOnHold.values()).iterator();
+  }
   /**
    * Places a hold for the book
    * @param hold the book to be placed a hold
+   * @return true iff the hold was placed; false if the member already has a hold on the book
+   */
+  public boolean placeHold(Hold hold) {
+    return placeHold(hold, System.currentTimeMillis());
+  }
+  /**
+   * Places a hold for the book at a given time
+   * @param hold the book to be placed a hold
+   * @param time milliseconds since 1/1/1970
+   * @return true iff the hold was placed; false if the member already has a hold on the book
    */
-  public void placeHold(Hold hold) {
-    transactions.add(new Transaction ("Hold Placed ", hold.getBook().getTitle()));
-    booksOnHold.add(hold);
+  boolean placeHold(Hold hold, long time) {
+    String bookId = hold.getBook().getId();
+    if (booksOnHold.containsKey(bookId)) {
+      return false;
+    }
+    addTransaction(Transaction.HOLD_PLACED, hold.getBook(), time);
+    booksOnHold.put(bookId, hold);
+    return true;
   }
   /**
    * Removes a hold
@@ -102,16 +168,95 @@ public class Member implements Serializable {
    * @return true iff the hold could be removed
    */
   public boolean removeHold(String bookId) {
-    for (ListIterator iterator = booksOnHold.listIterator(); iterator.hasNext(); ) {
-      Hold hold = (Hold) iterator.next();
-      String id = hold.getBook().getId();
-      if (id.equals(bookId)) {
-        transactions.add(new Transaction ("Hold Removed ", hold.getBook().getTitle()));
-        iterator.remove();
-        return true;
+    return removeHold(bookId, System.currentTimeMillis());
+  }
+  /**
+   * Removes a hold as of a given time
+   * @param bookId the book id for removing a hold
+   * @param time milliseconds since 1/1/1970
+   * @return true iff the hold could be removed
+   */
+  boolean removeHold(String bookId, long time) {
+    Hold hold = (Hold) booksOnHold.remove(bookId);
+    if (hold == null) {
+      return false;
+    }
+    addTransaction(Transaction.HOLD_REMOVED, hold.getBook(), time);
+    return true;
+  }
+  /**
+   * Removes a specific hold object, if the member still has it
+   * @param hold the hold to be removed
+   * @return true iff the hold was found and removed
+   */
+  public boolean removeHold(Hold hold) {
+    return removeHold(hold, System.currentTimeMillis());
+  }
+  /**
+   * Removes a specific hold object as of a given time, if the member still has it
+   * @param hold the hold to be removed
+   * @param time milliseconds since 1/1/1970
+   * @return true iff the hold was found and removed
+   */
+  boolean removeHold(Hold hold, long time) {
+    String bookId = hold.getBook().getId();
+    if (booksOnHold.get(bookId) != hold) {
+      return false;
+    }
+    return removeHold(bookId, time);
+  }
+  /*
+   * Records a transaction on a book at a given time
+   */
+  private void addTransaction(byte type, Book book, long time) {
+    addTransaction(type, book.getId(), book.getTitle(), time);
+  }
+  /*
+   * Appends a transaction to the store and links it to the member's
+   * history of its day. The days are kept in order as pairs of day number
+   * and latest record; a day that is new gets a new array, so that readers
+   * never see one half changed.
+   */
+  private void addTransaction(byte type, String bookId, String title, long time) {
+    long day = Transaction.epochDay(time);
+    AtomicLongArray days = transactionDays;
+    int index = findDay(days, day);
+    boolean known = days != null && index < days.length() / 2 && days.get(2 * index) == day;
+    long record = TransactionStore.instance().append(idNumber(id), bookId, title, type, time,
+        known ? days.get(2 * index + 1) : TransactionStore.NONE);
+    if (known) {
+      days.set(2 * index + 1, record);
+    } else {
+      int count = days == null ? 0 : days.length() / 2;
+      AtomicLongArray grown = new AtomicLongArray(2 * count + 2);
+      for (int pair = 0; pair < count; pair++) {
+        int to = pair < index ? pair : pair + 1;
+        grown.set(2 * to, days.get(2 * pair));
+        grown.set(2 * to + 1, days.get(2 * pair + 1));
       }
+      grown.set(2 * index, day);
+      grown.set(2 * index + 1, record);
+      transactionDays = grown;
     }
-    return false;
+    lastTransaction = record;
+    transactionCount++;
+  }
+  /*
+   * Returns the position of the first day in the history that is not
+   * before the given one
+   */
+  private static int findDay(AtomicLongArray days, long day) {
+    int low = 0;
+    int high = days == null ? 0 : days.length() / 2;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (days.get(2 * middle) < day) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
   }
   /**
    * Gets an iterator to a collection of selected ransactions
@@ -119,14 +264,161 @@ public class Member implements Serializable {
    * @return the iterator to the collection
    */
   public Iterator getTransactions(Calendar date) {
-    List result = new LinkedList();
-    for (Iterator iterator = transactions.iterator(); iterator.hasNext(); ) {
-      Transaction transaction = (Transaction) iterator.next();
-      if (transaction.onDate(date)) {
-        result.add(transaction);
+    long day = Transaction.epochDay(date);
+    return transactions(day, day, Long.MAX_VALUE);
+  }
+  /**
+   * Gets an iterator to all transactions of the member in date order
+   * @return the iterator to the transactions
+   */
+  public Iterator getTransactions() {
+    return transactions(Long.MIN_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+  }
+  /**
+   * Gets an iterator to the transactions recorded so far, in date order.
+   * Transactions added after this call are left out, even though the
+   * iterator reads the history lazily.
+   * @return the iterator to the transactions
+   */
+  Iterator getTransactionsSoFar() {
+    return transactions(Long.MIN_VALUE, Long.MAX_VALUE, lastTransaction);
+  }
+  /**
+   * Returns the number of transactions of the member
+   * @return the number of transactions
+   */
+  int getTransactionCount() {
+    return transactionCount;
+  }
+  /*
+   * Returns views of the transactions in a range of days, in date order,
+   * leaving out records after the given one. The history is read one day
+   * at a time as the iterator reaches it; the records of a day are put in
+   * order of time, since they need not have been added in that order.
+   */
+  private Iterator transactions(final long fromDay, final long toDay, final long limit) {
+    final AtomicLongArray days = transactionDays;
+    final TransactionStore store = TransactionStore.instance();
+    return new Iterator() {
+      private int day = findDay(days, fromDay);
+      private long[] records = new long[8];
+      private int count;
+      private int next;
+      public boolean hasNext() {
+        while (next == count && days != null && day < days.length() / 2 && days.get(2 * day) <= toDay) {
+          readDay(days.get(2 * day + 1));
+          day++;
+        }
+        return next < count;
+      }
+      public Object next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return new Transaction(records[next++]);
+      }
+      private void readDay(long latest) {
+        count = 0;
+        next = 0;
+        for (long record = latest; record != TransactionStore.NONE; record = store.getPrevious(record)) {
+          if (record <= limit) {
+            if (count == records.length) {
+              records = Arrays.copyOf(records, 2 * count);
+            }
+            records[count++] = record;
+          }
+        }
+        for (int low = 0, high = count - 1; low < high; low++, high--) {
+          long record = records[low];
+          records[low] = records[high];
+          records[high] = record;
+        }
+        for (int index = 1; index < count; index++) {
+          long record = records[index];
+          long time = store.getTime(record);
+          int position = index;
+          while (position > 0 && store.getTime(records[position - 1]) > time) {
+            records[position] = records[position - 1];
+            position--;
+          }
+          records[position] = record;
+        }
+      }
+    };
+  }
+  /**
+   * Restores a book that was saved as issued to the member
+   * @param book the issued book
+   */
+  void restoreLoan(Book book) {
+    booksBorrowed.add(book);
+  }
+  /**
+   * Restores a hold that was saved without recording a new transaction
+   * @param hold the hold
+   */
+  void restoreHold(Hold hold) {
+    booksOnHold.put(hold.getBook().getId(), hold);
+  }
+  /**
+   * Puts the restored holds back in their saved order
+   * @param bookIds ids of the books on hold, in saved order
+   */
+  void restoreHoldOrder(List bookIds) {
+    Map ordered = new LinkedHashMap();
+    for (Iterator iterator = bookIds.iterator(); iterator.hasNext(); ) {
+      Object bookId = iterator.next();
+      Object hold = booksOnHold.get(bookId);
+      if (hold != null) {
+        ordered.put(bookId, hold);
+      }
+    }
+    ordered.putAll(booksOnHold);
+    booksOnHold = ordered;
+  }
+  /**
+   * Restores a transaction that was saved
+   * @param type the type code
+   * @param bookId id of the book, or null if it was not saved
+   * @param title title of the book
+   * @param time milliseconds since 1/1/1970
+   */
+  void restoreTransaction(byte type, String bookId, String title, long time) {
+    addTransaction(type, bookId, title, time);
+  }
+  /**
+   * Gets an iterator to the transactions in a range of dates, in date order
+   * @param from the first date of the range
+   * @param to the last date of the range, inclusive
+   * @return the iterator to the transactions
+   */
+  public Iterator getTransactions(Calendar from, Calendar to) {
+    long fromDay = Transaction.epochDay(from);
+    long toDay = Transaction.epochDay(to);
+    if (fromDay > toDay) {
+      return Collections.emptyIterator();
+    }
+    return transactions(fromDay, toDay, Long.MAX_VALUE);
+  }
+  /**
+   * Extracts the counter value from a member id of the form "M" followed by digits
+   * @param memberId the member id
+   * @return the counter value, or -1 if the id is not well formed
+   */
+  static int idNumber(String memberId) {
+    if (memberId == null || !memberId.startsWith(MEMBER_STRING)
+        || memberId.length() == MEMBER_STRING.length() || memberId.length() > MEMBER_STRING.length() + 9) {
+      return -1;
+    }
+    int number = 0;
+    for (int index = MEMBER_STRING.length(); index < memberId.length(); index++) {
+      char digit = memberId.charAt(index);
+      if (digit < '0' || digit > '9') {
+        return -1;
       }
+      number = number * 10 + (digit - '0');
     }
-    return (result.iterator());
+    return number;
   }
   /**
    * Getter for name
@@ -156,13 +448,6 @@ public class Member implements Serializable {
   public String getId() {
     return id;
   }
-  /**
-   * Setter for name
-   * @param newName member's new name
-   */
-  public void setName(String newName) {
-    name = newName;
-  }
   /**
    * Setter for address
    * @param newName member's new address
@@ -170,13 +455,6 @@ public class Member implements Serializable {
   public void setAddress(String newAddress) {
     address = newAddress;
   }
-  /**
-   * Setter for phone
-   * @param newName member's new phone
-   */
-  public void setPhone(String newPhone) {
-    phone = newPhone;
-  }
   /**
    * Checks whether the member is equal to the one with the given id
    * @param id of the member who should be compared
@@ -198,12 +476,12 @@ public class Member implements Serializable {
       string += " " + book.getTitle();
     }
     string += "] holds: [";
-    for (Iterator iterator = booksOnHold.iterator(); iterator.hasNext(); ) {
+    for (Iterator iterator = booksOnHold.values().iterator(); iterator.hasNext(); ) {
       Hold hold = (Hold) iterator.next();
       string += " " + hold.getBook().getTitle();
     }
     string += "] transactions: [";
-    for (Iterator iterator = transactions.iterator(); iterator.hasNext(); ) {
+    for (Iterator iterator = getTransactions(); iterator.hasNext(); ) {
       string += (Transaction) iterator.next();
     }
     string += "]";
@@ -18,27 +18,36 @@
  * and are not responsible for any loss or damage resulting from its use.  
  */
 import java.io.*;
+import java.util.concurrent.atomic.*;
 /**
- * Generates member ids.
+ * Generates member ids. Ids are handed out without locking from a block
+ * that has been reserved in advance. When a block is used up, the next
+ * one is reserved by writing its upper end to the reservation file, if
+ * there is one, so the file is written once per block rather than once
+ * per id. After a crash, ids start again at the last reserved end, so no
+ * id that may have been handed out is used twice.
  * @author Brahma Dathan and Sarnath Ramnath
  *
  */
 public class MemberIdServer implements Serializable {
-  private  int idCounter;
+  private AtomicInteger idCounter;
+  private transient volatile int limit;
+  private transient RandomAccessFile reservations;
+  private static final int BLOCK_SIZE = 1024;
   private static MemberIdServer server;
   /*
    * Private constructor for singleton pattern
    * 
    */
   private MemberIdServer() {
-    idCounter = 1;
+    idCounter = new AtomicInteger(1);
   }
   /**
    * Supports the singleton pattern
    * 
    * @return the singleton object
    */
-  public static MemberIdServer instance() {
+  public static synchronized MemberIdServer instance() {
     if (server == null) {
       return (server = new MemberIdServer());
     } else {
@@ -48,9 +57,96 @@ public class MemberIdServer implements Serializable {
   /**
    * Getter for id
    * @return id of the member
+   * @throws IllegalStateException if the block holding the id could not be
+   * reserved in the reservation file; no id is handed out then
    */
   public int getId() {
-    return idCounter++;
+    while (true) {
+      int id = idCounter.get();
+      if (id >= limit) {
+        reserve(id + 1);
+      } else if (idCounter.compareAndSet(id, id + 1)) {
+        return id;
+      }
+    }
+  }
+  /**
+   * Returns the id that will be handed out next, without using it up
+   * @return the next id
+   */
+  public int peekId() {
+    return idCounter.get();
+  }
+  /**
+   * Makes sure that an id that was handed out earlier is not handed out again
+   * @param id an id that is already in use
+   */
+  public void skipPast(int id) {
+    for (int next = idCounter.get(); next <= id; next = idCounter.get()) {
+      if (idCounter.compareAndSet(next, id + 1)) {
+        return;
+      }
+    }
+  }
+  /**
+   * Starts recording reserved blocks in a file. If the file holds the end
+   * of a block reserved earlier, ids continue from there.
+   * @param file the reservation file
+   * @throws IOException if the file cannot be read or created
+   */
+  public synchronized void reserveIn(File file) throws IOException {
+    release();
+    RandomAccessFile output = new RandomAccessFile(file, "rw");
+    if (output.length() >= 4) {
+      skipPast(output.readInt() - 1);
+    }
+    reservations = output;
+    limit = 0;
+  }
+  /**
+   * Records the exact next id in the reservation file, so that the rest of
+   * the current block is not skipped next time, and closes the file
+   */
+  public synchronized void release() {
+    if (reservations == null) {
+      return;
+    }
+    try {
+      limit = 0;
+      write(idCounter.get());
+      reservations.close();
+    } catch(IOException ioe) {
+      ioe.printStackTrace();
+    }
+    reservations = null;
+  }
+  /*
+   * Reserves blocks until the given id is covered. Runs only when a block
+   * is used up; getId waits here and then tries again. If the end of the
+   * block cannot be written, the limit stays where it was, since ids past
+   * it could be handed out again after a crash.
+   */
+  private synchronized void reserve(int needed) {
+    if (limit >= needed) {
+      return;
+    }
+    int end = Math.max(needed, idCounter.get()) - 1 + BLOCK_SIZE;
+    try {
+      write(end);
+    } catch(IOException ioe) {
+      throw new IllegalStateException("Member ids could not be reserved", ioe);
+    }
+    limit = end;
+  }
+  /*
+   * Writes the first id that has not been handed out and syncs it to disk
+   */
+  private void write(int id) throws IOException {
+    if (reservations != null) {
+      reservations.seek(0);
+      reservations.writeInt(id);
+      reservations.getFD().sync();
+    }
   }
   /** 
    * String form of the collection
@@ -58,7 +154,7 @@ public class MemberIdServer implements Serializable {
   */
   @Override
   public String toString() {
-    return ("IdServer" + idCounter);
+    return ("IdServer" + idCounter.get());
   }
   /**
    * Retrieves the server object
@@ -19,15 +19,35 @@
  */
 import java.util.*;
 import java.io.*;
+import java.text.Normalizer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 /**
- * The collection class for Member objects
+ * The collection class for Member objects. Member ids are "M" followed
+ * by a counter from MemberIdServer, so members are kept in an array
+ * indexed by that counter. Lookup is constant time and iteration follows
+ * id order, which is also the order in which members were added. The
+ * array is an atomic one that is replaced when it grows, so looking a
+ * member up takes no lock; adding a member and the phone and name tables
+ * are guarded by the list's lock.
+ * Members can also be found by phone number and by name, through hash
+ * tables keyed by the digits of the phone number and by the name in a
+ * normal form, so that differences in punctuation, spacing, case and
+ * accents do not matter. The tables hold id numbers, so members still in
+ * a snapshot are found from their records without being decoded first.
+ * A member's name and phone number do not change once the member is in
+ * the list, so the tables only ever have members added to them.
  * @author Brahma Dathan and Sarnath Ramnath
  *
  */
 public class MemberList implements Serializable {
   private static final long serialVersionUID = 1L;
-  private List members = new LinkedList();
-  private static MemberList memberList;
+  private static final int INITIAL_CAPACITY = 16;
+  private volatile AtomicReferenceArray members = new AtomicReferenceArray(INITIAL_CAPACITY);
+  private volatile int size;
+  private transient volatile MappedSnapshot snapshot;
+  private transient Map phones;
+  private transient Map names;
+  private static volatile MemberList memberList;
   /*
    * Private constructor for singleton pattern
    * 
@@ -35,14 +55,19 @@ public class MemberList implements Serializable {
   private MemberList() {
   }
   /**
-   * Supports the singleton pattern
+   * Supports the singleton pattern. Only the first call takes a lock.
    * 
    * @return the singleton object
    */
   public static MemberList instance() {
-    if (memberList == null) {
-      return (memberList = new MemberList());
-    } else {
+    MemberList instance = memberList;
+    if (instance != null) {
+      return instance;
+    }
+    synchronized (MemberList.class) {
+      if (memberList == null) {
+        memberList = new MemberList();
+      }
       return memberList;
     }
   }
@@ -53,23 +78,340 @@ public class MemberList implements Serializable {
    * 
    */
   public Member search(String memberId) {
-    for (Iterator iterator = members.iterator(); iterator.hasNext(); ) {
-      Member member = (Member) iterator.next();
-      if (member.getId().equals(memberId)) {
-        return member;
-      }
+    return search(Member.idNumber(memberId));
+  }
+  /*
+   * Looks a member up by id number, decoding it from the snapshot if needed
+   */
+  private Member search(int number) {
+    Member member = find(number);
+    if (member != null) {
+      return member;
+    }
+    MappedSnapshot snapshot = this.snapshot;
+    return snapshot == null ? null : snapshot.loadMember(number);
+  }
+  /**
+   * Looks a member up among the members that have been decoded
+   * @param number the numeric part of the member id
+   * @return the member, or null if there is none or it is still in a snapshot
+   */
+  Member find(int number) {
+    AtomicReferenceArray members = this.members;
+    if (number >= 0 && number < members.length()) {
+      return (Member) members.get(number);
     }
     return null;
   }
   /**
    * Inserts a member into the collection
    * @param member the member to be inserted
-   * @return true iff the member could be inserted. Currently always true
+   * @return true iff the member could be inserted; false if the id is malformed or already in use
    */
   public boolean insertMember(Member member) {
-    members.add(member);
+    int number = Member.idNumber(member.getId());
+    if (number < 0) {
+      return false;
+    }
+    MappedSnapshot snapshot = this.snapshot;
+    if (snapshot != null && snapshot.containsMember(number)) {
+      return false;
+    }
+    return put(number, member);
+  }
+  /**
+   * Inserts a batch of members. The snapshot is checked for the ids under
+   * one hold of its lock; then the array grows at most once, and the
+   * members are stored and entered in the phone and name tables under one
+   * hold of the list's lock.
+   * @param members the members to be inserted
+   * @return for each member, true iff it was inserted
+   */
+  public boolean[] insertMembers(List members) {
+    boolean[] inserted = new boolean[members.size()];
+    int[] numbers = new int[inserted.length];
+    int largest = -1;
+    for (int index = 0; index < numbers.length; index++) {
+      numbers[index] = Member.idNumber(((Member) members.get(index)).getId());
+      largest = Math.max(largest, numbers[index]);
+    }
+    MappedSnapshot snapshot = this.snapshot;
+    if (snapshot != null) {
+      synchronized (snapshot) {
+        for (int index = 0; index < numbers.length; index++) {
+          if (numbers[index] >= 0 && snapshot.containsMember(numbers[index])) {
+            numbers[index] = -1;
+          }
+        }
+      }
+    }
+    synchronized (this) {
+      ensureCapacity(largest + 1);
+      for (int index = 0; index < numbers.length; index++) {
+        inserted[index] = numbers[index] >= 0 && store(numbers[index], (Member) members.get(index));
+      }
+      if (phones != null) {
+        for (int index = 0; index < numbers.length; index++) {
+          if (inserted[index]) {
+            Member member = (Member) members.get(index);
+            indexMember(numbers[index], member.getName(), member.getPhone());
+          }
+        }
+      }
+    }
+    return inserted;
+  }
+  /*
+   * Stores a member at its id number unless the number is taken
+   */
+  private synchronized boolean put(int number, Member member) {
+    if (!store(number, member)) {
+      return false;
+    }
+    if (phones != null) {
+      indexMember(number, member.getName(), member.getPhone());
+    }
     return true;
   }
+  /*
+   * Stores a member at its id number unless the number is taken, leaving
+   * the phone and name tables alone
+   */
+  private synchronized boolean store(int number, Member member) {
+    ensureCapacity(number + 1);
+    AtomicReferenceArray members = this.members;
+    if (members.get(number) != null) {
+      return false;
+    }
+    members.set(number, member);
+    size++;
+    return true;
+  }
+  /*
+   * Replaces the array with a larger one unless it holds the given number
+   * of members
+   */
+  private synchronized void ensureCapacity(int capacity) {
+    AtomicReferenceArray members = this.members;
+    if (capacity > members.length()) {
+      AtomicReferenceArray grown = new AtomicReferenceArray(Math.max(capacity, members.length() * 2));
+      for (int index = 0; index < members.length(); index++) {
+        grown.set(index, members.get(index));
+      }
+      this.members = grown;
+    }
+  }
+  /**
+   * Returns the members with a given phone number
+   * @param phone the phone number; only its digits count
+   * @return the members, in id order
+   */
+  public List findByPhone(String phone) {
+    return find(true, phoneKey(phone));
+  }
+  /**
+   * Returns the members with a given name
+   * @param name the name; case, accents, punctuation and spacing do not count
+   * @return the members, in id order
+   */
+  public List findByName(String name) {
+    return find(false, nameKey(name));
+  }
+  /*
+   * Looks a key up in the phone or the name table, and decodes only the
+   * members found that are still in the snapshot
+   */
+  private List find(boolean byPhone, String key) {
+    if (key.length() == 0) {
+      return new ArrayList();
+    }
+    List numbers;
+    MappedSnapshot snapshot = this.snapshot;
+    if (snapshot != null && !hasIndexes()) {
+      synchronized (snapshot) {
+        numbers = lookUp(byPhone, key, snapshot);
+      }
+    } else {
+      numbers = lookUp(byPhone, key, null);
+    }
+    List result = new ArrayList(numbers.size());
+    for (Iterator iterator = numbers.iterator(); iterator.hasNext(); ) {
+      result.add(search(((Integer) iterator.next()).intValue()));
+    }
+    return result;
+  }
+  /*
+   * Checks whether the phone and name tables have been built
+   */
+  private synchronized boolean hasIndexes() {
+    return phones != null;
+  }
+  /*
+   * Returns the id numbers under a key in the phone or the name table, in
+   * increasing order, building the tables if needed
+   */
+  private synchronized List lookUp(boolean byPhone, String key, MappedSnapshot snapshot) {
+    buildIndexes(snapshot);
+    List found = (List) (byPhone ? phones : names).get(key);
+    List numbers = found == null ? new ArrayList() : new ArrayList(found);
+    Collections.sort(numbers);
+    return numbers;
+  }
+  /*
+   * Builds the phone and name tables on first use, such as after the list
+   * has been deserialized or retrieved. The caller holds this lock and,
+   * while a snapshot is attached, the snapshot's lock.
+   */
+  private void buildIndexes(MappedSnapshot snapshot) {
+    if (phones == null) {
+      phones = new HashMap();
+      names = new HashMap();
+      for (int number = 0; number < members.length(); number++) {
+        Member member = (Member) members.get(number);
+        if (member != null) {
+          indexMember(number, member.getName(), member.getPhone());
+        }
+      }
+      if (snapshot != null) {
+        snapshot.indexMembers(this);
+      }
+    }
+  }
+  /**
+   * Enters a member in the phone and name tables
+   * @param number the numeric part of the member id
+   * @param name the member's name
+   * @param phone the member's phone number
+   */
+  void indexMember(int number, String name, String phone) {
+    Integer key = Integer.valueOf(number);
+    add(phones, phoneKey(phone), key);
+    add(names, nameKey(name), key);
+  }
+  /*
+   * Adds an id number to the list under a key
+   */
+  private static void add(Map table, String key, Integer number) {
+    List list = (List) table.get(key);
+    if (list == null) {
+      list = new ArrayList(1);
+      table.put(key, list);
+    }
+    list.add(number);
+  }
+  /*
+   * Returns the digits of a phone number
+   */
+  private static String phoneKey(String phone) {
+    if (phone == null) {
+      return "";
+    }
+    StringBuilder digits = new StringBuilder(phone.length());
+    for (int index = 0; index < phone.length(); index++) {
+      if (Character.isDigit(phone.charAt(index))) {
+        digits.append(phone.charAt(index));
+      }
+    }
+    return digits.toString();
+  }
+  /*
+   * Returns a name in lower case without accents or apostrophes, with the
+   * words separated by single spaces
+   */
+  private static String nameKey(String name) {
+    if (name == null) {
+      return "";
+    }
+    String plain = Normalizer.normalize(name, Normalizer.Form.NFD);
+    StringBuilder key = new StringBuilder(plain.length());
+    for (int index = 0; index < plain.length(); index++) {
+      char letter = plain.charAt(index);
+      if (Character.isLetterOrDigit(letter)) {
+        key.append(Character.toLowerCase(letter));
+      } else if (Character.getType(letter) != Character.NON_SPACING_MARK && letter != '\'' && letter != '\u2019'
+          && key.length() > 0 && key.charAt(key.length() - 1) != ' ') {
+        key.append(' ');
+      }
+    }
+    if (key.length() > 0 && key.charAt(key.length() - 1) == ' ') {
+      key.setLength(key.length() - 1);
+    }
+    return key.toString();
+  }
+  /**
+   * Returns the number of members
+   * @return the number of members in the collection
+   */
+  public int size() {
+    MappedSnapshot snapshot = this.snapshot;
+    if (snapshot != null) {
+      synchronized (snapshot) {
+        return size + snapshot.getUndecodedMembers();
+      }
+    }
+    return size;
+  }
+  /**
+   * Copies the references to the members, for a snapshot. Members still in
+   * a snapshot that is attached are not decoded and not included.
+   * @return the members indexed by id number; unused numbers are null
+   */
+  synchronized Member[] capture() {
+    Member[] copy = new Member[members.length()];
+    for (int number = 0; number < copy.length; number++) {
+      copy[number] = (Member) members.get(number);
+    }
+    return copy;
+  }
+  /**
+   * Makes the member list decode members from a snapshot when they are first needed
+   * @param snapshot the snapshot, or null to stop reading from it
+   */
+  void attach(MappedSnapshot snapshot) {
+    this.snapshot = snapshot;
+  }
+  /**
+   * Adds a member read from saved data. A member decoded from a snapshot
+   * is in the phone and name tables already if they have been built.
+   * @param member the member
+   */
+  synchronized void restoreMember(Member member) {
+    int number = Member.idNumber(member.getId());
+    if (store(number, member) && phones != null && snapshot == null) {
+      indexMember(number, member.getName(), member.getPhone());
+    }
+  }
+  /**
+   * Returns an iterator to all members in id order, decoding any still in a snapshot
+   * @return iterator to the collection
+   */
+  public Iterator getMembers() {
+    MappedSnapshot snapshot = this.snapshot;
+    if (snapshot != null) {
+      snapshot.loadAll();
+    }
+    final Member[] members = capture();
+    return new Iterator() {
+      private int next = advance(0);
+      private int advance(int from) {
+        while (from < members.length && members[from] == null) {
+          from++;
+        }
+        return from;
+      }
+      public boolean hasNext() {
+        return next < members.length;
+      }
+      public Object next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        Member member = members[next];
+        next = advance(next + 1);
+        return member;
+      }
+    };
+  }
   /*
    * Supports serialization
    * @param output the stream to be written to
@@ -109,6 +451,10 @@ public class MemberList implements Serializable {
   */
   @Override
   public String toString() {
-    return members.toString();
+    List list = new ArrayList(size);
+    for (Iterator iterator = getMembers(); iterator.hasNext(); ) {
+      list.add(iterator.next());
+    }
+    return list.toString();
   }
 }
\ No newline at end of file
@@ -0,0 +1,112 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import jdk.jfr.*;
+/**
+ * A Java Flight Recorder event for a call of a public Library operation,
+ * with the ids of the member and book it was about and how it came out.
+ * Events are only created while a recording that has them enabled is
+ * running, so that the operations allocate nothing for them otherwise.
+ *
+ */
+@Name("library.Operation")
+@Label("Library Operation")
+@Category("Library")
+@Description("A call of a public operation of the library")
+public class OperationEvent extends Event {
+  private static final EventType TYPE = EventType.getEventType(OperationEvent.class);
+  @Label("Operation")
+  @Description("Name of the Library method")
+  String operation;
+  @Label("Member Id")
+  String memberId;
+  @Label("Book Id")
+  String bookId;
+  @Label("Books")
+  @Description("Number of books in an operation on several books")
+  int books;
+  @Label("Result")
+  @Description("Result code from the Library class; 0 if the books of a batch came out differently")
+  int result;
+  @Label("Result Name")
+  String resultName;
+  /**
+   * Starts timing an operation, if a recording wants the event
+   * @return the event, or null if it is not enabled
+   */
+  public static OperationEvent start() {
+    if (!TYPE.isEnabled()) {
+      return null;
+    }
+    OperationEvent event = new OperationEvent();
+    event.begin();
+    return event;
+  }
+  /**
+   * Ends an operation and commits its event
+   * @param event the event returned by start(); nothing is done if null
+   * @param operation the operation, such as OperationStatistics.ISSUE_BOOK
+   * @param memberId id of the member, or null
+   * @param bookId id of the book, or null
+   * @param result the result code
+   */
+  public static void finish(OperationEvent event, int operation, String memberId, String bookId,
+      int result) {
+    if (event == null) {
+      return;
+    }
+    event.end();
+    if (event.shouldCommit()) {
+      event.operation = OperationStatistics.getName(operation);
+      event.memberId = memberId;
+      event.bookId = bookId;
+      event.books = bookId == null ? 0 : 1;
+      event.result = result;
+      event.resultName = OperationStatistics.getResultName(result);
+      event.commit();
+    }
+  }
+  /**
+   * Ends an operation on several books and commits its event
+   * @param event the event returned by start(); nothing is done if null
+   * @param operation the operation, such as OperationStatistics.ISSUE_BOOKS
+   * @param memberId id of the member, or null
+   * @param results the result code for each book
+   */
+  public static void finish(OperationEvent event, int operation, String memberId, int[] results) {
+    if (event == null) {
+      return;
+    }
+    event.end();
+    if (event.shouldCommit()) {
+      int result = results.length == 0 ? 0 : results[0];
+      for (int index = 1; index < results.length; index++) {
+        if (results[index] != result) {
+          result = 0;
+        }
+      }
+      event.operation = OperationStatistics.getName(operation);
+      event.memberId = memberId;
+      event.books = results.length;
+      event.result = result;
+      event.resultName = OperationStatistics.getResultName(result);
+      event.commit();
+    }
+  }
+}
@@ -0,0 +1,391 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.io.*;
+/**
+ * Counts the operations of the library, how they came out, and how long
+ * they took. Each operation has a count for each of the result codes of
+ * the Library class and a histogram of its latencies in the manner of
+ * HdrHistogram: buckets are 1 ns wide up to 64 ns, and from there on every
+ * power of two is split into 32 buckets, so that a latency is known within
+ * about 3% whatever its size. All figures are kept in preallocated atomic
+ * arrays, so recording an operation takes a few atomic additions and
+ * allocates nothing.
+ *
+ */
+public class OperationStatistics {
+  public static final int ADD_BOOK = 0;
+  public static final int ADD_MEMBER = 1;
+  public static final int REMOVE_BOOK = 2;
+  public static final int ISSUE_BOOK = 3;
+  public static final int RETURN_BOOK = 4;
+  public static final int RENEW_BOOK = 5;
+  public static final int ISSUE_BOOKS = 6;
+  public static final int RETURN_BOOKS = 7;
+  public static final int RENEW_BOOKS = 8;
+  public static final int PLACE_HOLD = 9;
+  public static final int REMOVE_HOLD = 10;
+  public static final int PROCESS_HOLD = 11;
+  public static final int HOLD_POSITION = 12;
+  public static final int REMOVE_INVALID_HOLDS = 13;
+  public static final int SEARCH_MEMBERSHIP = 14;
+  public static final int FIND_MEMBERS_BY_PHONE = 15;
+  public static final int FIND_MEMBERS_BY_NAME = 16;
+  public static final int GET_BOOKS = 17;
+  public static final int SEARCH_BOOKS = 18;
+  public static final int COMPLETE_BOOKS = 19;
+  public static final int OVERDUE_BOOKS = 20;
+  public static final int BOOKS_DUE = 21;
+  public static final int GET_TRANSACTIONS = 22;
+  public static final int IMPORT_BOOKS = 23;
+  public static final int IMPORT_MEMBERS = 24;
+  public static final int SAVE = 25;
+  public static final int SAVE_IN_BACKGROUND = 26;
+  public static final int RETRIEVE = 27;
+  private static final String[] OPERATIONS = {"addBook", "addMember", "removeBook", "issueBook",
+      "returnBook", "renewBook", "issueBooks", "returnBooks", "renewBooks", "placeHold",
+      "removeHold", "processHold", "getHoldPosition", "removeInvalidHolds", "searchMembership",
+      "findMembersByPhone", "findMembersByName", "getBooks", "searchBooks", "completeBooks",
+      "getOverdueBooks", "getBooksDueWithin", "getTransactions", "importBooks", "importMembers",
+      "save", "saveInBackground", "retrieve"};
+  private static final String[] RESULTS = {"OTHER", "BOOK_NOT_FOUND", "BOOK_NOT_ISSUED",
+      "BOOK_HAS_HOLD", "BOOK_ISSUED", "HOLD_PLACED", "NO_HOLD_FOUND", "OPERATION_COMPLETED",
+      "OPERATION_FAILED", "NO_SUCH_MEMBER", "HOLD_EXISTS"};
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int HIGHEST_BIT = 42;
+  private static final int BUCKETS = (HIGHEST_BIT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+  private AtomicLongArray results = new AtomicLongArray(OPERATIONS.length * RESULTS.length);
+  private AtomicLongArray buckets = new AtomicLongArray(OPERATIONS.length * BUCKETS);
+  private AtomicLongArray totals = new AtomicLongArray(OPERATIONS.length);
+  private AtomicLongArray maximums = new AtomicLongArray(OPERATIONS.length);
+  private static OperationStatistics statistics;
+  /*
+   * Private constructor for singleton pattern
+   * 
+   */
+  private OperationStatistics() {
+  }
+  /**
+   * Supports the singleton pattern
+   * 
+   * @return the singleton object
+   */
+  public static synchronized OperationStatistics instance() {
+    if (statistics == null) {
+      return (statistics = new OperationStatistics());
+    } else {
+      return statistics;
+    }
+  }
+  /**
+   * Records an operation that has just finished
+   * @param operation the operation, such as ISSUE_BOOK
+   * @param result the outcome, one of the result codes of the Library class
+   * @param start the value of System.nanoTime() when the operation started
+   */
+  public void record(int operation, int result, long start) {
+    if (result <= 0 || result >= RESULTS.length) {
+      result = 0;
+    }
+    results.getAndIncrement(operation * RESULTS.length + result);
+    time(operation, start);
+  }
+  /**
+   * Records an operation on several books that has just finished. The
+   * outcome of every book is counted, the time once.
+   * @param operation the operation, such as ISSUE_BOOKS
+   * @param outcomes the outcome for each book
+   * @param start the value of System.nanoTime() when the operation started
+   */
+  public void record(int operation, int[] outcomes, long start) {
+    for (int index = 0; index < outcomes.length; index++) {
+      int result = outcomes[index];
+      if (result <= 0 || result >= RESULTS.length) {
+        result = 0;
+      }
+      results.getAndIncrement(operation * RESULTS.length + result);
+    }
+    time(operation, start);
+  }
+  /**
+   * Returns the number of times an operation has been recorded
+   * @param operation the operation
+   * @return the count
+   */
+  public long getCount(int operation) {
+    long count = 0;
+    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+      count += buckets.get(operation * BUCKETS + bucket);
+    }
+    return count;
+  }
+  /**
+   * Returns how many times an operation, or a book within an operation on
+   * several books, had an outcome
+   * @param operation the operation
+   * @param result the result code
+   * @return the count
+   */
+  public long getResultCount(int operation, int result) {
+    if (result <= 0 || result >= RESULTS.length) {
+      result = 0;
+    }
+    return results.get(operation * RESULTS.length + result);
+  }
+  /**
+   * Returns the latency below which a percentage of the operations took
+   * @param operation the operation
+   * @param percentile the percentage, such as 99
+   * @return the latency in nanoseconds, within the precision of the
+   * histogram; 0 if the operation has not been recorded
+   */
+  public long getPercentile(int operation, double percentile) {
+    long[] counts = counts(operation);
+    return percentile(counts, count(counts), percentile);
+  }
+  /**
+   * Returns the mean latency of an operation
+   * @param operation the operation
+   * @return the mean in nanoseconds; 0 if the operation has not been recorded
+   */
+  public long getMean(int operation) {
+    long count = getCount(operation);
+    return count == 0 ? 0 : totals.get(operation) / count;
+  }
+  /**
+   * Returns the longest latency of an operation
+   * @param operation the operation
+   * @return the latency in nanoseconds
+   */
+  public long getMaximum(int operation) {
+    return maximums.get(operation);
+  }
+  /**
+   * Returns the name of an operation
+   * @param operation the operation
+   * @return the name of the Library method
+   */
+  public static String getName(int operation) {
+    return OPERATIONS[operation];
+  }
+  /**
+   * Returns the name of a result code
+   * @param result the result code
+   * @return the name of the constant in the Library class, or OTHER
+   */
+  public static String getResultName(int result) {
+    if (result <= 0 || result >= RESULTS.length) {
+      result = 0;
+    }
+    return RESULTS[result];
+  }
+  /**
+   * Returns the number of operations
+   * @return the number of operations
+   */
+  public static int getOperationCount() {
+    return OPERATIONS.length;
+  }
+  /**
+   * Sets all figures back to zero
+   */
+  public void reset() {
+    for (int index = 0; index < results.length(); index++) {
+      results.set(index, 0);
+    }
+    for (int index = 0; index < buckets.length(); index++) {
+      buckets.set(index, 0);
+    }
+    for (int index = 0; index < OPERATIONS.length; index++) {
+      totals.set(index, 0);
+      maximums.set(index, 0);
+    }
+  }
+  /**
+   * Writes a table of the operations that have been recorded: their count,
+   * mean, percentiles and maximum latencies in microseconds, and their
+   * outcomes
+   * @param output where the table is written
+   */
+  public void report(PrintStream output) {
+    output.printf("%-20s %10s %10s %10s %10s %10s %10s %10s%n", "operation", "count", "mean",
+        "p50", "p90", "p99", "p99.9", "max");
+    for (int operation = 0; operation < OPERATIONS.length; operation++) {
+      long[] counts = counts(operation);
+      long count = count(counts);
+      if (count == 0) {
+        continue;
+      }
+      output.printf("%-20s %10d %10.1f", OPERATIONS[operation], count,
+          totals.get(operation) / (count * 1000.0));
+      for (int index = 0; index < PERCENTILES.length; index++) {
+        output.printf(" %10.1f", percentile(counts, count, PERCENTILES[index]) / 1000.0);
+      }
+      output.printf(" %10.1f%n", maximums.get(operation) / 1000.0);
+      StringBuilder outcomes = new StringBuilder();
+      for (int result = 0; result < RESULTS.length; result++) {
+        long times = results.get(operation * RESULTS.length + result);
+        if (times != 0) {
+          outcomes.append(' ').append(RESULTS[result]).append('=').append(times);
+        }
+      }
+      output.println("   " + outcomes);
+    }
+  }
+  /**
+   * Writes all figures in JSON, for other programs to read. For each
+   * operation that has been recorded, there are its count, the total and
+   * largest latency, the counts of the result codes, the percentiles and
+   * the buckets of the histogram that are not empty, as the lowest and
+   * highest latency of the bucket and the count. Latencies are in
+   * nanoseconds.
+   * @param output where the figures are written
+   */
+  public void dump(PrintWriter output) {
+    output.println("{\"operations\": [");
+    boolean first = true;
+    for (int operation = 0; operation < OPERATIONS.length; operation++) {
+      long[] counts = counts(operation);
+      long count = count(counts);
+      if (count == 0) {
+        continue;
+      }
+      if (!first) {
+        output.println(",");
+      }
+      first = false;
+      output.print("  {\"name\": \"" + OPERATIONS[operation] + "\", \"count\": " + count
+          + ", \"totalNanos\": " + totals.get(operation) + ", \"maxNanos\": "
+          + maximums.get(operation) + ",\n   \"results\": {");
+      String separator = "";
+      for (int result = 0; result < RESULTS.length; result++) {
+        long times = results.get(operation * RESULTS.length + result);
+        if (times != 0) {
+          output.print(separator + "\"" + RESULTS[result] + "\": " + times);
+          separator = ", ";
+        }
+      }
+      output.print("},\n   \"percentiles\": {");
+      for (int index = 0; index < PERCENTILES.length; index++) {
+        output.print((index == 0 ? "" : ", ") + "\"" + PERCENTILES[index] + "\": "
+            + percentile(counts, count, PERCENTILES[index]));
+      }
+      output.print("},\n   \"histogram\": [");
+      separator = "";
+      for (int bucket = 0; bucket < BUCKETS; bucket++) {
+        if (counts[bucket] != 0) {
+          output.print(separator + "[" + lowest(bucket) + ", " + highest(bucket) + ", "
+              + counts[bucket] + "]");
+          separator = ", ";
+        }
+      }
+      output.print("]}");
+    }
+    output.println();
+    output.println("]}");
+    output.flush();
+  }
+  /*
+   * Adds the time since the start to the histogram of an operation
+   */
+  private void time(int operation, long start) {
+    long elapsed = System.nanoTime() - start;
+    if (elapsed < 0) {
+      elapsed = 0;
+    }
+    buckets.getAndIncrement(operation * BUCKETS + bucket(elapsed));
+    totals.getAndAdd(operation, elapsed);
+    long maximum = maximums.get(operation);
+    while (elapsed > maximum && !maximums.compareAndSet(operation, maximum, elapsed)) {
+      maximum = maximums.get(operation);
+    }
+  }
+  /*
+   * Returns the bucket of a latency. Up to 2 * SUB_BUCKETS, the latency is
+   * the bucket; after that, each power of two has SUB_BUCKETS buckets.
+   */
+  private static int bucket(long nanos) {
+    if (nanos < 2 * SUB_BUCKETS) {
+      return (int) nanos;
+    }
+    int magnitude = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS;
+    if (magnitude > HIGHEST_BIT - SUB_BUCKET_BITS) {
+      return BUCKETS - 1;
+    }
+    return (magnitude + 1) * SUB_BUCKETS + (int) (nanos >>> magnitude) - SUB_BUCKETS;
+  }
+  /*
+   * Returns the lowest latency that falls in a bucket
+   */
+  private static long lowest(int bucket) {
+    if (bucket < 2 * SUB_BUCKETS) {
+      return bucket;
+    }
+    int magnitude = bucket / SUB_BUCKETS - 1;
+    return (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << magnitude;
+  }
+  /*
+   * Returns the highest latency that falls in a bucket
+   */
+  private static long highest(int bucket) {
+    if (bucket < 2 * SUB_BUCKETS) {
+      return bucket;
+    }
+    return lowest(bucket) + (1L << (bucket / SUB_BUCKETS - 1)) - 1;
+  }
+  /*
+   * Copies the histogram of an operation, so that the figures computed
+   * from it agree with each other
+   */
+  private long[] counts(int operation) {
+    long[] counts = new long[BUCKETS];
+    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+      counts[bucket] = buckets.get(operation * BUCKETS + bucket);
+    }
+    return counts;
+  }
+  /*
+   * Adds up a histogram
+   */
+  private static long count(long[] counts) {
+    long count = 0;
+    for (int bucket = 0; bucket < counts.length; bucket++) {
+      count += counts[bucket];
+    }
+    return count;
+  }
+  /*
+   * Returns the highest latency of the bucket in which the percentile falls
+   */
+  private static long percentile(long[] counts, long count, double percentile) {
+    long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+    long seen = 0;
+    for (int bucket = 0; bucket < counts.length; bucket++) {
+      seen += counts[bucket];
+      if (seen >= rank) {
+        return highest(bucket);
+      }
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,324 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import java.util.*;
+import java.io.*;
+/**
+ * Reads library data saved with Java serialization by earlier versions,
+ * which kept the catalog, the members, the holds and the transactions as
+ * lists of objects whose classes have changed since. The saved classes are
+ * read into stand-ins with the fields they had then, and the books and
+ * members are built from those. The same format can be written, to compare
+ * it with the snapshot.
+ *
+ */
+public class SerializedData {
+  private static final Map STAND_INS = new HashMap();
+  static {
+    STAND_INS.put("Library", SavedLibrary.class);
+    STAND_INS.put("Catalog", SavedCatalog.class);
+    STAND_INS.put("MemberList", SavedMemberList.class);
+    STAND_INS.put("MemberIdServer", SavedIdServer.class);
+    STAND_INS.put("Book", SavedBook.class);
+    STAND_INS.put("Member", SavedMember.class);
+    STAND_INS.put("Hold", SavedHold.class);
+    STAND_INS.put("Transaction", SavedTransaction.class);
+  }
+  /*
+   * Static methods only
+   */
+  private SerializedData() {
+  }
+  /**
+   * Reads serialized library data into the empty library
+   * @param file the data file
+   * @throws IOException if the file cannot be read
+   * @throws ClassNotFoundException if the file holds objects of unknown classes
+   */
+  static void load(File file) throws IOException, ClassNotFoundException {
+    ObjectInputStream input = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file))) {
+      protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+        ObjectStreamClass saved = super.readClassDescriptor();
+        Class standIn = (Class) STAND_INS.get(saved.getName());
+        return standIn == null ? saved : ObjectStreamClass.lookup(standIn);
+      }
+    };
+    try {
+      SavedLibrary library = (SavedLibrary) input.readObject();
+      SavedIdServer server = (SavedIdServer) input.readObject();
+      restore(library);
+      MemberIdServer.instance().skipPast(server.idCounter - 1);
+    } finally {
+      input.close();
+    }
+  }
+  /**
+   * Writes the library in the serialized format of earlier versions, with
+   * the class names of the stand-ins
+   * @param file the data file
+   * @return true iff the data could be saved; false also if the library
+   * has halted after a journal failure
+   */
+  public static boolean save(File file) {
+    if (Library.instance().isHalted()) {
+      return false;
+    }
+    try {
+      ObjectOutputStream output = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+      try {
+        output.writeObject(capture());
+        SavedIdServer server = new SavedIdServer();
+        server.idCounter = MemberIdServer.instance().peekId();
+        output.writeObject(server);
+      } finally {
+        output.close();
+      }
+      return true;
+    } catch(IOException ioe) {
+      ioe.printStackTrace();
+      return false;
+    }
+  }
+  /*
+   * Builds the members, then the books with their loans and holds, and
+   * finally gives the members their loans and holds in the saved order
+   */
+  private static void restore(SavedLibrary saved) {
+    Library library = Library.instance();
+    Catalog catalog = Catalog.instance();
+    MemberList memberList = MemberList.instance();
+    List members = saved.memberList.members;
+    for (Iterator iterator = members.iterator(); iterator.hasNext(); ) {
+      SavedMember image = (SavedMember) iterator.next();
+      Member member = new Member(image.name, image.address, image.phone, image.id);
+      memberList.restoreMember(member);
+      for (Iterator transactions = image.transactions.iterator(); transactions.hasNext(); ) {
+        SavedTransaction transaction = (SavedTransaction) transactions.next();
+        byte type = Transaction.typeOf(transaction.type);
+        if (type >= 0) {
+          member.restoreTransaction(type, null, transaction.title, transaction.date.getTimeInMillis());
+        }
+      }
+    }
+    Map holds = new IdentityHashMap();
+    for (Iterator iterator = saved.catalog.books.iterator(); iterator.hasNext(); ) {
+      SavedBook image = (SavedBook) iterator.next();
+      Book book = new Book(image.title, image.author, image.id);
+      catalog.restoreBook(book);
+      if (image.borrowedBy != null) {
+        book.restoreLoan(memberList.search(image.borrowedBy.id), image.dueDate.getTimeInMillis());
+        library.restoreLoan(book);
+      }
+      for (Iterator queue = image.holds.iterator(); queue.hasNext(); ) {
+        SavedHold savedHold = (SavedHold) queue.next();
+        Hold hold = new Hold(memberList.search(savedHold.member.id), book, savedHold.date.getTimeInMillis());
+        book.placeHold(hold);
+        library.restoreHold(hold);
+        holds.put(savedHold, hold);
+      }
+    }
+    for (Iterator iterator = members.iterator(); iterator.hasNext(); ) {
+      SavedMember image = (SavedMember) iterator.next();
+      Member member = memberList.search(image.id);
+      for (Iterator loans = image.booksBorrowed.iterator(); loans.hasNext(); ) {
+        member.restoreLoan(catalog.search(((SavedBook) loans.next()).id));
+      }
+      for (Iterator held = image.booksOnHold.iterator(); held.hasNext(); ) {
+        Hold hold = (Hold) holds.get(held.next());
+        if (hold != null) {
+          member.restoreHold(hold);
+        }
+      }
+    }
+  }
+  /*
+   * Builds the stand-ins for the books and members of the library
+   */
+  private static SavedLibrary capture() {
+    Map members = new HashMap();
+    SavedLibrary library = new SavedLibrary();
+    library.memberList = new SavedMemberList();
+    for (Iterator iterator = MemberList.instance().getMembers(); iterator.hasNext(); ) {
+      Member member = (Member) iterator.next();
+      SavedMember image = new SavedMember();
+      image.name = member.getName();
+      image.address = member.getAddress();
+      image.phone = member.getPhone();
+      image.id = member.getId();
+      for (Iterator transactions = member.getTransactions(); transactions.hasNext(); ) {
+        Transaction transaction = (Transaction) transactions.next();
+        SavedTransaction saved = new SavedTransaction();
+        saved.type = transaction.getType();
+        saved.title = transaction.getTitle();
+        saved.date = calendar(transaction.getTimeInMillis());
+        image.transactions.add(saved);
+      }
+      members.put(image.id, image);
+      library.memberList.members.add(image);
+    }
+    Map holds = new IdentityHashMap();
+    Map books = new HashMap();
+    library.catalog = new SavedCatalog();
+    for (Iterator iterator = Catalog.instance().getBooks(); iterator.hasNext(); ) {
+      Book book = (Book) iterator.next();
+      SavedBook image = new SavedBook();
+      image.title = book.getTitle();
+      image.author = book.getAuthor();
+      image.id = book.getId();
+      if (book.getBorrower() != null) {
+        image.borrowedBy = (SavedMember) members.get(book.getBorrower().getId());
+        image.dueDate = calendar(book.getDueDateMillis());
+      }
+      for (Iterator queue = book.getHolds(); queue.hasNext(); ) {
+        Hold hold = (Hold) queue.next();
+        SavedHold saved = new SavedHold();
+        saved.book = image;
+        saved.member = (SavedMember) members.get(hold.getMember().getId());
+        saved.date = calendar(hold.getExpiryMillis());
+        image.holds.add(saved);
+        holds.put(hold, saved);
+      }
+      books.put(image.id, image);
+      library.catalog.books.add(image);
+    }
+    for (Iterator iterator = MemberList.instance().getMembers(); iterator.hasNext(); ) {
+      Member member = (Member) iterator.next();
+      SavedMember image = (SavedMember) members.get(member.getId());
+      for (Iterator loans = member.getBooksIssued(); loans.hasNext(); ) {
+        image.booksBorrowed.add(books.get(((Book) loans.next()).getId()));
+      }
+      for (Iterator held = member.getHolds(); held.hasNext(); ) {
+        Object saved = holds.get(held.next());
+        if (saved != null) {
+          image.booksOnHold.add(saved);
+        }
+      }
+    }
+    return library;
+  }
+  /*
+   * Returns a calendar set to the given time
+   */
+  private static Calendar calendar(long time) {
+    Calendar calendar = new GregorianCalendar();
+    calendar.setTimeInMillis(time);
+    return calendar;
+  }
+  /*
+   * The library as it was saved: the catalog and the member list, followed
+   * by a second reference to itself that its writeObject added
+   */
+  private static class SavedLibrary implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private SavedCatalog catalog;
+    private SavedMemberList memberList;
+    /*
+     * Writes the fields and the reference that earlier versions added
+     */
+    private void writeObject(ObjectOutputStream output) throws IOException {
+      output.defaultWriteObject();
+      output.writeObject(this);
+    }
+  }
+  /*
+   * The catalog as it was saved: a list of books and a second reference
+   */
+  private static class SavedCatalog implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private List books = new LinkedList();
+    /*
+     * Writes the fields and the reference that earlier versions added
+     */
+    private void writeObject(ObjectOutputStream output) throws IOException {
+      output.defaultWriteObject();
+      output.writeObject(this);
+    }
+  }
+  /*
+   * The member list as it was saved: a list of members and a second reference
+   */
+  private static class SavedMemberList implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private List members = new LinkedList();
+    /*
+     * Writes the fields and the reference that earlier versions added
+     */
+    private void writeObject(ObjectOutputStream output) throws IOException {
+      output.defaultWriteObject();
+      output.writeObject(this);
+    }
+  }
+  /*
+   * The id server as it was saved: the next id and a second reference
+   */
+  private static class SavedIdServer implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private int idCounter;
+    /*
+     * Writes the fields and the reference that earlier versions added
+     */
+    private void writeObject(ObjectOutputStream output) throws IOException {
+      output.defaultWriteObject();
+      output.writeObject(this);
+    }
+  }
+  /*
+   * A book as it was saved, with its holds in a list
+   */
+  private static class SavedBook implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private String title;
+    private String author;
+    private String id;
+    private SavedMember borrowedBy;
+    private List holds = new LinkedList();
+    private Calendar dueDate;
+  }
+  /*
+   * A member as it was saved, with its transactions as objects
+   */
+  private static class SavedMember implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private String name;
+    private String address;
+    private String phone;
+    private String id;
+    private List booksBorrowed = new LinkedList();
+    private List booksOnHold = new LinkedList();
+    private List transactions = new LinkedList();
+  }
+  /*
+   * A hold as it was saved, with its expiration as a calendar
+   */
+  private static class SavedHold implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private SavedBook book;
+    private SavedMember member;
+    private Calendar date;
+  }
+  /*
+   * A transaction as it was saved, with its type as a string
+   */
+  private static class SavedTransaction implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private String type;
+    private String title;
+    private Calendar date;
+  }
+}
@@ -0,0 +1,470 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+/**
+ * Writes the library in a compact binary format that can be read in place
+ * by MappedSnapshot.
+ * A snapshot starts with a header (magic number, format version, the next
+ * member id, the last journal sequence number and the number of books and
+ * members), followed by sections. Each section is a tag and a byte length,
+ * so a reader can skip sections it does not know. Every string is stored
+ * once in a string table and referred to by its index; dates are stored as
+ * milliseconds since 1/1/1970. All positions in the file are longs.
+ * Besides the records, a snapshot holds the indexes needed to find any
+ * single record without reading the rest: string offsets, member offsets
+ * by id number, a hash table of book offsets by id, the holds in order
+ * of expiration, and the issued books in order of due date.
+ *
+ */
+public class Snapshot {
+  public static final int MAGIC = 0x4C494253;
+  public static final short VERSION = 4;
+  public static final short FIRST_READABLE_VERSION = 2;
+  public static final int HEADER_SIZE = 26;
+  public static final int SECTION_HEADER_SIZE = 9;
+  public static final byte END = 0;
+  public static final byte STRINGS = 1;
+  public static final byte STRING_OFFSETS = 2;
+  public static final byte MEMBERS = 3;
+  public static final byte BOOKS = 4;
+  public static final byte MEMBER_INDEX = 5;
+  public static final byte BOOK_INDEX = 6;
+  public static final byte HOLD_EXPIRY = 7;
+  public static final byte DUE_DATES = 8;
+  public static final int NONE = -1;
+  private static final int BUFFER_SIZE = 1 << 16;
+  /*
+   * Assigns each distinct string an index, in order of first use
+   */
+  private static class StringTable {
+    private Map indexes = new HashMap();
+    private List strings = new ArrayList();
+    private int of(String string) {
+      if (string == null) {
+        return NONE;
+      }
+      Integer index = (Integer) indexes.get(string);
+      if (index == null) {
+        index = Integer.valueOf(strings.size());
+        indexes.put(string, index);
+        strings.add(string);
+      }
+      return index.intValue();
+    }
+  }
+  /*
+   * A hold in the expiration order, or a loan in the due date order: when
+   * it ends and which book it is on
+   */
+  private static class Expiry implements Comparable {
+    private long time;
+    private int book;
+    private Expiry(long time, int book) {
+      this.time = time;
+      this.book = book;
+    }
+    public int compareTo(Object object) {
+      return Long.compare(time, ((Expiry) object).time);
+    }
+  }
+  /*
+   * A buffered stream that counts what has been written to it as a long,
+   * since the count kept by DataOutputStream stops at 2 GB
+   */
+  private static class Counter extends BufferedOutputStream {
+    private long position;
+    private Counter(OutputStream stream) {
+      super(stream, BUFFER_SIZE);
+    }
+    public synchronized void write(int value) throws IOException {
+      super.write(value);
+      position++;
+    }
+    public synchronized void write(byte[] bytes, int offset, int length) throws IOException {
+      super.write(bytes, offset, length);
+      position += length;
+    }
+  }
+  /*
+   * Static methods only
+   */
+  private Snapshot() {
+  }
+  /**
+   * Checks whether a file holds a snapshot in this format
+   * @param file the file
+   * @return true iff the file starts with the snapshot magic number
+   */
+  public static boolean isSnapshot(File file) {
+    try {
+      DataInputStream input = new DataInputStream(new FileInputStream(file));
+      try {
+        return input.readInt() == MAGIC;
+      } finally {
+        input.close();
+      }
+    } catch(IOException ioe) {
+      return false;
+    }
+  }
+  /**
+   * Returns the bucket of a book id in a hash table of the given capacity.
+   * The computation only depends on the characters of the id, so it gives
+   * the same result in every run.
+   * @param bookId the id of the book
+   * @param capacity number of buckets, a power of two
+   * @return the first bucket to probe
+   */
+  public static int bucket(String bookId, int capacity) {
+    int hash = bookId.hashCode();
+    return (hash ^ (hash >>> 16)) & (capacity - 1);
+  }
+  /**
+   * Writes the books, members and member id counter of a capture. The
+   * records go straight to the file; the strings they refer to follow
+   * them, and the lengths of the record sections are filled in at the end,
+   * so nothing but the indexes is held in memory and a snapshot may be
+   * larger than 2 GB. Books and members that were still in the snapshot
+   * the library was retrieved from are copied from their records there,
+   * with their strings entered in the new string table; the books keep
+   * their saved order, ahead of the books added since.
+   * @param file the file to be written to, which must be empty
+   * @param capture the point-in-time view of the library
+   * @throws IOException if the file cannot be written
+   */
+  public static void write(FileOutputStream file, SnapshotCapture capture) throws IOException {
+    StringTable strings = new StringTable();
+    MappedSnapshot source = capture.getSource();
+    int[] copied = source == null ? null : new int[source.getStringCount()];
+    Counter counter = new Counter(file);
+    DataOutputStream output = new DataOutputStream(counter);
+    output.writeInt(MAGIC);
+    output.writeShort(VERSION);
+    output.writeInt(capture.getNextId());
+    output.writeLong(capture.getJournalSequence());
+    int bookCountPosition = (int) counter.position;
+    output.writeInt(0);
+    int memberCountPosition = (int) counter.position;
+    output.writeInt(0);
+    long membersHeader = counter.position;
+    startSection(output, MEMBERS, 0);
+    int[] memberNumbers = new int[16];
+    long[] memberOffsets = new long[16];
+    int memberCount = 0;
+    int highestNumber = NONE;
+    Member[] capturedMembers = capture.getMembers();
+    int memberSlots = Math.max(capturedMembers.length, source == null ? 0 : source.getMemberSlots());
+    for (int number = 0; number < memberSlots; number++) {
+      boolean decoded = number < capturedMembers.length && capturedMembers[number] != null;
+      if (!decoded && !capture.isUndecodedMember(number)) {
+        continue;
+      }
+      if (memberCount == memberNumbers.length) {
+        memberNumbers = Arrays.copyOf(memberNumbers, 2 * memberCount);
+        memberOffsets = Arrays.copyOf(memberOffsets, 2 * memberCount);
+      }
+      memberNumbers[memberCount] = number;
+      memberOffsets[memberCount] = counter.position;
+      highestNumber = Math.max(highestNumber, number);
+      memberCount++;
+      if (decoded) {
+        writeMember(output, capture.image(capturedMembers[number]), strings);
+      } else {
+        copyMember(output, source, source.memberOffset(number), strings, copied);
+      }
+    }
+    long booksHeader = counter.position;
+    startSection(output, BOOKS, 0);
+    Book[] capturedBooks = capture.getBooks();
+    int bookCount = 0;
+    String[] bookIds = new String[capture.getBookCount()];
+    long[] bookOffsets = new long[bookIds.length];
+    List expiries = new ArrayList();
+    List dueDates = new ArrayList();
+    Map remaining = new LinkedHashMap();
+    for (int index = 0; index < capturedBooks.length; index++) {
+      remaining.put(capturedBooks[index].getId(), capturedBooks[index]);
+    }
+    if (source != null) {
+      long position = source.firstBook();
+      for (int count = source.getBookCount(); count > 0; count--) {
+        String bookId = source.string(source.getInt(position));
+        Book book = (Book) remaining.remove(bookId);
+        if (book != null || capture.isUndecodedBook(source.slotOf(bookId, position))) {
+          bookIds[bookCount] = bookId;
+          bookOffsets[bookCount] = counter.position;
+          if (book != null) {
+            writeBook(output, capture.image(book), strings, expiries, dueDates, bookCount);
+          } else {
+            copyBook(output, source, position, strings, copied, expiries, dueDates, bookCount);
+          }
+          bookCount++;
+        }
+        position = source.nextBook(position);
+      }
+    }
+    for (Iterator iterator = remaining.values().iterator(); iterator.hasNext(); ) {
+      SnapshotCapture.BookImage book = capture.image((Book) iterator.next());
+      bookIds[bookCount] = book.id;
+      bookOffsets[bookCount] = counter.position;
+      writeBook(output, book, strings, expiries, dueDates, bookCount);
+      bookCount++;
+    }
+    long stringsHeader = counter.position;
+    startSection(output, STRINGS, 0);
+    long[] stringOffsets = new long[strings.strings.size()];
+    output.writeInt(stringOffsets.length);
+    for (int index = 0; index < stringOffsets.length; index++) {
+      byte[] bytes = ((String) strings.strings.get(index)).getBytes(StandardCharsets.UTF_8);
+      stringOffsets[index] = counter.position;
+      output.writeInt(bytes.length);
+      output.write(bytes);
+    }
+    long stringOffsetsHeader = counter.position;
+    startSection(output, STRING_OFFSETS, 4 + 8L * stringOffsets.length);
+    output.writeInt(stringOffsets.length);
+    for (int index = 0; index < stringOffsets.length; index++) {
+      output.writeLong(stringOffsets[index]);
+    }
+    long[] memberIndex = new long[highestNumber + 1];
+    Arrays.fill(memberIndex, NONE);
+    for (int index = 0; index < memberCount; index++) {
+      memberIndex[memberNumbers[index]] = memberOffsets[index];
+    }
+    startSection(output, MEMBER_INDEX, 4 + 8L * memberIndex.length);
+    output.writeInt(memberIndex.length);
+    for (int index = 0; index < memberIndex.length; index++) {
+      output.writeLong(memberIndex[index]);
+    }
+    int capacity = 2;
+    while (capacity < 2 * bookCount) {
+      capacity *= 2;
+    }
+    long[] bookIndex = new long[capacity];
+    int[] bookSlots = new int[bookCount];
+    Arrays.fill(bookIndex, NONE);
+    for (int index = 0; index < bookCount; index++) {
+      int slot = bucket(bookIds[index], capacity);
+      while (bookIndex[slot] != NONE) {
+        slot = (slot + 1) & (capacity - 1);
+      }
+      bookIndex[slot] = bookOffsets[index];
+      bookSlots[index] = slot;
+    }
+    startSection(output, BOOK_INDEX, 4 + 8L * capacity);
+    output.writeInt(capacity);
+    for (int index = 0; index < capacity; index++) {
+      output.writeLong(bookIndex[index]);
+    }
+    Collections.sort(expiries);
+    startSection(output, HOLD_EXPIRY, 4 + 12L * expiries.size());
+    output.writeInt(expiries.size());
+    for (Iterator iterator = expiries.iterator(); iterator.hasNext(); ) {
+      Expiry expiry = (Expiry) iterator.next();
+      output.writeLong(expiry.time);
+      output.writeInt(bookSlots[expiry.book]);
+    }
+    Collections.sort(dueDates);
+    startSection(output, DUE_DATES, 4 + 12L * dueDates.size());
+    output.writeInt(dueDates.size());
+    for (Iterator iterator = dueDates.iterator(); iterator.hasNext(); ) {
+      Expiry dueDate = (Expiry) iterator.next();
+      output.writeLong(dueDate.time);
+      output.writeInt(bookSlots[dueDate.book]);
+    }
+    output.writeByte(END);
+    output.flush();
+    FileChannel channel = file.getChannel();
+    patchInt(channel, bookCountPosition, bookCount);
+    patchInt(channel, memberCountPosition, memberCount);
+    patchLength(channel, membersHeader, booksHeader);
+    patchLength(channel, booksHeader, stringsHeader);
+    patchLength(channel, stringsHeader, stringOffsetsHeader);
+  }
+  /*
+   * Writes a section header
+   */
+  private static void startSection(DataOutputStream output, byte tag, long length) throws IOException {
+    output.writeByte(tag);
+    output.writeLong(length);
+  }
+  /*
+   * Fills in the length of a section that ends where the next one starts
+   */
+  private static void patchLength(FileChannel channel, long header, long next) throws IOException {
+    ByteBuffer length = ByteBuffer.allocate(8);
+    length.putLong(0, next - header - SECTION_HEADER_SIZE);
+    while (length.hasRemaining()) {
+      channel.write(length, header + 1 + length.position());
+    }
+  }
+  /*
+   * Fills in a number in the header
+   */
+  private static void patchInt(FileChannel channel, long position, int value) throws IOException {
+    ByteBuffer number = ByteBuffer.allocate(4);
+    number.putInt(0, value);
+    while (number.hasRemaining()) {
+      channel.write(number, position + number.position());
+    }
+  }
+  /*
+   * Member record: id, name, address, phone; the ids of the borrowed books;
+   * the ids of the books on hold; the transactions as type code, book id,
+   * title and time. The transactions are read from the TransactionStore,
+   * which only ever grows, leaving out those added after the capture.
+   * Version 2 stored the name of the type instead of its code, and
+   * versions before 4 had no book id.
+   */
+  private static void writeMember(DataOutputStream output, SnapshotCapture.MemberImage member,
+      StringTable strings) throws IOException {
+    output.writeInt(strings.of(member.id));
+    output.writeInt(strings.of(member.name));
+    output.writeInt(strings.of(member.address));
+    output.writeInt(strings.of(member.phone));
+    writeIds(output, member.borrowed, strings);
+    writeIds(output, member.held, strings);
+    output.writeInt(member.transactionCount);
+    while (member.transactions.hasNext()) {
+      Transaction transaction = (Transaction) member.transactions.next();
+      output.writeInt(transaction.getTypeCode());
+      output.writeInt(strings.of(transaction.getBookId()));
+      output.writeInt(strings.of(transaction.getTitle()));
+      output.writeLong(transaction.getTimeInMillis());
+    }
+  }
+  /*
+   * Writes a count followed by a list of ids
+   */
+  private static void writeIds(DataOutputStream output, String[] ids, StringTable strings)
+      throws IOException {
+    output.writeInt(ids.length);
+    for (int index = 0; index < ids.length; index++) {
+      output.writeInt(strings.of(ids[index]));
+    }
+  }
+  /*
+   * Book record: id, title, author, borrower id and, for an issued book, the
+   * due date; then the holds in queue order as member id and expiration
+   */
+  private static void writeBook(DataOutputStream output, SnapshotCapture.BookImage book,
+      StringTable strings, List expiries, List dueDates, int ordinal) throws IOException {
+    output.writeInt(strings.of(book.id));
+    output.writeInt(strings.of(book.title));
+    output.writeInt(strings.of(book.author));
+    if (book.borrowerId == null) {
+      output.writeInt(NONE);
+    } else {
+      output.writeInt(strings.of(book.borrowerId));
+      output.writeLong(book.dueDate);
+      dueDates.add(new Expiry(book.dueDate, ordinal));
+    }
+    output.writeInt(book.holdMembers.length);
+    for (int index = 0; index < book.holdMembers.length; index++) {
+      output.writeInt(strings.of(book.holdMembers[index]));
+      output.writeLong(book.holdExpirations[index]);
+      expiries.add(new Expiry(book.holdExpirations[index], ordinal));
+    }
+  }
+  /*
+   * Copies a member record from another snapshot, entering its strings in
+   * the string table. Records of earlier versions are brought up to this
+   * one on the way.
+   */
+  private static void copyMember(DataOutputStream output, MappedSnapshot source, long position,
+      StringTable strings, int[] copied) throws IOException {
+    for (int field = 0; field < 4; field++) {
+      output.writeInt(copy(source, source.getInt(position), strings, copied));
+      position += 4;
+    }
+    for (int list = 0; list < 2; list++) {
+      int count = source.getInt(position);
+      output.writeInt(count);
+      for (int index = 0; index < count; index++) {
+        position += 4;
+        output.writeInt(copy(source, source.getInt(position), strings, copied));
+      }
+      position += 4;
+    }
+    short version = source.getVersion();
+    int transactions = source.getInt(position);
+    output.writeInt(transactions);
+    for (; transactions > 0; transactions--) {
+      int type = source.getInt(position + 4);
+      output.writeInt(version < 3 ? Transaction.typeOf(source.string(type)) : type);
+      if (version >= 4) {
+        output.writeInt(copy(source, source.getInt(position + 8), strings, copied));
+        position += 4;
+      } else {
+        output.writeInt(NONE);
+      }
+      output.writeInt(copy(source, source.getInt(position + 8), strings, copied));
+      output.writeLong(source.getLong(position + 12));
+      position += 16;
+    }
+  }
+  /*
+   * Copies a book record from another snapshot, entering its strings in
+   * the string table
+   */
+  private static void copyBook(DataOutputStream output, MappedSnapshot source, long position,
+      StringTable strings, int[] copied, List expiries, List dueDates, int ordinal) throws IOException {
+    output.writeInt(copy(source, source.getInt(position), strings, copied));
+    output.writeInt(copy(source, source.getInt(position + 4), strings, copied));
+    output.writeInt(copy(source, source.getInt(position + 8), strings, copied));
+    int borrower = source.getInt(position + 12);
+    position += 16;
+    if (borrower == NONE) {
+      output.writeInt(NONE);
+    } else {
+      long dueDate = source.getLong(position);
+      output.writeInt(copy(source, borrower, strings, copied));
+      output.writeLong(dueDate);
+      dueDates.add(new Expiry(dueDate, ordinal));
+      position += 8;
+    }
+    int holds = source.getInt(position);
+    output.writeInt(holds);
+    for (; holds > 0; holds--) {
+      long expiration = source.getLong(position + 8);
+      output.writeInt(copy(source, source.getInt(position + 4), strings, copied));
+      output.writeLong(expiration);
+      expiries.add(new Expiry(expiration, ordinal));
+      position += 12;
+    }
+  }
+  /*
+   * Returns the index in the string table of a string of another snapshot.
+   * Each string is decoded once; copied keeps its new index plus one.
+   */
+  private static int copy(MappedSnapshot source, int index, StringTable strings, int[] copied) {
+    if (index == NONE) {
+      return NONE;
+    }
+    if (copied[index] == 0) {
+      copied[index] = strings.of(source.string(index)) + 1;
+    }
+    return copied[index] - 1;
+  }
+}
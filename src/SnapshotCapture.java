@@ -0,0 +1,281 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import java.util.*;
+/**
+ * A point-in-time view of the library for writing a snapshot while the
+ * library keeps changing.
+ * Taking the view only copies the references to the books and members.
+ * Afterwards, the state of each book and member is copied into an image
+ * exactly once: by the library just before the first change to it, or
+ * by the snapshot writer when it reaches an object that has not changed.
+ * Each object carries the number of the last capture that copied it.
+ * Books and members that are still in the snapshot the library was
+ * retrieved from have not changed; the view only notes which ones they
+ * are, and the writer copies their records from that snapshot.
+ *
+ */
+public class SnapshotCapture {
+  private static long lastVersion;
+  private long version;
+  private Book[] books;
+  private boolean sorted;
+  private Member[] members;
+  private MappedSnapshot source;
+  private BitSet decodedBooks;
+  private BitSet decodedMembers;
+  private int bookCount;
+  private int memberCount;
+  private int nextId;
+  private long journalSequence;
+  private Map frozenBooks = new IdentityHashMap();
+  private Map frozenMembers = new IdentityHashMap();
+  private long pauseNanos;
+  /**
+   * The state of a book at the time of the capture
+   */
+  public static class BookImage {
+    String id;
+    String title;
+    String author;
+    String borrowerId;
+    long dueDate;
+    String[] holdMembers;
+    long[] holdExpirations;
+    private BookImage(Book book) {
+      id = book.getId();
+      title = book.getTitle();
+      author = book.getAuthor();
+      if (book.getBorrower() != null) {
+        borrowerId = book.getBorrower().getId();
+        dueDate = book.getDueDateMillis();
+      }
+      List holds = new ArrayList();
+      for (Iterator iterator = book.getHolds(); iterator.hasNext(); ) {
+        holds.add(iterator.next());
+      }
+      holdMembers = new String[holds.size()];
+      holdExpirations = new long[holds.size()];
+      for (int index = 0; index < holdMembers.length; index++) {
+        Hold hold = (Hold) holds.get(index);
+        holdMembers[index] = hold.getMember().getId();
+        holdExpirations[index] = hold.getExpiryMillis();
+      }
+    }
+  }
+  /**
+   * The state of a member at the time of the capture
+   */
+  public static class MemberImage {
+    String id;
+    String name;
+    String address;
+    String phone;
+    String[] borrowed;
+    String[] held;
+    int transactionCount;
+    Iterator transactions;
+    private MemberImage(Member member) {
+      id = member.getId();
+      name = member.getName();
+      address = member.getAddress();
+      phone = member.getPhone();
+      List ids = new ArrayList();
+      for (Iterator iterator = member.getBooksIssued(); iterator.hasNext(); ) {
+        ids.add(((Book) iterator.next()).getId());
+      }
+      borrowed = (String[]) ids.toArray(new String[ids.size()]);
+      ids.clear();
+      for (Iterator iterator = member.getHolds(); iterator.hasNext(); ) {
+        ids.add(((Hold) iterator.next()).getBook().getId());
+      }
+      held = (String[]) ids.toArray(new String[ids.size()]);
+      transactionCount = member.getTransactionCount();
+      transactions = member.getTransactionsSoFar();
+    }
+  }
+  /**
+   * Takes the view. The caller must keep the library from changing while
+   * this runs.
+   * @param catalog the catalog
+   * @param memberList the member list
+   * @param journalSequence sequence number of the last journal record covered
+   */
+  public SnapshotCapture(Catalog catalog, MemberList memberList, long journalSequence) {
+    long start = System.nanoTime();
+    synchronized (SnapshotCapture.class) {
+      version = ++lastVersion;
+    }
+    source = catalog.getSnapshot();
+    if (source != null) {
+      synchronized (source) {
+        books = catalog.capture();
+        members = memberList.capture();
+        decodedBooks = source.getDecodedBooks();
+        decodedMembers = source.getDecodedMembers();
+        bookCount = source.getBookCount() - decodedBooks.cardinality();
+        memberCount = source.getUndecodedMembers();
+      }
+    } else {
+      books = catalog.capture();
+      members = memberList.capture();
+    }
+    bookCount += books.length;
+    for (int number = 0; number < members.length; number++) {
+      if (members[number] != null) {
+        memberCount++;
+      }
+    }
+    nextId = MemberIdServer.instance().peekId();
+    this.journalSequence = journalSequence;
+    pauseNanos = System.nanoTime() - start;
+  }
+  /**
+   * Copies the state of a book that is about to change, unless it was copied already
+   * @param book the book
+   */
+  public synchronized void preserve(Book book) {
+    if (book.snapshotVersion < version) {
+      long start = System.nanoTime();
+      frozenBooks.put(book, new BookImage(book));
+      book.snapshotVersion = version;
+      pauseNanos += System.nanoTime() - start;
+    }
+  }
+  /**
+   * Copies the state of a member that is about to change, unless it was copied already
+   * @param member the member
+   */
+  public synchronized void preserve(Member member) {
+    if (member.snapshotVersion < version) {
+      long start = System.nanoTime();
+      frozenMembers.put(member, new MemberImage(member));
+      member.snapshotVersion = version;
+      pauseNanos += System.nanoTime() - start;
+    }
+  }
+  /**
+   * Returns the state of a book at the time of the capture
+   * @param book the book
+   * @return the image of the book
+   */
+  public synchronized BookImage image(Book book) {
+    BookImage image = (BookImage) frozenBooks.remove(book);
+    if (image == null) {
+      image = new BookImage(book);
+      book.snapshotVersion = version;
+    }
+    return image;
+  }
+  /**
+   * Returns the state of a member at the time of the capture
+   * @param member the member
+   * @return the image of the member
+   */
+  public synchronized MemberImage image(Member member) {
+    MemberImage image = (MemberImage) frozenMembers.remove(member);
+    if (image == null) {
+      image = new MemberImage(member);
+      member.snapshotVersion = version;
+    }
+    return image;
+  }
+  /**
+   * Returns the books in the catalog at the time of the capture, other than
+   * those still in the snapshot the library was retrieved from. They are
+   * put in catalog order on the first call, after the library has moved on.
+   * @return the books, in catalog order
+   */
+  public synchronized Book[] getBooks() {
+    if (!sorted) {
+      Catalog.sort(books);
+      sorted = true;
+    }
+    return books;
+  }
+  /**
+   * Returns the members at the time of the capture, indexed by id number,
+   * other than those still in the snapshot the library was retrieved from;
+   * unused numbers are null
+   * @return the members
+   */
+  public Member[] getMembers() {
+    return members;
+  }
+  /**
+   * Returns the snapshot the library was retrieved from, if some of its
+   * records had not been decoded at the time of the capture
+   * @return the snapshot, or null
+   */
+  public MappedSnapshot getSource() {
+    return source;
+  }
+  /**
+   * Checks whether a book was still in the source snapshot at the time of the capture
+   * @param slot the hash table slot of the book in the source snapshot
+   * @return true iff its record is to be copied
+   */
+  public boolean isUndecodedBook(int slot) {
+    return source != null && !decodedBooks.get(slot);
+  }
+  /**
+   * Checks whether a member was still in the source snapshot at the time of the capture
+   * @param number the numeric part of the member id
+   * @return true iff its record is to be copied
+   */
+  public boolean isUndecodedMember(int number) {
+    return source != null && source.memberOffset(number) != Snapshot.NONE && !decodedMembers.get(number);
+  }
+  /**
+   * Returns the number of books at the time of the capture
+   * @return the number of books
+   */
+  public int getBookCount() {
+    return bookCount;
+  }
+  /**
+   * Returns the number of members at the time of the capture
+   * @return the number of members
+   */
+  public int getMemberCount() {
+    return memberCount;
+  }
+  /**
+   * Returns the member id counter at the time of the capture
+   * @return the next member id
+   */
+  public int getNextId() {
+    return nextId;
+  }
+  /**
+   * Returns the sequence number of the last journal record covered
+   * @return the journal sequence number
+   */
+  public long getJournalSequence() {
+    return journalSequence;
+  }
+  /**
+   * Returns how long the library was held up: taking the view plus copying
+   * objects before they changed
+   * @return the time in nanoseconds
+   */
+  public synchronized long getPauseNanos() {
+    return pauseNanos;
+  }
+}
@@ -0,0 +1,59 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import jdk.jfr.*;
+/**
+ * A Java Flight Recorder event for writing the library to disk or reading
+ * it back, with the size of the data. A save is recorded by the thread
+ * that writes the snapshot in the background; how long the library itself
+ * was held up by the save is given as the pause.
+ *
+ */
+@Name("library.Snapshot")
+@Label("Library Snapshot")
+@Category("Library")
+@Description("Writing the library to disk or reading it back")
+public class SnapshotEvent extends Event {
+  @Label("Operation")
+  @Description("save or retrieve")
+  String operation;
+  @Label("File")
+  String file;
+  @Label("Format")
+  @Description("snapshot for the binary format, serialized for Java serialization")
+  String format;
+  @Label("Bytes")
+  @DataAmount
+  long bytes;
+  @Label("Books")
+  @Description("Number of books written; 0 when reading")
+  int books;
+  @Label("Members")
+  @Description("Number of members written; 0 when reading")
+  int members;
+  @Label("Lazy")
+  @Description("Whether books and members are decoded on first use")
+  boolean lazy;
+  @Label("Pause")
+  @Description("How long the library was held up by the save")
+  @Timespan(Timespan.NANOSECONDS)
+  long pause;
+  @Label("Succeeded")
+  boolean succeeded;
+}
@@ -18,30 +18,31 @@
  * and are not responsible for any loss or damage resulting from its use.  
  */
 import java.util.*;
-import java.io.*;
+import java.time.*;
 /**
  * Represents a single Transaction (issue, renew, etc.)
+ * A transaction is a view of a record in the TransactionStore; it holds
+ * nothing but the record number, and its fields are read from the store
+ * when asked for.
  * 
  * @author Brahma Dathan
  *
  */
-public class Transaction implements Serializable {
-  private static final long serialVersionUID = 1L;
-  private String type;
-  private String title;
-  private Calendar date;
+public class Transaction {
+  public static final byte BOOK_ISSUED = 0;
+  public static final byte BOOK_RETURNED = 1;
+  public static final byte BOOK_RENEWED = 2;
+  public static final byte HOLD_PLACED = 3;
+  public static final byte HOLD_REMOVED = 4;
+  private static final String[] TYPES = {"Book issued ", "Book returned ", "Book renewed ",
+      "Hold Placed ", "Hold Removed "};
+  private long record;
   /**
-   * Creates the transaction with a given type and book title.
-   * The date is the current date.
-   * @param type The type of transaction
-   * @param title The title of the book
-   * 
+   * Creates a view of a stored transaction
+   * @param record the record number in the TransactionStore
    */
-  public Transaction (String type, String title) {
-    this.type = type;
-    this.title = title;
-    date = new GregorianCalendar();
-    date.setTimeInMillis(System.currentTimeMillis());
+  Transaction(long record) {
+    this.record = record;
   }
   /**
    * Checks whether this transaction is on the given date
@@ -50,30 +51,101 @@ public class Transaction implements Serializable {
    * @return true iff the dates match
    */
   public boolean onDate(Calendar date) {
-    return ((date.get(Calendar.YEAR) == this.date.get(Calendar.YEAR)) &&
-            (date.get(Calendar.MONTH) == this.date.get(Calendar.MONTH)) &&
-            (date.get(Calendar.DATE) == this.date.get(Calendar.DATE)));
+    return epochDay(date) == getEpochDay();
+  }
+  /**
+   * Returns the day on which this transaction took place
+   * @return days since 1/1/1970 in the default time zone
+   */
+  public long getEpochDay() {
+    return getLocalDate().toEpochDay();
+  }
+  /**
+   * Converts a time to the number of days since 1/1/1970
+   * @param time milliseconds since 1/1/1970
+   * @return the day number in the default time zone
+   */
+  public static long epochDay(long time) {
+    return Instant.ofEpochMilli(time).atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+  }
+  /**
+   * Converts a date to the number of days since 1/1/1970
+   * @param date the date
+   * @return the day number of the date, ignoring the time of day
+   */
+  public static long epochDay(Calendar date) {
+    return LocalDate.of(date.get(Calendar.YEAR), date.get(Calendar.MONTH) + 1,
+        date.get(Calendar.DATE)).toEpochDay();
+  }
+  /**
+   * Returns the time at which a day starts in the default time zone
+   * @param epochDay days since 1/1/1970
+   * @return milliseconds since 1/1/1970
+   */
+  public static long startOfDay(long epochDay) {
+    return LocalDate.ofEpochDay(epochDay).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+  }
+  /**
+   * Returns the code of a transaction type given by its name
+   * @param name the name, as returned by getType
+   * @return the code, or -1 if there is no such type
+   */
+  public static byte typeOf(String name) {
+    for (byte code = 0; code < TYPES.length; code++) {
+      if (TYPES[code].equals(name)) {
+        return code;
+      }
+    }
+    return -1;
   }
   /**
    * Returns the type field
    * @return type field
    */
   public String getType() {
-    return type;
+    return TYPES[getTypeCode()];
+  }
+  /**
+   * Returns the code of the type
+   * @return the type code, such as BOOK_ISSUED
+   */
+  public byte getTypeCode() {
+    return TransactionStore.instance().getType(record);
   }
   /**
    * Returns the title field
    * @return title field
    */
   public String getTitle() {
-    return title;
+    return TransactionStore.instance().getTitle(record);
+  }
+  /**
+   * Returns the id of the book
+   * @return the book id, or null if it was not recorded
+   */
+  public String getBookId() {
+    return TransactionStore.instance().getBookId(record);
   }
   /**
    * Returns the date as a String
    * @return date with month, date, and year
    */
   public String getDate() {
-    return date.get(Calendar.MONTH) + "/" + date.get(Calendar.DATE) + "/" + date.get(Calendar.YEAR);
+    LocalDate date = getLocalDate();
+    return (date.getMonthValue() - 1) + "/" + date.getDayOfMonth() + "/" + date.getYear();
+  }
+  /**
+   * Returns the time of the transaction
+   * @return milliseconds since 1/1/1970
+   */
+  public long getTimeInMillis() {
+    return TransactionStore.instance().getTime(record);
+  }
+  /*
+   * Returns the day of the transaction in the default time zone
+   */
+  private LocalDate getLocalDate() {
+    return Instant.ofEpochMilli(getTimeInMillis()).atZone(ZoneId.systemDefault()).toLocalDate();
   }
   /**
    * String form of the transaction
@@ -81,6 +153,6 @@ public class Transaction implements Serializable {
    */
   @Override
   public String toString(){
-    return (type + "   " + title);
+    return (getType() + "   " + getTitle());
   }
 }
\ No newline at end of file
@@ -0,0 +1,222 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import java.util.*;
+import java.nio.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+/**
+ * An append-only store for the circulation history, kept outside the Java
+ * heap. A transaction is identified by its record number. Its fields are
+ * kept in columns (time, link, member, book and type) in direct buffers
+ * that are allocated one chunk of records at a time and never move.
+ * The records of a member on one day are linked from the newest to the
+ * oldest, so a member only keeps the number of its latest record of each
+ * day on which it has any. Records are never changed once appended, so
+ * they may be read while others are added. Appending takes no lock: a
+ * record number is reserved with an atomic counter and each thread
+ * writes its own record; only adding a chunk, or a book that has not been
+ * seen before, takes the store's lock. A record is read through the
+ * member that appended it, which publishes the record number after the
+ * record is written. Book ids and titles
+ * are stored once each, in a table on the heap that grows with the number
+ * of books rather than with the history.
+ *
+ */
+public class TransactionStore {
+  public static final long NONE = -1;
+  private static final int CHUNK_BITS = 16;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  private static final int TIMES = 0;
+  private static final int LINKS = TIMES + 8 * CHUNK_SIZE;
+  private static final int MEMBERS = LINKS + 8 * CHUNK_SIZE;
+  private static final int BOOKS = MEMBERS + 4 * CHUNK_SIZE;
+  private static final int TYPES = BOOKS + 4 * CHUNK_SIZE;
+  private static final int CHUNK_BYTES = TYPES + CHUNK_SIZE;
+  private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+  private AtomicLong size = new AtomicLong();
+  private volatile String[] bookIds = new String[16];
+  private volatile String[] titles = new String[16];
+  private int bookCount;
+  private Map books = new ConcurrentHashMap();
+  private static volatile TransactionStore store;
+  /*
+   * Private constructor for singleton pattern
+   * 
+   */
+  private TransactionStore() {
+  }
+  /**
+   * Supports the singleton pattern. Only the first call takes a lock.
+   * 
+   * @return the singleton object
+   */
+  public static TransactionStore instance() {
+    TransactionStore instance = store;
+    if (instance != null) {
+      return instance;
+    }
+    synchronized (TransactionStore.class) {
+      if (store == null) {
+        store = new TransactionStore();
+      }
+      return store;
+    }
+  }
+  /**
+   * Appends a transaction
+   * @param member the numeric part of the member id
+   * @param bookId id of the book
+   * @param title title of the book
+   * @param type the type code, such as Transaction.BOOK_ISSUED
+   * @param time milliseconds since 1/1/1970
+   * @param previous the member's latest record on the same day, or NONE
+   * @return the record number of the transaction
+   */
+  public long append(int member, String bookId, String title, byte type, long time, long previous) {
+    long record = size.getAndIncrement();
+    ByteBuffer buffer = reserve((int) (record >>> CHUNK_BITS));
+    int slot = slot(record);
+    buffer.putLong(TIMES + 8 * slot, time);
+    buffer.putLong(LINKS + 8 * slot, previous);
+    buffer.putInt(MEMBERS + 4 * slot, member);
+    buffer.putInt(BOOKS + 4 * slot, book(bookId, title));
+    buffer.put(TYPES + slot, type);
+    return record;
+  }
+  /**
+   * Returns the number of records, including any still being written
+   * @return the number of transactions stored
+   */
+  public long size() {
+    return size.get();
+  }
+  /*
+   * Returns a chunk, allocating it and any before it that are missing
+   */
+  private ByteBuffer reserve(int chunk) {
+    ByteBuffer[] chunks = this.chunks;
+    if (chunk < chunks.length) {
+      return chunks[chunk];
+    }
+    synchronized (this) {
+      while (chunk >= this.chunks.length) {
+        ByteBuffer[] grown = Arrays.copyOf(this.chunks, this.chunks.length + 1);
+        grown[grown.length - 1] = ByteBuffer.allocateDirect(CHUNK_BYTES);
+        this.chunks = grown;
+      }
+      return this.chunks[chunk];
+    }
+  }
+  /**
+   * Returns the time of a transaction
+   * @param record the record number
+   * @return milliseconds since 1/1/1970
+   */
+  public long getTime(long record) {
+    return chunk(record).getLong(TIMES + 8 * slot(record));
+  }
+  /**
+   * Returns the previous transaction of the same member on the same day
+   * @param record the record number
+   * @return the record number, or NONE if this is the member's first transaction of the day
+   */
+  public long getPrevious(long record) {
+    return chunk(record).getLong(LINKS + 8 * slot(record));
+  }
+  /**
+   * Returns the member of a transaction
+   * @param record the record number
+   * @return the numeric part of the member id
+   */
+  public int getMember(long record) {
+    return chunk(record).getInt(MEMBERS + 4 * slot(record));
+  }
+  /**
+   * Returns the type of a transaction
+   * @param record the record number
+   * @return the type code, such as Transaction.BOOK_ISSUED
+   */
+  public byte getType(long record) {
+    return chunk(record).get(TYPES + slot(record));
+  }
+  /**
+   * Returns the id of the book of a transaction
+   * @param record the record number
+   * @return the book id, or null if it was not recorded
+   */
+  public String getBookId(long record) {
+    int book = chunk(record).getInt(BOOKS + 4 * slot(record));
+    return bookIds[book];
+  }
+  /**
+   * Returns the title of the book of a transaction
+   * @param record the record number
+   * @return the title
+   */
+  public String getTitle(long record) {
+    int book = chunk(record).getInt(BOOKS + 4 * slot(record));
+    return titles[book];
+  }
+  /*
+   * Returns the chunk that holds a record
+   */
+  private ByteBuffer chunk(long record) {
+    if (record < 0 || record >= size.get()) {
+      throw new IndexOutOfBoundsException("No transaction " + record);
+    }
+    return chunks[(int) (record >>> CHUNK_BITS)];
+  }
+  /*
+   * Returns the position of a record within its chunk
+   */
+  private static int slot(long record) {
+    return (int) record & (CHUNK_SIZE - 1);
+  }
+  /*
+   * Returns the entry for a book id and title. Known books are found
+   * without a lock; a new one is added under the lock, and put in the
+   * table only once its entry is filled in.
+   */
+  private int book(String bookId, String title) {
+    List key = Arrays.asList(new String[] {bookId, title});
+    Integer index = (Integer) books.get(key);
+    if (index != null) {
+      return index.intValue();
+    }
+    synchronized (this) {
+      index = (Integer) books.get(key);
+      if (index == null) {
+        String[] bookIds = this.bookIds;
+        String[] titles = this.titles;
+        if (bookCount == titles.length) {
+          bookIds = Arrays.copyOf(bookIds, 2 * bookCount);
+          titles = Arrays.copyOf(titles, 2 * bookCount);
+        }
+        index = Integer.valueOf(bookCount++);
+        bookIds[index.intValue()] = bookId;
+        titles[index.intValue()] = title;
+        this.bookIds = bookIds;
+        this.titles = titles;
+        books.put(key, index);
+      }
+      return index.intValue();
+    }
+  }
+}
@@ -18,6 +18,7 @@
  * and are not responsible for any loss or damage resulting from its use.  
  */
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.text.*;
 import java.io.*;
 /**
@@ -26,11 +27,20 @@ import java.io.*;
  * The commands are encoded as integers using a number of
  * static final variables. A number of utility methods exist to
  * make it easier to parse the input.
+ * Besides the keyboard, the input can come from a script: a recorded
+ * desk session with one answer per line, or a command per line with its
+ * answers separated by tabs. Scripts run without prompts and with
+ * buffered output, so that a day's circulation can be replayed at the
+ * speed of the library itself.
  *
  */
 public class UserInterface {
   private static UserInterface userInterface;
-  private BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+  private BufferedReader reader;
+  private boolean scripted;
+  private LinkedList pendingTokens = new LinkedList();
+  private int commands;
+  private long started = System.nanoTime();
   private static Library library;
   private static final int EXIT = 0;
   private static final int ADD_MEMBER = 1;
@@ -45,18 +55,49 @@ public class UserInterface {
   private static final int GET_TRANSACTIONS = 10;
   private static final int SAVE = 11;
   private static final int RETRIEVE = 12;
-  private static final int HELP = 13;
+  private static final int GET_TRANSACTION_RANGE = 13;
+  private static final int IMPORT = 14;
+  private static final int RETURN_BATCH = 15;
+  private static final int SEARCH_BOOKS = 16;
+  private static final int LOOK_UP_BOOKS = 17;
+  private static final int DUE_BOOKS = 18;
+  private static final int FIND_MEMBERS = 19;
+  private static final int STATISTICS = 20;
+  private static final int HELP = 21;
+  private static final long HOLD_SWEEP_MINUTES = 60;
+  private static final int SCRIPT_BUFFER_SIZE = 1 << 20;
+  private static final int SEARCH_LIMIT = 20;
   /**
    * Made private for singleton pattern.
    * Conditionally looks for any saved data. Otherwise, it gets
    * a singleton Library object.
    */
   private UserInterface() {
-    if (yesOrNo("Look for saved data and  use it?")) {
+    this(new BufferedReader(new InputStreamReader(System.in)), false);
+  }
+  /*
+   * Reads the answers from the given reader; a script is read without prompts
+   */
+  private UserInterface(BufferedReader reader, boolean scripted) {
+    this.reader = reader;
+    this.scripted = scripted;
+    boolean load;
+    try {
+      load = yesOrNo("Look for saved data and  use it?");
+    } catch (EndOfInput eoi) {
+      load = false;
+    }
+    if (load) {
       retrieve();
     } else {
       library = Library.instance();
     }
+    if (library == null || !library.openJournal(false)) {
+      System.out.println("The library could not be started");
+      library = null;
+      return;
+    }
+    library.startHoldSweeper(HOLD_SWEEP_MINUTES, TimeUnit.MINUTES);
   }
   /**
    * Supports the singleton pattern
@@ -80,17 +121,55 @@ public class UserInterface {
   public String getToken(String prompt) {
     do {
       try {
-        System.out.println(prompt);
+        if (!pendingTokens.isEmpty()) {
+          return (String) pendingTokens.removeFirst();
+        }
+        if (!scripted) {
+          System.out.println(prompt);
+        }
         String line = reader.readLine();
+        if (line == null) {
+          endOfInput();
+        }
+        if (scripted && line.indexOf('\t') >= 0) {
+          int start = 0;
+          for (int end = line.indexOf('\t'); end >= 0; end = line.indexOf('\t', start)) {
+            pendingTokens.add(line.substring(start, end));
+            start = end + 1;
+          }
+          pendingTokens.add(line.substring(start));
+          continue;
+        }
         StringTokenizer tokenizer = new StringTokenizer(line,"\n\r\f");
         if (tokenizer.hasMoreTokens()) {
           return tokenizer.nextToken();
         }
       } catch (IOException ioe) {
-        System.exit(0);
+        ioe.printStackTrace();
+        endOfInput();
       }
     } while (true);
   }
+  /*
+   * Ends the session when the input runs out, as if the user had exited:
+   * process stops reading commands and closes the journal
+   */
+  private void endOfInput() {
+    throw new EndOfInput();
+  }
+  /*
+   * Thrown by getToken when there is no more input, and caught by process
+   */
+  private static class EndOfInput extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+  }
+  /*
+   * Reports how many commands a script ran and how long it took
+   */
+  private void report() {
+    long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+    System.err.println(commands + " commands in " + millis + " ms");
+  }
   /**
    * Queries for a yes or no and returns true for yes and false for no
    * 
@@ -100,7 +179,7 @@ public class UserInterface {
    */
   private boolean yesOrNo(String prompt) {
     String more = getToken(prompt + " (Y|y)[es] or anything else for no");
-    if (more.charAt(0) != 'y' && more.charAt(0) != 'Y') {
+    if (more.length() == 0 || (more.charAt(0) != 'y' && more.charAt(0) != 'Y')) {
       return false;
     }
     return true;
@@ -151,6 +230,7 @@ public class UserInterface {
       try {
         int value = Integer.parseInt(getToken("Enter command:" + HELP + " for help"));
         if (value >= EXIT && value <= HELP) {
+          commands++;
           return value;
         }
       } catch (NumberFormatException nfe) {
@@ -163,7 +243,7 @@ public class UserInterface {
    * 
    */
   public void help() {
-    System.out.println("Enter a number between 0 and 12 as explained below:");
+    System.out.println("Enter a number between " + EXIT + " and " + HELP + " as explained below:");
     System.out.println(EXIT + " to Exit\n");
     System.out.println(ADD_MEMBER + " to add a member");
     System.out.println(ADD_BOOKS + " to  add books");
@@ -177,6 +257,14 @@ public class UserInterface {
     System.out.println(GET_TRANSACTIONS + " to  print transactions");
     System.out.println(SAVE + " to  save data");
     System.out.println(RETRIEVE + " to  retrieve");
+    System.out.println(GET_TRANSACTION_RANGE + " to  print transactions over a range of dates");
+    System.out.println(IMPORT + " to  import books or members from a CSV file");
+    System.out.println(RETURN_BATCH + " to  return a batch of books, such as a drop box");
+    System.out.println(SEARCH_BOOKS + " to  search books by title and author");
+    System.out.println(LOOK_UP_BOOKS + " to  look up books by partial or misspelled title or author");
+    System.out.println(DUE_BOOKS + " to  list overdue books and books due soon");
+    System.out.println(FIND_MEMBERS + " to  find members by phone or name");
+    System.out.println(STATISTICS + " to  show how often and how fast library operations ran");
     System.out.println(HELP + " for help");
   }
   /**
@@ -196,6 +284,55 @@ public class UserInterface {
     }
     System.out.println(result);
   }
+  /**
+   * Method to be called for finding members.
+   * Prompts for a phone number or a name; text without letters is taken
+   * to be a phone number. Prints the members found.
+   *  
+   */
+  public void findMembers() {
+    String text = getToken("Enter phone number or name");
+    boolean phone = true;
+    for (int index = 0; index < text.length(); index++) {
+      if (Character.isLetter(text.charAt(index))) {
+        phone = false;
+      }
+    }
+    Iterator result = phone ? library.findMembersByPhone(text) : library.findMembersByName(text);
+    if (!result.hasNext()) {
+      System.out.println("No members found");
+    }
+    while (result.hasNext()) {
+      Member member = (Member) result.next();
+      System.out.println(member.getId() + "   " + member.getName() + "   " + member.getAddress()
+          + "   " + member.getPhone());
+    }
+  }
+  /**
+   * Method to be called for showing the operation statistics.
+   * Prints the count, latencies and outcomes of each library operation
+   * since the program started, and optionally writes them to a file in
+   * JSON for other programs to read.
+   *  
+   */
+  public void showStatistics() {
+    OperationStatistics statistics = library.getStatistics();
+    statistics.report(System.out);
+    if (yesOrNo("Write the statistics to a file?")) {
+      String fileName = getToken("Enter file name");
+      try {
+        PrintWriter output = new PrintWriter(new FileWriter(fileName));
+        statistics.dump(output);
+        output.close();
+        System.out.println("The statistics have been written to " + fileName);
+      } catch(IOException ioe) {
+        ioe.printStackTrace();
+      }
+    }
+    if (yesOrNo("Start counting again from zero?")) {
+      statistics.reset();
+    }
+  }
   /**
    * Method to be called for adding a book.
    * Prompts the user for the appropriate values and
@@ -219,6 +356,25 @@ public class UserInterface {
       }
     } while (true);
   }
+  /**
+   * Method to be called for importing books or members from a CSV file.
+   * Books are read as title,author,id and members as name,address,phone.
+   *  
+   */
+  public void importRecords() {
+    CsvImporter.Report report;
+    String fileName = getToken("Enter CSV file name");
+    if (yesOrNo("Import books? Members are imported otherwise.")) {
+      report = library.importBooks(fileName);
+    } else {
+      report = library.importMembers(fileName);
+    }
+    if (report == null) {
+      System.out.println("The file could not be read");
+    } else {
+      System.out.println(report);
+    }
+  }
   /**
    * Method to be called for issuing books.
    * Prompts the user for the appropriate values and
@@ -306,6 +462,109 @@ public class UserInterface {
       }
     } while (true);
   }
+  /**
+   * Method to be called for returning a batch of books.
+   * Prompts for the book ids on one line and uses the Library method for
+   * batch returns. Holds on returned books are processed at once, and the
+   * members to notify are listed.
+   *  
+   */
+  public void returnBatch() {
+    List bookIds = new ArrayList();
+    StringTokenizer tokenizer = new StringTokenizer(getToken("Enter book ids separated by spaces"), " ,\t");
+    while (tokenizer.hasMoreTokens()) {
+      bookIds.add(tokenizer.nextToken());
+    }
+    List notifications = new ArrayList();
+    int[] results = library.returnBooks(bookIds, notifications);
+    for (int index = 0; index < results.length; index++) {
+      switch(results[index]) {
+        case Library.BOOK_NOT_FOUND:
+          System.out.println(bookIds.get(index) + ": no such Book in Library");
+          break;
+        case Library.BOOK_NOT_ISSUED:
+          System.out.println(bookIds.get(index) + ": book  was not checked out");
+          break;
+        case Library.OPERATION_FAILED:
+          System.out.println(bookIds.get(index) + ": book could not be returned");
+          break;
+        case Library.BOOK_HAS_HOLD:
+          System.out.println(bookIds.get(index) + ": book has been returned and has a hold");
+          break;
+        case Library.OPERATION_COMPLETED:
+          System.out.println(bookIds.get(index) + ": book has been returned");
+          break;
+        default:
+          System.out.println(bookIds.get(index) + ": an error has occurred");
+      }
+    }
+    for (Iterator iterator = notifications.iterator(); iterator.hasNext(); ) {
+      Hold hold = (Hold) iterator.next();
+      System.out.println("Notify " + hold.getMember().getName() + " (" + hold.getMember().getId()
+          + ", phone " + hold.getMember().getPhone() + ") that " + hold.getBook().getTitle() + " is in");
+    }
+  }
+  /**
+   * Method to be called for searching books.
+   * Prompts for the words to look for and prints the best matches.
+   *  
+   */
+  public void searchBooks() {
+    String query = getToken("Enter words from the title or author");
+    boolean matchAll = yesOrNo("Match all words?");
+    Iterator result = library.searchBooks(query, matchAll, SEARCH_LIMIT);
+    if (!result.hasNext()) {
+      System.out.println("No books found");
+    }
+    while (result.hasNext()) {
+      Book book = (Book) result.next();
+      System.out.println(book.getId() + "   " + book.getTitle() + "   " + book.getAuthor());
+    }
+  }
+  /**
+   * Method to be called for looking up books from partial or misspelled words.
+   * Prompts for the text as typed and prints the best matches.
+   *  
+   */
+  public void lookUpBooks() {
+    String text = getToken("Enter the start of the title or author");
+    Iterator result = library.completeBooks(text, SEARCH_LIMIT);
+    if (!result.hasNext()) {
+      System.out.println("No books found");
+    }
+    while (result.hasNext()) {
+      Book book = (Book) result.next();
+      System.out.println(book.getId() + "   " + book.getTitle() + "   " + book.getAuthor());
+    }
+  }
+  /**
+   * Method to be called for listing books by due date.
+   * Prints the overdue books, then prompts for a number of days and
+   * prints the books due within that many days.
+   *  
+   */
+  public void listDueBooks() {
+    System.out.println("Overdue books:");
+    printDueBooks(library.getOverdueBooks());
+    int days = getNumber("Enter number of days ahead for books due soon");
+    System.out.println("Books due within " + days + " days:");
+    printDueBooks(library.getBooksDueWithin(days));
+  }
+  /*
+   * Prints books with their due dates and borrowers
+   */
+  private void printDueBooks(Iterator result) {
+    if (!result.hasNext()) {
+      System.out.println("None");
+    }
+    while (result.hasNext()) {
+      Book book = (Book) result.next();
+      Member borrower = book.getBorrower();
+      System.out.println(book.getId() + "   " + book.getTitle() + "   due " + book.getDueDate()
+          + "   " + (borrower == null ? "" : borrower.getName() + " (" + borrower.getId() + ", phone "
+          + borrower.getPhone() + ")"));
+    }
+  }
   /**
    * Method to be called for removing books.
    * Prompts the user for the appropriate values and
@@ -363,7 +622,10 @@ public class UserInterface {
         System.out.println("Not a valid member ID");
         break;
       case Library.HOLD_PLACED:
-        System.out.println("A hold has been placed");
+        System.out.println("A hold has been placed; position in queue " + library.getHoldPosition(memberID, bookID));
+        break;
+      case Library.HOLD_EXISTS:
+        System.out.println("The member already has a hold on this book");
         break;
       default:
         System.out.println("An error has occurred");
@@ -435,16 +697,44 @@ public class UserInterface {
       System.out.println("\n  There are no more transactions \n" );
     }
   }
+  /**
+   * Method to be called for displaying transactions over a range of dates.
+   * Prompts for a member id, or ALL for every member, and the two dates.
+   * Transactions are printed as the Library produces them.
+   *  
+   */
+  public void getTransactionRange() {
+    Iterator result;
+    String memberID = getToken("Enter member id or ALL for all members");
+    Calendar from = getDate("Please enter the first date as mm/dd/yy");
+    Calendar to = getDate("Please enter the last date as mm/dd/yy");
+    if (memberID.equalsIgnoreCase("ALL")) {
+      result = library.getTransactions(from, to);
+    } else {
+      result = library.getTransactions(memberID, from, to);
+    }
+    if (result == null) {
+      System.out.println("Invalid Member ID");
+    } else {
+      while(result.hasNext()) {
+        Transaction transaction = (Transaction) result.next();
+        System.out.println(transaction.getDate() + "   " + transaction.getType() + "   "   + transaction.getTitle());
+      }
+      System.out.println("\n  There are no more transactions \n" );
+    }
+  }
   /**
    * Method to be called for saving the Library object.
-   * Uses the appropriate Library method for saving.
+   * Uses the appropriate Library method for saving. The data is written
+   * in the background, so the desk can go on working.
    *  
    */
   private void save() {
-    if (library.save()) {
-      System.out.println(" The library has been successfully saved in the file LibraryData \n" );
+    if (library.saveInBackground()) {
+      System.out.println(" The library is being saved in the file LibraryData in the background;"
+          + " the desk was paused for " + (library.getSnapshotPauseNanos() / 1000000.0) + " ms \n" );
     } else {
-      System.out.println(" There has been an error in saving \n" );
+      System.out.println(" There has been an error in saving, or a save is already in progress \n" );
     }
   }
   /**
@@ -473,43 +763,109 @@ public class UserInterface {
    */
   public void process() {
     int command;
-    help();
-    while ((command = getCommand()) != EXIT) {
-      switch (command) {
-        case ADD_MEMBER:        addMember();
-                                break;
-        case ADD_BOOKS:         addBooks();
-                                break;
-        case ISSUE_BOOKS:       issueBooks();
-                                break;
-        case RETURN_BOOKS:      returnBooks();
-                                break;
-        case REMOVE_BOOKS:      removeBooks();
-                                break;
-        case RENEW_BOOKS:       renewBooks();
-                                break;
-        case PLACE_HOLD:        placeHold();
-                                break;
-        case REMOVE_HOLD:       removeHold();
-                                break;
-        case PROCESS_HOLD:      processHolds();
-                                break;
-        case GET_TRANSACTIONS:  getTransactions();
-                                break;
-        case SAVE:              save();
-                                break;
-        case RETRIEVE:          retrieve();
-                                break;
-        case HELP:              help();
-                                break;
+    if (library == null) {
+      return;
+    }
+    if (!scripted) {
+      help();
+    }
+    try {
+      while ((command = getCommand()) != EXIT) {
+        dispatch(command);
       }
+    } catch (EndOfInput eoi) {
+      // the input ran out, which ends the session as EXIT does
+    }
+    library.closeJournal();
+  }
+  /*
+   * Carries out one command
+   */
+  private void dispatch(int command) {
+    switch (command) {
+      case ADD_MEMBER:        addMember();
+                              break;
+      case ADD_BOOKS:         addBooks();
+                              break;
+      case ISSUE_BOOKS:       issueBooks();
+                              break;
+      case RETURN_BOOKS:      returnBooks();
+                              break;
+      case REMOVE_BOOKS:      removeBooks();
+                              break;
+      case RENEW_BOOKS:       renewBooks();
+                              break;
+      case PLACE_HOLD:        placeHold();
+                              break;
+      case REMOVE_HOLD:       removeHold();
+                              break;
+      case PROCESS_HOLD:      processHolds();
+                              break;
+      case GET_TRANSACTIONS:  getTransactions();
+                              break;
+      case GET_TRANSACTION_RANGE:  getTransactionRange();
+                              break;
+      case IMPORT:            importRecords();
+                              break;
+      case RETURN_BATCH:      returnBatch();
+                              break;
+      case SEARCH_BOOKS:      searchBooks();
+                              break;
+      case LOOK_UP_BOOKS:     lookUpBooks();
+                              break;
+      case DUE_BOOKS:         listDueBooks();
+                              break;
+      case FIND_MEMBERS:      findMembers();
+                              break;
+      case STATISTICS:        showStatistics();
+                              break;
+      case SAVE:              save();
+                              break;
+      case RETRIEVE:          retrieve();
+                              break;
+      case HELP:              help();
+                              break;
     }
   }
   /**
-   * The method to start the application. Simply calls process().
-   * @param args not used
+   * Runs a script of commands instead of reading the keyboard. Output is
+   * buffered, or discarded if quiet; the number of commands and the time
+   * taken are reported on the error stream at the end.
+   * @param fileName the script, or "-" for the standard input
+   * @param quiet if true, the output of the commands is discarded
+   */
+  public static void runScript(String fileName, boolean quiet) {
+    try {
+      Reader input = fileName.equals("-") ? new InputStreamReader(System.in)
+          : new InputStreamReader(new FileInputStream(fileName), "UTF-8");
+      OutputStream sink = quiet ? new OutputStream() {
+        public void write(int b) {
+        }
+        public void write(byte[] bytes, int offset, int length) {
+        }
+      } : new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), SCRIPT_BUFFER_SIZE);
+      System.setOut(new PrintStream(sink, false));
+      userInterface = new UserInterface(new BufferedReader(input, SCRIPT_BUFFER_SIZE), true);
+      userInterface.process();
+      System.out.flush();
+      userInterface.report();
+    } catch(IOException ioe) {
+      ioe.printStackTrace();
+    }
+  }
+  /**
+   * The method to start the application. Simply calls process(), or
+   * runScript when given a script.
+   * @param args none for the keyboard; -script followed by the file name
+   * to run a script, with -quiet to discard its output
    */
   public static void main(String[] args) {
-    UserInterface.instance().process();
+    List options = Arrays.asList(args);
+    int script = options.indexOf("-script");
+    if (script >= 0 && script + 1 < args.length) {
+      runScript(args[script + 1], options.contains("-quiet"));
+    } else {
+      UserInterface.instance().process();
+    }
   }
 }
\ No newline at end of file
@@ -0,0 +1,261 @@
+/**
+ * 
+ * @author Brahma Dathan and Sarnath Ramnath
+ * @Copyright (c) 2010
+ 
+ * Redistribution and use with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *   - the use is for academic purpose only
+ *   - Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *   - Neither the name of Brahma Dathan or Sarnath Ramnath
+ *     may be used to endorse or promote products derived
+ *     from this software without specific prior written permission.
+ *
+ * The authors do not make any claims regarding the correctness of the code in this module
+ * and are not responsible for any loss or damage resulting from its use.  
+ */
+import java.util.*;
+/**
+ * A trie of words, for finding the words that start with a prefix or are
+ * within a few typing mistakes of a given word. A mistake is a letter
+ * added, dropped, changed, or swapped with the one next to it.
+ * The search walks the trie once, computing the distance of each prefix
+ * from the typed word a row at a time, and leaves a branch as soon as no
+ * word below it can be close enough.
+ *
+ */
+public class WordTrie {
+  private Node root = new Node();
+  /*
+   * A node of the trie: the letters that lead on, in increasing order, the
+   * nodes they lead to, and the word that ends here, if any, with its value
+   */
+  private static class Node {
+    private char[] letters = new char[0];
+    private Node[] children = new Node[0];
+    private String word;
+    private Object value;
+    /*
+     * Returns the node a letter leads to, or null
+     */
+    private Node child(char letter) {
+      int index = Arrays.binarySearch(letters, letter);
+      return index >= 0 ? children[index] : null;
+    }
+    /*
+     * Returns the node a letter leads to, adding it if needed
+     */
+    private Node addChild(char letter) {
+      int index = Arrays.binarySearch(letters, letter);
+      if (index >= 0) {
+        return children[index];
+      }
+      index = -index - 1;
+      char[] newLetters = new char[letters.length + 1];
+      Node[] newChildren = new Node[children.length + 1];
+      System.arraycopy(letters, 0, newLetters, 0, index);
+      System.arraycopy(children, 0, newChildren, 0, index);
+      newLetters[index] = letter;
+      newChildren[index] = new Node();
+      System.arraycopy(letters, index, newLetters, index + 1, letters.length - index);
+      System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+      letters = newLetters;
+      children = newChildren;
+      return children[index];
+    }
+    /*
+     * Drops the node a letter leads to
+     */
+    private void removeChild(char letter) {
+      int index = Arrays.binarySearch(letters, letter);
+      char[] newLetters = new char[letters.length - 1];
+      Node[] newChildren = new Node[children.length - 1];
+      System.arraycopy(letters, 0, newLetters, 0, index);
+      System.arraycopy(children, 0, newChildren, 0, index);
+      System.arraycopy(letters, index + 1, newLetters, index, letters.length - index - 1);
+      System.arraycopy(children, index + 1, newChildren, index, children.length - index - 1);
+      letters = newLetters;
+      children = newChildren;
+    }
+  }
+  /**
+   * A word that matched, with the value stored for it and the number of mistakes
+   */
+  public static class Match {
+    String word;
+    Object value;
+    int distance;
+    private Match(Node node, int distance) {
+      word = node.word;
+      value = node.value;
+      this.distance = distance;
+    }
+  }
+  /**
+   * Adds a word, or replaces the value stored for it
+   * @param word the word
+   * @param value what to return with the word when it matches
+   */
+  public void add(String word, Object value) {
+    Node node = root;
+    for (int index = 0; index < word.length(); index++) {
+      node = node.addChild(word.charAt(index));
+    }
+    node.word = word;
+    node.value = value;
+  }
+  /**
+   * Removes a word, along with the nodes no other word needs
+   * @param word the word
+   */
+  public void remove(String word) {
+    Node[] path = new Node[word.length() + 1];
+    path[0] = root;
+    for (int index = 0; index < word.length(); index++) {
+      path[index + 1] = path[index].child(word.charAt(index));
+      if (path[index + 1] == null) {
+        return;
+      }
+    }
+    path[word.length()].word = null;
+    path[word.length()].value = null;
+    for (int index = word.length(); index > 0; index--) {
+      if (path[index].word != null || path[index].children.length > 0) {
+        break;
+      }
+      path[index - 1].removeChild(word.charAt(index - 1));
+    }
+  }
+  /**
+   * Finds the words within a number of mistakes of the given text
+   * @param text what was typed
+   * @param maxDistance the largest number of mistakes allowed
+   * @param prefix if true, the text is taken to be the start of a word, so
+   * a word matches if it starts with something close enough to the text
+   * @return the matching words, in alphabetical order
+   */
+  public List match(String text, int maxDistance, boolean prefix) {
+    List matches = new ArrayList();
+    int[] first = new int[text.length() + 1];
+    for (int index = 0; index < first.length; index++) {
+      first[index] = index;
+    }
+    for (int index = 0; index < root.letters.length; index++) {
+      match(root.children[index], root.letters[index], (char) 0, first, null, text, maxDistance,
+          prefix, maxDistance + 1, matches);
+    }
+    return matches;
+  }
+  /**
+   * Counts the mistakes between typed text and a word, in the same way as
+   * match, giving up once there are more than a given number
+   * @param text what was typed
+   * @param word the word
+   * @param prefix if true, the text is taken to be the start of a word
+   * @param maxDistance the largest number of mistakes of interest
+   * @return the number of mistakes, or maxDistance + 1 if there are more
+   */
+  public static int distance(String text, String word, boolean prefix, int maxDistance) {
+    int[] beforePrevious = new int[text.length() + 1];
+    int[] previous = new int[text.length() + 1];
+    int[] row = new int[text.length() + 1];
+    for (int index = 0; index < row.length; index++) {
+      row[index] = index;
+    }
+    int best = prefix ? text.length() : maxDistance + 1;
+    for (int letter = 0; letter < word.length(); letter++) {
+      int[] oldest = beforePrevious;
+      beforePrevious = previous;
+      previous = row;
+      row = oldest;
+      char current = word.charAt(letter);
+      row[0] = previous[0] + 1;
+      int lowest = row[0];
+      for (int index = 1; index < row.length; index++) {
+        char typed = text.charAt(index - 1);
+        int distance = Math.min(row[index - 1], previous[index]) + 1;
+        distance = Math.min(distance, previous[index - 1] + (typed == current ? 0 : 1));
+        if (letter > 0 && index > 1 && typed == word.charAt(letter - 1)
+            && text.charAt(index - 2) == current) {
+          distance = Math.min(distance, beforePrevious[index - 2] + 1);
+        }
+        row[index] = distance;
+        lowest = Math.min(lowest, distance);
+      }
+      if (prefix) {
+        best = Math.min(best, row[text.length()]);
+      }
+      if (lowest > maxDistance || prefix && best == 0) {
+        break;
+      }
+      if (letter == word.length() - 1 && !prefix) {
+        best = row[text.length()];
+      }
+    }
+    if (word.length() == 0 && !prefix) {
+      best = text.length();
+    }
+    return Math.min(best, maxDistance + 1);
+  }
+  /*
+   * Visits a node. The previous rows hold the distances between the
+   * prefixes of the text and the path to the parent and grandparent.
+   * Covered is the fewest mistakes of any prefix of the path that is
+   * already close enough to the whole text; in prefix mode, every word
+   * below such a node matches.
+   */
+  private void match(Node node, char letter, char previousLetter, int[] previous, int[] beforePrevious,
+      String text, int maxDistance, boolean prefix, int covered, List matches) {
+    int[] row = nextRow(previous, beforePrevious, letter, previousLetter, text);
+    int last = row[row.length - 1];
+    if (prefix && last < covered) {
+      covered = last;
+    }
+    if (node.word != null) {
+      int distance = prefix ? covered : last;
+      if (distance <= maxDistance) {
+        matches.add(new Match(node, distance));
+      }
+    }
+    if (covered <= maxDistance || lowest(row) <= maxDistance) {
+      for (int index = 0; index < node.letters.length; index++) {
+        match(node.children[index], node.letters[index], letter, row, previous, text, maxDistance,
+            prefix, covered, matches);
+      }
+    }
+  }
+  /*
+   * Computes the distances between the prefixes of the text and a word
+   * one letter longer, counting adjacent letters typed in the wrong order
+   * as one mistake
+   */
+  private static int[] nextRow(int[] previous, int[] beforePrevious, char letter, char previousLetter,
+      String text) {
+    int[] row = new int[previous.length];
+    row[0] = previous[0] + 1;
+    for (int index = 1; index < row.length; index++) {
+      char typed = text.charAt(index - 1);
+      int distance = Math.min(row[index - 1], previous[index]) + 1;
+      distance = Math.min(distance, previous[index - 1] + (typed == letter ? 0 : 1));
+      if (beforePrevious != null && index > 1 && typed == previousLetter
+          && text.charAt(index - 2) == letter) {
+        distance = Math.min(distance, beforePrevious[index - 2] + 1);
+      }
+      row[index] = distance;
+    }
+    return row;
+  }
+  /*
+   * Returns the smallest number in a row
+   */
+  private static int lowest(int[] row) {
+    int lowest = row[0];
+    for (int index = 1; index < row.length; index++) {
+      lowest = Math.min(lowest, row[index]);
+    }
+    return lowest;
+  }
+}